@@ -0,0 +1,130 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.bench;
+
+import tags.QueryTypes;
+import tags.QueryTypes.BasicEnvironment;
+import tags.QueryTypes.BasicProcess;
+import tags.QueryTypes.BasicAgent;
+import tags.store.RAMStoreControl;
+import tags.store.SyntheticStoreGenerator;
+import tags.ui.Loggers;
+import tags.ui.QueryStateTextFormatter;
+import tags.util.Probability;
+import static tags.util.Probability.p;
+
+import java.util.Random;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+** Synthetic data and query fixtures for the benchmarks.
+**
+** All data is generated from a seed by {@link SyntheticStoreGenerator}, so that
+** runs with the same parameters are comparable. The {@code scale} parameter
+** multiplies the number of tags, documents, tgraphs, indexes and identities.
+*/
+final public class BenchData {
+
+	private BenchData() { }
+
+	/** Default seed for generating benchmark data. */
+	final public static long SEED = 0x5EED;
+
+	final public static long DOC = 1L<<32;
+	final public static long TGR = 2L<<32;
+	final public static long IDX = 3L<<32;
+
+	/** The tag that queries are made for; this is the most popular tag. */
+	final public static String TAG = tag(0);
+
+	/** The identity that queries are made from. */
+	final public static long ID = IDX;
+
+	public static String tag(int i) {
+		return "t" + i;
+	}
+
+	/**
+	** Returns an integer in {@code [0, n)}, distributed log-uniformly so that
+	** smaller values are much more likely.
+	*/
+	public static int powerLaw(Random rand, int n) {
+		return SyntheticStoreGenerator.powerLaw(rand, n, 1.0);
+	}
+
+	public static Probability prob(Random rand) {
+		return p(rand.nextDouble()/2+0.5);
+	}
+
+	/**
+	** Labels for generated data; an identity has the same address as its
+	** personal index.
+	*/
+	final public static SyntheticStoreGenerator.Labels<Long, String, Long, Probability> LABELS = new
+	SyntheticStoreGenerator.Labels<Long, String, Long, Probability>() {
+		@Override public Long id(int i) { return IDX + i; }
+		@Override public String tag(int i) { return BenchData.tag(i); }
+		@Override public Long doc(int i) { return DOC + i; }
+		@Override public Long tgr(int i) { return TGR + i; }
+		@Override public Long idx(int i) { return IDX + i; }
+		@Override public Probability weight(double w) { return p(w); }
+	};
+
+	public static RAMStoreControl<Long, String, Long, Probability, Probability, Probability, Probability> makeStore(long seed, int scale) {
+		RAMStoreControl<Long, String, Long, Probability, Probability, Probability, Probability> sctl = new
+		RAMStoreControl<Long, String, Long, Probability, Probability, Probability, Probability>();
+		SyntheticStoreGenerator gen = new SyntheticStoreGenerator(seed, scale);
+		gen.n_tag = 0x40 * scale;
+		gen.n_doc = 0x400 * scale;
+		gen.n_tgr = 0x10 * scale;
+		gen.n_idx = 0x40 * scale;
+		gen.n_id = 0x20 * scale;
+		gen.max_tgr_size = 0x20;
+		gen.max_idx_size = 0x100;
+		gen.fill(sctl, LABELS);
+		return sctl;
+	}
+
+	/**
+	** Runs a query for {@link #TAG} from {@link #ID} on the given store for the
+	** given number of steps after the first results, then waits until the
+	** process is quiescent, ie. no layer is active and no more lookups are
+	** completing. The process is then closed; its data remains available.
+	**
+	** The process runs on daemon threads, so that an idle executor does not
+	** keep the JVM alive.
+	*/
+	public static BasicProcess<Long> runQuery(
+	  RAMStoreControl<Long, String, Long, Probability, Probability, Probability, Probability> sctl, int steps
+	) throws Exception {
+		BasicEnvironment<Long> env = new BasicEnvironment<Long>(Executors.newCachedThreadPool(DAEMON), sctl);
+		BasicAgent<Long> agt = new BasicAgent<Long>(Loggers.getNullLogger(), new QueryStateTextFormatter<String, Long, Probability>());
+		agt.setInterval(10);
+		BasicProcess<Long> proc = QueryTypes.makeProtoProcess(ID, TAG, env);
+		agt.runUntilAfter(proc, steps);
+
+		int lku = -1, stable = 0;
+		while (stable < 4) {
+			Thread.sleep(0x20);
+			int cur = proc.routing.countLookups();
+			if (cur == lku && !proc.contact.isActive() && !proc.naming.isActive()) {
+				++stable;
+			} else {
+				stable = 0;
+			}
+			lku = cur;
+		}
+		proc.close();
+		return proc;
+	}
+
+	final public static ThreadFactory DAEMON = new ThreadFactory() {
+		@Override public Thread newThread(Runnable r) {
+			Thread th = new Thread(r, "bench-query");
+			th.setDaemon(true);
+			return th;
+		}
+	};
+
+}
@@ -0,0 +1,53 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.proto.name;
+
+import tags.bench.BenchData;
+import tags.proto.AddressScheme;
+import tags.proto.CompositeTGraph;
+import tags.util.Probability;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+** Benchmarks for composing the tgraph and building the address scheme, on
+** the state left by a query run on {@link BenchData} of the given scale.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NamingBench {
+
+	@Param({"1", "4", "16"})
+	public int scale;
+
+	@Param({"8", "32"})
+	public int steps;
+
+	protected Naming<String, Long, Probability, Probability, Probability> naming;
+	protected CompositeTGraph<String, Long, Probability, Probability> graph;
+	protected Set<String> completed;
+
+	final protected ShortestPathAddressSchemeBuilder<String, Long, Probability, Probability, Probability> builder = new
+	ShortestPathAddressSchemeBuilder<String, Long, Probability, Probability, Probability>(new ProbabilityDistanceMetric());
+
+	@Setup public void setup() throws Exception {
+		naming = BenchData.runQuery(BenchData.makeStore(BenchData.SEED, scale), steps).naming;
+		graph = naming.composeTGraphFull();
+		completed = naming.getCompletedTags();
+	}
+
+	@Benchmark public CompositeTGraph<String, Long, Probability, Probability> composeTGraphFull() {
+		return naming.composeTGraphFull();
+	}
+
+	@Benchmark public AddressScheme<String, Long, Probability> buildAddressScheme() {
+		return builder.buildAddressScheme(graph, completed, BenchData.TAG);
+	}
+
+}
@@ -0,0 +1,50 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.proto.route;
+
+import tags.bench.BenchData;
+import tags.proto.AddressScheme;
+import tags.proto.CompositeIndex;
+import tags.util.Probability;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+** Benchmarks for composing the index and calculating results from it, on the
+** state left by a query run on {@link BenchData} of the given scale.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoutingBench {
+
+	@Param({"1", "4", "16"})
+	public int scale;
+
+	@Param({"8", "32"})
+	public int steps;
+
+	protected Routing<String, Long, Probability, Probability> routing;
+	protected AddressScheme<String, Long, Probability> scheme;
+
+	@Setup public void setup() throws Exception {
+		routing = BenchData.runQuery(BenchData.makeStore(BenchData.SEED, scale), steps).routing;
+		scheme = routing.results_scheme;
+		routing.index = routing.composeIndex();
+	}
+
+	@Benchmark public CompositeIndex<String, Long, Probability> composeIndex() {
+		return routing.composeIndex();
+	}
+
+	@Benchmark public Map<Long, Probability> makeResults() {
+		routing.makeResults(scheme);
+		return routing.results_d;
+	}
+
+}
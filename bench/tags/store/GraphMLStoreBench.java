@@ -0,0 +1,112 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.store;
+
+import tags.bench.BenchData;
+import tags.store.GraphMLStoreControl.DirectoryContainer;
+import tags.store.GraphMLStoreControl.DirectoryTGraph;
+import tags.util.Maps.U2Map;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.json.simple.JSONValue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+** Benchmarks for loading buckets of a {@link DirectoryTGraph}, as used by
+** {@link GraphMLStoreControl}. The tgraph is written to a temporary directory
+** with the given number of tags, spread over 256 buckets. Each invocation
+** reads from a fresh container, so nothing is cached between invocations.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GraphMLStoreBench {
+
+	final public static long MASK = 0xff;
+
+	@Param({"1024", "65536"})
+	public int tags;
+
+	protected File base;
+	protected String probe;
+
+	@Setup public void setup() throws IOException {
+		Random rand = new Random(BenchData.SEED);
+		base = File.createTempFile("tgr-bench", "");
+		if (!base.delete() || !base.mkdir()) { throw new IOException("couldn't create " + base); }
+
+		Map<String, Object> attributes = new HashMap<String, Object>();
+		attributes.put("mask", MASK);
+		writeJSON("attributes", attributes);
+
+		Map<String, Object> nodes = new HashMap<String, Object>();
+		Map<String, Map<String, Object>> buckets = new HashMap<String, Map<String, Object>>();
+		for (int i=0; i<tags; ++i) {
+			String tag = BenchData.tag(i);
+			nodes.put(tag, rand.nextDouble());
+
+			Map<String, Object> out_t = new HashMap<String, Object>();
+			Map<String, Object> out_g = new HashMap<String, Object>();
+			for (int j=0; j<8; ++j) { out_t.put(BenchData.tag(BenchData.powerLaw(rand, tags)), rand.nextDouble()); }
+			if (rand.nextInt(4) == 0) { out_g.put(Long.toString(BenchData.TGR + rand.nextInt(tags)), rand.nextDouble()); }
+			out_t.remove(tag);
+			List<Object> tuple = Arrays.<Object>asList(rand.nextDouble(), out_t, out_g);
+
+			String bid = bucketFor(tag);
+			Map<String, Object> bucket = buckets.get(bid);
+			if (bucket == null) { buckets.put(bid, bucket = new HashMap<String, Object>()); }
+			bucket.put(tag, tuple);
+		}
+		writeJSON("nodes", nodes);
+		for (Map.Entry<String, Map<String, Object>> en: buckets.entrySet()) {
+			writeJSON(en.getKey(), en.getValue());
+		}
+		probe = BenchData.tag(rand.nextInt(tags));
+	}
+
+	@TearDown public void tearDown() {
+		for (File f: base.listFiles()) { f.delete(); }
+		base.delete();
+	}
+
+	protected String bucketFor(String tag) {
+		CRC32 crc = new CRC32();
+		crc.update(tag.getBytes());
+		return String.format("%0" + Long.toHexString(MASK).length() + "x", crc.getValue()&MASK);
+	}
+
+	protected void writeJSON(String name, Object obj) throws IOException {
+		Writer w = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(new File(base, name + ".json.gz"))));
+		try {
+			JSONValue.writeJSONString(obj, w);
+		} finally {
+			w.close();
+		}
+	}
+
+	@Benchmark public List<?> loadBucket() throws IOException {
+		return new DirectoryContainer<String, Double>(base).getTuple(probe);
+	}
+
+	@Benchmark public U2Map<String, String, Double> loadOutgoing() throws IOException {
+		return new DirectoryTGraph<String, Double, Double>(base).getOutgoing(probe);
+	}
+
+}
@@ -0,0 +1,73 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.util;
+
+import tags.bench.BenchData;
+import tags.util.Union.U2;
+import tags.util.Maps.U2Map;
+
+import java.util.List;
+import java.util.Map;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+** Benchmarks for {@link Maps#uniteDisjoint(Map, Map)} and iteration over the
+** resulting {@link U2Map}.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MapsBench {
+
+	@Param({"16", "1024", "65536"})
+	public int size;
+
+	protected Map<String, Probability> m0;
+	protected Map<Long, Probability> m1;
+	protected U2Map<String, Long, Probability> united;
+	final protected List<U2<String, Long>> probes = new ArrayList<U2<String, Long>>();
+
+	@Setup public void setup() {
+		Random rand = new Random(BenchData.SEED);
+		m0 = new HashMap<String, Probability>();
+		m1 = new HashMap<Long, Probability>();
+		for (int i=0; i<size; ++i) {
+			m0.put(BenchData.tag(i), BenchData.prob(rand));
+			m1.put(BenchData.DOC + i, BenchData.prob(rand));
+		}
+		united = Maps.uniteDisjoint(m0, m1);
+		for (int i=0; i<0x100; ++i) {
+			probes.add((i%2 == 0)?
+			  Union.<String, Long>U2_0(BenchData.tag(rand.nextInt(size<<1))):
+			  Union.<String, Long>U2_1(BenchData.DOC + rand.nextInt(size<<1)));
+		}
+	}
+
+	@Benchmark public U2Map<String, Long, Probability> uniteDisjointCopy() {
+		return Maps.uniteDisjoint(new HashMap<String, Probability>(m0), new HashMap<Long, Probability>(m1));
+	}
+
+	@Benchmark public void iterateEntries(Blackhole bh) {
+		for (Map.Entry<U2<String, Long>, Probability> en: united.entrySet()) {
+			bh.consume(en.getKey());
+			bh.consume(en.getValue());
+		}
+	}
+
+	@Benchmark public void iterateKeySet(Blackhole bh) {
+		for (U2<String, Long> key: united.keySet()) { bh.consume(key); }
+	}
+
+	@Benchmark public void lookup(Blackhole bh) {
+		for (U2<String, Long> key: probes) { bh.consume(united.get(key)); }
+	}
+
+}
@@ -0,0 +1,88 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.util;
+
+import tags.bench.BenchData;
+
+import java.util.Set;
+import java.util.Map;
+import java.util.HashSet;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+** Benchmarks for {@link SPUProbabilityInferer}, on a random network with the
+** given number of nodes and seeds, and an average out-degree of 4.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScoreInfererBench {
+
+	@Param({"256", "4096"})
+	public int nodes;
+
+	@Param({"4", "32"})
+	public int seeds;
+
+	final protected SPUProbabilityInferer inf = new SPUProbabilityInferer();
+
+	final protected Map<Integer, Set<Integer>> outgoing = new HashMap<Integer, Set<Integer>>();
+	final protected Map<Integer, Set<Integer>> incoming = new HashMap<Integer, Set<Integer>>();
+	final protected Map<Integer, Probability> seed_score = new HashMap<Integer, Probability>();
+	protected int subj;
+
+	@Setup public void setup() {
+		Random rand = new Random(BenchData.SEED);
+		for (int i=0; i<nodes; ++i) {
+			outgoing.put(i, new HashSet<Integer>());
+			incoming.put(i, new HashSet<Integer>());
+		}
+		for (int i=0; i<nodes<<2; ++i) {
+			int src = rand.nextInt(nodes), dst = rand.nextInt(nodes);
+			outgoing.get(src).add(dst);
+			incoming.get(dst).add(src);
+		}
+		while (seed_score.size() < seeds) {
+			seed_score.put(rand.nextInt(nodes), BenchData.prob(rand));
+		}
+		do { subj = rand.nextInt(nodes); } while (seed_score.containsKey(subj));
+	}
+
+	@Benchmark public Probability inferScore() {
+		return inf.inferScore(incoming, seed_score, subj);
+	}
+
+	@Benchmark public Map<Integer, Probability> inferScores() {
+		return inf.inferScores(incoming, seed_score);
+	}
+
+	/**
+	** Builds a dynamic network by adding every arc and seed, as {@link
+	** tags.proto.DataSources} would, then reads every score.
+	*/
+	@Benchmark public void dynamicNetwork(Blackhole bh) {
+		Map<Integer, Set<Integer>> out = new HashMap<Integer, Set<Integer>>();
+		Map<Integer, Probability> seeds = new HashMap<Integer, Probability>();
+		DynamicScoreInferer.Network<Integer, Probability> net = inf.newNetwork(out, seeds);
+		for (Integer n: outgoing.keySet()) { out.put(n, new HashSet<Integer>()); }
+		for (Map.Entry<Integer, Probability> en: seed_score.entrySet()) {
+			seeds.put(en.getKey(), en.getValue());
+			net.putSeed(en.getKey());
+		}
+		for (Map.Entry<Integer, Set<Integer>> en: outgoing.entrySet()) {
+			for (Integer dst: en.getValue()) {
+				out.get(en.getKey()).add(dst);
+				net.putArc(en.getKey(), dst);
+			}
+		}
+		for (Integer n: net.pollChanged()) { bh.consume(net.getScore(n)); }
+	}
+
+}
@@ -9,6 +9,9 @@ apt-key adv --keyserver keyserver.ubuntu.com --recv-keys 80C21FC1
 aptitude update
 aptitude install python2.6 python-igraph
 
+# bench
+aptitude install libjmh-java
+
 # doc
 aptitude install texlive-latex-base pandoc
 
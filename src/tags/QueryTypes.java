@@ -91,6 +91,9 @@ public class QueryTypes {
 		public SimpleEnvironment(Executor exec, StoreControl<K, T, K, S, S, S, S> sctl) {
 			super(exec, sctl);
 		}
+		public SimpleEnvironment(Executor exec, Executor exec_sctl, StoreControl<K, T, K, S, S, S, S> sctl) {
+			super(exec, exec_sctl, sctl);
+		}
 	}
 
 	/**
@@ -144,6 +147,10 @@ public class QueryTypes {
 			super(exec, sctl);
 			this.highscore_hack = Probability.MAX_VALUE;
 		}
+		public BasicEnvironment(Executor exec, Executor exec_sctl, StoreControl<K, String, K, Probability, Probability, Probability, Probability> sctl) {
+			super(exec, exec_sctl, sctl);
+			this.highscore_hack = Probability.MAX_VALUE;
+		}
 	}
 
 	/**
@@ -180,6 +187,21 @@ public class QueryTypes {
 	public static <K> BasicEnvironment<K> makeProtoEnvironment(
 	  StoreControl<K, String, K, Probability, Probability, Probability, Probability> sctl
 	) {
+		return makeProtoEnvironment(sctl, false);
+	}
+
+	/**
+	** @param virtual Whether to run layer control-loops and store lookups in
+	**        virtual threads; see {@link QueryEnvironment#makeVirtualThreadExecutor()}
+	** @throws UnsupportedOperationException if {@code virtual} is set, but
+	**         this JVM has no virtual threads
+	*/
+	public static <K> BasicEnvironment<K> makeProtoEnvironment(
+	  StoreControl<K, String, K, Probability, Probability, Probability, Probability> sctl, boolean virtual
+	) {
+		if (virtual) {
+			return new BasicEnvironment<K>(QueryEnvironment.makeVirtualThreadExecutor(), QueryEnvironment.makeVirtualThreadExecutor(), sctl);
+		}
 		return new BasicEnvironment<K>(QueryEnvironment.makeDefaultExecutor(), sctl);
 	}
 
@@ -13,13 +13,24 @@ import tags.QueryTypes.BasicProcess;
 import tags.QueryTypes.BasicEnvironment;
 import tags.QueryTypes.BasicAgent;
 import tags.proto.Query;
+import tags.proto.QueryEnvironment;
+import tags.proto.QueryProcess;
+import tags.store.StoreControl;
 import tags.store.GraphMLStoreControl;
+import tags.store.BinaryStoreControl;
+import tags.store.MappedStoreControl;
+import tags.store.PersistentCacheStoreControl;
+import tags.store.PersistentLookupCache;
+import tags.store.InterningStoreControl;
 import tags.store.ProbabilityProxyStoreControl;
 
 import tags.ui.ResultsReporter;
+import tags.ui.QueryScheduler;
+import tags.util.Probability;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.ArrayList;
 import java.util.logging.Level;
 import java.util.concurrent.ExecutionException;
 
@@ -51,6 +62,20 @@ public class Tags {
 		  withLongOpt("numsteps").withArgName("NUM").hasArg().create('n'));
 		opt.addOption(OptionBuilder.withDescription("milliseconds between sucessive steps").
 		  withLongOpt("interval").withArgName("MS").hasArg().create('i'));
+		opt.addOption("b", "binary", false, "read from binary containers written by tags.store.BinaryStoreConverter");
+		opt.addOption("m", "mapped", false, "like --binary, but memory-map the containers");
+		opt.addOption(OptionBuilder.withDescription("cache budget in MB, for GraphML data (default: a quarter of the max heap)").
+		  withLongOpt("cache").withArgName("MB").hasArg().create('c'));
+		opt.addOption(OptionBuilder.withDescription("keep lookup results in FILE, and reuse them in later runs over the same data").
+		  withLongOpt("persist").withArgName("FILE").hasArg().create('p'));
+		opt.addOption(OptionBuilder.withDescription("run the queries concurrently, at most NUM at once").
+		  withLongOpt("jobs").withArgName("NUM").hasArg().create('j'));
+		opt.addOption(OptionBuilder.withDescription("maximum number of store lookups in flight at once").
+		  withLongOpt("max-lookups").withArgName("NUM").hasArg().create('k'));
+		opt.addOption(OptionBuilder.withDescription("recompose an identity's ptable in the background once it is older than MS (0: never; default: 600000)").
+		  withLongOpt("refresh").withArgName("MS").hasArg().create('f'));
+		opt.addOption("r", "intern", false, "keep one copy of each identity, tag and address that is shared between queries");
+		opt.addOption("t", "virtual-threads", false, "run queries and store lookups in virtual threads (Java 21 or later)");
 
 		CommandLineParser parser = new GnuParser();
 		CommandLine line = parser.parse(opt, args);
@@ -66,28 +91,76 @@ public class Tags {
 		if (basedir == null) { exitErrorMessage("no basedir supplied", 2); }
 		String seedid = line.getOptionValue('s');
 		if (seedid == null) { exitErrorMessage("no seedid supplied", 2); }
+		if (line.hasOption('t') && !QueryEnvironment.hasVirtualThreads()) {
+			exitErrorMessage("virtual threads not available; they need Java 21 or later", 2);
+		}
 
 		int steps = Integer.parseInt(line.getOptionValue('n', "16"));
 		int verbose = line.hasOption('v')? Integer.parseInt(line.getOptionValue('v', "1")): 0;
 
+		StoreControl<String, String, String, Double, Double, Double, Double> sctl;
+		if (line.hasOption('m')) {
+			sctl = new MappedStoreControl(basedir);
+		} else if (line.hasOption('b')) {
+			sctl = new BinaryStoreControl(basedir);
+		} else {
+			String cache = line.getOptionValue('c');
+			GraphMLStoreControl<String, Double, Double, Double> gctl = new GraphMLStoreControl<String, Double, Double, Double>(
+			  new File(basedir), cache == null? GraphMLStoreControl.DEFAULT_BUDGET: Long.parseLong(cache)<<20);
+			gctl.pinSeeds(seedid);
+			sctl = gctl;
+		}
+		String persist = line.getOptionValue('p');
+		PersistentLookupCache lookups_cache = null;
+		if (persist != null) {
+			// binary containers may hold weights at a lower precision
+			String source = line.hasOption('m') || line.hasOption('b')?
+			  "binary:" + PersistentLookupCache.fingerprint(new File(basedir),
+			    BinaryStoreControl.FILE_PTB, GraphMLStoreControl.DIR_TGR, GraphMLStoreControl.DIR_IDX):
+			  "graphml:" + PersistentLookupCache.fingerprint(new File(basedir),
+			    GraphMLStoreControl.FILE_PTB, GraphMLStoreControl.DIR_PTB, GraphMLStoreControl.DIR_TGR, GraphMLStoreControl.DIR_IDX);
+			lookups_cache = new PersistentLookupCache(new File(persist), source);
+			sctl = new PersistentCacheStoreControl(sctl, lookups_cache);
+		}
+		if (line.hasOption('r')) {
+			sctl = new InterningStoreControl<String, String, String, Double, Double, Double, Double>(sctl);
+		}
 		BasicEnvironment<String> env = QueryTypes.makeProtoEnvironment(
-		  new ProbabilityProxyStoreControl<String, String, String>(
-		    new GraphMLStoreControl<String, Double, Double, Double>(basedir)
-		  )
+		  new ProbabilityProxyStoreControl<String, String, String>(sctl), line.hasOption('t')
 		);
 		BasicAgent<String> agt = QueryTypes.makeProtoAgent(Tags.levels[verbose]);
 
+		String lookups = line.getOptionValue('k');
+		if (lookups != null) {
+			env.setLookupLimit(Integer.parseInt(lookups));
+		}
+
+		String refresh = line.getOptionValue('f');
+		if (refresh != null) {
+			env.setPTableRefreshInterval(Long.parseLong(refresh));
+		}
+
 		String interval = line.getOptionValue('i');
 		if (interval != null) {
 			agt.setInterval(Integer.parseInt(interval));
 		}
 
 		String[] tags = line.getArgs();
-		if (tags.length == 0) { System.exit(0); }
-
-		System.out.println("basedir=" + basedir + "; steps=" + steps + "; interval=" + interval + "; verbose=" + verbose);
-		System.out.println("id=" + seedid + "; tags=" + java.util.Arrays.asList(tags));
-		runQueries(basedir, env, agt, seedid, tags, steps);
+		try {
+			if (tags.length > 0) {
+				System.out.println("basedir=" + basedir + "; steps=" + steps + "; interval=" + interval + "; verbose=" + verbose);
+				System.out.println("id=" + seedid + "; tags=" + java.util.Arrays.asList(tags));
+				String jobs = line.getOptionValue('j');
+				if (jobs != null) {
+					runQueriesConcurrently(basedir, env, agt, seedid, tags, steps,
+					  interval == null? 250: Integer.parseInt(interval), Integer.parseInt(jobs));
+				} else {
+					runQueries(basedir, env, agt, seedid, tags, steps);
+				}
+			}
+		} finally {
+			if (lookups_cache != null) { lookups_cache.close(); }
+		}
 
 		System.exit(0);
 	}
@@ -112,12 +185,53 @@ public class Tags {
 			} catch (ExecutionException e) {
 				// TODO NOW add to report
 				e.printStackTrace(System.err);
+			} finally {
+				proc.close();
 			}
 			agt.log.info("----");
 			agt.log.info("----");
 		}
 	}
 
+	/**
+	** Like {@link #runQueries(String, BasicEnvironment, BasicAgent, Object,
+	** String[], int)}, but runs the queries concurrently on a {@link
+	** QueryScheduler}. Only the final results of each query are reported.
+	*/
+	public static <K> void runQueriesConcurrently(
+	  String basedir, BasicEnvironment<K> env, BasicAgent<K> agt,
+	  K id, String[] tags, int steps, int interval, int jobs
+	) throws IOException, InterruptedException {
+		QueryScheduler<K, String, K, Probability, Probability, Probability, Probability> sched =
+		  new QueryScheduler<K, String, K, Probability, Probability, Probability, Probability>(env, interval, jobs);
+		agt.log.info("----");
+
+		List<QueryScheduler<K, String, K, Probability, Probability, Probability, Probability>.Job> submitted =
+		  new ArrayList<QueryScheduler<K, String, K, Probability, Probability, Probability, Probability>.Job>();
+		for (String tag: tags) {
+			BasicProcess<K> proc = QueryTypes.makeProtoProcess(id, tag, env);
+			proc.attachLogger(agt.log);
+			agt.log.info("Starting query " + proc);
+			submitted.add(sched.submit(proc, steps, 0));
+		}
+
+		for (QueryScheduler<K, String, K, Probability, Probability, Probability, Probability>.Job job: submitted) {
+			QueryProcess<K, String, K, Probability, Probability, Probability, Probability> proc = job.proc;
+			try {
+				job.await();
+				agt.log.info(proc + " " + proc.getStatus() + " " + proc.getStats());
+				agt.showResults(proc.getResults(), proc);
+				new FileResultsReporter(basedir, proc).addReport(agt.prepareReport(proc, steps-1));
+			} catch (ExecutionException e) {
+				// TODO NOW add to report
+				e.printStackTrace(System.err);
+			}
+			agt.log.info("----");
+		}
+		agt.log.info(sched.getStats());
+		sched.shutdown();
+	}
+
 	public static int[] selectSteps(int steps) {
 		int[] ii = new int[0x20];
 		int i;
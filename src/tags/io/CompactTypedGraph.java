@@ -0,0 +1,619 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.io;
+
+import tags.io.AttrGraphMLMetadata.AttrType;
+
+import tags.util.Range;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.Map;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.TreeMap;
+import java.util.NoSuchElementException;
+
+import java.io.InputStream;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamException;
+
+/**
+** A read-only typed graph loaded from a GraphML file, as for {@link
+** TypedXMLGraph}, but stored compactly. The file is read in a single pass
+** with a StAX parser, without building any intermediate object graph; arcs
+** are then held in primitive arrays, in compressed sparse row form, grouped
+** by source and then by the type of the target.
+**
+** Only three attributes are kept: the primary key of nodes, the default
+** attribute of nodes, and the default attribute of arcs. Their names are given
+** to {@link #load(InputStream, String, String, String)}. Double-valued arc
+** attributes are stored as primitives; other types are stored as objects.
+**
+** After loading, this class may be read from several threads at once.
+**
+** @param <T> Enum of node types
+** @param <K> Type of primary key
+** @param <U> Type of default node attribute
+** @param <W> Type of default arc attribute
+*/
+abstract public class CompactTypedGraph<T extends Enum<T>, K, U, W> {
+
+	final protected Class<T> typecl;
+	final protected T[] types;
+
+	protected boolean loaded;
+	protected Map<String, Object> graph_attr;
+
+	/** Number of nodes. */
+	protected int order;
+	/** Number of arcs. */
+	protected int size;
+	/** Primary keys, by node index. */
+	protected Object[] keys;
+	/** Node indexes, by primary key. */
+	protected Map<K, Integer> index;
+	/** Type ordinals, by node index. */
+	protected byte[] ntype;
+	/** Default node attributes, by node index, or {@code null} if none. */
+	protected Object[] nattr;
+	/**
+	** Offsets into {@link #dst}, by {@code node*types.length + type}, plus a
+	** final entry equal to {@link #size}. The arcs from node {@code i} to
+	** nodes of type {@code t} are at {@code [toff[i*n+t], toff[i*n+t+1])},
+	** sorted by target index.
+	*/
+	protected int[] toff;
+	/** Target node indexes. */
+	protected int[] dst;
+	/** Arc attributes, if they are doubles; else {@code null}. */
+	protected double[] wdbl;
+	/** Arc attributes, if they are not doubles; else {@code null}. */
+	protected Object[] wobj;
+
+	/**
+	** Create a new graph with types from the given enum class.
+	*/
+	public CompactTypedGraph(Class<T> typecl) {
+		this.typecl = typecl;
+		this.types = TypedXMLGraph.membersOf(typecl);
+		if (types.length > Byte.MAX_VALUE) { throw new IllegalArgumentException("too many types: " + typecl); }
+	}
+
+	/**
+	** Get the name of the graph-attribute which defines the base ID (lowest
+	** numerical ID) for the given type.
+	**
+	** @see TypedXMLGraph#getAttributeNameForType(Enum)
+	*/
+	abstract public String getAttributeNameForType(T type);
+
+	/**
+	** Convert a vertex String id (from the GraphML file) into an int id.
+	**
+	** @see TypedXMLGraph#getIDForString(String)
+	*/
+	abstract public int getIDForString(String vid);
+
+	/**
+	** Load the graph from the given stream, which is closed afterwards. The
+	** encoding is detected from the XML declaration.
+	**
+	** @param key_attr Name of the node attribute to use as the primary key
+	** @param node_attr Name of the default node attribute, or {@code null}
+	** @param arc_attr Name of the default arc attribute
+	** @throws IOException if the data could not be read or is invalid
+	** @throws IllegalStateException if the graph has already been loaded
+	*/
+	public CompactTypedGraph<T, K, U, W> load(InputStream is, String key_attr, String node_attr, String arc_attr) throws IOException {
+		if (loaded) { throw new IllegalStateException("graph already loaded"); }
+		try {
+			XMLStreamReader in = XML.get().createXMLStreamReader(new BufferedInputStream(is));
+			try {
+				new Parser(in, key_attr, node_attr, arc_attr).parse();
+			} finally {
+				in.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException("bad GraphML: " + e.getMessage(), e);
+		} catch (RuntimeException e) {
+			throw new IOException("bad GraphML: " + e.getMessage(), e);
+		} finally {
+			is.close();
+		}
+		loaded = true;
+		return this;
+	}
+
+	/**
+	** Returns the graph's attributes.
+	*/
+	public Map<String, Object> getGraphAttributes() {
+		return graph_attr;
+	}
+
+	public int getVertexCount() {
+		return order;
+	}
+
+	public int getEdgeCount() {
+		return size;
+	}
+
+	/**
+	** A {@link Set} view of all keys.
+	*/
+	public Set<K> keySet() {
+		return Collections.unmodifiableSet(index.keySet());
+	}
+
+	/**
+	** Return a map of type-enums to sets of the keys of that type. The sets
+	** are copies, not views.
+	*/
+	public EnumMap<T, Set<K>> keyTypedSet() {
+		EnumMap<T, Set<K>> split = new EnumMap<T, Set<K>>(typecl);
+		for (T type: types) {
+			split.put(type, new HashSet<K>());
+		}
+		for (int i=0; i<order; ++i) {
+			split.get(types[ntype[i]]).add(this.<K>keyAt(i));
+		}
+		return split;
+	}
+
+	/**
+	** @return as described; or {@code null} if the key is absent or has no
+	**         attribute
+	*/
+	@SuppressWarnings("unchecked")
+	public U getVertexAttribute(K key) {
+		Integer i = index.get(key);
+		return (i == null || nattr == null)? null: (U)nattr[i];
+	}
+
+	/**
+	** Return a map of type-enums to submaps, where each submap is an
+	** immutable view of the given source key's successors of that type, each
+	** mapped to the attribute of the arc that connects it to the source key.
+	**
+	** @return as described; or {@code null} if the key is absent
+	*/
+	public Map<T, Map<K, W>> getSuccessorTypedMap(K key) {
+		Integer i = index.get(key);
+		if (i == null) { return null; }
+		EnumMap<T, Map<K, W>> split = new EnumMap<T, Map<K, W>>(typecl);
+		int base = i*types.length;
+		for (T type: types) {
+			int o = base + type.ordinal();
+			split.put(type, new SuccessorMap(toff[o], toff[o+1]));
+		}
+		return split;
+	}
+
+	@SuppressWarnings("unchecked")
+	protected <X> X keyAt(int i) {
+		return (X)keys[i];
+	}
+
+	@SuppressWarnings("unchecked")
+	protected W weightAt(int j) {
+		return (W)(wdbl != null? (Object)wdbl[j]: wobj[j]);
+	}
+
+	/**
+	** An immutable view of the arcs in {@code [lo, hi)}.
+	*/
+	protected class SuccessorMap extends AbstractMap<K, W> {
+
+		final protected int lo;
+		final protected int hi;
+
+		protected SuccessorMap(int lo, int hi) {
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		protected int find(Object o) {
+			Integer i = index.get(o);
+			if (i == null) { return -1; }
+			int j = Arrays.binarySearch(dst, lo, hi, i);
+			return j < 0? -1: j;
+		}
+
+		@Override public int size() {
+			return hi - lo;
+		}
+
+		@Override public boolean containsKey(Object o) {
+			return find(o) >= 0;
+		}
+
+		@Override public W get(Object o) {
+			int j = find(o);
+			return j < 0? null: weightAt(j);
+		}
+
+		@Override public Set<Map.Entry<K, W>> entrySet() {
+			return new AbstractSet<Map.Entry<K, W>>() {
+				@Override public int size() {
+					return hi - lo;
+				}
+				@Override public Iterator<Map.Entry<K, W>> iterator() {
+					return new Iterator<Map.Entry<K, W>>() {
+						int j = lo;
+						@Override public boolean hasNext() {
+							return j < hi;
+						}
+						@Override public Map.Entry<K, W> next() {
+							if (j >= hi) { throw new NoSuchElementException(); }
+							Map.Entry<K, W> en = new AbstractMap.SimpleImmutableEntry<K, W>(CompactTypedGraph.this.<K>keyAt(dst[j]), weightAt(j));
+							++j;
+							return en;
+						}
+						@Override public void remove() {
+							throw new UnsupportedOperationException();
+						}
+					};
+				}
+			};
+		}
+
+	}
+
+	/**
+	** Streaming parser for a single GraphML document. Nodes and arcs are
+	** buffered in growable primitive arrays, then packed into the fields of
+	** the graph once the document has been read.
+	*/
+	protected class Parser {
+
+		final protected XMLStreamReader in;
+		final protected String key_attr;
+		final protected String node_attr;
+		final protected String arc_attr;
+
+		/** Attribute names, by GraphML key id. */
+		final protected Map<String, String> keyname = new HashMap<String, String>();
+		/** Attribute types, by GraphML key id. */
+		final protected Map<String, AttrType> keytype = new HashMap<String, AttrType>();
+		/** Attribute defaults, by GraphML key id. */
+		final protected Map<String, String> keydflt = new HashMap<String, String>();
+		/** Attribute scopes, by GraphML key id. */
+		final protected Map<String, String> keyscope = new HashMap<String, String>();
+
+		final protected Map<String, Object> gattr = new HashMap<String, Object>();
+		/** Node indexes, by GraphML node id. */
+		final protected Map<String, Integer> nid = new HashMap<String, Integer>();
+		protected int[] nnum = new int[16];
+		protected Object[] nkey = new Object[16];
+		protected Object[] nval = new Object[16];
+		protected int n;
+
+		protected int[] asrc = new int[16];
+		protected int[] adst = new int[16];
+		protected double[] adbl = new double[16];
+		protected Object[] aobj = new Object[16];
+		protected int m;
+		protected boolean dbl;
+
+		protected Parser(XMLStreamReader in, String key_attr, String node_attr, String arc_attr) {
+			this.in = in;
+			this.key_attr = key_attr;
+			this.node_attr = node_attr;
+			this.arc_attr = arc_attr;
+		}
+
+		protected void parse() throws XMLStreamException, IOException {
+			boolean arcs_typed = false;
+			while (in.hasNext()) {
+				if (in.next() != XMLStreamConstants.START_ELEMENT) { continue; }
+				String el = in.getLocalName();
+				if (el.equals("key")) {
+					parseKey();
+				} else if (el.equals("data")) {
+					String k = in.getAttributeValue(null, "key");
+					gattr.put(nameOf(k), parseValue(k, in.getElementText()));
+				} else if (el.equals("node")) {
+					parseNode();
+				} else if (el.equals("edge")) {
+					if (!arcs_typed) {
+						AttrType t = typeOf(arc_attr, "edge");
+						dbl = t == AttrType.DOUBLE;
+						arcs_typed = true;
+					}
+					parseArc();
+				}
+			}
+			pack();
+		}
+
+		protected void parseKey() throws XMLStreamException {
+			String id = in.getAttributeValue(null, "id");
+			String name = in.getAttributeValue(null, "attr.name");
+			String type = in.getAttributeValue(null, "attr.type");
+			String scope = in.getAttributeValue(null, "for");
+			if (keyname.containsKey(id)) { throw new IllegalArgumentException("duplicate key " + id + ":" + name); }
+			AttrType t = type == null? AttrType.STRING: AttrGraphMLReader.attr_type.get(type);
+			if (t == null) {
+				throw new IllegalArgumentException("unrecognised attribute type: " + type + "; valid types are: " + AttrGraphMLReader.attr_type.keySet());
+			}
+			keyname.put(id, name == null? id: name);
+			keytype.put(id, t);
+			keyscope.put(id, scope == null? "all": scope);
+			while (in.nextTag() == XMLStreamConstants.START_ELEMENT) {
+				if (in.getLocalName().equals("default")) {
+					keydflt.put(id, in.getElementText());
+				} else {
+					skipElement();
+				}
+			}
+		}
+
+		protected void parseNode() throws XMLStreamException {
+			int i = nodeIndex(in.getAttributeValue(null, "id"));
+			Object key = null, val = null;
+			while (in.nextTag() == XMLStreamConstants.START_ELEMENT) {
+				if (!in.getLocalName().equals("data")) { skipElement(); continue; }
+				String k = in.getAttributeValue(null, "key");
+				String name = nameOf(k);
+				if (name.equals(key_attr)) {
+					key = parseValue(k, in.getElementText());
+				} else if (name.equals(node_attr)) {
+					val = parseValue(k, in.getElementText());
+				} else {
+					skipElement();
+				}
+			}
+			nkey[i] = key != null? key: defaultFor(key_attr, "node");
+			nval[i] = val != null || node_attr == null? val: defaultFor(node_attr, "node");
+		}
+
+		protected void parseArc() throws XMLStreamException {
+			int s = nodeIndex(in.getAttributeValue(null, "source"));
+			int t = nodeIndex(in.getAttributeValue(null, "target"));
+			Object val = null;
+			while (in.nextTag() == XMLStreamConstants.START_ELEMENT) {
+				if (!in.getLocalName().equals("data")) { skipElement(); continue; }
+				String k = in.getAttributeValue(null, "key");
+				if (nameOf(k).equals(arc_attr)) {
+					val = parseValue(k, in.getElementText());
+				} else {
+					skipElement();
+				}
+			}
+			if (val == null) { val = defaultFor(arc_attr, "edge"); }
+
+			if (m == asrc.length) {
+				asrc = Arrays.copyOf(asrc, m<<1);
+				adst = Arrays.copyOf(adst, m<<1);
+				if (dbl) { adbl = Arrays.copyOf(adbl, m<<1); } else { aobj = Arrays.copyOf(aobj, m<<1); }
+			}
+			asrc[m] = s;
+			adst[m] = t;
+			if (dbl) { adbl[m] = val == null? Double.NaN: (Double)val; } else { aobj[m] = val; }
+			++m;
+		}
+
+		protected void skipElement() throws XMLStreamException {
+			for (int depth = 1; depth > 0;) {
+				switch (in.next()) {
+				case XMLStreamConstants.START_ELEMENT: ++depth; break;
+				case XMLStreamConstants.END_ELEMENT: --depth; break;
+				}
+			}
+		}
+
+		/**
+		** Returns the index for the given GraphML node id, creating it if
+		** necessary, since arcs may refer to nodes declared later.
+		*/
+		protected int nodeIndex(String id) {
+			Integer i = nid.get(id);
+			if (i != null) { return i; }
+			if (n == nnum.length) {
+				nnum = Arrays.copyOf(nnum, n<<1);
+				nkey = Arrays.copyOf(nkey, n<<1);
+				nval = Arrays.copyOf(nval, n<<1);
+			}
+			nnum[n] = getIDForString(id);
+			nid.put(id, n);
+			return n++;
+		}
+
+		protected String nameOf(String k) {
+			String name = keyname.get(k);
+			if (name == null) { throw new IllegalArgumentException("undeclared key: " + k); }
+			return name;
+		}
+
+		/**
+		** Returns the key id for the given attribute name and scope.
+		*/
+		protected String keyFor(String name, String scope) {
+			for (Map.Entry<String, String> en: keyname.entrySet()) {
+				if (!en.getValue().equals(name)) { continue; }
+				String s = keyscope.get(en.getKey());
+				if (s.equals(scope) || s.equals("all")) { return en.getKey(); }
+			}
+			return null;
+		}
+
+		protected AttrType typeOf(String name, String scope) {
+			String k = keyFor(name, scope);
+			if (k == null) { throw new IllegalStateException("graph has no " + scope + " attribute called: " + name); }
+			return keytype.get(k);
+		}
+
+		protected Object defaultFor(String name, String scope) {
+			String k = keyFor(name, scope);
+			if (k == null) { throw new IllegalStateException("graph has no " + scope + " attribute called: " + name); }
+			String dflt = keydflt.get(k);
+			return dflt == null? null: parseValue(k, dflt);
+		}
+
+		protected Object parseValue(String k, String text) {
+			AttrType t = keytype.get(k);
+			if (t == null) { throw new IllegalArgumentException("undeclared key: " + k); }
+			text = text.trim();
+			switch (t) {
+			case BOOLEAN: return Boolean.parseBoolean(text);
+			case INT: return Integer.parseInt(text);
+			case LONG: return Long.parseLong(text);
+			case FLOAT: return Float.parseFloat(text);
+			case DOUBLE: return Double.parseDouble(text);
+			default: return text;
+			}
+		}
+
+		/**
+		** Works out node types, and packs the buffered arcs into compressed
+		** sparse row form, using a counting sort on (source, target type).
+		*/
+		protected void pack() {
+			for (T type: types) {
+				if (!gattr.containsKey(getAttributeNameForType(type))) {
+					throw new IllegalArgumentException("graph does not contain attribute: " + getAttributeNameForType(type));
+				}
+			}
+			EnumMap<T, Range> ranges = makeRanges();
+			byte[] nt = new byte[n];
+			Map<K, Integer> idx = new HashMap<K, Integer>(n<<1);
+			for (int i=0; i<n; ++i) {
+				T type = null;
+				for (Map.Entry<T, Range> en: ranges.entrySet()) {
+					if (en.getValue().contains(nnum[i])) { type = en.getKey(); break; }
+				}
+				if (type == null) { throw new IllegalArgumentException("node id out of range: " + nnum[i]); }
+				nt[i] = (byte)type.ordinal();
+				@SuppressWarnings("unchecked") K key = (K)nkey[i];
+				if (key == null) { throw new IllegalArgumentException("node has no primary key: n" + nnum[i]); }
+				if (idx.put(key, i) != null) { throw new IllegalArgumentException("not a vertex primary key: " + key_attr + " (" + key + ")"); }
+			}
+
+			int nty = types.length;
+			int[] off = new int[n*nty + 1];
+			for (int j=0; j<m; ++j) { ++off[asrc[j]*nty + nt[adst[j]] + 1]; }
+			for (int o=1; o<off.length; ++o) { off[o] += off[o-1]; }
+			int[] pos = Arrays.copyOf(off, off.length - 1);
+			int[] d = new int[m];
+			double[] wd = dbl? new double[m]: null;
+			Object[] wo = dbl? null: new Object[m];
+			for (int j=0; j<m; ++j) {
+				int p = pos[asrc[j]*nty + nt[adst[j]]]++;
+				d[p] = adst[j];
+				if (dbl) { wd[p] = adbl[j]; } else { wo[p] = aobj[j]; }
+			}
+			// sort each run by target index, so that lookups can use binary
+			// search, and drop parallel arcs, keeping the first as JUNG does
+			int w = 0;
+			for (int o=0; o+1<off.length; ++o) {
+				int lo = off[o], hi = off[o+1];
+				sortRun(d, wd, wo, lo, hi);
+				off[o] = w;
+				for (int j=lo; j<hi; ++j) {
+					if (j > lo && d[j] == d[j-1]) { continue; }
+					d[w] = d[j];
+					if (dbl) { wd[w] = wd[j]; } else { wo[w] = wo[j]; }
+					++w;
+				}
+			}
+			off[off.length-1] = w;
+			if (w < m) {
+				d = Arrays.copyOf(d, w);
+				if (dbl) { wd = Arrays.copyOf(wd, w); } else { wo = Arrays.copyOf(wo, w); }
+			}
+
+			order = n;
+			size = w;
+			keys = Arrays.copyOf(nkey, n);
+			index = idx;
+			ntype = nt;
+			nattr = node_attr == null? null: Arrays.copyOf(nval, n);
+			toff = off;
+			dst = d;
+			wdbl = wd;
+			wobj = wo;
+			graph_attr = Collections.unmodifiableMap(gattr);
+		}
+
+		protected EnumMap<T, Range> makeRanges() {
+			Map<Integer, T> bases = new TreeMap<Integer, T>(Collections.reverseOrder());
+			for (T type: types) {
+				bases.put(((Number)gattr.get(getAttributeNameForType(type))).intValue(), type);
+			}
+			EnumMap<T, Range> ranges = new EnumMap<T, Range>(typecl);
+			int last = n;
+			for (Map.Entry<Integer, T> en: bases.entrySet()) {
+				ranges.put(en.getValue(), new Range(en.getKey(), last));
+				last = en.getKey();
+			}
+			return ranges;
+		}
+
+	}
+
+	/**
+	** Stably sorts a run of arcs by target index, if it is not already sorted.
+	** Runs are usually short and nearly sorted, since files tend to list arcs
+	** in order, so short runs are insertion-sorted.
+	*/
+	protected static void sortRun(int[] d, double[] wd, Object[] wo, int lo, int hi) {
+		boolean sorted = true;
+		for (int j=lo+1; j<hi; ++j) {
+			if (d[j-1] > d[j]) { sorted = false; break; }
+		}
+		if (sorted) { return; }
+		if (hi - lo > 0x20) {
+			// sort a permutation instead, to keep the weights in step
+			Integer[] perm = new Integer[hi - lo];
+			for (int j=0; j<perm.length; ++j) { perm[j] = lo + j; }
+			final int[] dd = d;
+			Arrays.sort(perm, new Comparator<Integer>() {
+				@Override public int compare(Integer a, Integer b) {
+					return dd[a] < dd[b]? -1: dd[a] == dd[b]? 0: 1;
+				}
+			});
+			int[] d2 = new int[perm.length];
+			double[] wd2 = wd == null? null: new double[perm.length];
+			Object[] wo2 = wo == null? null: new Object[perm.length];
+			for (int j=0; j<perm.length; ++j) {
+				d2[j] = d[perm[j]];
+				if (wd != null) { wd2[j] = wd[perm[j]]; } else { wo2[j] = wo[perm[j]]; }
+			}
+			System.arraycopy(d2, 0, d, lo, d2.length);
+			if (wd != null) { System.arraycopy(wd2, 0, wd, lo, wd2.length); } else { System.arraycopy(wo2, 0, wo, lo, wo2.length); }
+			return;
+		}
+		for (int j=lo+1; j<hi; ++j) {
+			int dv = d[j];
+			double wdv = wd == null? 0: wd[j];
+			Object wov = wo == null? null: wo[j];
+			int k = j - 1;
+			for (; k >= lo && d[k] > dv; --k) {
+				d[k+1] = d[k];
+				if (wd != null) { wd[k+1] = wd[k]; } else { wo[k+1] = wo[k]; }
+			}
+			d[k+1] = dv;
+			if (wd != null) { wd[k+1] = wdv; } else { wo[k+1] = wov; }
+		}
+	}
+
+	final protected static ThreadLocal<XMLInputFactory> XML = new ThreadLocal<XMLInputFactory>() {
+		@Override protected synchronized XMLInputFactory initialValue() {
+			XMLInputFactory xif = XMLInputFactory.newInstance();
+			xif.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+			xif.setProperty(XMLInputFactory.IS_COALESCING, true);
+			return xif;
+		}
+	};
+
+}
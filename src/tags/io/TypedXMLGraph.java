@@ -12,6 +12,7 @@ import java.util.Set;
 import java.util.Map;
 import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.TreeMap;
 
 import java.io.Reader;
@@ -128,8 +129,23 @@ abstract public class TypedXMLGraph<T extends Enum<T>, K, U, W> extends XMLGraph
 		return split;
 	}
 
+	/**
+	** Return a map of type-enums to sets of the keys of that type. The sets
+	** are copies, not views.
+	**
+	** @throws NullPointerException if {@link #setVertexPrimaryKey(String)} has
+	**         not yet been called.
+	*/
 	public EnumMap<T, Set<K>> keyTypedSet() {
-		throw new UnsupportedOperationException("not implemented");
+		EnumMap<T, Set<K>> split = new EnumMap<T, Set<K>>(typecl);
+		for (T type: types) {
+			split.put(type, new HashSet<K>());
+		}
+
+		for (Map.Entry<K, Node> en: nodes.entrySet()) {
+			split.get(getNodeType(en.getValue())).add(en.getKey());
+		}
+		return split;
 	}
 
 	/**
@@ -0,0 +1,64 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.proto;
+
+import tags.util.Maps;
+
+import tags.util.Arc;
+import tags.util.Union.U2;
+import tags.util.Maps.U2Map;
+import java.util.Map;
+import java.util.HashMap;
+
+/**
+** A {@link FullIndex} whose arc-attributes may be set after it is constructed.
+** This is used to hold a composite of several {@link LocalIndex} data sources,
+** so that it can be updated incrementally when only some of the arcs of those
+** sources change.
+**
+** Arcs can only be added, not removed; if an arc disappears, a new composite
+** must be made from scratch.
+**
+** @param <T> Type of tag
+** @param <A> Type of document/index address
+** @param <W> Type of arc-attribute
+*/
+public class CompositeIndex<T, A, W> extends FullIndex<T, A, W> {
+
+	/**
+	** Creates a new empty index.
+	*/
+	public CompositeIndex() { }
+
+	public CompositeIndex(U2Map<Arc<T, A>, Arc<T, A>, W> arc_map) {
+		super(arc_map);
+	}
+
+	/**
+	** Sets the attribute of the given arc, adding the arc (and its endpoints)
+	** if it doesn't already exist.
+	**
+	** @throws NullPointerException if {@code attr} is {@code null}
+	*/
+	public void setArcAttr(U2<Arc<T, A>, Arc<T, A>> arc, W attr) {
+		if (attr == null) { throw new NullPointerException(); }
+		Arc<T, A> a = arc.isT0()? arc.getT0(): arc.getT1();
+
+		U2Map<A, A, W> out = outgoing.get(a.src);
+		if (out == null) { outgoing.put(a.src, out = Maps.uniteDisjoint(new HashMap<A, W>(), new HashMap<A, W>())); }
+		Map<A, Map<T, W>> incoming_x;
+		if (arc.isT0()) {
+			out.K0Map().put(a.dst, attr);
+			node_set_d.add(a.dst);
+			incoming_x = incoming.K0Map();
+		} else {
+			out.K1Map().put(a.dst, attr);
+			node_set_h.add(a.dst);
+			incoming_x = incoming.K1Map();
+		}
+
+		Map<T, W> in = incoming_x.get(a.dst);
+		if (in == null) { incoming_x.put(a.dst, in = new HashMap<T, W>()); }
+		in.put(a.src, attr);
+	}
+
+}
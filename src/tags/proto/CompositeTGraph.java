@@ -0,0 +1,73 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.proto;
+
+import tags.util.Maps;
+
+import tags.util.Arc;
+import tags.util.Union.U2;
+import tags.util.Maps.U2Map;
+import java.util.HashMap;
+
+/**
+** A {@link FullTGraph} whose node- and arc-attributes may be set after it is
+** constructed. This is used to hold a composite of several {@link LocalTGraph}
+** data sources, so that it can be updated incrementally when only some of the
+** nodes or arcs of those sources change.
+**
+** Nodes and arcs can only be added, not removed; if a node or arc disappears,
+** a new composite must be made from scratch.
+**
+** @param <T> Type of tag
+** @param <A> Type of address
+** @param <U> Type of node-attribute
+** @param <W> Type of arc-attribute
+*/
+public class CompositeTGraph<T, A, U, W> extends FullTGraph<T, A, U, W> {
+
+	/**
+	** Creates a new empty tag-graph.
+	*/
+	public CompositeTGraph() { }
+
+	public CompositeTGraph(U2Map<T, A, U> node_map, U2Map<Arc<T, T>, Arc<T, A>, W> arc_map) {
+		super(node_map, arc_map);
+	}
+
+	/**
+	** Sets the attribute of the given node, adding the node if it doesn't
+	** already exist.
+	**
+	** @throws NullPointerException if {@code attr} is {@code null}
+	*/
+	public void setNodeAttr(U2<T, A> node, U attr) {
+		if (attr == null) { throw new NullPointerException(); }
+		if (node_map.put(node, attr) != null) { return; }
+		// new node; initialise its arc holders
+		if (node.isT0()) {
+			outgoing.put(node.getT0(), Maps.uniteDisjoint(new HashMap<T, W>(), new HashMap<A, W>()));
+		}
+		incoming.put(node, new HashMap<T, W>());
+	}
+
+	/**
+	** Sets the attribute of the given arc, adding the arc if it doesn't
+	** already exist. Both endpoints of the arc must already exist.
+	**
+	** @throws NullPointerException if {@code attr} is {@code null}
+	** @throws IllegalArgumentException if either endpoint is not defined
+	*/
+	public void setArcAttr(U2<Arc<T, T>, Arc<T, A>> arc, W attr) {
+		if (attr == null) { throw new NullPointerException(); }
+		if (!hasEndpoints(arc)) { throw new IllegalArgumentException("arc " + arc + " endpoints not defined"); }
+		if (arc.isT0()) {
+			Arc<T, T> a = arc.getT0();
+			outgoing.get(a.src).K0Map().put(a.dst, attr);
+			incoming.K0Map().get(a.dst).put(a.src, attr);
+		} else {
+			Arc<T, A> a = arc.getT1();
+			outgoing.get(a.src).K1Map().put(a.dst, attr);
+			incoming.K1Map().get(a.dst).put(a.src, attr);
+		}
+	}
+
+}
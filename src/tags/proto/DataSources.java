@@ -2,6 +2,7 @@
 package tags.proto;
 
 import tags.util.ScoreInferer;
+import tags.util.DynamicScoreInferer;
 import tags.util.Maps;
 
 import tags.util.Maps.MapX2;
@@ -31,9 +32,17 @@ public class DataSources<R, L, S> {
 	final protected LocalViewFactory<R, L> view_fac;
 	final protected ScoreInferer<S> score_inf;
 
+	/**
+	** Maintains scores incrementally as arcs are added, if {@link #score_inf}
+	** supports this; otherwise {@code null}.
+	*/
+	final protected DynamicScoreInferer.Network<R, S> score_net;
+
 	public DataSources(LocalViewFactory<R, L> view_fac, ScoreInferer<S> score_inf) {
 		this.view_fac = view_fac;
 		this.score_inf = score_inf;
+		this.score_net = (score_inf instanceof DynamicScoreInferer)?
+		  ((DynamicScoreInferer<S>)score_inf).newNetwork(outgoing, seed_score): null;
 	}
 
 	/**
@@ -106,17 +115,25 @@ public class DataSources<R, L, S> {
 			}
 			in.add(src);
 		}
+
+		if (score_net != null) {
+			for (R dst: out_node) { score_net.putArc(src, dst); }
+		}
 	}
 
 	public void setSeeds(Map<R, S> seed_score) {
 		this.seed_score.putAll(seed_score);
 		for (R src: seed_score.keySet()) {
 			setOutgoing(src, java.util.Collections.<R>emptySet());
+		}
+		if (score_net != null) { score_net.putSeeds(seed_score.keySet()); }
+		for (R src: seed_score.keySet()) {
 			useSource(src);
 		}
 	}
 
 	public S inferScore(R src) {
+		if (score_net != null) { return score_net.getScore(src); }
 		return score_inf.inferScore(incoming, seed_score, src);
 	}
 
@@ -143,12 +160,22 @@ public class DataSources<R, L, S> {
 
 	/**
 	** Calculates the score for each in-use remote source.
+	**
+	** If the score inferer is a {@link DynamicScoreInferer}, only the scores
+	** that might have changed since the last call are re-calculated. Otherwise,
+	** all scores are re-calculated in one batch.
 	*/
 	public void calculateScores() {
-		// OPT NORM could do this incrementally instead of re-calculating entire thing
+		if (score_net != null) {
+			for (R addr: score_net.pollChanged()) {
+				if (local.containsKey(addr)) { score.put(addr, score_net.getScore(addr)); }
+			}
+			return;
+		}
+		Map<R, S> all = score_inf.inferScores(incoming, seed_score);
 		score.clear();
 		for (R addr: local.keySet()) {
-			score.put(addr, inferScore(addr));
+			score.put(addr, all.get(addr));
 		}
 	}
 
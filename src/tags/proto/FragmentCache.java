@@ -0,0 +1,182 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.proto;
+
+import tags.util.Cache;
+import tags.util.LRUCache;
+
+import tags.util.exec.Callback;
+import java.io.IOException;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.WeakHashMap;
+
+/**
+** A cache of fragments of remote data structures, such as the out-arcs of a
+** tag in a {@link TGraph}, shared by all the processes of a {@link
+** QueryEnvironment}. Fragments are read-only; a process's local views hold
+** the cached objects themselves rather than copies, so memory use grows with
+** the amount of distinct data loaded, rather than with the number of queries.
+**
+** Each fragment is referenced by the owners (typically {@link QueryProcess}es)
+** that have used it. Referenced fragments are never evicted; fragments that
+** are no longer referenced are kept until they must be evicted to stay within
+** the capacity, so that later queries can still use them.
+**
+** A fragment may be cached as absent, ie. the store returned {@code null} for
+** it. Errors are never cached.
+**
+** @param <K> Type of key
+** @param <V> Type of fragment
+*/
+public class FragmentCache<K, V> {
+
+	final protected Cache<K, Fragment<V>> cache;
+	/** Number of owners referencing each fragment. */
+	final protected Map<K, Integer> refs = new HashMap<K, Integer>();
+	/** Fragments referenced by each owner. */
+	final protected Map<Object, Set<K>> owned = new HashMap<Object, Set<K>>();
+	/** Owners that have been released, and may reference nothing more. */
+	final protected Map<Object, Boolean> released = new WeakHashMap<Object, Boolean>();
+
+	protected long hits;
+	protected long misses;
+
+	/**
+	** @param capacity Maximum total weight of unreferenced fragments
+	** @param weigher Weigher for fragments; this is never passed {@code null}
+	*/
+	public FragmentCache(long capacity, final Cache.Weigher<? super K, ? super V> weigher) {
+		if (weigher == null) { throw new NullPointerException(); }
+		this.cache = new LRUCache<K, Fragment<V>>(capacity, new Cache.Weigher<K, Fragment<V>>() {
+			@Override public long weigh(K key, Fragment<V> frag) {
+				return frag.value == null? 1: weigher.weigh(key, frag.value);
+			}
+		});
+	}
+
+	/**
+	** Returns the cached fragment for the given key, and adds a reference to
+	** it for the given owner; or returns {@code null} if it is not cached.
+	**
+	** @param owner Owner to reference the fragment for, or {@code null} to
+	**        not reference it
+	*/
+	public synchronized Fragment<V> acquire(K key, Object owner) {
+		Fragment<V> frag = cache.get(key);
+		if (frag == null) { ++misses; return null; }
+		++hits;
+		reference(key, owner);
+		return frag;
+	}
+
+	/**
+	** Caches the given fragment, and adds a reference to it for the given
+	** owner. If the fragment was cached in the meantime (eg. by a concurrent
+	** lookup), the cached one is kept instead.
+	**
+	** @param val The fragment, or {@code null} if it is absent
+	** @param owner Owner to reference the fragment for, or {@code null} to
+	**        not reference it
+	** @return the cached fragment
+	*/
+	public synchronized V put(K key, V val, Object owner) {
+		// reference first, so that the fragment is pinned before it is put
+		reference(key, owner);
+		Fragment<V> frag = cache.get(key);
+		if (frag == null) {
+			cache.put(key, frag = new Fragment<V>(val));
+		}
+		return frag.value;
+	}
+
+	/**
+	** Returns a {@link Callback} that {@linkplain #put(Object, Object,
+	** Object) caches} the result of a lookup of the given key, then passes
+	** the cached fragment on to the given callback.
+	*/
+	public Callback<V, IOException> callbackFor(final K key, final Object owner, final Callback<V, IOException> cb) {
+		return new Callback<V, IOException>() {
+			@Override public void done(V val) {
+				cb.done(put(key, val, owner));
+			}
+			@Override public void fail(IOException err) {
+				cb.fail(err);
+			}
+		};
+	}
+
+	/**
+	** Removes all references held by the given owner. Fragments that are no
+	** longer referenced by anyone may then be evicted.
+	**
+	** The owner may not take any more references after this, so that lookups
+	** of a closed process that complete afterwards do not pin fragments
+	** forever. It may still use the cache.
+	*/
+	public synchronized void release(Object owner) {
+		released.put(owner, Boolean.TRUE);
+		Set<K> keys = owned.remove(owner);
+		if (keys == null) { return; }
+		for (K key: keys) {
+			int n = refs.get(key) - 1;
+			if (n == 0) {
+				refs.remove(key);
+				cache.unpin(key);
+			} else {
+				refs.put(key, n);
+			}
+		}
+	}
+
+	/** Number of fragments referenced by at least one owner. */
+	public synchronized int countReferenced() {
+		return refs.size();
+	}
+
+	/** Number of {@link #acquire(Object, Object)} calls that found a fragment. */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/** Number of {@link #acquire(Object, Object)} calls that found nothing. */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public Cache<K, ?> getCache() {
+		return cache;
+	}
+
+	protected void reference(K key, Object owner) {
+		if (owner == null || released.containsKey(owner)) { return; }
+		Set<K> keys = owned.get(owner);
+		if (keys == null) {
+			owned.put(owner, keys = new HashSet<K>());
+		}
+		if (!keys.add(key)) { return; }
+		Integer n = refs.get(key);
+		if (n == null) {
+			cache.pin(key);
+			n = 0;
+		}
+		refs.put(key, n + 1);
+	}
+
+	/**
+	** A cached fragment, or a record of its absence.
+	*/
+	public static class Fragment<V> {
+
+		/** The fragment, or {@code null} if it is absent. */
+		final public V value;
+
+		protected Fragment(V value) {
+			this.value = value;
+		}
+
+	}
+
+}
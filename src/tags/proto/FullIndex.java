@@ -5,8 +5,10 @@ import tags.util.Graphs;
 import tags.util.Maps;
 
 import tags.util.Arc;
+import tags.util.Union;
 import tags.util.Union.U2;
 import tags.util.Maps.U2Map;
+import java.util.Set;
 import java.util.Map;
 import java.util.HashSet;
 import java.util.HashMap;
@@ -46,4 +48,33 @@ public class FullIndex<T, A, W> extends Index<T, A, W> {
 		return incoming.K1Map().get(idx);
 	}
 
+	/**
+	** Returns the loaded arcs from the given tag.
+	*/
+	public Set<U2<Arc<T, A>, Arc<T, A>>> getIncidentArcsT(T src) {
+		Set<U2<Arc<T, A>, Arc<T, A>>> arcs = new HashSet<U2<Arc<T, A>, Arc<T, A>>>();
+		U2Map<A, A, W> out = outgoing.get(src);
+		if (out == null) { return arcs; }
+		for (A dst: out.K0Map().keySet()) { arcs.add(Union.<Arc<T, A>, Arc<T, A>>U2_0(Arc.arc(src, dst))); }
+		for (A dst: out.K1Map().keySet()) { arcs.add(Union.<Arc<T, A>, Arc<T, A>>U2_1(Arc.arc(src, dst))); }
+		return arcs;
+	}
+
+	/**
+	** Returns the loaded arcs to the given address, both as a document and as
+	** an index.
+	*/
+	public Set<U2<Arc<T, A>, Arc<T, A>>> getIncidentArcsA(A dst) {
+		Set<U2<Arc<T, A>, Arc<T, A>>> arcs = new HashSet<U2<Arc<T, A>, Arc<T, A>>>();
+		Map<T, W> in_d = incoming.K0Map().get(dst);
+		if (in_d != null) {
+			for (T src: in_d.keySet()) { arcs.add(Union.<Arc<T, A>, Arc<T, A>>U2_0(Arc.arc(src, dst))); }
+		}
+		Map<T, W> in_h = incoming.K1Map().get(dst);
+		if (in_h != null) {
+			for (T src: in_h.keySet()) { arcs.add(Union.<Arc<T, A>, Arc<T, A>>U2_1(Arc.arc(src, dst))); }
+		}
+		return arcs;
+	}
+
 }
@@ -5,10 +5,13 @@ import tags.util.Graphs;
 import tags.util.Maps;
 
 import tags.util.Arc;
+import tags.util.Union;
 import tags.util.Union.U2;
 import tags.util.Maps.U2Map;
 import java.util.Collections;
+import java.util.Set;
 import java.util.Map;
+import java.util.HashSet;
 import java.util.HashMap;
 
 /**
@@ -65,4 +68,30 @@ public class FullTGraph<T, A, U, W> extends TGraph<T, A, U, W> {
 		return new Neighbour<T, A, U, W>(in_node, Collections.<A, U>emptyMap(), in_arc, Collections.<A, W>emptyMap());
 	}
 
+	/**
+	** Returns the loaded arcs incident on the given node, in either direction.
+	** If the node is not loaded, this will return an empty set.
+	*/
+	public Set<U2<Arc<T, T>, Arc<T, A>>> getIncidentArcs(U2<T, A> node) {
+		Set<U2<Arc<T, T>, Arc<T, A>>> arcs = new HashSet<U2<Arc<T, T>, Arc<T, A>>>();
+		Map<T, W> in = incoming.get(node);
+		if (node.isT0()) {
+			T tag = node.getT0();
+			if (in != null) {
+				for (T src: in.keySet()) { arcs.add(Union.<Arc<T, T>, Arc<T, A>>U2_0(Arc.arc(src, tag))); }
+			}
+			U2Map<T, A, W> out = outgoing.get(tag);
+			if (out != null) {
+				for (T dst: out.K0Map().keySet()) { arcs.add(Union.<Arc<T, T>, Arc<T, A>>U2_0(Arc.arc(tag, dst))); }
+				for (A dst: out.K1Map().keySet()) { arcs.add(Union.<Arc<T, T>, Arc<T, A>>U2_1(Arc.arc(tag, dst))); }
+			}
+		} else {
+			A addr = node.getT1();
+			if (in != null) {
+				for (T src: in.keySet()) { arcs.add(Union.<Arc<T, T>, Arc<T, A>>U2_1(Arc.arc(src, addr))); }
+			}
+		}
+		return arcs;
+	}
+
 }
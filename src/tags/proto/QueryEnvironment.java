@@ -2,18 +2,37 @@
 package tags.proto;
 
 import tags.store.StoreControl;
+import tags.store.AsyncStoreControl;
+import tags.store.AsyncProxyStoreControl;
+import tags.store.BlockingProxyStoreControl;
 import tags.util.Probability;
+import tags.util.Cache;
+import tags.proto.cont.PTableCache;
+import tags.proto.cont.PTableComposer;
 
+import tags.util.Union.U2;
 import tags.util.Maps.U2Map;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.LinkedList;
 
 import tags.util.exec.TaskService;
+import tags.util.exec.Task;
+import tags.util.exec.CallbackTaskService;
+import tags.util.exec.Callback;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.io.IOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.InvocationTargetException;
 
 /**
 ** An environment for running {@link QueryProcess}es. This holds objects that
@@ -23,23 +42,105 @@ import java.io.IOException;
 ** Generally, there will be one instance of this for each storage network that
 ** needs to be queried, per running application.
 **
-** OPT HIGH have the option to use an asynchronous StoreControl instead of a
-** blocking one.
+** Store lookups are made through an {@link AsyncStoreControl}, with a
+** per-service limit on the number of concurrent lookups. If the environment is
+** given a blocking {@link StoreControl}, lookups are run on a separate bounded
+** executor {@link #exec_sctl}; if it is given an asynchronous one, no threads
+** are parked waiting for lookups to complete. A {@linkplain
+** #setLookupLimit(int) limit} may also be set on the total number of lookups
+** in flight, over all services (and so all processes) of the environment.
+**
+** Loaded fragments of remote data structures are kept in {@link
+** FragmentCache}s shared by all processes, so that data already loaded by one
+** process is not looked up again by another. Services made for an owner (eg.
+** a process) hold references to the fragments they return, until the owner
+** {@linkplain #releaseFragments(Object) releases} them.
 */
 public class QueryEnvironment<I, T, A, U, W, S, Z> {
 
-	// interval for Thread.sleep in the control-loops in Contact/Naming/Routing
-	final public int interval = 250;
-
 	// TODO NORM this is a hack, make a better way of doing this
 	final public int parallel_idx_lku = 0x10;
 
+	// maximum number of concurrent lookups for each service made by this
+	// environment. the services of a single process share exec_sctl, so this
+	// stops one layer from starving the others.
+	final public int parallel_ptb_lku = 0x08;
+	final public int parallel_tgr_lku = 0x10;
+	final public int parallel_tgr_node_lku = 0x10;
+
+	/** Maximum total weight (roughly, number of arcs) of unreferenced
+	** fragments to keep, in each fragment cache. */
+	final public static long DEFAULT_FRAGMENT_CAPACITY = 0x100000;
+
 	final public Executor exec;
+	/** Executor to run blocking store lookups on; {@code null} if {@link
+	** #sctl} is only a blocking view of {@link #asctl}. */
+	final public Executor exec_sctl;
 	final public StoreControl<I, T, A, U, W, S, Z> sctl;
+	final public AsyncStoreControl<I, T, A, U, W, S, Z> asctl;
 
-	public QueryEnvironment(Executor exec, StoreControl<I, T, A, U, W, S, Z> sctl) {
+	/** Maximum number of {@link PTableCache}s to keep, one per composer. */
+	final public static int MAX_PTABLE_CACHES = 0x10;
+
+	/** Caches of composed {@link PTable}s, by the composer used, least
+	** recently used first. */
+	final protected LinkedHashMap<PTableComposer<I, A, S, Z>, PTableCache<I, A, S, Z>> ptb_caches =
+	new LinkedHashMap<PTableComposer<I, A, S, Z>, PTableCache<I, A, S, Z>>(0x10, 0.75f, true) {
+		@Override protected boolean removeEldestEntry(Map.Entry<PTableComposer<I, A, S, Z>, PTableCache<I, A, S, Z>> en) {
+			return size() > MAX_PTABLE_CACHES;
+		}
+	};
+	protected long ptb_refresh = PTableCache.DEFAULT_REFRESH_INTERVAL;
+
+	/** Loaded out-arcs of tags in tgraphs. */
+	final public FragmentCache<TGraph.Lookup<T, A>, U2Map<T, A, W>> tgr_frags;
+	/** Loaded node-attributes in tgraphs. */
+	final public FragmentCache<TGraph.NodeLookup<T, A>, U> tgr_node_frags;
+	/** Loaded out-arcs of tags in indexes. */
+	final public FragmentCache<Index.Lookup<T, A>, U2Map<A, A, W>> idx_frags;
+
+	/** Lookups waiting for the total number in flight to fall below the limit. */
+	final protected Queue<PendingLookup> lookup_backlog = new LinkedList<PendingLookup>();
+	protected int lookup_limit = Integer.MAX_VALUE;
+	protected int lookups;
+
+	protected QueryEnvironment(Executor exec, Executor exec_sctl, StoreControl<I, T, A, U, W, S, Z> sctl, AsyncStoreControl<I, T, A, U, W, S, Z> asctl) {
 		this.exec = exec;
+		this.exec_sctl = exec_sctl;
 		this.sctl = sctl;
+		this.asctl = asctl;
+		this.tgr_frags = new FragmentCache<TGraph.Lookup<T, A>, U2Map<T, A, W>>(DEFAULT_FRAGMENT_CAPACITY, new ArcWeigher());
+		this.tgr_node_frags = new FragmentCache<TGraph.NodeLookup<T, A>, U>(DEFAULT_FRAGMENT_CAPACITY, new Cache.Weigher<Object, Object>() {
+			@Override public long weigh(Object key, Object val) {
+				return 1;
+			}
+		});
+		this.idx_frags = new FragmentCache<Index.Lookup<T, A>, U2Map<A, A, W>>(DEFAULT_FRAGMENT_CAPACITY, new ArcWeigher());
+	}
+
+	/**
+	** @param exec Executor to run the layer control-loops on
+	** @param exec_sctl Executor to run store lookups on
+	** @param sctl Store to query
+	*/
+	public QueryEnvironment(Executor exec, Executor exec_sctl, StoreControl<I, T, A, U, W, S, Z> sctl) {
+		this(exec, exec_sctl, sctl, new AsyncProxyStoreControl<I, T, A, U, W, S, Z>(exec_sctl, sctl));
+	}
+
+	/**
+	** @param exec Executor to run the layer control-loops on
+	** @param asctl Store to query
+	*/
+	public QueryEnvironment(Executor exec, AsyncStoreControl<I, T, A, U, W, S, Z> asctl) {
+		this(exec, null, new BlockingProxyStoreControl<I, T, A, U, W, S, Z>(asctl), asctl);
+	}
+
+	/**
+	** Creates a new environment whose store lookups are run on a {@linkplain
+	** #makeDefaultStoreExecutor() default store executor}.
+	*/
+	public QueryEnvironment(Executor exec, StoreControl<I, T, A, U, W, S, Z> sctl) {
+		this(exec, makeDefaultStoreExecutor(), sctl);
 	}
 
 	/**
@@ -59,42 +160,459 @@ public class QueryEnvironment<I, T, A, U, W, S, Z> {
 	}
 	public Z highscore_hack = null;
 
+	/**
+	** Returns the cache of {@link PTable}s composed by the given composer,
+	** creating it if it does not exist. Processes whose composers are {@link
+	** Object#equals(Object) equal} share the same cache, so composers should
+	** compare their class and parameters, as {@link
+	** tags.proto.cont.ProtoPTableComposer} does.
+	**
+	** Only the {@link #MAX_PTABLE_CACHES} most recently used caches are kept,
+	** so composers without such an equality do not each leave a cache behind.
+	*/
+	public synchronized PTableCache<I, A, S, Z> getPTableCache(PTableComposer<I, A, S, Z> mod_ptb_cmp) {
+		PTableCache<I, A, S, Z> cache = ptb_caches.get(mod_ptb_cmp);
+		if (cache == null) {
+			ptb_caches.put(mod_ptb_cmp, cache = new PTableCache<I, A, S, Z>(this, mod_ptb_cmp));
+			cache.setRefreshInterval(ptb_refresh);
+		}
+		return cache;
+	}
+
+	/**
+	** Set the refresh interval of all {@link PTableCache}s, current and
+	** future; see {@link PTableCache#setRefreshInterval(long)}.
+	*/
+	public synchronized void setPTableRefreshInterval(long refresh) {
+		if (refresh < 0) { throw new IllegalArgumentException("refresh interval must be non-negative: " + refresh); }
+		ptb_refresh = refresh;
+		for (PTableCache<I, A, S, Z> cache: ptb_caches.values()) {
+			cache.setRefreshInterval(refresh);
+		}
+	}
+
+	/**
+	** Drops the composed tables of the given identity from all {@link
+	** PTableCache}s, eg. after its friends or their tables have changed in the
+	** store.
+	*/
+	public synchronized void invalidatePTables(I id) {
+		for (PTableCache<I, A, S, Z> cache: ptb_caches.values()) {
+			cache.invalidate(id);
+		}
+	}
+
+	/**
+	** Removes all references to cached fragments held by the given owner,
+	** which may take no more after this. This is called when a process is
+	** {@linkplain QueryProcess#close() closed}; the fragments remain cached
+	** for other processes until they must be evicted.
+	*/
+	public void releaseFragments(Object owner) {
+		tgr_frags.release(owner);
+		tgr_node_frags.release(owner);
+		idx_frags.release(owner);
+	}
+
+	/**
+	** Set the maximum number of store lookups in flight at any one time, over
+	** all services made by this environment. Lookups beyond this are started
+	** in the order they were submitted, as earlier ones complete. By default,
+	** there is no limit, other than that of each service.
+	**
+	** @throws IllegalArgumentException if {@code limit} is not positive
+	*/
+	public void setLookupLimit(int limit) {
+		if (limit <= 0) { throw new IllegalArgumentException("limit must be positive: " + limit); }
+		synchronized (lookup_backlog) {
+			lookup_limit = limit;
+		}
+		// start any lookups that now fit under a raised limit
+		startBacklog();
+	}
+
+	/**
+	** Returns the number of store lookups currently in flight.
+	*/
+	public int countLookups() {
+		synchronized (lookup_backlog) {
+			return lookups;
+		}
+	}
+
+	/**
+	** Run the given lookup, or add it to the backlog if the limit has been
+	** reached. This is called when services dispatch tasks, which may be in
+	** the thread that completed an earlier lookup, so it does not block.
+	**
+	** If the lookup throws when it is run (eg. because the store's executor
+	** rejected it), its place under the limit is given up. If it was run
+	** straight away, the exception is rethrown to the dispatcher; otherwise,
+	** it is passed to the given callback, wrapped in an {@link IOException}.
+	**
+	** @param cb Callback of the task that the lookup is for
+	*/
+	protected void startLookup(Runnable lookup, Callback<?, IOException> cb) {
+		synchronized (lookup_backlog) {
+			if (lookups >= lookup_limit) {
+				lookup_backlog.add(new PendingLookup(lookup, cb));
+				return;
+			}
+			++lookups;
+		}
+		try {
+			lookup.run();
+		} catch (RuntimeException e) {
+			endLookup();
+			throw e;
+		}
+	}
+
+	/**
+	** Returns a {@link Callback} that frees up the given lookup's place under
+	** the limit, starts the next lookup in the backlog, if any, and then
+	** passes the result on to the given callback.
+	*/
+	protected <V> Callback<V, IOException> endLookup(final Callback<V, IOException> cb) {
+		return new Callback<V, IOException>() {
+			@Override public void done(V val) {
+				endLookup();
+				cb.done(val);
+			}
+			@Override public void fail(IOException err) {
+				endLookup();
+				cb.fail(err);
+			}
+		};
+	}
+
+	protected void endLookup() {
+		synchronized (lookup_backlog) {
+			--lookups;
+		}
+		startBacklog();
+	}
+
+	/**
+	** Runs lookups from the backlog, for as long as there is room for them
+	** under the limit. A lookup that throws when it is run gives up its place,
+	** and its task is failed.
+	*/
+	protected void startBacklog() {
+		for (PendingLookup next; (next = pollLookup()) != null;) {
+			try {
+				next.lookup.run();
+			} catch (RuntimeException e) {
+				synchronized (lookup_backlog) {
+					--lookups;
+				}
+				next.cb.fail(new IOException("could not start lookup", e));
+			}
+		}
+	}
+
+	/**
+	** Takes the next lookup from the backlog and counts it as in flight, if
+	** there is room for it under the limit.
+	*/
+	protected PendingLookup pollLookup() {
+		synchronized (lookup_backlog) {
+			if (lookups >= lookup_limit || lookup_backlog.isEmpty()) { return null; }
+			++lookups;
+			return lookup_backlog.remove();
+		}
+	}
+
+	/** Completions waiting to be run by {@link #completeLater(Callback,
+	** Object)} in each thread; {@code null} if none is running. */
+	final protected static ThreadLocal<Queue<Runnable>> completions = new ThreadLocal<Queue<Runnable>>();
+
+	/**
+	** Pass the given value on to the given callback, in this thread, once any
+	** completion that this thread is already running has returned. This is
+	** used for lookups that are answered from a fragment cache: completing a
+	** task dispatches the next one in its service's backlog, so a run of cache
+	** hits would otherwise complete and dispatch tasks recursively.
+	**
+	** Hits are not handed to {@link #exec}, since its threads may all be held
+	** by layer jobs that are waiting for those very hits.
+	*/
+	protected <V> void completeLater(final Callback<V, IOException> cb, final V val) {
+		Runnable done = new Runnable() {
+			@Override public void run() {
+				cb.done(val);
+			}
+		};
+		Queue<Runnable> queue = completions.get();
+		if (queue != null) {
+			queue.add(done);
+			return;
+		}
+		queue = new LinkedList<Runnable>();
+		completions.set(queue);
+		RuntimeException err = null;
+		try {
+			for (; done != null; done = queue.poll()) {
+				try {
+					done.run();
+				} catch (RuntimeException e) {
+					// run the rest anyway, so that their tasks still complete
+					if (err == null) { err = e; }
+				}
+			}
+		} finally {
+			completions.remove();
+		}
+		if (err != null) { throw err; }
+	}
+
+	/*
+	** The services below take an optional monitor object, which is notified
+	** whenever a lookup completes; see Services.awaitComplete().
+	**
+	** Services other than the ptable service also take an optional owner, for
+	** which to reference the fragments they return. Fragments that are cached
+	** are returned without a store lookup.
+	*/
+
 	public TaskService<I, PTable<A, S>, IOException> makePTableService() {
-		// TODO HIGH better implementation than this
-		return new tags.util.exec.UnthreadedTaskService<I, PTable<A, S>, IOException>() {
-			@Override protected PTable<A, S> getResultFor(I id) throws IOException {
-				return sctl.getPTable(id);
+		return makePTableService(null);
+	}
+
+	public TaskService<I, PTable<A, S>, IOException> makePTableService(Object monitor) {
+		return new CallbackTaskService<I, PTable<A, S>, IOException>(parallel_ptb_lku, monitor) {
+			@Override protected void dispatch(final Task<I> task) {
+				final Callback<PTable<A, S>, IOException> cb = callbackFor(task);
+				startLookup(new Runnable() {
+					@Override public void run() {
+						asctl.getPTable(task.getKey(), endLookup(cb));
+					}
+				}, cb);
 			}
 		};
 	}
 
 	public TaskService<TGraph.Lookup<T, A>, U2Map<T, A, W>, IOException> makeTGraphService() {
-		// TODO HIGH better implementation than this
-		return new tags.util.exec.UnthreadedTaskService<TGraph.Lookup<T, A>, U2Map<T, A, W>, IOException>() {
-			@Override protected U2Map<T, A, W> getResultFor(TGraph.Lookup<T, A> lku) throws IOException {
-				return sctl.getTGraphOutgoing(lku.tgr, lku.tag);
+		return makeTGraphService(null);
+	}
+
+	public TaskService<TGraph.Lookup<T, A>, U2Map<T, A, W>, IOException> makeTGraphService(Object monitor) {
+		return makeTGraphService(monitor, null);
+	}
+
+	public TaskService<TGraph.Lookup<T, A>, U2Map<T, A, W>, IOException> makeTGraphService(Object monitor, final Object owner) {
+		return new CallbackTaskService<TGraph.Lookup<T, A>, U2Map<T, A, W>, IOException>(parallel_tgr_lku, monitor) {
+			@Override protected void dispatch(final Task<TGraph.Lookup<T, A>> task) {
+				final TGraph.Lookup<T, A> lku = task.getKey();
+				final Callback<U2Map<T, A, W>, IOException> cb = callbackFor(task);
+				FragmentCache.Fragment<U2Map<T, A, W>> frag = tgr_frags.acquire(lku, owner);
+				if (frag != null) { completeLater(cb, frag.value); return; }
+				startLookup(new Runnable() {
+					@Override public void run() {
+						asctl.getTGraphOutgoing(lku.tgr, lku.tag, endLookup(tgr_frags.callbackFor(lku, owner, cb)));
+					}
+				}, cb);
 			}
 		};
 	}
 
 	public TaskService<TGraph.NodeLookup<T, A>, U, IOException> makeTGraphNodeService() {
-		// TODO HIGH better implementation than this
-		return new tags.util.exec.UnthreadedTaskService<TGraph.NodeLookup<T, A>, U, IOException>() {
-			@Override protected U getResultFor(TGraph.NodeLookup<T, A> lku) throws IOException {
-				return sctl.getTGraphNodeAttr(lku.tgr, lku.node);
+		return makeTGraphNodeService(null);
+	}
+
+	public TaskService<TGraph.NodeLookup<T, A>, U, IOException> makeTGraphNodeService(Object monitor) {
+		return makeTGraphNodeService(monitor, null);
+	}
+
+	public TaskService<TGraph.NodeLookup<T, A>, U, IOException> makeTGraphNodeService(Object monitor, final Object owner) {
+		return new CallbackTaskService<TGraph.NodeLookup<T, A>, U, IOException>(parallel_tgr_node_lku, monitor) {
+			@Override protected void dispatch(final Task<TGraph.NodeLookup<T, A>> task) {
+				final TGraph.NodeLookup<T, A> lku = task.getKey();
+				final Callback<U, IOException> cb = callbackFor(task);
+				FragmentCache.Fragment<U> frag = tgr_node_frags.acquire(lku, owner);
+				if (frag != null) { completeLater(cb, frag.value); return; }
+				startLookup(new Runnable() {
+					@Override public void run() {
+						asctl.getTGraphNodeAttr(lku.tgr, lku.node, endLookup(tgr_node_frags.callbackFor(lku, owner, cb)));
+					}
+				}, cb);
+			}
+		};
+	}
+
+	public TaskService<TGraph.MultiLookup<T, A>, Map<T, U2Map<T, A, W>>, IOException> makeTGraphMultiService(Object monitor) {
+		return makeTGraphMultiService(monitor, null);
+	}
+
+	/**
+	** Makes a service for multi-lookups. Only the tags whose out-arcs are not
+	** cached are looked up in the store.
+	*/
+	public TaskService<TGraph.MultiLookup<T, A>, Map<T, U2Map<T, A, W>>, IOException> makeTGraphMultiService(Object monitor, final Object owner) {
+		return new CallbackTaskService<TGraph.MultiLookup<T, A>, Map<T, U2Map<T, A, W>>, IOException>(parallel_tgr_lku, monitor) {
+			@Override protected void dispatch(final Task<TGraph.MultiLookup<T, A>> task) {
+				final TGraph.MultiLookup<T, A> lku = task.getKey();
+				final Callback<Map<T, U2Map<T, A, W>>, IOException> cb = callbackFor(task);
+				final Map<T, U2Map<T, A, W>> outs = new HashMap<T, U2Map<T, A, W>>();
+				final Set<T> missing = new HashSet<T>();
+				for (T tag: lku.tags) {
+					FragmentCache.Fragment<U2Map<T, A, W>> frag = tgr_frags.acquire(TGraph.Lookup.make(lku.tgr, tag), owner);
+					if (frag == null) { missing.add(tag); }
+					else if (frag.value != null) { outs.put(tag, frag.value); }
+				}
+				if (missing.isEmpty()) { completeLater(cb, outs); return; }
+
+				startLookup(new Runnable() {
+					@Override public void run() {
+						asctl.getTGraphOutgoingMulti(lku.tgr, missing, endLookup(new Callback<Map<T, U2Map<T, A, W>>, IOException>() {
+							@Override public void done(Map<T, U2Map<T, A, W>> res) {
+								for (T tag: missing) {
+									U2Map<T, A, W> out = tgr_frags.put(TGraph.Lookup.make(lku.tgr, tag), res.get(tag), owner);
+									if (out != null) { outs.put(tag, out); }
+								}
+								cb.done(outs);
+							}
+							@Override public void fail(IOException err) {
+								cb.fail(err);
+							}
+						}));
+					}
+				}, cb);
+			}
+		};
+	}
+
+	public TaskService<TGraph.MultiNodeLookup<T, A>, Map<U2<T, A>, U>, IOException> makeTGraphMultiNodeService(Object monitor) {
+		return makeTGraphMultiNodeService(monitor, null);
+	}
+
+	/**
+	** Makes a service for multi-lookups. Only the nodes whose attributes are
+	** not cached are looked up in the store.
+	*/
+	public TaskService<TGraph.MultiNodeLookup<T, A>, Map<U2<T, A>, U>, IOException> makeTGraphMultiNodeService(Object monitor, final Object owner) {
+		return new CallbackTaskService<TGraph.MultiNodeLookup<T, A>, Map<U2<T, A>, U>, IOException>(parallel_tgr_node_lku, monitor) {
+			@Override protected void dispatch(final Task<TGraph.MultiNodeLookup<T, A>> task) {
+				final TGraph.MultiNodeLookup<T, A> lku = task.getKey();
+				final Callback<Map<U2<T, A>, U>, IOException> cb = callbackFor(task);
+				final Map<U2<T, A>, U> attrs = new HashMap<U2<T, A>, U>();
+				final Set<U2<T, A>> missing = new HashSet<U2<T, A>>();
+				for (U2<T, A> node: lku.nodes) {
+					FragmentCache.Fragment<U> frag = tgr_node_frags.acquire(TGraph.NodeLookup.make(lku.tgr, node), owner);
+					if (frag == null) { missing.add(node); }
+					else if (frag.value != null) { attrs.put(node, frag.value); }
+				}
+				if (missing.isEmpty()) { completeLater(cb, attrs); return; }
+
+				startLookup(new Runnable() {
+					@Override public void run() {
+						asctl.getTGraphNodeAttrs(lku.tgr, missing, endLookup(new Callback<Map<U2<T, A>, U>, IOException>() {
+							@Override public void done(Map<U2<T, A>, U> res) {
+								for (U2<T, A> node: missing) {
+									U attr = tgr_node_frags.put(TGraph.NodeLookup.make(lku.tgr, node), res.get(node), owner);
+									if (attr != null) { attrs.put(node, attr); }
+								}
+								cb.done(attrs);
+							}
+							@Override public void fail(IOException err) {
+								cb.fail(err);
+							}
+						}));
+					}
+				}, cb);
 			}
 		};
 	}
 
 	public TaskService<Index.Lookup<T, A>, U2Map<A, A, W>, IOException> makeIndexService() {
-		// TODO HIGH better implementation than this
-		return new tags.util.exec.UnthreadedTaskService<Index.Lookup<T, A>, U2Map<A, A, W>, IOException>() {
-			@Override protected U2Map<A, A, W> getResultFor(Index.Lookup<T, A> lku) throws IOException {
-				return sctl.getIndexOutgoing(lku.idx, lku.tag);
+		return makeIndexService(null);
+	}
+
+	public TaskService<Index.Lookup<T, A>, U2Map<A, A, W>, IOException> makeIndexService(Object monitor) {
+		return makeIndexService(monitor, null);
+	}
+
+	public TaskService<Index.Lookup<T, A>, U2Map<A, A, W>, IOException> makeIndexService(Object monitor, final Object owner) {
+		return new CallbackTaskService<Index.Lookup<T, A>, U2Map<A, A, W>, IOException>(parallel_idx_lku, monitor) {
+			@Override protected void dispatch(final Task<Index.Lookup<T, A>> task) {
+				final Index.Lookup<T, A> lku = task.getKey();
+				final Callback<U2Map<A, A, W>, IOException> cb = callbackFor(task);
+				FragmentCache.Fragment<U2Map<A, A, W>> frag = idx_frags.acquire(lku, owner);
+				if (frag != null) { completeLater(cb, frag.value); return; }
+				startLookup(new Runnable() {
+					@Override public void run() {
+						asctl.getIndexOutgoing(lku.idx, lku.tag, endLookup(idx_frags.callbackFor(lku, owner, cb)));
+					}
+				}, cb);
 			}
 		};
 	}
 
+	/**
+	** A lookup in the backlog, and the callback of the task it is for.
+	*/
+	protected static class PendingLookup {
+
+		final Runnable lookup;
+		final Callback<?, IOException> cb;
+
+		protected PendingLookup(Runnable lookup, Callback<?, IOException> cb) {
+			this.lookup = lookup;
+			this.cb = cb;
+		}
+
+	}
+
+	/**
+	** Weighs a map of arcs by its number of arcs.
+	*/
+	protected static class ArcWeigher implements Cache.Weigher<Object, U2Map<?, ?, ?>> {
+		@Override public long weigh(Object key, U2Map<?, ?, ?> out) {
+			return 1 + out.size();
+		}
+	}
+
+	/**
+	** Makes an executor that runs each task in a new virtual thread, so that
+	** layer control-loops and blocking store lookups, which spend most of
+	** their time waiting, do not exhaust a pool of platform threads. This
+	** suits running thousands of processes at once; it may be used for both
+	** {@link #exec} and {@link #exec_sctl}.
+	**
+	** Virtual threads need Java 21 or later. There is no fallback on earlier
+	** versions, since an unbounded pool of platform threads would not bear
+	** the same load; check {@link #hasVirtualThreads()} first.
+	**
+	** @throws UnsupportedOperationException if this JVM has no virtual
+	**         threads
+	*/
+	public static Executor makeVirtualThreadExecutor() {
+		try {
+			// looked up reflectively, since we are built for older versions
+			Method make = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (Executor)make.invoke(null);
+		} catch (NoSuchMethodException e) {
+			throw new UnsupportedOperationException("virtual threads need Java 21 or later");
+		} catch (IllegalAccessException e) {
+			throw new AssertionError(e);
+		} catch (InvocationTargetException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	** Whether {@link #makeVirtualThreadExecutor()} makes virtual threads on
+	** this JVM.
+	*/
+	public static boolean hasVirtualThreads() {
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
 	public static Executor makeDefaultExecutor() {
 		return new ThreadPoolExecutor(
 		  0x40, 0x40, 1, TimeUnit.SECONDS,
@@ -103,4 +621,29 @@ public class QueryEnvironment<I, T, A, U, W, S, Z> {
 		);
 	}
 
+	/**
+	** Makes a bounded executor suitable for running blocking store lookups.
+	** Idle threads are reclaimed, and all threads are daemon threads, so an
+	** unused executor does not keep the JVM alive.
+	**
+	** Tasks are never rejected or run in the caller's thread, since lookups
+	** are dispatched by {@link CallbackTaskService}s from control-loops and
+	** completion callbacks, which must not block.
+	*/
+	public static Executor makeDefaultStoreExecutor() {
+		ThreadPoolExecutor exec = new ThreadPoolExecutor(
+		  0x20, 0x20, 4, TimeUnit.SECONDS,
+		  new LinkedBlockingQueue<Runnable>(),
+		  new ThreadFactory() {
+			@Override public Thread newThread(Runnable r) {
+				Thread th = new Thread(r, "store-lookup");
+				th.setDaemon(true);
+				return th;
+			}
+		  }
+		);
+		exec.allowCoreThreadTimeOut(true);
+		return exec;
+	}
+
 }
@@ -62,6 +62,24 @@ public class QueryProcess<I, T, A, U, W, S, Z> extends Query<I, T> {
 		this.routing = new Routing<T, A, W, S>(this, mod_idx_cmp, mod_lku_scr, view_fac_h, score_inf_h);
 	}
 
+	/**
+	** Stop the process: stop running lookups, free any thread that they were
+	** using, and release this process's references to the environment's
+	** shared fragments. Further requests for more data are rejected; results
+	** obtained so far remain available. Work already started by the other
+	** layers runs to completion, but its results are discarded.
+	**
+	** This may be called more than once.
+	*/
+	public void close() {
+		routing.close();
+		env.releaseFragments(this);
+	}
+
+	public boolean isClosed() {
+		return routing.isClosed();
+	}
+
 	public void getMoreData() throws MessageRejectedException {
 		routing.recv(Routing.MRecv.REQ_MORE_DATA);
 		++steps;
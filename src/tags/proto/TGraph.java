@@ -231,4 +231,56 @@ public class TGraph<T, A, U, W> {
 
 	}
 
+	/**
+	** A lookup of the out-arcs of several tags in the same tgraph. Unlike
+	** {@link Lookup}, this uses identity equality, since the same batch is
+	** never submitted twice.
+	*/
+	public static class MultiLookup<T, A> {
+
+		final public A tgr;
+		final public Set<T> tags;
+
+		public MultiLookup(A tgr, Set<T> tags) {
+			if (tgr == null || tags == null) { throw new NullPointerException(); }
+			this.tgr = tgr;
+			this.tags = tags;
+		}
+
+		@Override public String toString() {
+			return "(" + tgr + ": " + tags.size() + " tags)";
+		}
+
+		public static <T, A> MultiLookup<T, A> make(A tgr, Set<T> tags) {
+			return new MultiLookup<T, A>(tgr, tags);
+		}
+
+	}
+
+	/**
+	** A lookup of the attributes of several nodes in the same tgraph. Unlike
+	** {@link NodeLookup}, this uses identity equality, since the same batch
+	** is never submitted twice.
+	*/
+	public static class MultiNodeLookup<T, A> {
+
+		final public A tgr;
+		final public Set<U2<T, A>> nodes;
+
+		public MultiNodeLookup(A tgr, Set<U2<T, A>> nodes) {
+			if (tgr == null || nodes == null) { throw new NullPointerException(); }
+			this.tgr = tgr;
+			this.nodes = nodes;
+		}
+
+		@Override public String toString() {
+			return "(" + tgr + ": " + nodes.size() + " nodes)";
+		}
+
+		public static <T, A> MultiNodeLookup<T, A> make(A tgr, Set<U2<T, A>> nodes) {
+			return new MultiNodeLookup<T, A>(tgr, nodes);
+		}
+
+	}
+
 }
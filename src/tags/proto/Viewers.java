@@ -3,6 +3,7 @@ package tags.proto;
 
 import tags.util.Maps;
 import tags.util.MapViewer;
+import tags.util.DoubleViewer;
 
 import tags.util.Maps.U2Map;
 import tags.util.Union.U2;
@@ -69,6 +70,27 @@ final public class Viewers {
 		}
 	};
 
+	final protected static DoubleViewer pg_dview_en = new DoubleViewer<TGraph, U2>() {
+		@Override public double valueFor(TGraph obj, U2 item) {
+			Probability p = (Probability)obj.nodeMap().get(item);
+			return p == null? Double.NaN: -Math.log(p.val)/Entropy.LOG2;
+		}
+	};
+
+	final protected static DoubleViewer pg_dview_a = new DoubleViewer<TGraph, U2>() {
+		@Override public double valueFor(TGraph obj, U2 item) {
+			Probability p = (Probability)obj.arcMap().get(item);
+			return p == null? Double.NaN: p.val;
+		}
+	};
+
+	final protected static DoubleViewer ph_dview_a = new DoubleViewer<Index, U2>() {
+		@Override public double valueFor(Index obj, U2 item) {
+			Probability p = (Probability)obj.arcMap().get(item);
+			return p == null? Double.NaN: p.val;
+		}
+	};
+
 	@SuppressWarnings("unchecked") public static <A, S> MapViewer<PTable<A, S>, Map<A, S>> PTableTGraphs() {
 		return (MapViewer<PTable<A, S>, Map<A, S>>)p_view_g;
 	}
@@ -93,4 +115,16 @@ final public class Viewers {
 		return (MapViewer<LocalTGraph<T, A, Probability, Probability>, U2Map<T, A, Entropy>>)pg_view_en;
 	}
 
+	@SuppressWarnings("unchecked") public static <T, A> DoubleViewer<LocalTGraph<T, A, Probability, Probability>, U2<T, A>> ProbabilityTGraphEntropyNodes() {
+		return (DoubleViewer<LocalTGraph<T, A, Probability, Probability>, U2<T, A>>)pg_dview_en;
+	}
+
+	@SuppressWarnings("unchecked") public static <T, A> DoubleViewer<LocalTGraph<T, A, Probability, Probability>, U2<Arc<T, T>, Arc<T, A>>> ProbabilityTGraphArcs() {
+		return (DoubleViewer<LocalTGraph<T, A, Probability, Probability>, U2<Arc<T, T>, Arc<T, A>>>)pg_dview_a;
+	}
+
+	@SuppressWarnings("unchecked") public static <T, A> DoubleViewer<LocalIndex<T, A, Probability>, U2<Arc<T, A>, Arc<T, A>>> ProbabilityIndexArcs() {
+		return (DoubleViewer<LocalIndex<T, A, Probability>, U2<Arc<T, A>, Arc<T, A>>>)ph_dview_a;
+	}
+
 }
@@ -9,24 +9,17 @@ import tags.proto.route.Routing;
 import tags.util.exec.MessageReceiver;
 import tags.util.exec.MessageRejectedException;
 import tags.util.exec.Services;
-import tags.util.exec.TaskResult;
-import tags.util.exec.TaskService;
 import java.io.IOException;
 
-import tags.proto.MultiParts;
-import tags.util.Maps;
-
 import tags.proto.PTable;
-import tags.util.Maps.MapX2;
 import java.util.Map;
-import java.util.HashMap;
 
 /**
 ** DOCUMENT.
 **
-** OPT NORM abstract away from QueryProcess since this depends only on the
-** identity and not any query tag, and therefore can be run continually in the
-** background.
+** The table depends only on the identity and not any query tag, so it is
+** taken from the environment's {@link PTableCache}, and shared with all other
+** queries from the same identity.
 **
 ** @param <I> Type of identity
 ** @param <A> Type of address
@@ -41,9 +34,6 @@ extends LayerService<QueryProcess<I, ?, A, ?, ?, S, Z>, Contact.State, Contact.M
 
 	final protected PTableComposer<I, A, S, Z> mod_ptb_cmp;
 
-	// TODO NORM maybe use a DataSources for this too...
-	final protected MapX2<I, PTable<A, S>, Z> source;
-
 	volatile protected PTable<A, S> table;
 
 	public Contact(
@@ -53,7 +43,6 @@ extends LayerService<QueryProcess<I, ?, A, ?, ?, S, Z>, Contact.State, Contact.M
 		super("C", proc, State.NEW);
 		if (mod_ptb_cmp == null) { throw new NullPointerException(); }
 		this.mod_ptb_cmp = mod_ptb_cmp;
-		this.source = Maps.convoluteStrict(new HashMap<I, PTable<A, S>>(), new HashMap<I, Z>(), Maps.BaseMapX2.Inclusion.EQUAL);
 	}
 
 	@Override public synchronized void recv(MRecv msg) throws MessageRejectedException {
@@ -83,47 +72,12 @@ extends LayerService<QueryProcess<I, ?, A, ?, ?, S, Z>, Contact.State, Contact.M
 	}
 
 	protected void makePTable() {
-		TaskService<I, PTable<A, S>, IOException> srv = proc.env.makePTableService();
 		try {
-			Map<I, Z> id_score = proc.env.getTrustedIDs(proc.id);
-
-			for (I id: id_score.keySet()) { srv.submit(Services.newTask(id)); }
-			do {
-				while (srv.hasComplete()) {
-					TaskResult<I, PTable<A, S>, IOException> res = srv.reclaim();
-					if (res.getValue() == null) { throw new NullPointerException(); }
-					source.putX2(res.getKey(), res.getValue(), id_score.get(res.getKey()));
-				}
-
-				Thread.sleep(proc.env.interval);
-			} while (srv.hasPending());
-
-		} catch (InterruptedException e) {
-			throw new UnsupportedOperationException(e); // FIXME HIGH
+			table = proc.env.getPTableCache(mod_ptb_cmp).get(proc.id);
 		} catch (IOException e) {
 			throw new RuntimeException(e); // FIXME HIGH
-		} finally {
-			srv.close();
-		}
-
-		table = composePTable();
-	}
-
-	/**
-	** Make a new {@link #table} from {@link #source}. To be called
-	** whenever the latter changes.
-	*/
-	protected PTable<A, S> composePTable() {
-		Map<A, S> g = new HashMap<A, S>(), h = new HashMap<A, S>();
-		// for (Map.Entry<I, PTable<A, S>> en: source.MapV0().entrySet()) { System.out.println(en); }
-		for (A addr: Maps.domain(MultiParts.iterTGraphs(source.MapV0().values()))) {
-			g.put(addr, mod_ptb_cmp.composePTableGNode(source, addr));
-		}
-		for (A addr: Maps.domain(MultiParts.iterIndexes(source.MapV0().values()))) {
-			h.put(addr, mod_ptb_cmp.composePTableHNode(source, addr));
 		}
-		proc.log(String.format("composePTable: %d tgraphs, %d indexes", g.size(), h.size()));
-		return new PTable<A, S>(g, h);
+		proc.log(String.format("makePTable: %d tgraphs, %d indexes", table.getTGraphs().size(), table.getIndexes().size()));
 	}
 
 }
@@ -0,0 +1,204 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.proto.cont;
+
+import tags.proto.QueryEnvironment;
+import tags.util.Cache;
+import tags.util.LRUCache;
+
+import tags.util.exec.Services;
+import tags.util.exec.TaskResult;
+import tags.util.exec.TaskService;
+import java.io.IOException;
+
+import tags.proto.MultiParts;
+import tags.util.Maps;
+
+import tags.proto.PTable;
+import tags.util.Maps.MapX2;
+import java.util.Map;
+import java.util.Set;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Collections;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+** A cache of composed {@link PTable}s, by identity. A composed table depends
+** only on the identity and not on any query tag, so all {@link Contact}s of
+** the same identity in an environment share one, rather than each fetching
+** every friend's table and composing them again.
+**
+** Tables are loaded on first use; concurrent queries from the same identity
+** wait for a single load. A table older than the {@linkplain
+** #setRefreshInterval(long) refresh interval} is recomposed in the background
+** the next time it is used, whilst the old one keeps being returned until the
+** new one is ready. Refreshes are run one at a time, in a thread of their own
+** rather than one of the environment's executors, since each one blocks until
+** its lookups complete.
+**
+** @param <I> Type of identity
+** @param <A> Type of address
+** @param <S> Type of score
+** @param <Z> Type of identity-score
+*/
+public class PTableCache<I, A, S, Z> {
+
+	/** Default number of identities to keep tables for. */
+	final public static int DEFAULT_CAPACITY = 0x400;
+	/** Default age (in ms) after which a table is recomposed. */
+	final public static long DEFAULT_REFRESH_INTERVAL = 600000;
+
+	final protected QueryEnvironment<I, ?, A, ?, ?, S, Z> env;
+	final protected PTableComposer<I, A, S, Z> mod_ptb_cmp;
+	final protected Cache<I, Entry<A, S>> cache;
+
+	/** Identities whose tables are being recomposed in the background. */
+	final protected Set<I> refreshing = new HashSet<I>();
+	protected long refresh = DEFAULT_REFRESH_INTERVAL;
+
+	/** Runs the refreshes; its thread exits when there are none to run. */
+	final protected ThreadPoolExecutor refresher = new ThreadPoolExecutor(
+	  0, 1, 4, TimeUnit.SECONDS,
+	  new LinkedBlockingQueue<Runnable>(),
+	  new ThreadFactory() {
+		@Override public Thread newThread(Runnable r) {
+			Thread th = new Thread(r, "ptable-refresh");
+			th.setDaemon(true);
+			return th;
+		}
+	  }
+	);
+
+	final protected Cache.Loader<I, Entry<A, S>> loader = new Cache.Loader<I, Entry<A, S>>() {
+		@Override public Entry<A, S> load(I id) throws IOException {
+			return new Entry<A, S>(makePTable(id));
+		}
+	};
+
+	/**
+	** @param env Environment to look up tables in
+	** @param mod_ptb_cmp Composer to compose tables with
+	** @param capacity Number of identities to keep tables for
+	*/
+	public PTableCache(QueryEnvironment<I, ?, A, ?, ?, S, Z> env, PTableComposer<I, A, S, Z> mod_ptb_cmp, int capacity) {
+		if (env == null || mod_ptb_cmp == null) { throw new NullPointerException(); }
+		this.env = env;
+		this.mod_ptb_cmp = mod_ptb_cmp;
+		this.cache = new LRUCache<I, Entry<A, S>>(capacity, new Cache.Weigher<I, Entry<A, S>>() {
+			@Override public long weigh(I id, Entry<A, S> en) {
+				return 1;
+			}
+		});
+	}
+
+	public PTableCache(QueryEnvironment<I, ?, A, ?, ?, S, Z> env, PTableComposer<I, A, S, Z> mod_ptb_cmp) {
+		this(env, mod_ptb_cmp, DEFAULT_CAPACITY);
+	}
+
+	/**
+	** Set the age (in ms) after which a table is recomposed in the background
+	** when next used, or 0 to never recompose tables. The default is {@link
+	** #DEFAULT_REFRESH_INTERVAL}.
+	*/
+	public synchronized void setRefreshInterval(long refresh) {
+		if (refresh < 0) { throw new IllegalArgumentException("refresh interval must be non-negative: " + refresh); }
+		this.refresh = refresh;
+	}
+
+	/**
+	** Returns the composed table for the given identity, loading it if it is
+	** not cached.
+	**
+	** This method blocks until the table is available.
+	*/
+	public PTable<A, S> get(I id) throws IOException {
+		Entry<A, S> en = cache.get(id, loader);
+		maybeRefresh(id, en);
+		return en.table;
+	}
+
+	/**
+	** Drops the cached table for the given identity, so that it is loaded
+	** again the next time it is needed.
+	*/
+	public void invalidate(I id) {
+		cache.remove(id);
+	}
+
+	public Cache<I, ?> getCache() {
+		return cache;
+	}
+
+	protected void maybeRefresh(final I id, Entry<A, S> en) {
+		synchronized (this) {
+			if (refresh == 0 || System.currentTimeMillis() - en.time < refresh) { return; }
+			if (!refreshing.add(id)) { return; }
+		}
+		refresher.execute(new Runnable() {
+			@Override public void run() {
+				try {
+					cache.put(id, new Entry<A, S>(makePTable(id)));
+				} catch (IOException e) {
+					// keep the old table; try again next time
+				} catch (RuntimeException e) {
+					// likewise
+				} finally {
+					synchronized (PTableCache.this) { refreshing.remove(id); }
+				}
+			}
+		});
+	}
+
+	/**
+	** Fetches the tables of the given identity's trusted identities, and
+	** composes them into a single table.
+	**
+	** This method blocks until the operation is complete.
+	*/
+	protected PTable<A, S> makePTable(I id) throws IOException {
+		MapX2<I, PTable<A, S>, Z> source = Maps.convoluteStrict(new HashMap<I, PTable<A, S>>(), new HashMap<I, Z>(), Maps.BaseMapX2.Inclusion.EQUAL);
+		TaskService<I, PTable<A, S>, IOException> srv = env.makePTableService();
+		try {
+			Map<I, Z> id_score = env.getTrustedIDs(id);
+
+			for (I fid: id_score.keySet()) { srv.submit(Services.newTask(fid)); }
+			while (srv.hasPending()) {
+				// blocks until the next ptable arrives
+				TaskResult<I, PTable<A, S>, IOException> res = srv.reclaim();
+				if (res.getValue() == null) { throw new NullPointerException(); }
+				source.putX2(res.getKey(), res.getValue(), id_score.get(res.getKey()));
+			}
+		} finally {
+			srv.close();
+		}
+
+		return composePTable(source);
+	}
+
+	/**
+	** Make a new table from the given sources.
+	*/
+	protected PTable<A, S> composePTable(MapX2<I, PTable<A, S>, Z> source) {
+		Map<A, S> g = new HashMap<A, S>(), h = new HashMap<A, S>();
+		for (A addr: Maps.domain(MultiParts.iterTGraphs(source.MapV0().values()))) {
+			g.put(addr, mod_ptb_cmp.composePTableGNode(source, addr));
+		}
+		for (A addr: Maps.domain(MultiParts.iterIndexes(source.MapV0().values()))) {
+			h.put(addr, mod_ptb_cmp.composePTableHNode(source, addr));
+		}
+		// shared between queries, so must not be modified
+		return new PTable<A, S>(Collections.unmodifiableMap(g), Collections.unmodifiableMap(h));
+	}
+
+	protected static class Entry<A, S> {
+		final PTable<A, S> table;
+		final long time = System.currentTimeMillis();
+		Entry(PTable<A, S> table) {
+			this.table = table;
+		}
+	}
+
+}
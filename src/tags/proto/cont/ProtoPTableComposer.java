@@ -76,4 +76,20 @@ public class ProtoPTableComposer<I, A> implements PTableComposer<I, A, Probabili
 		return val_cmp_h.composeValue(src_score, item);
 	}
 
+	/**
+	** Two composers are equal if they are of the same class and have the same
+	** {@link #alpha}, so that processes can share the tables they compose; see
+	** {@link PTableCache}.
+	*/
+	@Override public boolean equals(Object o) {
+		if (o == this) { return true; }
+		if (o == null || o.getClass() != getClass()) { return false; }
+		return Double.compare(alpha, ((ProtoPTableComposer)o).alpha) == 0;
+	}
+
+	@Override public int hashCode() {
+		long bits = Double.doubleToLongBits(alpha);
+		return getClass().hashCode() ^ (int)(bits ^ (bits >>> 32));
+	}
+
 }
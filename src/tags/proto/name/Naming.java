@@ -8,6 +8,7 @@ import tags.proto.cont.Contact;
 
 import tags.util.exec.MessageReceiver;
 import tags.util.exec.MessageRejectedException;
+import tags.util.exec.Monitor;
 import tags.util.exec.Services;
 import tags.util.exec.TaskResult;
 import tags.util.exec.TaskService;
@@ -22,10 +23,13 @@ import java.util.Collections;
 import tags.proto.AddressScheme;
 import tags.proto.DataSources;
 import tags.proto.LocalTGraph;
-import tags.proto.FullTGraph;
+import tags.proto.CompositeTGraph;
 import tags.proto.TGraph.Lookup;
 import tags.proto.TGraph.NodeLookup;
+import tags.proto.TGraph.MultiLookup;
+import tags.proto.TGraph.MultiNodeLookup;
 import tags.util.Maps.U2Map;
+import tags.util.Union;
 import tags.util.Union.U2;
 import tags.util.Arc;
 import java.util.Iterator;
@@ -55,7 +59,12 @@ extends LayerService<QueryProcess<?, T, A, U, W, S, ?>, Naming.State, Naming.MRe
 
 	final protected DataSources<A, LocalTGraph<T, A, U, W>, S> source;
 
-	protected FullTGraph<T, A, U, W> graph;
+	protected CompositeTGraph<T, A, U, W> graph;
+	// scores of the data sources when graph was last composed
+	protected Map<A, S> graph_score;
+	// nodes and arcs of the data sources that have changed since then
+	final protected Set<U2<T, A>> dirty_node = new HashSet<U2<T, A>>();
+	final protected Set<U2<Arc<T, T>, Arc<T, A>>> dirty_arc = new HashSet<U2<Arc<T, T>, Arc<T, A>>>();
 	volatile protected AddressScheme<T, A, W> scheme;
 
 	public Naming(
@@ -109,8 +118,7 @@ extends LayerService<QueryProcess<?, T, A, U, W, S, ?>, Naming.State, Naming.MRe
 					// complete the next tag in the address scheme
 					execute(new Runnable() {
 						@Override public void run() {
-							addTagAndComplete(scheme.getIncomplete());
-							updateAddressScheme();
+							if (addTagAndComplete(scheme.getIncomplete())) { updateAddressScheme(); }
 						}
 					}, Services.defer(proc.routing, Routing.MRecv.RECV_ADDR_SCH));
 
@@ -118,8 +126,7 @@ extends LayerService<QueryProcess<?, T, A, U, W, S, ?>, Naming.State, Naming.MRe
 					// add a tgraph as a data source
 					execute(new Runnable() {
 						@Override public void run() {
-							addDataSourceAndComplete(scheme.getNearestTGraph());
-							updateAddressScheme();
+							if (addDataSourceAndComplete(scheme.getNearestTGraph())) { updateAddressScheme(); }
 						}
 					}, Services.defer(proc.routing, Routing.MRecv.RECV_ADDR_SCH));
 
@@ -145,71 +152,90 @@ extends LayerService<QueryProcess<?, T, A, U, W, S, ?>, Naming.State, Naming.MRe
 		return scheme == null? 0: scheme.nodeList().size();
 	}
 
-	protected void addDataSourceAndComplete(A addr) {
+	/**
+	** Add the given tgraph as a data source, and retrieve the out-arcs of all
+	** the tags already completed in the other sources. If the thread is
+	** interrupted whilst waiting for these, the process is {@linkplain
+	** QueryProcess#close() closed}, and the interrupt flag is set again.
+	**
+	** @return Whether the source was completed, ie. the thread was not
+	**         interrupted
+	*/
+	protected boolean addDataSourceAndComplete(A addr) {
 		proc.log("addDataSourceAndComplete: " + addr);
 
 		LocalTGraph<T, A, U, W> view = source.useSource(addr);
 		Set<T> old_complete = getCompletedTags();
 
-		TaskService<Lookup<T, A>, U2Map<T, A, W>, IOException> srv = proc.env.makeTGraphService();
-		TaskService<NodeLookup<T, A>, U, IOException> srv_node = proc.env.makeTGraphNodeService();
+		Monitor monitor = new Monitor();
+		TaskService<MultiLookup<T, A>, Map<T, U2Map<T, A, W>>, IOException> srv = proc.env.makeTGraphMultiService(monitor, proc);
+		TaskService<MultiNodeLookup<T, A>, Map<U2<T, A>, U>, IOException> srv_node = proc.env.makeTGraphMultiNodeService(monitor, proc);
 		Set<NodeLookup<T, A>> submitted = new HashSet<NodeLookup<T, A>>();
+		Map<A, Set<U2<T, A>>> pending = new HashMap<A, Set<U2<T, A>>>();
 		Map<T, U2Map<T, A, W>> outgoing = new HashMap<T, U2Map<T, A, W>>();
 
 		try {
-			for (T tag: old_complete) {
-				srv.submit(Services.newTask(Lookup.make(addr, tag)));
-				NodeLookup<T, A> lku = NodeLookup.makeT(addr, tag);
-				srv_node.submit(Services.newTask(lku));
-				submitted.add(lku);
+			if (!old_complete.isEmpty()) {
+				srv.submit(Services.newTask(MultiLookup.make(addr, old_complete)));
+				Set<U2<T, A>> nodes = new HashSet<U2<T, A>>();
+				for (T tag: old_complete) {
+					NodeLookup<T, A> lku = NodeLookup.makeT(addr, tag);
+					nodes.add(lku.node);
+					submitted.add(lku);
+				}
+				srv_node.submit(Services.newTask(MultiNodeLookup.make(addr, nodes)));
 			}
 
 			do {
 				// handle downloaded node-attributes
 				while (srv_node.hasComplete()) {
-					TaskResult<NodeLookup<T, A>, U, IOException> res = srv_node.reclaim();
-					U2<T, A> node = res.getKey().node;
+					TaskResult<MultiNodeLookup<T, A>, Map<U2<T, A>, U>, IOException> res = srv_node.reclaim();
+					Map<U2<T, A>, U> attrs = res.getValue();
 
-					if (node.isT0()) {
-						T tag = node.getT0();
-						view.setNodeAttrT(tag, res.getValue());
-						if (outgoing.containsKey(tag)) {
+					for (U2<T, A> node: res.getKey().nodes) {
+						setNodeAttr(view, node, attrs.get(node));
+						if (node.isT0() && outgoing.containsKey(node.getT0())) {
 							// pick up the outgoing map too, if it's there
-							view.setOutgoingT(tag, outgoing.remove(tag));
+							setOutgoingT(view, node.getT0(), outgoing.remove(node.getT0()));
 						}
-					} else {
-						view.setNodeAttrG(node.getT1(), res.getValue());
 					}
 				}
 
 				// handle downloaded arc-maps
 				while (srv.hasComplete()) {
-					TaskResult<Lookup<T, A>, U2Map<T, A, W>, IOException> res = srv.reclaim();
-					T tag = res.getKey().tag;
-					U2Map<T, A, W> out = res.getValue();
-
-					if (view.nodeMap().K0Map().containsKey(tag)) {
-						// if we've already added the node-attribute
-						view.setOutgoingT(tag, out);
-					} else {
-						// otherwise store it and pick it up later, when we have the node-attribute
-						outgoing.put(tag, out);
-					}
+					TaskResult<MultiLookup<T, A>, Map<T, U2Map<T, A, W>>, IOException> res = srv.reclaim();
+					Map<T, U2Map<T, A, W>> outs = res.getValue();
+
+					for (T tag: res.getKey().tags) {
+						U2Map<T, A, W> out = outs.get(tag);
+
+						if (view.nodeMap().K0Map().containsKey(tag)) {
+							// if we've already added the node-attribute
+							setOutgoingT(view, tag, out);
+						} else {
+							// otherwise store it and pick it up later, when we have the node-attribute
+							outgoing.put(tag, out);
+						}
+						if (out == null) { continue; }
 
-					// retrieve node-attributes of all out-neighbours
-					for (U2<T, A> u2: out.keySet()) {
-						getAttributesForNode(u2, submitted, srv_node);
+						// retrieve node-attributes of all out-neighbours
+						for (U2<T, A> u2: out.keySet()) {
+							getAttributesForNode(u2, submitted, pending);
+						}
 					}
 				}
+				submitNodeLookups(pending, srv_node);
 
-				Thread.sleep(proc.env.interval);
-			} while (srv.hasPending() || srv_node.hasPending());
+			} while (Services.awaitComplete(monitor, srv, srv_node));
 
 			assert outgoing.isEmpty();
 			assert getCompletedTags().equals(old_complete);
+			return true;
 
 		} catch (InterruptedException e) {
-			throw new UnsupportedOperationException(e); // FIXME HIGH
+			proc.close();
+			Thread.currentThread().interrupt();
+			return false;
 		} catch (IOException e) {
 			throw new RuntimeException(e); // FIXME HIGH
 		} finally {
@@ -218,16 +244,27 @@ extends LayerService<QueryProcess<?, T, A, U, W, S, ?>, Naming.State, Naming.MRe
 		}
 	}
 
-	protected void addTagAndComplete(T tag) {
+	/**
+	** Retrieve the out-arcs of the given tag, in all data sources. If the
+	** thread is interrupted whilst waiting for these, the process is
+	** {@linkplain QueryProcess#close() closed}, and the interrupt flag is set
+	** again.
+	**
+	** @return Whether the tag was completed, ie. the thread was not
+	**         interrupted
+	*/
+	protected boolean addTagAndComplete(T tag) {
 		proc.log("addTagAndComplete: " + tag);
 
 		Map<A, LocalTGraph<T, A, U, W>> local = source.localMap();
 
-		TaskService<Lookup<T, A>, U2Map<T, A, W>, IOException> srv = proc.env.makeTGraphService();
-		TaskService<NodeLookup<T, A>, U, IOException> srv_node = proc.env.makeTGraphNodeService();
+		Monitor monitor = new Monitor();
+		TaskService<Lookup<T, A>, U2Map<T, A, W>, IOException> srv = proc.env.makeTGraphService(monitor, proc);
+		TaskService<MultiNodeLookup<T, A>, Map<U2<T, A>, U>, IOException> srv_node = proc.env.makeTGraphMultiNodeService(monitor, proc);
 		Set<NodeLookup<T, A>> submitted = new HashSet<NodeLookup<T, A>>();
+		Map<A, Set<U2<T, A>>> pending = new HashMap<A, Set<U2<T, A>>>();
 
-		if (getCompletedTags().contains(tag)) { return; }
+		if (getCompletedTags().contains(tag)) { return true; }
 
 		try {
 			// retrieve outgoing arcs of tag, in all sources
@@ -246,11 +283,12 @@ extends LayerService<QueryProcess<?, T, A, U, W, S, ?>, Naming.State, Naming.MRe
 			do {
 				// handle downloaded node-attributes
 				while (srv_node.hasComplete()) {
-					TaskResult<NodeLookup<T, A>, U, IOException> res = srv_node.reclaim();
+					TaskResult<MultiNodeLookup<T, A>, Map<U2<T, A>, U>, IOException> res = srv_node.reclaim();
 					LocalTGraph<T, A, U, W> view = local.get(res.getKey().tgr);
-					view.setNodeAttr(res.getKey().node, res.getValue());
-					//proc.log("addTagAndComplete: setting node attribute for " + res.getKey().node + " in " + view.addr);
-					// can reproduce with ./run.sh -d ../scrape -s 51114580@N00 -i 1000 -n 64 -v google
+					Map<U2<T, A>, U> attrs = res.getValue();
+					for (U2<T, A> node: res.getKey().nodes) {
+						setNodeAttr(view, node, attrs.get(node));
+					}
 				}
 
 				// handle downloaded arc-maps
@@ -261,21 +299,24 @@ extends LayerService<QueryProcess<?, T, A, U, W, S, ?>, Naming.State, Naming.MRe
 
 					assert res.getKey().tag.equals(tag);
 					assert view.nodeMap().K0Map().containsKey(tag);
-					view.setOutgoingT(tag, out);
+					setOutgoingT(view, tag, out);
 
 					// retrieve node-attributes of all out-neighbours
 					for (U2<T, A> u2: out.keySet()) {
-						getAttributesForNode(u2, submitted, srv_node);
+						getAttributesForNode(u2, submitted, pending);
 					}
 				}
+				submitNodeLookups(pending, srv_node);
 
-				Thread.sleep(proc.env.interval);
-			} while (srv.hasPending() || srv_node.hasPending());
+			} while (Services.awaitComplete(monitor, srv, srv_node));
 
 			assert getCompletedTags().contains(tag);
+			return true;
 
 		} catch (InterruptedException e) {
-			throw new UnsupportedOperationException(e); // FIXME HIGH
+			proc.close();
+			Thread.currentThread().interrupt();
+			return false;
 		} catch (IOException e) {
 			throw new RuntimeException(e); // FIXME HIGH
 		} finally {
@@ -285,12 +326,33 @@ extends LayerService<QueryProcess<?, T, A, U, W, S, ?>, Naming.State, Naming.MRe
 	}
 
 	/**
-	** Submit a request to load the attributes for a given node (in all data
-	** sources; see source code for notes.)
+	** Load a node-attribute into the given data source, and mark the node as
+	** changed for the next {@link #composeTGraph()}.
+	*/
+	protected void setNodeAttr(LocalTGraph<T, A, U, W> view, U2<T, A> node, U attr) throws IOException {
+		view.setNodeAttr(node, attr);
+		dirty_node.add(node);
+	}
+
+	/**
+	** Load a tag's out-arcs into the given data source, and mark the arcs as
+	** changed for the next {@link #composeTGraph()}.
+	*/
+	protected void setOutgoingT(LocalTGraph<T, A, U, W> view, T tag, U2Map<T, A, W> out) throws IOException {
+		view.setOutgoingT(tag, out);
+		if (out == null) { return; }
+		for (T dst: out.K0Map().keySet()) { dirty_arc.add(Union.<Arc<T, T>, Arc<T, A>>U2_0(Arc.arc(tag, dst))); }
+		for (A dst: out.K1Map().keySet()) { dirty_arc.add(Union.<Arc<T, T>, Arc<T, A>>U2_1(Arc.arc(tag, dst))); }
+	}
+
+	/**
+	** Queue a request to load the attributes for a given node (in all data
+	** sources; see source code for notes.) Requests are held in {@code
+	** pending} until {@link #submitNodeLookups(Map, TaskService)} is called.
 	*/
 	protected void getAttributesForNode(
 	  U2<T, A> u2, Set<NodeLookup<T, A>> submitted,
-	  TaskService<NodeLookup<T, A>, U, IOException> srv_node
+	  Map<A, Set<U2<T, A>>> pending
 	) {
 		// OPT NORM due to the default compose algorithm, we need to retrieve a
 		// node's attribute in *all data sources*, for *any* node encountered in
@@ -309,8 +371,26 @@ extends LayerService<QueryProcess<?, T, A, U, W, S, ?>, Naming.State, Naming.MRe
 			// don't submit same node twice
 			if (submitted.contains(lku)) { continue; }
 			submitted.add(lku);
-			srv_node.submit(Services.newTask(lku));
+			Set<U2<T, A>> nodes = pending.get(view.addr);
+			if (nodes == null) { pending.put(view.addr, nodes = new HashSet<U2<T, A>>()); }
+			nodes.add(u2);
+		}
+	}
+
+	/**
+	** Submit the requests queued by {@link #getAttributesForNode(U2, Set,
+	** Map)}, as one lookup per data source, then clear the queue. This lets
+	** the store fetch the attributes of many nodes in a few reads, rather
+	** than one read per node.
+	*/
+	protected void submitNodeLookups(
+	  Map<A, Set<U2<T, A>>> pending,
+	  TaskService<MultiNodeLookup<T, A>, Map<U2<T, A>, U>, IOException> srv_node
+	) {
+		for (Map.Entry<A, Set<U2<T, A>>> en: pending.entrySet()) {
+			srv_node.submit(Services.newTask(MultiNodeLookup.make(en.getKey(), en.getValue())));
 		}
+		pending.clear();
 	}
 
 	protected void addSeedTag() {
@@ -319,7 +399,7 @@ extends LayerService<QueryProcess<?, T, A, U, W, S, ?>, Naming.State, Naming.MRe
 		Map<A, LocalTGraph<T, A, U, W>> local = source.localMap();
 		T tag = proc.tag;
 
-		TaskService<NodeLookup<T, A>, U, IOException> srv_node = proc.env.makeTGraphNodeService();
+		TaskService<NodeLookup<T, A>, U, IOException> srv_node = proc.env.makeTGraphNodeService(null, proc);
 
 		try {
 			// retrieve outgoing arcs of tag, in all sources
@@ -327,19 +407,14 @@ extends LayerService<QueryProcess<?, T, A, U, W, S, ?>, Naming.State, Naming.MRe
 				srv_node.submit(Services.newTask(NodeLookup.makeT(view.addr, tag)));
 			}
 
-			do {
-				// handle downloaded node-attributes
-				while (srv_node.hasComplete()) {
-					TaskResult<NodeLookup<T, A>, U, IOException> res = srv_node.reclaim();
-					LocalTGraph<T, A, U, W> view = local.get(res.getKey().tgr);
-					view.setNodeAttr(res.getKey().node, res.getValue());
-				}
-
-				Thread.sleep(proc.env.interval);
-			} while (srv_node.hasPending());
+			// handle downloaded node-attributes
+			while (srv_node.hasPending()) {
+				// blocks until the next attribute arrives
+				TaskResult<NodeLookup<T, A>, U, IOException> res = srv_node.reclaim();
+				LocalTGraph<T, A, U, W> view = local.get(res.getKey().tgr);
+				setNodeAttr(view, res.getKey().node, res.getValue());
+			}
 
-		} catch (InterruptedException e) {
-			throw new UnsupportedOperationException(e); // FIXME HIGH
 		} catch (IOException e) {
 			throw new RuntimeException(e); // FIXME HIGH
 		} finally {
@@ -370,10 +445,35 @@ extends LayerService<QueryProcess<?, T, A, U, W, S, ?>, Naming.State, Naming.MRe
 	}
 
 	/**
-	** Make a new {@link #graph} from {@link #source}. To be called whenever
-	** the {@linkplain #getCompletedTags() completed set} changes.
+	** Update {@link #graph} from {@link #source}. To be called whenever the
+	** {@linkplain #getCompletedTags() completed set} changes.
+	**
+	** If the set of data sources or any of their scores has changed since the
+	** last call, the graph is composed from scratch; otherwise, only the nodes
+	** and arcs that were loaded since then (and the arcs incident on those
+	** nodes, whose composite attribute may depend on whether its endpoints are
+	** loaded) are re-composed.
+	**
+	** @return The updated graph; this may be the same object as before.
+	*/
+	protected CompositeTGraph<T, A, U, W> composeTGraph() {
+		Map<A, S> score = source.scoreMap();
+		if (graph == null || !score.equals(graph_score)) {
+			graph = composeTGraphFull();
+		} else {
+			composeTGraphDirty();
+		}
+		graph_score = new HashMap<A, S>(score);
+		dirty_node.clear();
+		dirty_arc.clear();
+		return graph;
+	}
+
+	/**
+	** Make a new composite tgraph from scratch, from all nodes and arcs in all
+	** data sources.
 	*/
-	protected FullTGraph<T, A, U, W> composeTGraph() {
+	protected CompositeTGraph<T, A, U, W> composeTGraphFull() {
 		// iterates through all nodes present in every source
 		U2Map<T, A, U> node_map = Maps.uniteDisjoint(new HashMap<T, U>(), new HashMap<A, U>());
 		for (U2<T, A> node: Maps.domain(MultiParts.iterTGraphNodeMaps(source.localMap().values()))) {
@@ -389,7 +489,35 @@ extends LayerService<QueryProcess<?, T, A, U, W, S, ?>, Naming.State, Naming.MRe
 		}
 
 		proc.log(String.format("composeTGraph: %d nodes, %d arcs", node_map.size(), arc_map.size()));
-		return new FullTGraph<T, A, U, W>(node_map, arc_map);
+		return new CompositeTGraph<T, A, U, W>(node_map, arc_map);
+	}
+
+	/**
+	** Re-compose only the changed nodes and arcs of {@link #graph}.
+	*/
+	protected void composeTGraphDirty() {
+		Map<A, LocalTGraph<T, A, U, W>> local = source.localMap();
+
+		int n = 0;
+		for (U2<T, A> node: dirty_node) {
+			boolean present = false;
+			for (LocalTGraph<T, A, U, W> view: local.values()) {
+				dirty_arc.addAll(view.getIncidentArcs(node));
+				present |= view.nodeMap().containsKey(node);
+			}
+			// node was not found in any source
+			if (!present) { continue; }
+			graph.setNodeAttr(node, mod_tgr_cmp.composeNode(source.localScoreMap(), node));
+			++n;
+		}
+
+		for (U2<Arc<T, T>, Arc<T, A>> arc: dirty_arc) {
+			// filter out tgraphs that are already in-use as a data source
+			if (arc.isT1() && local.containsKey(arc.getT1().dst)) { continue; }
+			graph.setArcAttr(arc, mod_tgr_cmp.composeArc(source.localScoreMap(), arc));
+		}
+
+		proc.log(String.format("composeTGraph: %d nodes, %d arcs updated", n, dirty_arc.size()));
 	}
 
 	/**
@@ -47,13 +47,14 @@ public class ProbabilityDistanceMetric implements DistanceMetric<Probability, Pr
 	** @see tags.proto.Notation
 	*/
 	@Override public Probability getDistance(Probability srcu, Probability dstu, Probability arcw) {
-		try {
-			return srcu.conditionalInverse(arcw, dstu);
-		} catch (IllegalArgumentException e) {
+		// same as srcu.conditionalInverse(arcw, dstu), but checked up front,
+		// since this is called for every arc, and exceptions are expensive
+		double d = arcw.val * dstu.val / srcu.val;
+		if (!Probability.isValid(d)) {
 			//System.err.println("tried to calculate P(t|s) from P(s)=" + srcu.val + " P(t)=" + dstu.val + " P(s|t)=" + arcw.val);
-			//throw e;
 			return Probability.MAX_VALUE;
 		}
+		return d == 1? Probability.MAX_VALUE: new Probability(d);
 	}
 
 	/**
@@ -64,6 +65,9 @@ public class ProbabilityDistanceMetric implements DistanceMetric<Probability, Pr
 	** @return P(evt0)*P(evt1)
 	*/
 	@Override public Probability combine(Probability d0, Probability d1) {
+		// P(evt0) = 1 is common, eg. for the seed
+		if (d0.val == 1) { return d1; }
+		if (d1.val == 1) { return d0; }
 		return d0.intersect(d1);
 	}
 
@@ -2,7 +2,6 @@
 package tags.proto.name;
 
 import tags.proto.Viewers;
-import tags.util.ValueComposer;
 import tags.util.MeanProbabilityComposer;
 import tags.util.MeanEntropyComposer;
 import tags.util.MapViewer;
@@ -42,8 +41,8 @@ public class ProbabilityEntropyTGraphComposer<T, A> implements TGraphComposer<T,
 	** The {@link MeanProbabilityComposer#alpha(Object, Object)} method of this
 	** composer just returns {@link #node_alpha}.
 	*/
-	final public ValueComposer<A, LocalTGraph<T, A, Probability, Probability>, Probability, U2<T, A>, Entropy> val_cmp_node =
-	new MeanEntropyComposer<A, LocalTGraph<T, A, Probability, Probability>, U2<T, A>>(Viewers.<T, A>ProbabilityTGraphEntropyNodeMap()) {
+	final public MeanEntropyComposer<A, LocalTGraph<T, A, Probability, Probability>, U2<T, A>> val_cmp_node =
+	new MeanEntropyComposer<A, LocalTGraph<T, A, Probability, Probability>, U2<T, A>>(Viewers.<T, A>ProbabilityTGraphEntropyNodes()) {
 		@Override protected double alpha(LocalTGraph<T, A, Probability, Probability> src, U2<T, A> item) {
 			return node_alpha;
 		}
@@ -54,8 +53,8 @@ public class ProbabilityEntropyTGraphComposer<T, A> implements TGraphComposer<T,
 	** composer returns either {@link #arc_alpha_1} or {@link #arc_alpha_2},
 	** whichever is appropriate.
 	*/
-	final public ValueComposer<A, LocalTGraph<T, A, Probability, Probability>, Probability, U2<Arc<T, T>, Arc<T, A>>, Probability> val_cmp_arc =
-	new MeanProbabilityComposer<A, LocalTGraph<T, A, Probability, Probability>, U2<Arc<T, T>, Arc<T, A>>>(Viewers.<T, A, Probability, Probability>TGraphArcMap()) {
+	final public MeanProbabilityComposer<A, LocalTGraph<T, A, Probability, Probability>, U2<Arc<T, T>, Arc<T, A>>> val_cmp_arc =
+	new MeanProbabilityComposer<A, LocalTGraph<T, A, Probability, Probability>, U2<Arc<T, T>, Arc<T, A>>>(Viewers.<T, A>ProbabilityTGraphArcs()) {
 		@Override protected double alpha(LocalTGraph<T, A, Probability, Probability> src, U2<Arc<T, T>, Arc<T, A>> item) {
 			return src.hasEndpoints(item)? arc_alpha_2: arc_alpha_1;
 		}
@@ -96,14 +95,15 @@ public class ProbabilityEntropyTGraphComposer<T, A> implements TGraphComposer<T,
 	** {@inheritDoc}
 	*/
 	public Probability composeNode(MapX2<A, LocalTGraph<T, A, Probability, Probability>, Probability> src_score, U2<T, A> node) {
-		return val_cmp_node.composeValue(src_score, node).probability();
+		// same as composeValue(...).probability(), without the intermediate Entropy
+		return new Probability(Math.pow(2, -val_cmp_node.composeDouble(src_score, node)));
 	}
 
 	/**
 	** {@inheritDoc}
 	*/
 	public Probability composeArc(MapX2<A, LocalTGraph<T, A, Probability, Probability>, Probability> src_score, U2<Arc<T, T>, Arc<T, A>> arc) {
-		return val_cmp_arc.composeValue(src_score, arc);
+		return new Probability(val_cmp_arc.composeDouble(src_score, arc));
 	}
 
 }
@@ -6,17 +6,16 @@ import java.util.Collections;
 import tags.proto.AddressScheme;
 import tags.proto.ProtoAddressScheme;
 import tags.proto.FullTGraph;
+import tags.util.IdTable;
+import tags.util.IntHeapMapQueue;
+import tags.util.Union;
 import tags.util.Maps.U2Map;
 import tags.util.Union.U2;
-import tags.util.Tuple.X2;
-import java.util.List;
-import java.util.ListIterator;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Map;
 import java.util.Set;
-import java.util.Queue;
 import java.util.Comparator;
-import java.util.PriorityQueue;
-import java.util.HashMap;
 
 /**
 ** DOCUMENT.
@@ -55,50 +54,34 @@ public class ShortestPathAddressSchemeBuilder<T, A, U, W, D> implements AddressS
 		System.out.println(graph.nodeMap());
 		System.out.println(graph.arcMap());*/
 
-		// Dijkstra's algorithm
-		// OPT NORM use a FibonnacciHeap instead of PriorityQueue. JGraphT has an implementation.
-
-		class DijkstraNode {
-
-			final public U2<T, A> node;
-			protected T parent;
-			protected D dist;
-
-			public DijkstraNode(U2<T, A> node) {
-				this.node = node;
-				this.dist = (seed.equals(node.val))? dmetric.identity(): dmetric.infinity();
-			}
-
-		}
+		// Dijkstra's algorithm. Nodes are only added to the queue when they are
+		// first reached; nodes not yet reached are implicitly at infinity. Each
+		// node is given an int id when it is first reached, and the search state
+		// is held in arrays indexed by that, so that relaxing an arc takes only
+		// the lookups of its target's id and attribute.
 
 		// 1. Init
-		Queue<DijkstraNode> queue = new PriorityQueue<DijkstraNode>(graph.nodeMap().size(), new Comparator<DijkstraNode>() {
-			@Override public int compare(DijkstraNode d1, DijkstraNode d2) {
-				return dmetric.compare(d1.dist, d2.dist);
-			}
-		});
-		Map<U2<T, A>, DijkstraNode> dmap = new HashMap<U2<T, A>, DijkstraNode>();
-		for (U2<T, A> u: graph.nodeMap().keySet()) {
-			DijkstraNode n = new DijkstraNode(u);
-			dmap.put(u, n);
-			queue.add(n);
-		}
+		Search search = new Search(graph.nodeMap().size());
+		int seed_id = search.ids.idOf(Union.<T, A>U2_0(seed));
+		search.queue.add(seed_id, dmetric.identity());
+		Map<T, U> tag_attrs = graph.nodeMap().K0Map();
+		Map<A, U> tgr_attrs = graph.nodeMap().K1Map();
 
 		// 2. Loop
-		while (!queue.isEmpty()) {
-			DijkstraNode cur = queue.poll();
-			U2<T, A> node = cur.node;
-			T parent = cur.parent;
-			assert(dmap.get(node) == cur);
-			dmap.remove(node);
+		while (!search.queue.isEmpty()) {
+			D cur_dist = search.queue.peekValue();
+			int id = search.queue.poll();
+			search.visited.set(id);
+			U2<T, A> node = search.ids.get(id);
+			T parent = id == seed_id? null: search.ids.get(search.parents[id]).getT0();
 
 			if (node.isT1()) {
 				scheme.pushNode(node, parent, graph.getIncomingG(node.getT1()).nodeAttrMap().K0Map().keySet());
 				continue;
 			}
 			T tag = node.getT0();
-			U srcu = graph.nodeMap().K0Map().get(tag);
-			scheme.setTagAttribute(tag, dmetric.getAttrFromDistance(seedu, srcu, cur.dist));
+			U srcu = tag_attrs.get(tag);
+			scheme.setTagAttribute(tag, dmetric.getAttrFromDistance(seedu, srcu, cur_dist));
 			//System.out.println("set attribute for tag " + tag);
 
 			// tag is not fully loaded, set as incomplete
@@ -109,22 +92,20 @@ public class ShortestPathAddressSchemeBuilder<T, A, U, W, D> implements AddressS
 			}
 
 			// "relax" all out-neighbours
-			for (Map.Entry<U2<T, A>, X2<U, W>> en: graph.getOutgoingT(tag).attrMap().entrySet()) {
-				U2<T, A> nb = en.getKey();
-				U dstu = en.getValue()._0;
-				W arcw = en.getValue()._1;
-
-				DijkstraNode out = dmap.get(nb);
-				if (out == null) { continue; } // already visited
-
-				D dist = dmetric.combine(cur.dist, dmetric.getDistance(srcu, dstu, arcw));
-				if (dmetric.compare(dist, out.dist) < 0) {
-					// PriorityQueue treats its elements as immutable, so need to remove first
-					queue.remove(out);
-					out.dist = dist;
-					out.parent = tag;
-					queue.add(out);
-				}
+			U2Map<T, A, W> out = graph.getOutgoingT(tag).arcAttrMap();
+			// in the same order as attrMap(), ie. tgraphs then tags, so that ties
+			// are broken as before
+			for (Map.Entry<A, W> en: out.K1Map().entrySet()) {
+				A dst = en.getKey();
+				U dstu = tgr_attrs.get(dst);
+				if (dstu == null && !tgr_attrs.containsKey(dst)) { continue; }
+				search.relax(Union.<T, A>U2_1(dst), id, cur_dist, srcu, dstu, en.getValue());
+			}
+			for (Map.Entry<T, W> en: out.K0Map().entrySet()) {
+				T dst = en.getKey();
+				U dstu = tag_attrs.get(dst);
+				if (dstu == null && !tag_attrs.containsKey(dst)) { continue; }
+				search.relax(Union.<T, A>U2_0(dst), id, cur_dist, srcu, dstu, en.getValue());
 			}
 
 			if (tag.equals(seed)) { continue; }
@@ -134,4 +115,42 @@ public class ShortestPathAddressSchemeBuilder<T, A, U, W, D> implements AddressS
 		return scheme;
 	}
 
+	/**
+	** State of a single run of Dijkstra's algorithm, indexed by node id.
+	*/
+	protected class Search {
+
+		final IdTable<U2<T, A>> ids;
+		final IntHeapMapQueue<D> queue;
+		final BitSet visited = new BitSet();
+		/** Id of the parent tag of each node reached. */
+		int[] parents;
+
+		Search(int n) {
+			this.ids = new IdTable<U2<T, A>>(n);
+			this.queue = new IntHeapMapQueue<D>(new Comparator<D>() {
+				@Override public int compare(D d1, D d2) {
+					return dmetric.compare(d1, d2);
+				}
+			});
+			this.parents = new int[Math.max(n, 1)];
+		}
+
+		/**
+		** Relax the arc from the given source to the given neighbour.
+		*/
+		void relax(U2<T, A> nb, int src, D src_dist, U srcu, U dstu, W arcw) {
+			int id = ids.idOf(nb);
+			if (visited.get(id)) { return; }
+			D dist = dmetric.combine(src_dist, dmetric.getDistance(srcu, dstu, arcw));
+			D out_dist = queue.get(id);
+			if (dmetric.compare(dist, out_dist == null? dmetric.infinity(): out_dist) < 0) {
+				queue.add(id, dist);
+				if (id >= parents.length) { parents = Arrays.copyOf(parents, Math.max(parents.length<<1, id+1)); }
+				parents[id] = src;
+			}
+		}
+
+	}
+
 }
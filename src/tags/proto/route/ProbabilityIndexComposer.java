@@ -2,7 +2,6 @@
 package tags.proto.route;
 
 import tags.proto.Viewers;
-import tags.util.ValueComposer;
 import tags.util.MeanProbabilityComposer;
 import tags.util.MapViewer;
 
@@ -35,8 +34,8 @@ public class ProbabilityIndexComposer<T, A> implements IndexComposer<T, A, Proba
 	** composer returns either {@link #alpha_1} or {@link #alpha_2}, whichever
 	** is appropriate.
 	*/
-	final public ValueComposer<A, LocalIndex<T, A, Probability>, Probability, U2<Arc<T, A>, Arc<T, A>>, Probability> val_cmp =
-	new MeanProbabilityComposer<A, LocalIndex<T, A, Probability>, U2<Arc<T, A>, Arc<T, A>>>(Viewers.<T, A, Probability>IndexArcMap()) {
+	final public MeanProbabilityComposer<A, LocalIndex<T, A, Probability>, U2<Arc<T, A>, Arc<T, A>>> val_cmp =
+	new MeanProbabilityComposer<A, LocalIndex<T, A, Probability>, U2<Arc<T, A>, Arc<T, A>>>(Viewers.<T, A>ProbabilityIndexArcs()) {
 		@Override protected double alpha(LocalIndex<T, A, Probability> src, U2<Arc<T, A>, Arc<T, A>> item) {
 			return src.hasEndpoints(item)? alpha_2: alpha_1;
 		}
@@ -73,7 +72,7 @@ public class ProbabilityIndexComposer<T, A> implements IndexComposer<T, A, Proba
 	** {@inheritDoc}
 	*/
 	public Probability composeArc(MapX2<A, LocalIndex<T, A, Probability>, Probability> src_score, U2<Arc<T, A>, Arc<T, A>> arc) {
-		return val_cmp.composeValue(src_score, arc);
+		return new Probability(val_cmp.composeDouble(src_score, arc));
 	}
 
 }
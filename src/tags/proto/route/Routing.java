@@ -8,6 +8,7 @@ import tags.proto.name.Naming;
 
 import tags.util.exec.MessageReceiver;
 import tags.util.exec.MessageRejectedException;
+import tags.util.exec.Monitor;
 import tags.util.exec.Services;
 import tags.util.exec.TaskResult;
 import tags.util.exec.TaskService;
@@ -22,7 +23,7 @@ import java.util.Collections;
 import tags.proto.AddressScheme;
 import tags.proto.DataSources;
 import tags.proto.LocalIndex;
-import tags.proto.FullIndex;
+import tags.proto.CompositeIndex;
 import tags.proto.Index.Lookup;
 import tags.util.Maps.U2Map;
 import tags.util.Union.U2;
@@ -59,10 +60,19 @@ extends LayerService<QueryProcess<?, T, A, ?, W, S, ?>, Routing.State, Routing.M
 
 	final protected MapQueue<Lookup<T, A>, W> queue = new BaseMapQueue<Lookup<T, A>, W>(Collections.<W>reverseOrder(), true);
 
-	protected FullIndex<T, A, W> index;
+	protected CompositeIndex<T, A, W> index;
 	volatile protected U2Map<A, A, W> results;
 	protected boolean rcache_v; // accesses to this field need to be synchronized(Routing.this)
 
+	// state for incremental updates; see updateResults()
+	// accesses to these fields need to be synchronized(Routing.this)
+	protected Map<A, S> index_score;
+	protected AddressScheme<T, A, W> results_scheme;
+	protected Map<A, W> results_d;
+	protected Map<A, W> results_h;
+	final protected Set<T> dirty_tag = new HashSet<T>();
+	final protected Set<A> dirty_addr = new HashSet<A>();
+
 	public Routing(
 		QueryProcess<?, T, A, ?, W, S, ?> proc,
 		IndexComposer<T, A, W, S> mod_idx_cmp,
@@ -81,6 +91,11 @@ extends LayerService<QueryProcess<?, T, A, ?, W, S, ?>, Routing.State, Routing.M
 
 	@Override public synchronized void recv(MRecv msg) throws MessageRejectedException {
 		//super.recv(msg);
+		if (closed) {
+			// drop results still arriving from other layers
+			if (msg == MRecv.REQ_MORE_DATA) { throw new MessageRejectedException("process closed"); }
+			return;
+		}
 		switch (state) {
 		case NEW:
 			switch (msg) {
@@ -103,17 +118,10 @@ extends LayerService<QueryProcess<?, T, A, ?, W, S, ?>, Routing.State, Routing.M
 		case AWAIT_ADDR_SCH:
 			switch (msg) {
 			case RECV_ADDR_SCH:
+				// lookups are run by runLookups(), which is started as they are
+				// submitted to the run queue
 				state = State.IDLE;
 
-				// TODO HIGH this is a hack
-				execute(new Runnable() {
-					@Override public void run() {
-						proc.log("runLookups thread started");
-						runLookups();
-						proc.log("runLookups thread exited successfully");
-					}
-				});
-
 				return;
 			default: throw mismatchMsgRejEx(state, msg);
 			}
@@ -121,7 +129,6 @@ extends LayerService<QueryProcess<?, T, A, ?, W, S, ?>, Routing.State, Routing.M
 			AddressScheme<T, A, W> scheme = proc.naming.getAddressScheme();
 			switch (msg) {
 			case REQ_MORE_DATA:
-				// OPT NORM this is really really really wasteful
 				updateResults(scheme);
 
 				Map<ActionChoice, W> choices = new EnumMap<ActionChoice, W>(ActionChoice.class);
@@ -133,7 +140,8 @@ extends LayerService<QueryProcess<?, T, A, ?, W, S, ?>, Routing.State, Routing.M
 					Collection<W> probs = scoreLookups(scheme, idx, getLookups(scheme, idx)).values();
 					choices.put(ActionChoice.add_idx, mod_lku_scr.getPotential(probs));
 				}
-				if (!hasNothingToDo()) {
+				// the queue may be empty even if lookups are still pending
+				if (!queue.isEmpty()) {
 					choices.put(ActionChoice.con_lku, queue.peekValue());
 				}
 				if (scheme.isIncomplete()) {
@@ -216,16 +224,74 @@ extends LayerService<QueryProcess<?, T, A, ?, W, S, ?>, Routing.State, Routing.M
 
 	// TODO HIGH this is a major hack...
 	protected Set<Lookup<T, A>> pending = new HashSet<Lookup<T, A>>();
+	/** Signalled when a lookup completes or is added to the run queue, or
+	** when this layer is closed. */
+	final protected Monitor monitor = new Monitor();
+	/** Whether {@link #runLookups()} is running. */
+	protected boolean looping;
+	protected boolean closed;
+
 	protected synchronized boolean hasNothingToDo() {
 		return queue.isEmpty() && pending.isEmpty();
 	}
 
+	/**
+	** Stop running lookups, and reject further requests for more data. The
+	** lookup thread, if any, exits as soon as it next wakes up, without
+	** waiting for lookups in flight; their results are discarded. Results
+	** obtained so far remain available.
+	*/
+	public void close() {
+		synchronized (this) {
+			if (closed) { return; }
+			closed = true;
+			queue.clear();
+		}
+		monitor.signalAll();
+	}
+
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	** Start {@link #runLookups()} in a thread of the executor, unless it is
+	** already running or this layer is closed.
+	*/
+	protected synchronized void startLookups() {
+		if (looping || closed) { return; }
+		looping = true;
+		proc.env.exec.execute(new Runnable() {
+			@Override public void run() {
+				proc.log("runLookups thread started");
+				try {
+					runLookups();
+				} catch (RuntimeException e) {
+					last_ex = e; // TODO NORM make some better way of handling this
+					throw e;
+				}
+				proc.log("runLookups thread exited successfully");
+			}
+		});
+	}
+
+	/**
+	** Run lookups from the queue until there are none left to run or wait
+	** for, then return, freeing the thread; {@link #submitLookupsToRunQueue(Map)}
+	** starts this again when there are more. Also returns if this layer is
+	** {@linkplain #close() closed}, or the thread is interrupted, which closes
+	** this layer.
+	*/
 	protected void runLookups() {
-		TaskService<Lookup<T, A>, U2Map<A, A, W>, IOException> srv = proc.env.makeIndexService();
+		// submitLookupsToRunQueue() also signals the monitor, to wake us up
+		TaskService<Lookup<T, A>, U2Map<A, A, W>, IOException> srv = proc.env.makeIndexService(monitor, proc);
+		boolean stopped = false;
 
 		try {
 			do {
+				long seen = monitor.version();
 				synchronized (this) {
+					if (closed) { return; }
 					while (pending.size() < proc.env.parallel_idx_lku && !queue.isEmpty()) {
 						Lookup<T, A> lku = queue.remove();
 						srv.submit(Services.newTask(lku));
@@ -243,7 +309,13 @@ extends LayerService<QueryProcess<?, T, A, ?, W, S, ?>, Routing.State, Routing.M
 
 					synchronized (this) {
 						rcache_v = false;
-						view.setOutgoingT(lku.tag, res.getValue());
+						U2Map<A, A, W> out = res.getValue();
+						view.setOutgoingT(lku.tag, out);
+						if (out != null) {
+							dirty_tag.add(lku.tag);
+							dirty_addr.addAll(out.K0Map().keySet());
+							dirty_addr.addAll(out.K1Map().keySet());
+						}
 
 						// update completed lookups
 						Set<T> tags = completed.get(lku.idx);
@@ -255,15 +327,34 @@ extends LayerService<QueryProcess<?, T, A, ?, W, S, ?>, Routing.State, Routing.M
 					}
 				}
 
-				Thread.sleep(proc.env.interval);
+				// wait until a lookup completes, or there is room for another. this
+				// is done outside of our lock, so as not to pin a virtual thread
+				boolean idle;
+				synchronized (this) {
+					if (closed) { return; }
+					if (queue.isEmpty() && pending.isEmpty() && !srv.hasComplete()) {
+						// nothing left to do; free the thread until more lookups arrive
+						looping = false;
+						stopped = true;
+						return;
+					}
+					idle = !srv.hasComplete() && (queue.isEmpty() || pending.size() >= proc.env.parallel_idx_lku);
+				}
+				if (idle) { monitor.await(seen); }
 			} while (true);
 
 		} catch (InterruptedException e) {
-			throw new UnsupportedOperationException(e); // FIXME HIGH
+			close();
+			Thread.currentThread().interrupt();
 		} catch (IOException e) {
 			throw new RuntimeException(e); // FIXME HIGH
 		} finally {
 			srv.close();
+			// if we stopped because there was nothing to do, another thread may
+			// already have been started, which we must not mark as stopped
+			if (!stopped) {
+				synchronized (this) { looping = false; }
+			}
 		}
 	}
 
@@ -283,6 +374,7 @@ extends LayerService<QueryProcess<?, T, A, ?, W, S, ?>, Routing.State, Routing.M
 	}
 
 	protected synchronized void submitLookupsToRunQueue(Map<Lookup<T, A>, W> lku_score) {
+		if (closed) { return; }
 		for (Map.Entry<Lookup<T, A>, W> en: lku_score.entrySet()) {
 			Lookup<T, A> lku = en.getKey();
 			// skip already running
@@ -294,14 +386,44 @@ extends LayerService<QueryProcess<?, T, A, ?, W, S, ?>, Routing.State, Routing.M
 			//System.out.println("add " + lku + " to " + queue.map().keySet());
 			queue.add(lku, en.getValue());
 		}
+		// wake up runLookups(), or start it if it is not running
+		monitor.signalAll();
+		if (!queue.isEmpty()) { startLookups(); }
 	}
 
+	/**
+	** Update {@link #index} and {@link #results} from {@link #source}.
+	**
+	** If the set of data sources or any of their scores has changed since the
+	** last call, the index and results are composed from scratch, since every
+	** composite arc depends on the score of every source. Otherwise, only the
+	** arcs incident on tags and addresses loaded since then are re-composed,
+	** and only the results for their targets are re-calculated (unless the
+	** address scheme has also changed).
+	*/
 	protected synchronized void updateResults(AddressScheme<T, A, W> scheme) {
 		if (rcache_v == true) { return; }
 		source.calculateScores();
-		index = composeIndex(); // FIXME HIGH - need to lock the local views whilst doing this
+		Map<A, S> score = source.scoreMap();
+		// FIXME HIGH - need to lock the local views whilst doing this
 		// otherwise it might throw ConcurrentExecutionException
-		results = makeResults(scheme);
+		if (index == null || !score.equals(index_score)) {
+			index = composeIndex();
+			makeResults(scheme);
+		} else {
+			U2Map<A, A, Boolean> dst = composeIndexDirty();
+			if (scheme != results_scheme) {
+				makeResults(scheme);
+			} else {
+				makeResults(scheme, dst);
+			}
+		}
+		index_score = new HashMap<A, S>(score);
+		results_scheme = scheme;
+		dirty_tag.clear();
+		dirty_addr.clear();
+		// publish a copy, so that readers always see a consistent set
+		results = Maps.uniteDisjoint(new HashMap<A, W>(results_d), new HashMap<A, W>(results_h));
 		rcache_v = true;
 	}
 
@@ -377,9 +499,10 @@ extends LayerService<QueryProcess<?, T, A, ?, W, S, ?>, Routing.State, Routing.M
 	}
 
 	/**
-	** DOCUMENT
+	** Make a new composite index from scratch, from all arcs in all data
+	** sources.
 	*/
-	protected FullIndex<T, A, W> composeIndex() {
+	protected CompositeIndex<T, A, W> composeIndex() {
 		// iterates through all arcs present in every source
 		U2Map<Arc<T, A>, Arc<T, A>, W> arc_map = Maps.uniteDisjoint(new HashMap<Arc<T, A>, W>(), new HashMap<Arc<T, A>, W>());
 		for (U2<Arc<T, A>, Arc<T, A>> arc: Maps.domain(MultiParts.iterIndexArcMaps(source.localMap().values()))) {
@@ -388,44 +511,81 @@ extends LayerService<QueryProcess<?, T, A, ?, W, S, ?>, Routing.State, Routing.M
 			arc_map.put(arc, mod_idx_cmp.composeArc(source.localScoreMap(), arc));
 		}
 
-		return new FullIndex<T, A, W>(arc_map);
+		return new CompositeIndex<T, A, W>(arc_map);
 	}
 
 	/**
-	** Returns a map of results to their scores.
+	** Re-compose only the arcs of {@link #index} that are incident on the tags
+	** and addresses loaded since the last update. Since the composer may judge
+	** a missing arc differently depending on whether its endpoints exist in a
+	** source, this includes arcs from other sources too.
 	**
-	** TODO NORM arguably this could be in a separate module instead of just
-	** "pick the most relevant tag".
+	** @return The targets (documents and indexes) of the re-composed arcs
 	*/
-	protected U2Map<A, A, W> makeResults(AddressScheme<T, A, W> scheme) {
-		Map<A, W> res_d = new HashMap<A, W>();
-		Map<A, W> res_h = new HashMap<A, W>();
-
-		for (A dst: index.nodeSetD()) {
-			// get most relevant tag which points to it
-			Map<T, W> in_tag = index.getIncomingDarcAttrMap(dst);
-			assert in_tag != null && !in_tag.isEmpty();
-			Map.Entry<T, W> nearest = scheme.getMostRelevant(in_tag.keySet());
-			// eg. if an update to the address scheme deleted those tags
-			if (nearest == null) { continue; }
-
-			W wgt = mod_lku_scr.getResultAttr(nearest.getValue(), in_tag.get(nearest.getKey()));
-			res_d.put(dst, wgt);
+	protected U2Map<A, A, Boolean> composeIndexDirty() {
+		Map<A, LocalIndex<T, A, W>> local = source.localMap();
+
+		Set<U2<Arc<T, A>, Arc<T, A>>> dirty_arc = new HashSet<U2<Arc<T, A>, Arc<T, A>>>();
+		for (LocalIndex<T, A, W> view: local.values()) {
+			for (T tag: dirty_tag) { dirty_arc.addAll(view.getIncidentArcsT(tag)); }
+			for (A addr: dirty_addr) { dirty_arc.addAll(view.getIncidentArcsA(addr)); }
 		}
 
-		for (A dst: index.nodeSetH()) {
-			// get most relevant tag which points to it
-			Map<T, W> in_tag = index.getIncomingHarcAttrMap(dst);
-			assert in_tag != null && !in_tag.isEmpty();
-			Map.Entry<T, W> nearest = scheme.getMostRelevant(in_tag.keySet());
-			// eg. if an update to the address scheme deleted those tags
-			if (nearest == null) { continue; }
+		U2Map<A, A, Boolean> dst = Maps.uniteDisjoint(new HashMap<A, Boolean>(), new HashMap<A, Boolean>());
+		for (U2<Arc<T, A>, Arc<T, A>> arc: dirty_arc) {
+			// filter out indexes that are already in-use as a data source
+			if (arc.isT1() && local.containsKey(arc.getT1().dst)) { continue; }
+			index.setArcAttr(arc, mod_idx_cmp.composeArc(source.localScoreMap(), arc));
+			if (arc.isT0()) {
+				dst.K0Map().put(arc.getT0().dst, true);
+			} else {
+				dst.K1Map().put(arc.getT1().dst, true);
+			}
+		}
 
-			W wgt = mod_lku_scr.getResultAttr(nearest.getValue(), in_tag.get(nearest.getKey()));
-			res_h.put(dst, wgt);
+		return dst;
+	}
+
+	/**
+	** Re-calculate all results from {@link #index}.
+	**
+	** TODO NORM arguably this could be in a separate module instead of just
+	** "pick the most relevant tag".
+	*/
+	protected void makeResults(AddressScheme<T, A, W> scheme) {
+		results_d = new HashMap<A, W>();
+		results_h = new HashMap<A, W>();
+		U2Map<A, A, Boolean> dst = Maps.uniteDisjoint(new HashMap<A, Boolean>(), new HashMap<A, Boolean>());
+		for (A doc: index.nodeSetD()) { dst.K0Map().put(doc, true); }
+		for (A idx: index.nodeSetH()) { dst.K1Map().put(idx, true); }
+		makeResults(scheme, dst);
+	}
+
+	/**
+	** Re-calculate the results for the given targets (documents and indexes)
+	** from {@link #index}.
+	*/
+	protected void makeResults(AddressScheme<T, A, W> scheme, U2Map<A, A, Boolean> dst) {
+		for (A doc: dst.K0Map().keySet()) {
+			putResult(results_d, doc, scheme, index.getIncomingDarcAttrMap(doc));
+		}
+		for (A idx: dst.K1Map().keySet()) {
+			putResult(results_h, idx, scheme, index.getIncomingHarcAttrMap(idx));
 		}
+	}
 
-		return Maps.uniteDisjoint(res_d, res_h);
+	/**
+	** Calculate the result score for the given target, from its incoming tags.
+	*/
+	protected void putResult(Map<A, W> res, A dst, AddressScheme<T, A, W> scheme, Map<T, W> in_tag) {
+		assert in_tag != null && !in_tag.isEmpty();
+		// get most relevant tag which points to it
+		Map.Entry<T, W> nearest = scheme.getMostRelevant(in_tag.keySet());
+		// eg. if an update to the address scheme deleted those tags
+		if (nearest == null) { res.remove(dst); return; }
+
+		W wgt = mod_lku_scr.getResultAttr(nearest.getValue(), in_tag.get(nearest.getKey()));
+		res.put(dst, wgt);
 	}
 
 }
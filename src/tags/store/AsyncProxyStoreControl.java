@@ -0,0 +1,136 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.store;
+
+import tags.proto.PTable;
+import tags.util.Union.U2;
+import tags.util.Maps.U2Map;
+import tags.util.exec.Callback;
+import java.util.Collection;
+import java.util.Map;
+
+import java.util.concurrent.Executor;
+import java.io.IOException;
+
+/**
+** An {@link AsyncStoreControl} view of a blocking {@link StoreControl}. Each
+** operation is run on a backing {@link Executor}, so this still uses one
+** thread per request in flight.
+**
+** A {@link RuntimeException} thrown by the backing store is passed to the
+** callback wrapped in an {@link IOException}, so that the callback is always
+** called.
+**
+** @param <I> Type of identity
+** @param <T> Type of tag
+** @param <A> Type of address
+** @param <U> Type of node-attribute
+** @param <W> Type of arc-attribute
+** @param <S> Type of score
+** @param <Z> Type of identity-score
+*/
+public class AsyncProxyStoreControl<I, T, A, U, W, S, Z> implements AsyncStoreControl<I, T, A, U, W, S, Z> {
+
+	final protected Executor exec;
+	final protected StoreControl<I, T, A, U, W, S, Z> sctl;
+
+	public AsyncProxyStoreControl(Executor exec, StoreControl<I, T, A, U, W, S, Z> sctl) {
+		if (exec == null || sctl == null) { throw new NullPointerException(); }
+		this.exec = exec;
+		this.sctl = sctl;
+	}
+
+	@Override public void getFriends(final I id, Callback<Map<I, Z>, IOException> cb) {
+		exec.execute(new Op<Map<I, Z>>(cb) {
+			@Override protected Map<I, Z> call() throws IOException {
+				return sctl.getFriends(id);
+			}
+		});
+	}
+
+	@Override public void getPTable(final I id, Callback<PTable<A, S>, IOException> cb) {
+		exec.execute(new Op<PTable<A, S>>(cb) {
+			@Override protected PTable<A, S> call() throws IOException {
+				return sctl.getPTable(id);
+			}
+		});
+	}
+
+	@Override public void getTGraphOutgoing(final A addr, final T src, Callback<U2Map<T, A, W>, IOException> cb) {
+		exec.execute(new Op<U2Map<T, A, W>>(cb) {
+			@Override protected U2Map<T, A, W> call() throws IOException {
+				return sctl.getTGraphOutgoing(addr, src);
+			}
+		});
+	}
+
+	@Override public void getTGraphNodeAttr(final A addr, final U2<T, A> node, Callback<U, IOException> cb) {
+		exec.execute(new Op<U>(cb) {
+			@Override protected U call() throws IOException {
+				return sctl.getTGraphNodeAttr(addr, node);
+			}
+		});
+	}
+
+	@Override public void getIndexOutgoing(final A addr, final T src, Callback<U2Map<A, A, W>, IOException> cb) {
+		exec.execute(new Op<U2Map<A, A, W>>(cb) {
+			@Override protected U2Map<A, A, W> call() throws IOException {
+				return sctl.getIndexOutgoing(addr, src);
+			}
+		});
+	}
+
+	@Override public void getTGraphOutgoingMulti(final A addr, final Collection<T> srcs, Callback<Map<T, U2Map<T, A, W>>, IOException> cb) {
+		exec.execute(new Op<Map<T, U2Map<T, A, W>>>(cb) {
+			@Override protected Map<T, U2Map<T, A, W>> call() throws IOException {
+				return sctl.getTGraphOutgoingMulti(addr, srcs);
+			}
+		});
+	}
+
+	@Override public void getTGraphNodeAttrs(final A addr, final Collection<U2<T, A>> nodes, Callback<Map<U2<T, A>, U>, IOException> cb) {
+		exec.execute(new Op<Map<U2<T, A>, U>>(cb) {
+			@Override protected Map<U2<T, A>, U> call() throws IOException {
+				return sctl.getTGraphNodeAttrs(addr, nodes);
+			}
+		});
+	}
+
+	@Override public void getIndexOutgoingMulti(final A addr, final Collection<T> srcs, Callback<Map<T, U2Map<A, A, W>>, IOException> cb) {
+		exec.execute(new Op<Map<T, U2Map<A, A, W>>>(cb) {
+			@Override protected Map<T, U2Map<A, A, W>> call() throws IOException {
+				return sctl.getIndexOutgoingMulti(addr, srcs);
+			}
+		});
+	}
+
+	/**
+	** Runs a blocking operation and passes its result to a callback.
+	*/
+	abstract protected static class Op<V> implements Runnable {
+
+		final protected Callback<V, IOException> cb;
+
+		public Op(Callback<V, IOException> cb) {
+			if (cb == null) { throw new NullPointerException(); }
+			this.cb = cb;
+		}
+
+		@Override public void run() {
+			V val;
+			try {
+				val = call();
+			} catch (IOException e) {
+				cb.fail(e);
+				return;
+			} catch (RuntimeException e) {
+				cb.fail(new IOException("store error", e));
+				return;
+			}
+			cb.done(val);
+		}
+
+		abstract protected V call() throws IOException;
+
+	}
+
+}
@@ -0,0 +1,99 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.store;
+
+import tags.proto.PTable;
+import tags.proto.TGraph;
+import tags.proto.Index;
+import tags.util.Union.U2;
+import tags.util.Maps.U2Map;
+import tags.util.exec.Callback;
+import java.util.Collection;
+import java.util.Map;
+
+import java.io.IOException;
+
+/**
+** An asynchronous interface to the underlying storage network. This is the
+** same as {@link StoreControl}, except that results are passed to a {@link
+** Callback} rather than returned.
+**
+** All methods specified here should return immediately, without waiting for
+** the operation to complete. This lets a networked store keep many requests
+** in flight without tying up a thread for each one.
+**
+** @param <I> Type of identity
+** @param <T> Type of tag
+** @param <A> Type of address
+** @param <U> Type of node-attribute
+** @param <W> Type of arc-attribute
+** @param <S> Type of score
+** @param <Z> Type of identity-score
+** @see AsyncProxyStoreControl
+** @see BlockingProxyStoreControl
+*/
+public interface AsyncStoreControl<I, T, A, U, W, S, Z> {
+
+	/**
+	** Retrieves the immediate trusted neighbours of a given identity, each
+	** mapped to their score rating.
+	**
+	** @see StoreControl#getFriends(Object)
+	*/
+	public void getFriends(I id, Callback<Map<I, Z>, IOException> cb);
+
+	/**
+	** Retrieves the {@link PTable} for a given identity.
+	**
+	** @see StoreControl#getPTable(Object)
+	*/
+	public void getPTable(I id, Callback<PTable<A, S>, IOException> cb);
+
+	/**
+	** Retrieves the out-neighbours (and the weights of the out-arcs) for a
+	** given source tag, in the given {@link TGraph}.
+	**
+	** @see StoreControl#getTGraphOutgoing(Object, Object)
+	*/
+	public void getTGraphOutgoing(A addr, T src, Callback<U2Map<T, A, W>, IOException> cb);
+
+	/**
+	** Retrieves the node-attribute for a given tag or tgraph, in the given
+	** {@link TGraph}.
+	**
+	** @see StoreControl#getTGraphNodeAttr(Object, U2)
+	*/
+	public void getTGraphNodeAttr(A addr, U2<T, A> node, Callback<U, IOException> cb);
+
+	/**
+	** Retrieves the out-neighbours (and the weights of the out-arcs) for a
+	** given source tag, in the given {@link Index}.
+	**
+	** @see StoreControl#getIndexOutgoing(Object, Object)
+	*/
+	public void getIndexOutgoing(A addr, T src, Callback<U2Map<A, A, W>, IOException> cb);
+
+	/**
+	** Retrieves the out-neighbours (and the weights of the out-arcs) for each
+	** of the given source tags, in the given {@link TGraph}.
+	**
+	** @see StoreControl#getTGraphOutgoingMulti(Object, Collection)
+	*/
+	public void getTGraphOutgoingMulti(A addr, Collection<T> srcs, Callback<Map<T, U2Map<T, A, W>>, IOException> cb);
+
+	/**
+	** Retrieves the node-attributes for each of the given tags or tgraphs, in
+	** the given {@link TGraph}.
+	**
+	** @see StoreControl#getTGraphNodeAttrs(Object, Collection)
+	*/
+	public void getTGraphNodeAttrs(A addr, Collection<U2<T, A>> nodes, Callback<Map<U2<T, A>, U>, IOException> cb);
+
+	/**
+	** Retrieves the out-neighbours (and the weights of the out-arcs) for each
+	** of the given source tags, in the given {@link Index}.
+	**
+	** @see StoreControl#getIndexOutgoingMulti(Object, Collection)
+	*/
+	public void getIndexOutgoingMulti(A addr, Collection<T> srcs, Callback<Map<T, U2Map<A, A, W>>, IOException> cb);
+
+}
@@ -0,0 +1,448 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.store;
+
+import java.util.Map;
+import java.util.List;
+import java.util.Set;
+import java.util.Iterator;
+import java.util.TreeSet;
+import java.util.Arrays;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.NoSuchElementException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.DataOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.BufferUnderflowException;
+import java.nio.charset.Charset;
+
+/**
+** A compact binary container for an adjacency structure keyed by strings, ie.
+** a tgraph, an index or a social graph. Each source node maps to a fixed
+** number of typed adjacency lists (eg. {@link GraphMLStoreControl.T_TGR}), and
+** nodes may optionally have an attribute.
+**
+** Format (all integers big-endian):
+**
+**   int32    magic ("TRBC")
+**   byte     version
+**   byte     kind (eg. {@link #KIND_TGR})
+**   byte     number of types
+**   byte     flags ({@link #FLAG_FLOAT}, {@link #FLAG_ATTR})
+**   int32    number of strings, n
+**   int32[n+1] start offset of each string in the string data
+**   byte[]   string data, UTF-8, in sorted order
+**   weight[n] node attribute of each string, NaN if none (if FLAG_ATTR)
+**   int32[n] start offset of each string's adjacency, -1 if not a source
+**   byte[]   adjacency data
+**
+** The adjacency of a source is one list for each type, each of which is:
+**
+**   varint   length, m
+**   varint[m] string indexes, ascending, delta-encoded
+**   weight[m] arc attributes
+**
+** Weights are raw IEEE754 doubles, or floats if FLAG_FLOAT is set. Since the
+** string table is sorted and all offset tables are fixed-width, any source can
+** be found and read without decoding the rest of the container.
+**
+** This class reads from a {@link ByteBuffer}, which may be backed by an array
+** or a mapped file. Decoded strings are cached. It is thread-safe, as long as
+** nothing else modifies the buffer.
+*/
+public class BinaryContainer {
+
+	final public static int MAGIC = 0x54524243;
+	final public static byte VERSION = 1;
+
+	final public static byte KIND_TGR = 0;
+	final public static byte KIND_IDX = 1;
+	final public static byte KIND_PTB = 2;
+
+	final public static byte FLAG_FLOAT = 0x01;
+	final public static byte FLAG_ATTR = 0x02;
+
+	final public static String EXT = ".bin";
+
+	final protected static Charset UTF8 = Charset.forName("UTF-8");
+
+	final protected ByteBuffer buf;
+
+	final public byte kind;
+	final public int ntypes;
+	final public boolean floats;
+	final public boolean attrs;
+	final public int size;
+
+	final protected int wsz;
+	final protected int pos_str_off;
+	final protected int pos_str;
+	final protected int pos_attr;
+	final protected int pos_adj_off;
+	final protected int pos_adj;
+
+	final protected String[] strings;
+
+	/**
+	** @throws IOException if the data is not a valid container
+	*/
+	public BinaryContainer(ByteBuffer buf) throws IOException {
+		this.buf = buf.duplicate();
+		try {
+			if (buf.getInt(0) != MAGIC) { throw new IOException("bad magic number"); }
+			if (buf.get(4) != VERSION) { throw new IOException("unsupported version: " + buf.get(4)); }
+			this.kind = buf.get(5);
+			this.ntypes = buf.get(6);
+			byte flags = buf.get(7);
+			this.floats = (flags & FLAG_FLOAT) != 0;
+			this.attrs = (flags & FLAG_ATTR) != 0;
+			this.size = buf.getInt(8);
+			if (size < 0 || (long)size<<2 > buf.limit()) { throw new IOException("bad string count: " + size); }
+
+			this.wsz = floats? 4: 8;
+			this.pos_str_off = 12;
+			this.pos_str = pos_str_off + ((size+1)<<2);
+			this.pos_attr = pos_str + buf.getInt(pos_str_off + (size<<2));
+			this.pos_adj_off = pos_attr + (attrs? size*wsz: 0);
+			this.pos_adj = pos_adj_off + (size<<2);
+			if (pos_adj > buf.limit()) { throw new IOException("truncated container"); }
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException("truncated container", e);
+		}
+		this.strings = new String[size];
+	}
+
+	/**
+	** Reads a container from the given file, in one bulk read.
+	*/
+	public static BinaryContainer read(File fn) throws IOException {
+		FileInputStream is = new FileInputStream(fn);
+		try {
+			long len = fn.length();
+			if (len > Integer.MAX_VALUE) { throw new IOException("container too large: " + fn); }
+			byte[] data = new byte[(int)len];
+			int off = 0;
+			while (off < data.length) {
+				int r = is.read(data, off, data.length - off);
+				if (r < 0) { throw new IOException("unexpected end of file: " + fn); }
+				off += r;
+			}
+			return new BinaryContainer(ByteBuffer.wrap(data));
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	** Maps a container from the given file. The data is not copied onto the
+	** heap; it is read from the page cache as it is accessed, and may be
+	** shared with other processes mapping the same file.
+	*/
+	public static BinaryContainer map(File fn) throws IOException {
+		FileInputStream is = new FileInputStream(fn);
+		try {
+			FileChannel ch = is.getChannel();
+			return new BinaryContainer(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+		} finally {
+			// the mapping remains valid after the channel is closed
+			is.close();
+		}
+	}
+
+	/**
+	** Returns the string with the given index.
+	*/
+	public String getString(int i) {
+		String s = strings[i];
+		if (s == null) {
+			int start = buf.getInt(pos_str_off + (i<<2));
+			int end = buf.getInt(pos_str_off + ((i+1)<<2));
+			byte[] b = new byte[end - start];
+			ByteBuffer dup = buf.duplicate();
+			dup.position(pos_str + start);
+			dup.get(b);
+			strings[i] = s = new String(b, UTF8);
+		}
+		return s;
+	}
+
+	/**
+	** Returns the index of the given string, or {@code -1} if it is not in the
+	** container.
+	*/
+	public int indexOf(String key) {
+		int lo = 0, hi = size-1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int c = getString(mid).compareTo(key);
+			if (c < 0) {
+				lo = mid + 1;
+			} else if (c > 0) {
+				hi = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	** Returns the attribute of the given node, or NaN if it has none.
+	*/
+	public double getAttr(int i) {
+		if (!attrs) { return Double.NaN; }
+		return readWeight(pos_attr + i*wsz);
+	}
+
+	/**
+	** Returns the absolute position of the adjacency of the given node in the
+	** buffer, or {@code -1} if it is not a source.
+	*/
+	public int getAdjacencyPosition(int i) {
+		int off = buf.getInt(pos_adj_off + (i<<2));
+		return (off < 0)? -1: pos_adj + off;
+	}
+
+	/**
+	** Returns the outgoing arcs of the given node, as one map for each type,
+	** or {@code null} if the node is not a source.
+	**
+	** @throws IOException if the data is corrupt
+	*/
+	public List<Map<String, Double>> getOutgoing(String key) throws IOException {
+		return getOutgoing(key, false);
+	}
+
+	/**
+	** Returns the outgoing arcs of the given node, as one immutable map view
+	** for each type, or {@code null} if the node is not a source. The views
+	** read keys and weights directly from the buffer, as they are accessed.
+	**
+	** @throws IOException if the data is corrupt
+	*/
+	public List<Map<String, Double>> getOutgoingView(String key) throws IOException {
+		return getOutgoing(key, true);
+	}
+
+	protected List<Map<String, Double>> getOutgoing(String key, boolean view) throws IOException {
+		int i = indexOf(key);
+		if (i < 0) { return null; }
+		int pos = getAdjacencyPosition(i);
+		if (pos < 0) { return null; }
+		try {
+			List<Map<String, Double>> out = new ArrayList<Map<String, Double>>(ntypes);
+			ByteBuffer in = buf.duplicate();
+			in.position(pos);
+			for (int t=0; t<ntypes; ++t) {
+				int m = readVarInt(in);
+				// each arc takes at least one byte for its id, plus its weight
+				if (m < 0 || (long)m * (1 + wsz) > in.remaining()) {
+					throw new IOException("corrupt adjacency for " + key + ": bad arc count " + m);
+				}
+				int[] ids = new int[m];
+				for (int j=0, id=0; j<m; ++j) { ids[j] = id += readVarInt(in); }
+				if (view) {
+					int wpos = in.position();
+					if (wpos + m*wsz > in.limit()) { throw new BufferUnderflowException(); }
+					out.add(new AdjacencyView(ids, wpos));
+					in.position(wpos + m*wsz);
+				} else {
+					Map<String, Double> map = new HashMap<String, Double>(m<<1);
+					for (int j=0; j<m; ++j) {
+						map.put(getString(ids[j]), floats? (double)in.getFloat(): in.getDouble());
+					}
+					out.add(map);
+				}
+			}
+			return out;
+		} catch (BufferUnderflowException e) {
+			throw new IOException("corrupt adjacency for " + key, e);
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException("corrupt adjacency for " + key, e);
+		}
+	}
+
+	/**
+	** An immutable map view of an adjacency list. Only the string indexes of
+	** the list are held on the heap; weights are read from the buffer.
+	*/
+	protected class AdjacencyView extends AbstractMap<String, Double> {
+
+		/** String indexes, in ascending order. */
+		final protected int[] ids;
+		/** Absolute position of the weights in the buffer. */
+		final protected int wpos;
+
+		protected AdjacencyView(int[] ids, int wpos) {
+			this.ids = ids;
+			this.wpos = wpos;
+		}
+
+		protected int find(Object o) {
+			if (!(o instanceof String)) { return -1; }
+			int i = indexOf((String)o);
+			return (i < 0)? -1: Arrays.binarySearch(ids, i);
+		}
+
+		@Override public int size() {
+			return ids.length;
+		}
+
+		@Override public boolean containsKey(Object o) {
+			return find(o) >= 0;
+		}
+
+		@Override public Double get(Object o) {
+			int j = find(o);
+			return (j < 0)? null: readWeight(wpos + j*wsz);
+		}
+
+		@Override public Set<Map.Entry<String, Double>> entrySet() {
+			return new AbstractSet<Map.Entry<String, Double>>() {
+				@Override public int size() {
+					return ids.length;
+				}
+				@Override public Iterator<Map.Entry<String, Double>> iterator() {
+					return new Iterator<Map.Entry<String, Double>>() {
+						int j = 0;
+						@Override public boolean hasNext() {
+							return j < ids.length;
+						}
+						@Override public Map.Entry<String, Double> next() {
+							if (j >= ids.length) { throw new NoSuchElementException(); }
+							Map.Entry<String, Double> en = new AbstractMap.SimpleImmutableEntry<String, Double>(
+							  getString(ids[j]), readWeight(wpos + j*wsz));
+							++j;
+							return en;
+						}
+						@Override public void remove() {
+							throw new UnsupportedOperationException();
+						}
+					};
+				}
+			};
+		}
+
+	}
+
+	protected double readWeight(int pos) {
+		return floats? (double)buf.getFloat(pos): buf.getDouble(pos);
+	}
+
+	public static int readVarInt(ByteBuffer in) throws IOException {
+		int v = 0;
+		for (int shift=0; shift<32; shift+=7) {
+			byte b = in.get();
+			v |= (b & 0x7f) << shift;
+			if (b >= 0) { return v; }
+		}
+		throw new IOException("malformed varint");
+	}
+
+	public static void writeVarInt(DataOutputStream out, int v) throws IOException {
+		while ((v & ~0x7f) != 0) {
+			out.writeByte((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		out.writeByte(v);
+	}
+
+	/**
+	** Writes a container to the given file.
+	**
+	** @param fn File to write to
+	** @param kind Kind of container
+	** @param ntypes Number of types of adjacency list
+	** @param floats Whether to write weights as floats rather than doubles
+	** @param attrs Node attributes; may be {@code null} for none. Null values
+	**        are written as NaN.
+	** @param adj Map of sources to their adjacency lists, one for each type.
+	**        Null values in the lists are written as NaN.
+	** @throws IllegalArgumentException if any adjacency doesn't have exactly
+	**         {@code ntypes} lists
+	*/
+	public static void write(
+	  File fn, byte kind, int ntypes, boolean floats,
+	  Map<String, ? extends Number> attrs, Map<String, ? extends List<? extends Map<String, ? extends Number>>> adj
+	) throws IOException {
+		Set<String> keys = new TreeSet<String>();
+		if (attrs != null) { keys.addAll(attrs.keySet()); }
+		for (Map.Entry<String, ? extends List<? extends Map<String, ? extends Number>>> en: adj.entrySet()) {
+			if (en.getValue().size() != ntypes) {
+				throw new IllegalArgumentException("need " + ntypes + " adjacency lists for: " + en.getKey());
+			}
+			keys.add(en.getKey());
+			for (Map<String, ? extends Number> out: en.getValue()) { keys.addAll(out.keySet()); }
+		}
+		String[] str = keys.toArray(new String[keys.size()]);
+		Map<String, Integer> index = new HashMap<String, Integer>(str.length<<1);
+		for (int i=0; i<str.length; ++i) { index.put(str[i], i); }
+
+		ByteArrayOutputStream str_data = new ByteArrayOutputStream();
+		int[] str_off = new int[str.length+1];
+		for (int i=0; i<str.length; ++i) {
+			str_off[i] = str_data.size();
+			byte[] b = str[i].getBytes(UTF8);
+			str_data.write(b, 0, b.length);
+		}
+		str_off[str.length] = str_data.size();
+
+		ByteArrayOutputStream adj_bytes = new ByteArrayOutputStream();
+		DataOutputStream adj_data = new DataOutputStream(adj_bytes);
+		int[] adj_off = new int[str.length];
+		Arrays.fill(adj_off, -1);
+		for (int i=0; i<str.length; ++i) {
+			List<? extends Map<String, ? extends Number>> lists = adj.get(str[i]);
+			if (lists == null) { continue; }
+			adj_off[i] = adj_data.size();
+			for (Map<String, ? extends Number> out: lists) {
+				int[] ids = new int[out.size()];
+				int j = 0;
+				for (String k: out.keySet()) { ids[j++] = index.get(k); }
+				Arrays.sort(ids);
+				writeVarInt(adj_data, ids.length);
+				for (j=0; j<ids.length; ++j) { writeVarInt(adj_data, (j == 0)? ids[j]: ids[j] - ids[j-1]); }
+				for (j=0; j<ids.length; ++j) { writeWeight(adj_data, floats, out.get(str[ids[j]])); }
+			}
+		}
+		adj_data.flush();
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fn)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.writeByte(kind);
+			out.writeByte(ntypes);
+			out.writeByte((floats? FLAG_FLOAT: 0) | (attrs != null? FLAG_ATTR: 0));
+			out.writeInt(str.length);
+			for (int off: str_off) { out.writeInt(off); }
+			str_data.writeTo(out);
+			if (attrs != null) {
+				for (String s: str) { writeWeight(out, floats, attrs.get(s)); }
+			}
+			for (int off: adj_off) { out.writeInt(off); }
+			adj_bytes.writeTo(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	protected static void writeWeight(DataOutputStream out, boolean floats, Number w) throws IOException {
+		double d = (w == null)? Double.NaN: w.doubleValue();
+		if (floats) {
+			out.writeFloat((float)d);
+		} else {
+			out.writeDouble(d);
+		}
+	}
+
+}
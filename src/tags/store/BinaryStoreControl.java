@@ -0,0 +1,193 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.store;
+
+import tags.util.Maps;
+
+import tags.proto.PTable;
+import tags.util.Union.U2;
+import tags.util.Maps.U2Map;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.HashMap;
+
+import org.apache.commons.collections15.map.ReferenceMap;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+** A {@link StoreControl} that reads from a repository of {@link
+** BinaryContainer}s, as written by {@link BinaryStoreConverter}. Each
+** container is loaded with a single bulk read, and adjacency lists are only
+** decoded when they are looked up.
+**
+** Format: the social graph is at {@link #FILE_PTB}, with one source for each
+** identity, and the tgraphs and indexes are at {@code tgr/ADDR.bin} and {@code
+** idx/ADDR.bin}. The types of adjacency lists are as for {@link
+** GraphMLStoreControl}.
+**
+** This class may be accessed by several threads at once. Access to the caches
+** is synchronized, but loading is done outside of the lock, so two threads
+** might load the same item concurrently; the last one loaded wins.
+*/
+public class BinaryStoreControl implements StoreControl<String, String, String, Double, Double, Double, Double> {
+
+	final public static String FILE_PTB = "ptb" + BinaryContainer.EXT;
+
+	final protected File basedir;
+	final protected File dir_tgr;
+	final protected File dir_idx;
+
+	final protected BinaryContainer socnet;
+	final protected ReferenceMap<String, BinaryContainer> tgraphs;
+	final protected ReferenceMap<String, BinaryContainer> indexes;
+
+	/**
+	** @see #BinaryStoreControl(File)
+	*/
+	public BinaryStoreControl(String basedir) throws IOException {
+		this(new File(basedir));
+	}
+
+	/**
+	** @throws IllegalArgumentException if {@code basedir} is not a directory
+	*/
+	public BinaryStoreControl(File basedir) throws IOException {
+		if (!basedir.isDirectory()) {
+			throw new IllegalArgumentException("not a directory: " + basedir);
+		}
+		this.basedir = basedir;
+		this.dir_tgr = new File(basedir, GraphMLStoreControl.DIR_TGR);
+		this.dir_idx = new File(basedir, GraphMLStoreControl.DIR_IDX);
+
+		this.socnet = load(new File(basedir, FILE_PTB), BinaryContainer.KIND_PTB);
+		this.tgraphs = new ReferenceMap<String, BinaryContainer>();
+		this.indexes = new ReferenceMap<String, BinaryContainer>();
+	}
+
+	@Override public Map<String, Double> getFriends(String id) throws IOException {
+		return getIDSuccs(id).get(GraphMLStoreControl.T_PTB.z.ordinal());
+	}
+
+	@Override public PTable<String, Double> getPTable(String id) throws IOException {
+		List<Map<String, Double>> out = getIDSuccs(id);
+		return new PTable<String, Double>(out.get(GraphMLStoreControl.T_PTB.g.ordinal()), out.get(GraphMLStoreControl.T_PTB.h.ordinal()));
+	}
+
+	@Override public U2Map<String, String, Double> getTGraphOutgoing(String addr, String src) throws IOException {
+		return getTGraphOutgoing(getTGraph(addr), src);
+	}
+
+	@Override public Double getTGraphNodeAttr(String addr, U2<String, String> node) throws IOException {
+		return getTGraphNodeAttr(getTGraph(addr), node);
+	}
+
+	@Override public U2Map<String, String, Double> getIndexOutgoing(String addr, String src) throws IOException {
+		return getIndexOutgoing(getIndex(addr), src);
+	}
+
+	@Override public Map<String, U2Map<String, String, Double>> getTGraphOutgoingMulti(String addr, Collection<String> srcs) throws IOException {
+		BinaryContainer tgr = getTGraph(addr);
+		Map<String, U2Map<String, String, Double>> res = new HashMap<String, U2Map<String, String, Double>>();
+		for (String src: srcs) {
+			U2Map<String, String, Double> out = getTGraphOutgoing(tgr, src);
+			if (out != null) { res.put(src, out); }
+		}
+		return res;
+	}
+
+	@Override public Map<U2<String, String>, Double> getTGraphNodeAttrs(String addr, Collection<U2<String, String>> nodes) throws IOException {
+		BinaryContainer tgr = getTGraph(addr);
+		Map<U2<String, String>, Double> res = new HashMap<U2<String, String>, Double>();
+		for (U2<String, String> node: nodes) {
+			Double attr = getTGraphNodeAttr(tgr, node);
+			if (attr != null) { res.put(node, attr); }
+		}
+		return res;
+	}
+
+	@Override public Map<String, U2Map<String, String, Double>> getIndexOutgoingMulti(String addr, Collection<String> srcs) throws IOException {
+		BinaryContainer idx = getIndex(addr);
+		Map<String, U2Map<String, String, Double>> res = new HashMap<String, U2Map<String, String, Double>>();
+		for (String src: srcs) {
+			U2Map<String, String, Double> out = getIndexOutgoing(idx, src);
+			if (out != null) { res.put(src, out); }
+		}
+		return res;
+	}
+
+	protected U2Map<String, String, Double> getTGraphOutgoing(BinaryContainer tgr, String src) throws IOException {
+		List<Map<String, Double>> out = getOutgoing(tgr, src);
+		if (out == null) { return null; }
+		return Maps.uniteDisjoint(out.get(GraphMLStoreControl.T_TGR.t.ordinal()), out.get(GraphMLStoreControl.T_TGR.g.ordinal()));
+	}
+
+	protected Double getTGraphNodeAttr(BinaryContainer tgr, U2<String, String> node) throws IOException {
+		int i = tgr.indexOf(node.isT0()? node.getT0(): node.getT1());
+		if (i < 0) { return null; }
+		double attr = tgr.getAttr(i);
+		return Double.isNaN(attr)? null: attr;
+	}
+
+	protected U2Map<String, String, Double> getIndexOutgoing(BinaryContainer idx, String src) throws IOException {
+		List<Map<String, Double>> out = getOutgoing(idx, src);
+		if (out == null) { return null; }
+		return Maps.uniteDisjoint(out.get(GraphMLStoreControl.T_IDX_UNW.d.ordinal()), out.get(GraphMLStoreControl.T_IDX_UNW.h.ordinal()));
+	}
+
+	protected List<Map<String, Double>> getIDSuccs(String id) throws IOException {
+		List<Map<String, Double>> out = getOutgoing(socnet, id);
+		if (out == null) { throw new IOException("identity " + id + " not found"); }
+		return out;
+	}
+
+	protected BinaryContainer getTGraph(String addr) throws IOException {
+		BinaryContainer tgr;
+		synchronized (tgraphs) { tgr = tgraphs.get(addr); }
+		if (tgr == null) {
+			tgr = load(new File(dir_tgr, addr + BinaryContainer.EXT), BinaryContainer.KIND_TGR);
+			synchronized (tgraphs) { tgraphs.put(addr, tgr); }
+		}
+		return tgr;
+	}
+
+	protected BinaryContainer getIndex(String addr) throws IOException {
+		BinaryContainer idx;
+		synchronized (indexes) { idx = indexes.get(addr); }
+		if (idx == null) {
+			idx = load(new File(dir_idx, addr + BinaryContainer.EXT), BinaryContainer.KIND_IDX);
+			synchronized (indexes) { indexes.put(addr, idx); }
+		}
+		return idx;
+	}
+
+	/**
+	** Returns the outgoing arcs of the given node in the given container. This
+	** implementation decodes them onto the heap.
+	*/
+	protected List<Map<String, Double>> getOutgoing(BinaryContainer ctr, String src) throws IOException {
+		return ctr.getOutgoing(src);
+	}
+
+	/**
+	** Opens the given container, and checks its kind.
+	**
+	** @throws IOException if the container could not be read, or is of the
+	**         wrong kind
+	*/
+	protected BinaryContainer load(File fn, byte kind) throws IOException {
+		BinaryContainer ctr = open(fn);
+		if (ctr.kind != kind) { throw new IOException("wrong kind of container " + ctr.kind + ": " + fn); }
+		return ctr;
+	}
+
+	/**
+	** Opens the given container. This implementation reads the whole file
+	** onto the heap.
+	*/
+	protected BinaryContainer open(File fn) throws IOException {
+		return BinaryContainer.read(fn);
+	}
+
+}
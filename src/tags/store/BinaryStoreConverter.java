@@ -0,0 +1,203 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.store;
+
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.HelpFormatter;
+
+import tags.io.CompactTypedGraph;
+import tags.store.GraphMLStoreControl.T_PTB;
+import tags.store.GraphMLStoreControl.T_TGR;
+import tags.store.GraphMLStoreControl.T_IDX;
+import tags.store.GraphMLStoreControl.DirectoryTGraph;
+import tags.store.GraphMLStoreControl.DirectoryIndex;
+import tags.util.Maps.U2Map;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+** Converts a repository read by {@link GraphMLStoreControl} into one read by
+** {@link BinaryStoreControl}. Both GraphML and directory containers are
+** converted. Attributes and weights must be numbers.
+*/
+public class BinaryStoreConverter {
+
+	final protected GraphMLStoreControl<String, Object, Object, Object> src;
+	final protected File dstdir;
+	final protected boolean floats;
+
+	/**
+	** @param srcdir Directory to read from
+	** @param dstdir Directory to write to; this may be the same as {@code
+	**        srcdir}, since the file names don't clash
+	** @param floats Whether to write weights as floats rather than doubles
+	*/
+	public BinaryStoreConverter(File srcdir, File dstdir, boolean floats) throws IOException {
+		this.src = new GraphMLStoreControl<String, Object, Object, Object>(srcdir);
+		this.dstdir = dstdir;
+		this.floats = floats;
+	}
+
+	/**
+	** Converts everything, and returns the number of containers written.
+	*/
+	public int convertAll() throws IOException {
+		File dir_tgr = new File(dstdir, GraphMLStoreControl.DIR_TGR);
+		File dir_idx = new File(dstdir, GraphMLStoreControl.DIR_IDX);
+		mkdirs(dir_tgr);
+		mkdirs(dir_idx);
+
+		convertSocialGraph(new File(dstdir, BinaryStoreControl.FILE_PTB));
+		int n = 1;
+		for (String addr: listContainers(src.dir_tgr)) {
+			convertTGraph(addr, new File(dir_tgr, addr + BinaryContainer.EXT));
+			++n;
+		}
+		for (String addr: listContainers(src.dir_idx)) {
+			convertIndex(addr, new File(dir_idx, addr + BinaryContainer.EXT));
+			++n;
+		}
+		return n;
+	}
+
+	public void convertSocialGraph(File fn) throws IOException {
+		Map<String, List<Map<String, Object>>> adj = new HashMap<String, List<Map<String, Object>>>();
+		for (String id: src.getIdentities()) {
+			Map<T_PTB, Map<String, Object>> out = src.getIDSuccs(id);
+			adj.put(id, Arrays.asList(out.get(T_PTB.z), out.get(T_PTB.g), out.get(T_PTB.h)));
+		}
+		BinaryContainer.write(fn, BinaryContainer.KIND_PTB, T_PTB.values().length, floats, null, adjNumbers(adj));
+	}
+
+	public void convertTGraph(String addr, File fn) throws IOException {
+		Map<String, Object> attrs = new HashMap<String, Object>();
+		Map<String, List<Map<String, Object>>> adj = new HashMap<String, List<Map<String, Object>>>();
+
+		DirectoryTGraph<String, Object, Object> tgru = src.getTGraphUnwrap(addr);
+		if (tgru != null) {
+			for (Map.Entry<String, Object> en: tgru.getNodeMap().entrySet()) {
+				attrs.put(en.getKey(), en.getValue());
+				U2Map<String, String, Object> out = tgru.getOutgoing(en.getKey());
+				if (out == null) { continue; }
+				adj.put(en.getKey(), Arrays.asList(out.K0Map(), out.K1Map()));
+			}
+		} else {
+			CompactTypedGraph<T_TGR, String, Object, Object> tgr = src.getTGraph(addr);
+			for (Map.Entry<T_TGR, Set<String>> en: tgr.keyTypedSet().entrySet()) {
+				for (String node: en.getValue()) {
+					attrs.put(node, tgr.getVertexAttribute(node));
+					if (en.getKey() != T_TGR.t) { continue; }
+					Map<T_TGR, Map<String, Object>> out = tgr.getSuccessorTypedMap(node);
+					adj.put(node, Arrays.asList(out.get(T_TGR.t), out.get(T_TGR.g)));
+				}
+			}
+		}
+		BinaryContainer.write(fn, BinaryContainer.KIND_TGR, T_TGR.values().length, floats, numbers(attrs), adjNumbers(adj));
+	}
+
+	public void convertIndex(String addr, File fn) throws IOException {
+		Map<String, List<Map<String, Object>>> adj = new HashMap<String, List<Map<String, Object>>>();
+
+		DirectoryIndex<String, Object> idxu = src.getIndexUnwrap(addr);
+		if (idxu != null) {
+			for (String tag: idxu.getNodeSet()) {
+				U2Map<String, String, Object> out = idxu.getOutgoing(tag);
+				if (out == null) { continue; }
+				adj.put(tag, Arrays.asList(out.K0Map(), out.K1Map()));
+			}
+		} else {
+			CompactTypedGraph<T_IDX, String, Object, Object> idx = src.getIndex(addr);
+			for (String tag: idx.keyTypedSet().get(T_IDX.t)) {
+				Map<T_IDX, Map<String, Object>> out = idx.getSuccessorTypedMap(tag);
+				adj.put(tag, Arrays.asList(out.get(T_IDX.d), out.get(T_IDX.h)));
+			}
+		}
+		BinaryContainer.write(fn, BinaryContainer.KIND_IDX, GraphMLStoreControl.T_IDX_UNW.values().length, floats, null, adjNumbers(adj));
+	}
+
+	/**
+	** Returns the addresses of the containers in the given directory.
+	*/
+	public static List<String> listContainers(File dir) {
+		String[] names = dir.list();
+		if (names == null) { return Arrays.<String>asList(); }
+		Arrays.sort(names);
+		List<String> addrs = new ArrayList<String>();
+		for (String name: names) {
+			if (new File(dir, name).isDirectory()) {
+				addrs.add(name);
+			} else if (name.endsWith(".graphmlz")) {
+				addrs.add(name.substring(0, name.length() - ".graphmlz".length()));
+			}
+		}
+		return addrs;
+	}
+
+	/**
+	** Checks that all the values of the given map are numbers or {@code
+	** null}, and casts it.
+	**
+	** @throws IOException if a value is not a number
+	*/
+	@SuppressWarnings("unchecked")
+	protected static Map<String, Number> numbers(Map<String, Object> map) throws IOException {
+		for (Map.Entry<String, Object> en: map.entrySet()) {
+			Object v = en.getValue();
+			if (v != null && !(v instanceof Number)) {
+				throw new IOException("not a number: " + en.getKey() + "=" + v);
+			}
+		}
+		return (Map<String, Number>)(Map)map;
+	}
+
+	@SuppressWarnings("unchecked")
+	protected static Map<String, List<Map<String, Number>>> adjNumbers(Map<String, List<Map<String, Object>>> adj) throws IOException {
+		for (List<Map<String, Object>> lists: adj.values()) {
+			for (Map<String, Object> out: lists) { numbers(out); }
+		}
+		return (Map<String, List<Map<String, Number>>>)(Map)adj;
+	}
+
+	protected static void mkdirs(File dir) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("could not create directory: " + dir);
+		}
+	}
+
+	public static void main(String[] args) throws Throwable {
+		Options opt = new Options();
+		opt.addOption("h", "help", false, "print this help message");
+		opt.addOption(OptionBuilder.withDescription("base data directory to read from").
+		  withLongOpt("basedir").withArgName("DIR").hasArg().create('d'));
+		opt.addOption(OptionBuilder.withDescription("directory to write to (default: the same as basedir)").
+		  withLongOpt("output").withArgName("DIR").hasArg().create('o'));
+		opt.addOption("f", "float", false, "write weights as floats rather than doubles");
+
+		CommandLineParser parser = new GnuParser();
+		CommandLine line = parser.parse(opt, args);
+
+		String basedir = line.getOptionValue('d');
+		if (line.hasOption('h') || basedir == null) {
+			HelpFormatter formatter = new HelpFormatter();
+			formatter.setLeftPadding(4);
+			formatter.printHelp("tags.store.BinaryStoreConverter -d DIR", opt);
+			System.exit(line.hasOption('h')? 0: 2);
+		}
+		String output = line.getOptionValue('o', basedir);
+
+		BinaryStoreConverter conv = new BinaryStoreConverter(new File(basedir), new File(output), line.hasOption('f'));
+		int n = conv.convertAll();
+		System.out.println("wrote " + n + " containers to " + output);
+	}
+
+}
@@ -0,0 +1,82 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.store;
+
+import tags.proto.PTable;
+import tags.util.Union.U2;
+import tags.util.Maps.U2Map;
+import tags.util.exec.BlockingCallback;
+import java.util.Collection;
+import java.util.Map;
+
+import java.io.IOException;
+
+/**
+** A blocking {@link StoreControl} view of an {@link AsyncStoreControl}. Each
+** method starts the asynchronous operation, then waits for it to complete.
+**
+** @param <I> Type of identity
+** @param <T> Type of tag
+** @param <A> Type of address
+** @param <U> Type of node-attribute
+** @param <W> Type of arc-attribute
+** @param <S> Type of score
+** @param <Z> Type of identity-score
+*/
+public class BlockingProxyStoreControl<I, T, A, U, W, S, Z> implements StoreControl<I, T, A, U, W, S, Z> {
+
+	final protected AsyncStoreControl<I, T, A, U, W, S, Z> asctl;
+
+	public BlockingProxyStoreControl(AsyncStoreControl<I, T, A, U, W, S, Z> asctl) {
+		if (asctl == null) { throw new NullPointerException(); }
+		this.asctl = asctl;
+	}
+
+	@Override public Map<I, Z> getFriends(I id) throws IOException {
+		BlockingCallback<Map<I, Z>, IOException> cb = new BlockingCallback<Map<I, Z>, IOException>();
+		asctl.getFriends(id, cb);
+		return cb.get();
+	}
+
+	@Override public PTable<A, S> getPTable(I id) throws IOException {
+		BlockingCallback<PTable<A, S>, IOException> cb = new BlockingCallback<PTable<A, S>, IOException>();
+		asctl.getPTable(id, cb);
+		return cb.get();
+	}
+
+	@Override public U2Map<T, A, W> getTGraphOutgoing(A addr, T src) throws IOException {
+		BlockingCallback<U2Map<T, A, W>, IOException> cb = new BlockingCallback<U2Map<T, A, W>, IOException>();
+		asctl.getTGraphOutgoing(addr, src, cb);
+		return cb.get();
+	}
+
+	@Override public U getTGraphNodeAttr(A addr, U2<T, A> node) throws IOException {
+		BlockingCallback<U, IOException> cb = new BlockingCallback<U, IOException>();
+		asctl.getTGraphNodeAttr(addr, node, cb);
+		return cb.get();
+	}
+
+	@Override public U2Map<A, A, W> getIndexOutgoing(A addr, T src) throws IOException {
+		BlockingCallback<U2Map<A, A, W>, IOException> cb = new BlockingCallback<U2Map<A, A, W>, IOException>();
+		asctl.getIndexOutgoing(addr, src, cb);
+		return cb.get();
+	}
+
+	@Override public Map<T, U2Map<T, A, W>> getTGraphOutgoingMulti(A addr, Collection<T> srcs) throws IOException {
+		BlockingCallback<Map<T, U2Map<T, A, W>>, IOException> cb = new BlockingCallback<Map<T, U2Map<T, A, W>>, IOException>();
+		asctl.getTGraphOutgoingMulti(addr, srcs, cb);
+		return cb.get();
+	}
+
+	@Override public Map<U2<T, A>, U> getTGraphNodeAttrs(A addr, Collection<U2<T, A>> nodes) throws IOException {
+		BlockingCallback<Map<U2<T, A>, U>, IOException> cb = new BlockingCallback<Map<U2<T, A>, U>, IOException>();
+		asctl.getTGraphNodeAttrs(addr, nodes, cb);
+		return cb.get();
+	}
+
+	@Override public Map<T, U2Map<A, A, W>> getIndexOutgoingMulti(A addr, Collection<T> srcs) throws IOException {
+		BlockingCallback<Map<T, U2Map<A, A, W>>, IOException> cb = new BlockingCallback<Map<T, U2Map<A, A, W>>, IOException>();
+		asctl.getIndexOutgoingMulti(addr, srcs, cb);
+		return cb.get();
+	}
+
+}
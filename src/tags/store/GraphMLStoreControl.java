@@ -2,30 +2,42 @@
 package tags.store;
 
 import tags.util.Maps;
+import tags.util.Cache;
+import tags.util.LRUCache;
+import tags.util.exec.Monitor;
 
 import tags.proto.PTable;
 import tags.util.Union.U2;
 import tags.util.Maps.U2Map;
+import java.util.Collection;
 import java.util.List;
+import java.util.ArrayList;
 import java.util.Map;
 import java.util.Set;
+import java.util.LinkedHashMap;
 import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
 
 import tags.io.TypedXMLGraph;
-import org.apache.commons.collections15.map.ReferenceMap;
-import java.lang.ref.SoftReference;
+import tags.io.CompactTypedGraph;
 
+import org.json.simple.JSONValue;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.Reader;
+import java.io.Writer;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 import java.util.zip.CRC32;
 
 import javax.xml.parsers.ParserConfigurationException;
@@ -36,6 +48,19 @@ import org.xml.sax.SAXException;
 **
 ** Format: DOCUMENT
 **
+** Loaded data is kept in three {@link Cache}s with explicit byte budgets: one
+** for the social graph, and one each for the data of tgraphs and indexes. The
+** latter two are keyed by the file the data was parsed from, and so cover
+** both GraphML containers and the buckets and node lists of directory
+** containers. The seed tgraphs of a query may be pinned with {@link
+** #pinSeeds(Object)}, so that they are never evicted. Sizes are estimated
+** with {@link #estimateSize(Object)}.
+**
+** This class may be accessed by several threads at once. Access to the caches
+** is synchronized, and loading is done outside of the lock. Loads are
+** single-flight (see {@link Cache#get(Object, Cache.Loader)}), so if several
+** threads request the same item at once, it is only loaded once.
+**
 ** @param <N> Type of node (identity, object address, tag)
 ** @param <U> Type of node-attribute
 ** @param <W> Type of arc-attribute
@@ -47,12 +72,21 @@ public class GraphMLStoreControl<N, U, W, S> implements StoreControl<N, N, N, U,
 	final protected File dir_tgr;
 	final protected File dir_idx;
 
-	final protected TypedXMLGraph<T_PTB, N, U, S> socnet;
-	final protected ReferenceMap<N, Map<T_PTB, Map<N, S>>> idsuccs;
-	final protected ReferenceMap<N, TypedXMLGraph<T_TGR, N, U, W>> tgraphs;
-	final protected ReferenceMap<N, TypedXMLGraph<T_IDX, N, U, W>> indexes;
-	final protected Map<N, DirectoryTGraph<N, U, W>> tgraphs_unwrap;
-	final protected Map<N, DirectoryIndex<N, W>> indexes_unwrap;
+	/** Social graph as GraphML; loaded on first use, if {@link #socnet_unwrap} is null. */
+	protected volatile CompactTypedGraph<T_PTB, N, U, S> socnet;
+	/** Whether a thread is parsing {@link #socnet}. */
+	protected boolean socnet_loading;
+	/** Signalled whenever a parse of {@link #socnet} finishes. */
+	final protected Monitor socnet_loaded = new Monitor();
+	/** Social graph as a directory container, or {@code null} if there is none. */
+	final protected DirectorySocialGraph<N, S> socnet_unwrap;
+	final protected Cache<N, Map<T_PTB, Map<N, S>>> idsuccs;
+	final protected Cache<File, Object> identities;
+	final protected Cache<File, Object> tgraphs;
+	final protected Cache<File, Object> indexes;
+	/** Handles for directory containers; these are small, so never evicted. */
+	final protected Cache<N, DirectoryTGraph<N, U, W>> tgraphs_unwrap;
+	final protected Cache<N, DirectoryIndex<N, W>> indexes_unwrap;
 
 	/**
 	** @see #GraphMLStoreControl(File)
@@ -62,9 +96,29 @@ public class GraphMLStoreControl<N, U, W, S> implements StoreControl<N, N, N, U,
 	}
 
 	/**
-	** @throws IllegalArgumentException if {@code basedir} is not a directory
+	** Creates a new store with a total cache budget of {@link
+	** #DEFAULT_BUDGET}.
+	**
+	** @see #GraphMLStoreControl(File, long)
 	*/
 	public GraphMLStoreControl(File basedir) throws IOException {
+		this(basedir, DEFAULT_BUDGET);
+	}
+
+	/**
+	** Creates a new store. The social graph caches get 1/8 of the budget, the
+	** tgraph cache 3/8, and the index cache 1/2.
+	**
+	** This constructor does not read the social graph. If the store has a
+	** directory container at {@link #DIR_PTB} (see {@link
+	** SocialGraphIndexer}), identities are read from it one bucket at a time,
+	** as they are looked up. Otherwise, {@link #FILE_PTB} is loaded in full
+	** on the first lookup.
+	**
+	** @param budget Total cache budget, in (estimated) bytes
+	** @throws IllegalArgumentException if {@code basedir} is not a directory
+	*/
+	public GraphMLStoreControl(File basedir, long budget) throws IOException {
 		if (!basedir.isDirectory()) {
 			throw new IllegalArgumentException("not a directory: " + basedir);
 		}
@@ -72,16 +126,64 @@ public class GraphMLStoreControl<N, U, W, S> implements StoreControl<N, N, N, U,
 		this.dir_tgr = new File(basedir, DIR_TGR);
 		this.dir_idx = new File(basedir, DIR_IDX);
 
-		this.socnet = makeTypedXMLGraph(T_PTB.class);
-		this.socnet.load(new File(basedir, FILE_PTB));
-		this.socnet.setVertexPrimaryKey(NODE_ID);
-		this.socnet.setDefaultEdgeAttribute(ARC_ATTR);
+		this.idsuccs = this.<N, Map<T_PTB, Map<N, S>>>makeCache(budget>>4);
+		this.identities = this.<File, Object>makeCache(budget>>4);
+		this.tgraphs = this.<File, Object>makeCache((budget>>3)*3);
+		this.indexes = this.<File, Object>makeCache(budget>>1);
+		this.tgraphs_unwrap = new LRUCache<N, DirectoryTGraph<N, U, W>>(Long.MAX_VALUE, SIZE_WEIGHER);
+		this.indexes_unwrap = new LRUCache<N, DirectoryIndex<N, W>>(Long.MAX_VALUE, SIZE_WEIGHER);
+
+		File dir_ptb = new File(basedir, DIR_PTB);
+		this.socnet_unwrap = dir_ptb.isDirectory()? new DirectorySocialGraph<N, S>(dir_ptb, identities): null;
+	}
+
+	/**
+	** Creates a new cache with the given budget. This implementation returns
+	** an {@link LRUCache} that weighs entries using {@link
+	** #estimateSize(Object)}; subclasses may override this to use a different
+	** eviction policy.
+	*/
+	protected <K, V> Cache<K, V> makeCache(long budget) {
+		return new LRUCache<K, V>(budget, SIZE_WEIGHER);
+	}
+
+	/**
+	** Returns the caches of this store, by name, for inspecting their
+	** statistics.
+	*/
+	public Map<String, Cache<?, ?>> getCaches() {
+		Map<String, Cache<?, ?>> caches = new LinkedHashMap<String, Cache<?, ?>>();
+		caches.put("ptb", idsuccs);
+		caches.put("ptb-raw", identities);
+		caches.put("tgr", tgraphs);
+		caches.put("idx", indexes);
+		return caches;
+	}
+
+	/**
+	** Pins the data of the given identity, and of the tgraphs in its ptable,
+	** so that they are never evicted. This should be called with the seed
+	** identity of a query, to keep latency predictable under memory pressure.
+	*/
+	public void pinSeeds(N id) throws IOException {
+		idsuccs.pin(id);
+		for (N addr: getPTable(id).getTGraphs().keySet()) {
+			pinTGraph(addr, true);
+		}
+	}
 
-		this.idsuccs = new ReferenceMap<N, Map<T_PTB, Map<N, S>>>();
-		this.tgraphs = new ReferenceMap<N, TypedXMLGraph<T_TGR, N, U, W>>();
-		this.indexes = new ReferenceMap<N, TypedXMLGraph<T_IDX, N, U, W>>();
-		this.tgraphs_unwrap = new HashMap<N, DirectoryTGraph<N, U, W>>();
-		this.indexes_unwrap = new HashMap<N, DirectoryIndex<N, W>>();
+	/**
+	** Pins or unpins the data of the given tgraph. This may be called before
+	** the tgraph is loaded.
+	*/
+	public void pinTGraph(N addr, boolean pin) throws IOException {
+		DirectoryTGraph<N, U, W> tgru = getTGraphUnwrap(addr);
+		if (tgru != null) {
+			tgru.pin(pin);
+		} else {
+			File fn = new File(dir_tgr, addr.toString() + ".graphmlz");
+			if (pin) { tgraphs.pin(fn); } else { tgraphs.unpin(fn); }
+		}
 	}
 
 	@Override public Map<N, S> getFriends(N id) throws IOException {
@@ -97,7 +199,7 @@ public class GraphMLStoreControl<N, U, W, S> implements StoreControl<N, N, N, U,
 		DirectoryTGraph<N, U, W> tgru = getTGraphUnwrap(addr);
 		if (tgru != null) { return tgru.getOutgoing(src); }
 
-		TypedXMLGraph<T_TGR, N, U, W> tgr = getTGraph(addr);
+		CompactTypedGraph<T_TGR, N, U, W> tgr = getTGraph(addr);
 		Map<T_TGR, Map<N, W>> out = tgr.getSuccessorTypedMap(src);
 		if (out == null) { return null; } // can't use ?: due to shitty broken type inference
 		return Maps.uniteDisjoint(out.get(T_TGR.t), out.get(T_TGR.g));
@@ -107,7 +209,7 @@ public class GraphMLStoreControl<N, U, W, S> implements StoreControl<N, N, N, U,
 		DirectoryTGraph<N, U, W> tgru = getTGraphUnwrap(addr);
 		if (tgru != null) { return tgru.getNodeAttr(node.isT0()? node.getT0(): node.getT1()); }
 
-		TypedXMLGraph<T_TGR, N, U, W> tgr = getTGraph(addr);
+		CompactTypedGraph<T_TGR, N, U, W> tgr = getTGraph(addr);
 		return tgr.getVertexAttribute(node.isT0()? node.getT0(): node.getT1());
 	}
 
@@ -115,98 +217,173 @@ public class GraphMLStoreControl<N, U, W, S> implements StoreControl<N, N, N, U,
 		DirectoryIndex<N, W> idxu = getIndexUnwrap(addr);
 		if (idxu != null) { return idxu.getOutgoing(src); }
 
-		TypedXMLGraph<T_IDX, N, U, W> idx = getIndex(addr);
+		CompactTypedGraph<T_IDX, N, U, W> idx = getIndex(addr);
 		Map<T_IDX, Map<N, W>> out = idx.getSuccessorTypedMap(src);
 		if (out == null) { return null; } // can't use ?: due to shitty broken type inference
 		return Maps.uniteDisjoint(out.get(T_IDX.d), out.get(T_IDX.h));
 	}
 
+	@Override public Map<N, U2Map<N, N, W>> getTGraphOutgoingMulti(N addr, Collection<N> srcs) throws IOException {
+		DirectoryTGraph<N, U, W> tgru = getTGraphUnwrap(addr);
+		if (tgru != null) { return tgru.getOutgoingMulti(srcs); }
+
+		CompactTypedGraph<T_TGR, N, U, W> tgr = getTGraph(addr);
+		Map<N, U2Map<N, N, W>> res = new HashMap<N, U2Map<N, N, W>>();
+		for (N src: srcs) {
+			Map<T_TGR, Map<N, W>> out = tgr.getSuccessorTypedMap(src);
+			if (out != null) { res.put(src, Maps.uniteDisjoint(out.get(T_TGR.t), out.get(T_TGR.g))); }
+		}
+		return res;
+	}
+
+	@Override public Map<U2<N, N>, U> getTGraphNodeAttrs(N addr, Collection<U2<N, N>> nodes) throws IOException {
+		DirectoryTGraph<N, U, W> tgru = getTGraphUnwrap(addr);
+		Map<N, U> nmap = tgru != null? tgru.getNodeMap(): null;
+		CompactTypedGraph<T_TGR, N, U, W> tgr = tgru != null? null: getTGraph(addr);
+
+		Map<U2<N, N>, U> res = new HashMap<U2<N, N>, U>();
+		for (U2<N, N> node: nodes) {
+			N key = node.isT0()? node.getT0(): node.getT1();
+			U attr = nmap != null? nmap.get(key): tgr.getVertexAttribute(key);
+			if (attr != null) { res.put(node, attr); }
+		}
+		return res;
+	}
+
+	@Override public Map<N, U2Map<N, N, W>> getIndexOutgoingMulti(N addr, Collection<N> srcs) throws IOException {
+		DirectoryIndex<N, W> idxu = getIndexUnwrap(addr);
+		if (idxu != null) { return idxu.getOutgoingMulti(srcs); }
+
+		CompactTypedGraph<T_IDX, N, U, W> idx = getIndex(addr);
+		Map<N, U2Map<N, N, W>> res = new HashMap<N, U2Map<N, N, W>>();
+		for (N src: srcs) {
+			Map<T_IDX, Map<N, W>> out = idx.getSuccessorTypedMap(src);
+			if (out != null) { res.put(src, Maps.uniteDisjoint(out.get(T_IDX.d), out.get(T_IDX.h))); }
+		}
+		return res;
+	}
+
+	/**
+	** Returns the social graph as GraphML, loading it if necessary. The graph
+	** is parsed outside of the lock; threads that need it whilst another is
+	** parsing it wait on {@link #socnet_loaded} without holding any lock. If
+	** the parse fails, the next thread to ask for the graph tries again.
+	*/
+	protected CompactTypedGraph<T_PTB, N, U, S> getSocialGraph() throws IOException {
+		for (;;) {
+			long seen = socnet_loaded.version();
+			CompactTypedGraph<T_PTB, N, U, S> graph = socnet;
+			if (graph != null) { return graph; }
+			boolean leader;
+			synchronized (this) {
+				leader = !socnet_loading;
+				socnet_loading = true;
+			}
+			if (leader) {
+				try {
+					graph = new ProtoCompactTypedGraph<T_PTB, N, U, S>(T_PTB.class);
+					graph.load(new FileInputStream(new File(basedir, FILE_PTB)), NODE_ID, null, ARC_ATTR);
+					socnet = graph;
+					return graph;
+				} finally {
+					synchronized (this) { socnet_loading = false; }
+					socnet_loaded.signalAll();
+				}
+			}
+			try {
+				socnet_loaded.await(seen);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted while waiting for the social graph");
+			}
+		}
+	}
+
+	/**
+	** Returns the identities in the social graph.
+	*/
+	public Set<N> getIdentities() throws IOException {
+		if (socnet_unwrap != null) { return socnet_unwrap.getNodeSet(); }
+		return getSocialGraph().keyTypedSet().get(T_PTB.z);
+	}
+
 	protected Map<T_PTB, Map<N, S>> getIDSuccs(N id) throws IOException {
-		Map<T_PTB, Map<N, S>> idsucc = idsuccs.get(id);
-		if (idsucc == null) {
-			idsucc = new EnumMap<T_PTB, Map<N, S>>(socnet.getSuccessorTypedMap(id));
-			if (idsucc == null) { throw new IOException("identity " + id + " not found"); }
-			// the below is a little hack due to the fact that ids point to themselves,
-			// but this mapping should belong to the ptable rather than the friend table
-			Map<N, S> map_z = new HashMap<N, S>(idsucc.get(T_PTB.z));
-			Map<N, S> map_g = new HashMap<N, S>(idsucc.get(T_PTB.g));
-			Map<N, S> map_h = new HashMap<N, S>(idsucc.get(T_PTB.h));
-			map_h.put(id, map_z.remove(id));
-			idsucc.put(T_PTB.z, map_z);
-			idsucc.put(T_PTB.g, map_g);
-			idsucc.put(T_PTB.h, map_h);
-			idsuccs.put(id, idsucc);
-		}
-		//System.err.println(idsucc);
-		return idsucc;
+		return idsuccs.get(id, new Cache.Loader<N, Map<T_PTB, Map<N, S>>>() {
+			@Override public Map<T_PTB, Map<N, S>> load(N id) throws IOException {
+				Map<T_PTB, Map<N, S>> out = socnet_unwrap != null?
+				  socnet_unwrap.getOutgoing(id): getSocialGraph().getSuccessorTypedMap(id);
+				if (out == null) { throw new IOException("identity " + id + " not found"); }
+				Map<T_PTB, Map<N, S>> idsucc = new EnumMap<T_PTB, Map<N, S>>(out);
+				// the below is a little hack due to the fact that ids point to themselves,
+				// but this mapping should belong to the ptable rather than the friend table
+				Map<N, S> map_z = new HashMap<N, S>(idsucc.get(T_PTB.z));
+				Map<N, S> map_g = new HashMap<N, S>(idsucc.get(T_PTB.g));
+				Map<N, S> map_h = new HashMap<N, S>(idsucc.get(T_PTB.h));
+				map_h.put(id, map_z.remove(id));
+				idsucc.put(T_PTB.z, map_z);
+				idsucc.put(T_PTB.g, map_g);
+				idsucc.put(T_PTB.h, map_h);
+				return idsucc;
+			}
+		});
 	}
 
 	/**
 	** @return {@code null} if the TGraph doesn't exist as a DirectoryTGraph
 	*/
 	protected DirectoryTGraph<N, U, W> getTGraphUnwrap(N addr) throws IOException {
-		DirectoryTGraph<N, U, W> tgr = tgraphs_unwrap.get(addr);
-		if (tgr == null) {
-			File base = new File(dir_tgr, addr.toString());
-			if (!base.isDirectory()) { return null; }
-			tgr = new DirectoryTGraph<N, U, W>(base);
-			tgraphs_unwrap.put(addr, tgr);
-		}
-		return tgr;
+		return tgraphs_unwrap.get(addr, new Cache.Loader<N, DirectoryTGraph<N, U, W>>() {
+			@Override public DirectoryTGraph<N, U, W> load(N addr) throws IOException {
+				File base = new File(dir_tgr, addr.toString());
+				if (!base.isDirectory()) { return null; }
+				return new DirectoryTGraph<N, U, W>(base, tgraphs);
+			}
+		});
 	}
 
 	/**
 	** @return {@code null} if the TGraph doesn't exist as a DirectoryTGraph
 	*/
 	protected DirectoryIndex<N, W> getIndexUnwrap(N addr) throws IOException {
-		DirectoryIndex<N, W> idx = indexes_unwrap.get(addr);
-		if (idx == null) {
-			File base = new File(dir_idx, addr.toString());
-			if (!base.isDirectory()) { return null; }
-			idx = new DirectoryIndex<N, W>(base);
-			//System.out.println("loaded index at :" + addr);
-			indexes_unwrap.put(addr, idx);
-		}
-		return idx;
+		return indexes_unwrap.get(addr, new Cache.Loader<N, DirectoryIndex<N, W>>() {
+			@Override public DirectoryIndex<N, W> load(N addr) throws IOException {
+				File base = new File(dir_idx, addr.toString());
+				if (!base.isDirectory()) { return null; }
+				return new DirectoryIndex<N, W>(base, indexes);
+			}
+		});
 	}
 
 	/**
-	** @throws IOException if the TGraph doesn't exist as a TypedXMLGraph
+	** @throws IOException if the TGraph doesn't exist as a GraphML file
 	*/
-	protected TypedXMLGraph<T_TGR, N, U, W> getTGraph(N addr) throws IOException {
-		TypedXMLGraph<T_TGR, N, U, W> graph = tgraphs.get(addr);
-		if (graph == null) {
-			try {
-				graph = makeTypedXMLGraph(T_TGR.class);
-				graph.load(GZIPReader(new File(dir_tgr, addr.toString() + ".graphmlz")));
-				graph.setVertexPrimaryKey(NODE_ID);
-				graph.setDefaultVertexAttribute(NODE_ATTR);
-				graph.setDefaultEdgeAttribute(ARC_ATTR);
-			} catch (RuntimeException e) {
-				throw new IOException("couldn't initialise tgraph: " + addr, e);
+	protected CompactTypedGraph<T_TGR, N, U, W> getTGraph(final N addr) throws IOException {
+		return DirectoryContainer.cast(tgraphs.get(new File(dir_tgr, addr.toString() + ".graphmlz"), new Cache.Loader<File, Object>() {
+			@Override public Object load(File fn) throws IOException {
+				try {
+					return new ProtoCompactTypedGraph<T_TGR, N, U, W>(T_TGR.class).load(
+					  new GZIPInputStream(new FileInputStream(fn)), NODE_ID, NODE_ATTR, ARC_ATTR);
+				} catch (IOException e) {
+					throw new IOException("couldn't initialise tgraph: " + addr, e);
+				}
 			}
-			tgraphs.put(addr, graph);
-		}
-		return graph;
+		}));
 	}
 
 	/**
-	** @throws IOException if the TGraph doesn't exist as a TypedXMLGraph
+	** @throws IOException if the index doesn't exist as a GraphML file
 	*/
-	protected TypedXMLGraph<T_IDX, N, U, W> getIndex(N addr) throws IOException {
-		TypedXMLGraph<T_IDX, N, U, W> graph = indexes.get(addr);
-		if (graph == null) {
-			try {
-				graph = makeTypedXMLGraph(T_IDX.class);
-				graph.load(GZIPReader(new File(dir_idx, addr.toString() + ".graphmlz")));
-				graph.setVertexPrimaryKey(NODE_ID);
-				graph.setDefaultEdgeAttribute(ARC_ATTR);
-			} catch (RuntimeException e) {
-				throw new IOException("couldn't initialise index: " + addr, e);
+	protected CompactTypedGraph<T_IDX, N, U, W> getIndex(final N addr) throws IOException {
+		return DirectoryContainer.cast(indexes.get(new File(dir_idx, addr.toString() + ".graphmlz"), new Cache.Loader<File, Object>() {
+			@Override public Object load(File fn) throws IOException {
+				try {
+					return new ProtoCompactTypedGraph<T_IDX, N, U, W>(T_IDX.class).load(
+					  new GZIPInputStream(new FileInputStream(fn)), NODE_ID, null, ARC_ATTR);
+				} catch (IOException e) {
+					throw new IOException("couldn't initialise index: " + addr, e);
+				}
 			}
-			indexes.put(addr, graph);
-		}
-		return graph;
+		}));
 	}
 
 	final public static String NODE_ID = "id";
@@ -214,6 +391,7 @@ public class GraphMLStoreControl<N, U, W, S> implements StoreControl<N, N, N, U,
 	final public static String ARC_ATTR = "weight";
 
 	final public static String FILE_PTB = "ptb.graphml";
+	final public static String DIR_PTB = "ptb";
 	final public static String DIR_IDX = "idx";
 	final public static String DIR_TGR = "tgr";
 
@@ -223,6 +401,55 @@ public class GraphMLStoreControl<N, U, W, S> implements StoreControl<N, N, N, U,
 	public enum T_TGR_UNW { w, t, g }
 	public enum T_IDX_UNW { d, h }
 
+	/**
+	** Default total cache budget: a quarter of the maximum heap size.
+	*/
+	final public static long DEFAULT_BUDGET = Runtime.getRuntime().maxMemory()>>2;
+
+	/**
+	** Estimates the heap size, in bytes, of the given object. This handles the
+	** types that are cached by this class: {@link CompactTypedGraph}s, and the
+	** maps, lists, strings and numbers produced by the JSON parser. Other
+	** objects are given a nominal size.
+	**
+	** The estimate assumes a 64-bit JVM with compressed pointers, and is only
+	** meant to be roughly proportional to the real size.
+	*/
+	public static long estimateSize(Object o) {
+		if (o == null || o instanceof Enum) {
+			return 0;
+		} else if (o instanceof String) {
+			return 40 + (((String)o).length()<<1);
+		} else if (o instanceof Number || o instanceof Boolean) {
+			return 16;
+		} else if (o instanceof CompactTypedGraph) {
+			CompactTypedGraph<?, ?, ?, ?> g = (CompactTypedGraph<?, ?, ?, ?>)o;
+			// vertex: key, entry in the key index, type, attribute, and
+			// offsets; arc: target and (primitive) weight
+			return 256 + g.getVertexCount()*120L + g.getEdgeCount()*12L;
+		} else if (o instanceof Map) {
+			Map<?, ?> map = (Map<?, ?>)o;
+			long sz = 48 + map.size()*40L;
+			for (Map.Entry<?, ?> en: map.entrySet()) {
+				sz += estimateSize(en.getKey()) + estimateSize(en.getValue());
+			}
+			return sz;
+		} else if (o instanceof Collection) {
+			Collection<?> coll = (Collection<?>)o;
+			long sz = 40 + coll.size()*8L;
+			for (Object e: coll) { sz += estimateSize(e); }
+			return sz;
+		} else {
+			return 16;
+		}
+	}
+
+	final public static Cache.Weigher<Object, Object> SIZE_WEIGHER = new Cache.Weigher<Object, Object>() {
+		@Override public long weigh(Object key, Object val) {
+			return estimateSize(key) + estimateSize(val);
+		}
+	};
+
 	public static Reader GZIPReader(File fn) throws IOException {
 		return new InputStreamReader(new GZIPInputStream(new FileInputStream(fn)));
 	}
@@ -239,23 +466,59 @@ public class GraphMLStoreControl<N, U, W, S> implements StoreControl<N, N, N, U,
 		}
 	}
 
-	public static class DirectoryIndex<N, W> extends DirectoryContainer<N, W> {
+	/**
+	** A social graph as a directory container. The node list holds the
+	** identities, and each identity has a tuple ordered as {@link T_PTB}.
+	*/
+	public static class DirectorySocialGraph<N, S> extends DirectoryContainer<N, S> {
+
+		public DirectorySocialGraph(File base) throws IOException {
+			super(base);
+		}
+
+		public DirectorySocialGraph(File base, Cache<File, Object> cache) throws IOException {
+			super(base, cache);
+		}
+
+		protected Set<N> getNodeSet() throws IOException {
+			return cast(cache.get(fileFor("nodes"), new Cache.Loader<File, Object>() {
+				@Override public Object load(File fn) throws IOException {
+					return new HashSet<N>(DirectorySocialGraph.this.<List<N>>cast(parseJSON("nodes", true)));
+				}
+			}));
+		}
+
+		/**
+		** @return as described; or {@code null} if the identity is absent
+		*/
+		public Map<T_PTB, Map<N, S>> getOutgoing(N id) throws IOException {
+			List tuple = getTuple(id);
+			if (tuple == null) { return null; }
+			Map<T_PTB, Map<N, S>> out = new EnumMap<T_PTB, Map<N, S>>(T_PTB.class);
+			for (T_PTB type: T_PTB.values()) {
+				out.put(type, this.<Map<N, S>>cast(tuple.get(type.ordinal())));
+			}
+			return out;
+		}
+
+	}
 
-		protected SoftReference<Set<N>> node_set;
+	public static class DirectoryIndex<N, W> extends DirectoryContainer<N, W> {
 
 		public DirectoryIndex(File base) throws IOException {
 			super(base);
-			this.node_set = new SoftReference<Set<N>>(null);
+		}
+
+		public DirectoryIndex(File base, Cache<File, Object> cache) throws IOException {
+			super(base, cache);
 		}
 
 		protected Set<N> getNodeSet() throws IOException {
-			Set<N> nset = node_set.get();
-			if (nset == null) {
-				nset = new HashSet<N>(this.<List<N>>cast(parseJSON("nodes", true)));
-				if (nset == null) { throw new IOException("node set doesn't exist"); }
-				node_set = new SoftReference<Set<N>>(nset);
-			}
-			return nset;
+			return cast(cache.get(fileFor("nodes"), new Cache.Loader<File, Object>() {
+				@Override public Object load(File fn) throws IOException {
+					return new HashSet<N>(DirectoryIndex.this.<List<N>>cast(parseJSON("nodes", true)));
+				}
+			}));
 		}
 
 		public U2Map<N, N, W> getOutgoing(N src) throws IOException {
@@ -263,15 +526,25 @@ public class GraphMLStoreControl<N, U, W, S> implements StoreControl<N, N, N, U,
 			return super.getOutgoing(src, T_IDX_UNW.d.ordinal(), T_IDX_UNW.h.ordinal());
 		}
 
+		public Map<N, U2Map<N, N, W>> getOutgoingMulti(Collection<N> srcs) throws IOException {
+			Set<N> nodes = getNodeSet();
+			List<N> present = new ArrayList<N>(srcs.size());
+			for (N src: srcs) {
+				if (nodes.contains(src)) { present.add(src); }
+			}
+			return super.getOutgoingMulti(present, T_IDX_UNW.d.ordinal(), T_IDX_UNW.h.ordinal());
+		}
+
 	}
 
 	public static class DirectoryTGraph<N, U, W> extends DirectoryContainer<N, W> {
 
-		protected SoftReference<Map<N, U>> node_map;
-
 		public DirectoryTGraph(File base) throws IOException {
 			super(base);
-			this.node_map = new SoftReference<Map<N, U>>(null);
+		}
+
+		public DirectoryTGraph(File base, Cache<File, Object> cache) throws IOException {
+			super(base, cache);
 		}
 
 		public U getNodeAttr(N src) throws IOException {
@@ -284,13 +557,13 @@ public class GraphMLStoreControl<N, U, W, S> implements StoreControl<N, N, N, U,
 		}
 
 		protected Map<N, U> getNodeMap() throws IOException {
-			Map<N, U> nmap = node_map.get();
-			if (nmap == null) {
-				nmap = cast(parseJSON("nodes", true));
-				if (nmap == null) { throw new IOException("node map doesn't exist"); }
-				node_map = new SoftReference<Map<N, U>>(nmap);
-			}
-			return nmap;
+			return cast(cache.get(fileFor("nodes"), new Cache.Loader<File, Object>() {
+				@Override public Object load(File fn) throws IOException {
+					Object nmap = parseJSON("nodes", true);
+					if (nmap == null) { throw new IOException("node map doesn't exist"); }
+					return nmap;
+				}
+			}));
 		}
 
 		public U2Map<N, N, W> getOutgoing(N src) throws IOException {
@@ -298,28 +571,67 @@ public class GraphMLStoreControl<N, U, W, S> implements StoreControl<N, N, N, U,
 			return super.getOutgoing(src, T_TGR_UNW.t.ordinal(), T_TGR_UNW.g.ordinal());
 		}
 
+		public Map<N, U2Map<N, N, W>> getOutgoingMulti(Collection<N> srcs) throws IOException {
+			Map<N, U> nodes = getNodeMap();
+			List<N> present = new ArrayList<N>(srcs.size());
+			for (N src: srcs) {
+				if (nodes.containsKey(src)) { present.add(src); }
+			}
+			return super.getOutgoingMulti(present, T_TGR_UNW.t.ordinal(), T_TGR_UNW.g.ordinal());
+		}
+
 	}
 
 	public static class DirectoryContainer<N, W> {
 
 		final public File base;
-		final protected ReferenceMap<String, Map<String, List>> buckets;
+		/** Cache for parsed files, keyed by file; may be shared. */
+		final protected Cache<File, Object> cache;
 
 		final protected long mask;
 		final protected String fmtstr;
 		final protected Map attributes;
 
+		/**
+		** Creates a new container with its own cache, with a budget of {@link
+		** #DEFAULT_BUDGET}.
+		*/
 		public DirectoryContainer(File base) throws IOException {
+			this(base, new LRUCache<File, Object>(DEFAULT_BUDGET, SIZE_WEIGHER));
+		}
+
+		/**
+		** @param cache Cache for parsed files; this may be shared with other
+		**        containers, since it is keyed by file
+		*/
+		public DirectoryContainer(File base, Cache<File, Object> cache) throws IOException {
 			if (!base.isDirectory()) {
 				throw new IllegalArgumentException("not a directory: " + base);
 			}
+			if (cache == null) { throw new NullPointerException(); }
 			this.base = base;
-			this.buckets = new ReferenceMap<String, Map<String, List>>();
+			this.cache = cache;
 			this.attributes = cast(parseJSON("attributes", false));
 			this.mask = this.<Long>cast(attributes.remove("mask"));
 			this.fmtstr = "%0" + Long.toHexString(mask).length() + "x";
 		}
 
+		/**
+		** Pins or unpins all the data of this container in the cache. This
+		** may be called before the data is loaded.
+		*/
+		public void pin(boolean pin) {
+			for (long i=0; i<=mask; ++i) {
+				File fn = fileFor(String.format(fmtstr, i));
+				if (pin) { cache.pin(fn); } else { cache.unpin(fn); }
+			}
+			if (pin) { cache.pin(fileFor("nodes")); } else { cache.unpin(fileFor("nodes")); }
+		}
+
+		protected File fileFor(String addr) {
+			return new File(base, addr+EXT);
+		}
+
 		protected U2Map<N, N, W> getOutgoing(N src, int i_map0, int i_map1) throws IOException {
 			List tuple = getTuple(src);
 			if (tuple == null) { return null; }
@@ -329,9 +641,20 @@ public class GraphMLStoreControl<N, U, W, S> implements StoreControl<N, N, N, U,
 			return Maps.uniteDisjoint(out_t, out_g);
 		}
 
+		protected Map<N, U2Map<N, N, W>> getOutgoingMulti(Collection<N> srcs, int i_map0, int i_map1) throws IOException {
+			Map<N, U2Map<N, N, W>> res = new HashMap<N, U2Map<N, N, W>>();
+			for (Map.Entry<N, List> en: getTuples(srcs).entrySet()) {
+				List tuple = en.getValue();
+				Map<N, W> out_t = cast(tuple.get(i_map0));
+				Map<N, W> out_g = cast(tuple.get(i_map1));
+				res.put(en.getKey(), Maps.uniteDisjoint(out_t, out_g));
+			}
+			return res;
+		}
+
 		protected Object parseJSON(String addr, boolean ignore) throws IOException {
 			try {
-				File fn = new File(base, addr+EXT);
+				File fn = fileFor(addr);
 				if (!fn.exists() && ignore) { return new HashMap(); }
 				return JSON.get().parse(GZIPReader(fn));
 			} catch (ParseException e) {
@@ -342,20 +665,95 @@ public class GraphMLStoreControl<N, U, W, S> implements StoreControl<N, N, N, U,
 		}
 
 		protected List getTuple(N src) throws IOException {
-			String tag = src.toString();
+			return getBucket(bucketFor(src, new CRC32())).get(src.toString());
+		}
+
+		/**
+		** Returns the tuples of the given nodes, grouping them by bucket so
+		** that each bucket is fetched only once. Nodes that have no tuple are
+		** absent from the returned map.
+		*/
+		protected Map<N, List> getTuples(Collection<N> srcs) throws IOException {
+			Map<String, List<N>> groups = new HashMap<String, List<N>>();
 			CRC32 crc = new CRC32();
-			crc.update(tag.getBytes());
-			String bid = String.format(fmtstr, crc.getValue()&mask);
+			for (N src: srcs) {
+				String bid = bucketFor(src, crc);
+				List<N> group = groups.get(bid);
+				if (group == null) { groups.put(bid, group = new ArrayList<N>()); }
+				group.add(src);
+			}
 
-			Map<String, List> bucket = buckets.get(bid);
-			if (bucket == null) {
-				bucket = cast(parseJSON(bid, true));
-				buckets.put(bid, bucket);
+			Map<N, List> tuples = new HashMap<N, List>();
+			for (Map.Entry<String, List<N>> en: groups.entrySet()) {
+				Map<String, List> bucket = getBucket(en.getKey());
+				for (N src: en.getValue()) {
+					List tuple = bucket.get(src.toString());
+					if (tuple != null) { tuples.put(src, tuple); }
+				}
 			}
-			return bucket.get(tag);
+			return tuples;
 		}
 
-		final protected String EXT = ".json.gz";
+		protected String bucketFor(N src, CRC32 crc) {
+			crc.reset();
+			crc.update(src.toString().getBytes());
+			return String.format(fmtstr, crc.getValue()&mask);
+		}
+
+		protected Map<String, List> getBucket(final String bid) throws IOException {
+			return cast(cache.get(fileFor(bid), new Cache.Loader<File, Object>() {
+				@Override public Object load(File fn) throws IOException {
+					return parseJSON(bid, true);
+				}
+			}));
+		}
+
+		final protected static String EXT = ".json.gz";
+
+		/**
+		** Writes a directory container. The number of buckets grows with the
+		** number of vertices in the container.
+		**
+		** @param vcount Number of vertices, used to choose the number of buckets
+		** @param nodes Node list or node map, depending on the type of container
+		** @param tuples Tuples, by source node
+		*/
+		public static void write(File base, int vcount, Object nodes, Map<String, List<Object>> tuples) throws IOException {
+			if (!base.isDirectory() && !base.mkdirs()) {
+				throw new IOException("could not create directory: " + base);
+			}
+			int sz = (int)(Math.pow(Math.log(1+vcount), 2)/16);
+			long mask = (1L<<sz)-1;
+			String fmtstr = "%0" + Long.toHexString(mask).length() + "x";
+
+			Map<String, Object> attributes = new HashMap<String, Object>();
+			attributes.put("mask", mask);
+			writeJSON(new File(base, "attributes" + EXT), attributes);
+			writeJSON(new File(base, "nodes" + EXT), nodes);
+
+			Map<String, Map<String, List<Object>>> buckets = new HashMap<String, Map<String, List<Object>>>();
+			CRC32 crc = new CRC32();
+			for (Map.Entry<String, List<Object>> en: tuples.entrySet()) {
+				crc.reset();
+				crc.update(en.getKey().getBytes());
+				String bid = String.format(fmtstr, crc.getValue()&mask);
+				Map<String, List<Object>> bucket = buckets.get(bid);
+				if (bucket == null) { buckets.put(bid, bucket = new HashMap<String, List<Object>>()); }
+				bucket.put(en.getKey(), en.getValue());
+			}
+			for (Map.Entry<String, Map<String, List<Object>>> en: buckets.entrySet()) {
+				writeJSON(new File(base, en.getKey() + EXT), en.getValue());
+			}
+		}
+
+		protected static void writeJSON(File fn, Object obj) throws IOException {
+			Writer out = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(fn))));
+			try {
+				JSONValue.writeJSONString(obj, out);
+			} finally {
+				out.close();
+			}
+		}
 
 		final protected static ThreadLocal<JSONParser> JSON = new ThreadLocal<JSONParser>() {
 			@Override protected synchronized JSONParser initialValue() {
@@ -0,0 +1,106 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.store;
+
+import tags.util.Maps;
+import tags.util.SymbolTable;
+
+import tags.proto.PTable;
+import tags.util.Union.U2;
+import tags.util.Maps.U2Map;
+import java.util.Collection;
+import java.util.Map;
+import java.util.HashMap;
+
+import java.io.IOException;
+
+/**
+** A proxy to a backing {@link StoreControl} that replaces the identities, tags
+** and addresses in its results with canonical instances from a {@link
+** SymbolTable}, so that all equal keys held by the layers above are the same
+** object.
+**
+** Each result is copied in order to replace its keys, so this only pays off
+** when many queries hold the same data for a long time, eg. a long-running
+** environment over a large store.
+**
+** @param <I> Type of identity
+** @param <T> Type of tag
+** @param <A> Type of address
+** @param <U> Type of node-attribute
+** @param <W> Type of arc-attribute
+** @param <S> Type of score
+** @param <Z> Type of identity-score
+*/
+public class InterningStoreControl<I, T, A, U, W, S, Z> implements StoreControl<I, T, A, U, W, S, Z> {
+
+	final protected StoreControl<I, T, A, U, W, S, Z> sctl;
+
+	final public SymbolTable<I> ids = new SymbolTable<I>();
+	final public SymbolTable<T> tags = new SymbolTable<T>();
+	final public SymbolTable<A> addrs = new SymbolTable<A>();
+
+	public InterningStoreControl(StoreControl<I, T, A, U, W, S, Z> sctl) {
+		if (sctl == null) { throw new NullPointerException(); }
+		this.sctl = sctl;
+	}
+
+	@Override public Map<I, Z> getFriends(I id) throws IOException {
+		return intern(ids, sctl.getFriends(id));
+	}
+
+	@Override public PTable<A, S> getPTable(I id) throws IOException {
+		PTable<A, S> ptb = sctl.getPTable(id);
+		return new PTable<A, S>(intern(addrs, ptb.getTGraphs()), intern(addrs, ptb.getIndexes()));
+	}
+
+	@Override public U2Map<T, A, W> getTGraphOutgoing(A addr, T src) throws IOException {
+		return intern(tags, addrs, sctl.getTGraphOutgoing(addr, src));
+	}
+
+	@Override public U getTGraphNodeAttr(A addr, U2<T, A> node) throws IOException {
+		return sctl.getTGraphNodeAttr(addr, node);
+	}
+
+	@Override public U2Map<A, A, W> getIndexOutgoing(A addr, T src) throws IOException {
+		return intern(addrs, addrs, sctl.getIndexOutgoing(addr, src));
+	}
+
+	@Override public Map<T, U2Map<T, A, W>> getTGraphOutgoingMulti(A addr, Collection<T> srcs) throws IOException {
+		Map<T, U2Map<T, A, W>> res = new HashMap<T, U2Map<T, A, W>>();
+		for (Map.Entry<T, U2Map<T, A, W>> en: sctl.getTGraphOutgoingMulti(addr, srcs).entrySet()) {
+			res.put(tags.intern(en.getKey()), intern(tags, addrs, en.getValue()));
+		}
+		return res;
+	}
+
+	@Override public Map<U2<T, A>, U> getTGraphNodeAttrs(A addr, Collection<U2<T, A>> nodes) throws IOException {
+		return sctl.getTGraphNodeAttrs(addr, nodes);
+	}
+
+	@Override public Map<T, U2Map<A, A, W>> getIndexOutgoingMulti(A addr, Collection<T> srcs) throws IOException {
+		Map<T, U2Map<A, A, W>> res = new HashMap<T, U2Map<A, A, W>>();
+		for (Map.Entry<T, U2Map<A, A, W>> en: sctl.getIndexOutgoingMulti(addr, srcs).entrySet()) {
+			res.put(tags.intern(en.getKey()), intern(addrs, addrs, en.getValue()));
+		}
+		return res;
+	}
+
+	/**
+	** Returns a copy of the given map, with its keys replaced by their
+	** canonical instances.
+	*/
+	public static <K, V> Map<K, V> intern(SymbolTable<K> tab, Map<K, V> map) {
+		if (map == null) { return null; }
+		Map<K, V> res = new HashMap<K, V>(map.size()<<1);
+		for (Map.Entry<K, V> en: map.entrySet()) {
+			res.put(tab.intern(en.getKey()), en.getValue());
+		}
+		return res;
+	}
+
+	public static <K0, K1, V> U2Map<K0, K1, V> intern(SymbolTable<K0> tab0, SymbolTable<K1> tab1, U2Map<K0, K1, V> map) {
+		if (map == null) { return null; }
+		return Maps.uniteDisjoint(intern(tab0, map.K0Map()), intern(tab1, map.K1Map()));
+	}
+
+}
@@ -0,0 +1,54 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.store;
+
+import java.util.List;
+import java.util.Map;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+** A {@link BinaryStoreControl} that memory-maps its containers rather than
+** reading them onto the heap. Lookups return immutable map views that decode
+** keys and weights straight from the mapped buffer, so the only heap objects
+** created per lookup are the views and an array of string indexes.
+**
+** Since the store is read-only, the mapped pages live in the OS page cache;
+** frequently-used containers stay resident there and are shared between all
+** processes that map them, without adding to garbage collection pressure.
+*/
+public class MappedStoreControl extends BinaryStoreControl {
+
+	/**
+	** @see #MappedStoreControl(File)
+	*/
+	public MappedStoreControl(String basedir) throws IOException {
+		this(new File(basedir));
+	}
+
+	/**
+	** @throws IllegalArgumentException if {@code basedir} is not a directory
+	*/
+	public MappedStoreControl(File basedir) throws IOException {
+		super(basedir);
+	}
+
+	/**
+	** {@inheritDoc}
+	**
+	** This implementation returns views of the mapped buffer.
+	*/
+	@Override protected List<Map<String, Double>> getOutgoing(BinaryContainer ctr, String src) throws IOException {
+		return ctr.getOutgoingView(src);
+	}
+
+	/**
+	** {@inheritDoc}
+	**
+	** This implementation maps the file into memory.
+	*/
+	@Override protected BinaryContainer open(File fn) throws IOException {
+		return BinaryContainer.map(fn);
+	}
+
+}
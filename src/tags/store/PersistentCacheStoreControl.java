@@ -0,0 +1,173 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.store;
+
+import tags.util.Maps;
+
+import tags.proto.PTable;
+import tags.util.Union.U2;
+import tags.util.Maps.U2Map;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.ArrayList;
+
+import java.io.IOException;
+
+/**
+** A proxy to a backing {@link StoreControl} that keeps the results of its
+** lookups in a {@link PersistentLookupCache}, so that later runs over the
+** same data can be answered from the cache, without touching the backing
+** store at all.
+**
+** Results that are absent from the backing store are cached too. Errors are
+** not cached, so a lookup that failed is retried on the next call. Records
+** that cannot be read back from the cache are treated as missing.
+*/
+public class PersistentCacheStoreControl implements StoreControl<String, String, String, Double, Double, Double, Double> {
+
+	final protected StoreControl<String, String, String, Double, Double, Double, Double> sctl;
+	final protected PersistentLookupCache cache;
+
+	public PersistentCacheStoreControl(StoreControl<String, String, String, Double, Double, Double, Double> sctl, PersistentLookupCache cache) {
+		if (sctl == null || cache == null) { throw new NullPointerException(); }
+		this.sctl = sctl;
+		this.cache = cache;
+	}
+
+	@Override public Map<String, Double> getFriends(String id) throws IOException {
+		String key = key('z', null, id);
+		PersistentLookupCache.Value val = cached(key);
+		if (val == null) {
+			cache.put(key, val = PersistentLookupCache.Value.lists(Arrays.asList(sctl.getFriends(id))));
+		}
+		return val.lists.get(0);
+	}
+
+	@Override public PTable<String, Double> getPTable(String id) throws IOException {
+		String key = key('p', null, id);
+		PersistentLookupCache.Value val = cached(key);
+		if (val == null) {
+			PTable<String, Double> ptb = sctl.getPTable(id);
+			cache.put(key, val = PersistentLookupCache.Value.lists(Arrays.asList(ptb.getTGraphs(), ptb.getIndexes())));
+		}
+		return new PTable<String, Double>(val.lists.get(0), val.lists.get(1));
+	}
+
+	@Override public U2Map<String, String, Double> getTGraphOutgoing(String addr, String src) throws IOException {
+		String key = key('t', addr, src);
+		PersistentLookupCache.Value val = cached(key);
+		if (val == null) {
+			cache.put(key, val = outgoingValue(sctl.getTGraphOutgoing(addr, src)));
+		}
+		return outgoingMap(val);
+	}
+
+	@Override public Double getTGraphNodeAttr(String addr, U2<String, String> node) throws IOException {
+		String key = nodeKey(addr, node);
+		PersistentLookupCache.Value val = cached(key);
+		if (val == null) {
+			cache.put(key, val = PersistentLookupCache.Value.attr(sctl.getTGraphNodeAttr(addr, node)));
+		}
+		return val.attr;
+	}
+
+	@Override public U2Map<String, String, Double> getIndexOutgoing(String addr, String src) throws IOException {
+		String key = key('i', addr, src);
+		PersistentLookupCache.Value val = cached(key);
+		if (val == null) {
+			cache.put(key, val = outgoingValue(sctl.getIndexOutgoing(addr, src)));
+		}
+		return outgoingMap(val);
+	}
+
+	@Override public Map<String, U2Map<String, String, Double>> getTGraphOutgoingMulti(String addr, Collection<String> srcs) throws IOException {
+		return getOutgoingMulti('t', addr, srcs);
+	}
+
+	@Override public Map<U2<String, String>, Double> getTGraphNodeAttrs(String addr, Collection<U2<String, String>> nodes) throws IOException {
+		Map<U2<String, String>, Double> res = new HashMap<U2<String, String>, Double>();
+		List<U2<String, String>> missing = new ArrayList<U2<String, String>>();
+		for (U2<String, String> node: nodes) {
+			PersistentLookupCache.Value val = cached(nodeKey(addr, node));
+			if (val == null) {
+				missing.add(node);
+			} else if (val.attr != null) {
+				res.put(node, val.attr);
+			}
+		}
+		if (missing.isEmpty()) { return res; }
+
+		Map<U2<String, String>, Double> fetched = sctl.getTGraphNodeAttrs(addr, missing);
+		for (U2<String, String> node: missing) {
+			Double attr = fetched.get(node);
+			cache.put(nodeKey(addr, node), PersistentLookupCache.Value.attr(attr));
+			if (attr != null) { res.put(node, attr); }
+		}
+		return res;
+	}
+
+	@Override public Map<String, U2Map<String, String, Double>> getIndexOutgoingMulti(String addr, Collection<String> srcs) throws IOException {
+		return getOutgoingMulti('i', addr, srcs);
+	}
+
+	protected Map<String, U2Map<String, String, Double>> getOutgoingMulti(char type, String addr, Collection<String> srcs) throws IOException {
+		Map<String, U2Map<String, String, Double>> res = new HashMap<String, U2Map<String, String, Double>>();
+		List<String> missing = new ArrayList<String>();
+		for (String src: srcs) {
+			PersistentLookupCache.Value val = cached(key(type, addr, src));
+			if (val == null) {
+				missing.add(src);
+			} else if (!val.isAbsent()) {
+				res.put(src, outgoingMap(val));
+			}
+		}
+		if (missing.isEmpty()) { return res; }
+
+		Map<String, U2Map<String, String, Double>> fetched = type == 't'?
+		  sctl.getTGraphOutgoingMulti(addr, missing): sctl.getIndexOutgoingMulti(addr, missing);
+		for (String src: missing) {
+			U2Map<String, String, Double> out = fetched.get(src);
+			cache.put(key(type, addr, src), outgoingValue(out));
+			if (out != null) { res.put(src, out); }
+		}
+		return res;
+	}
+
+	/**
+	** Returns the cached value for the given key, or {@code null} if there is
+	** none, or if it could not be read. In the latter case, the lookup falls
+	** through to the backing store, and its result replaces the bad record.
+	*/
+	protected PersistentLookupCache.Value cached(String key) {
+		try {
+			return cache.get(key);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	protected static PersistentLookupCache.Value outgoingValue(U2Map<String, String, Double> out) {
+		if (out == null) { return PersistentLookupCache.Value.ABSENT; }
+		return PersistentLookupCache.Value.lists(Arrays.asList(out.K0Map(), out.K1Map()));
+	}
+
+	protected static U2Map<String, String, Double> outgoingMap(PersistentLookupCache.Value val) {
+		if (val.isAbsent()) { return null; }
+		return Maps.uniteDisjoint(val.lists.get(0), val.lists.get(1));
+	}
+
+	/**
+	** Returns the cache key for the given lookup. Keys are separated by a NUL,
+	** which does not appear in node names.
+	*/
+	protected static String key(char type, String addr, String src) {
+		return addr == null? type + "\0" + src: type + "\0" + addr + "\0" + src;
+	}
+
+	protected static String nodeKey(String addr, U2<String, String> node) {
+		return node.isT0()? key('n', addr, "t" + node.getT0()): key('n', addr, "g" + node.getT1());
+	}
+
+}
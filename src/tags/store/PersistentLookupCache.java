@@ -0,0 +1,451 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.store;
+
+import java.util.Map;
+import java.util.List;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.io.DataOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.BufferUnderflowException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+
+/**
+** An append-only file of decoded lookup results, keyed by string. This lets
+** results be reused across runs, without decoding the original data again.
+**
+** Format (all integers big-endian):
+**
+**   int32    magic ("TRLC")
+**   byte     version
+**   varint   source length, then the source, UTF-8
+**   record*  records, in the order they were added
+**
+** Each record is:
+**
+**   varint   key length, then the key, UTF-8
+**   varint   value length, then the value
+**   int32    CRC-32 of the key and the value
+**
+** and each value is one of:
+**
+**   byte     {@link #VAL_ABSENT}
+**   byte     {@link #VAL_ATTR}, then a double
+**   byte     {@link #VAL_LISTS}, then a byte n, then n lists, each of which
+**            is: varint length m, then m pairs of (varint string length,
+**            string, UTF-8, double)
+**
+** When opened, the existing records are memory-mapped and scanned to build an
+** index of keys to offsets; a partially-written record at the end of the file
+** (eg. from a crashed run) is discarded. Records added afterwards are appended
+** to the file, and read back with positional reads. If another process has
+** the file open for writing, this one opens it read-only, and drops any
+** records added to it.
+**
+** The source is a description of the backing data, such as a {@linkplain
+** #fingerprint(File, String[]) fingerprint} of its files. If it does not match the one
+** the file was made with, the existing records are discarded. A record whose
+** checksum does not match is treated as an error when it is read, and is
+** dropped from the index, so that it may be added again. This class is
+** thread-safe.
+*/
+public class PersistentLookupCache {
+
+	final public static int MAGIC = 0x54524c43;
+	final public static byte VERSION = 2;
+
+	final public static byte VAL_ABSENT = 0;
+	final public static byte VAL_ATTR = 1;
+	final public static byte VAL_LISTS = 2;
+
+	final protected static Charset UTF8 = Charset.forName("UTF-8");
+
+	final public File file;
+	final public String source;
+	final protected RandomAccessFile raf;
+	final protected FileChannel ch;
+	final protected FileLock lock;
+
+	/** Records present when the file was opened. */
+	final protected ByteBuffer mapped;
+	/** Start of the first record, ie. the end of the header. */
+	final protected int start;
+	/** Offsets of the value lengths of all records, by key. */
+	final protected Map<String, Long> index = new ConcurrentHashMap<String, Long>();
+	/** End of the file, ie. where the next record will be written. */
+	volatile protected long end;
+
+	/**
+	** Opens the given file, creating it if it doesn't exist.
+	**
+	** @param source Description of the backing data
+	** @throws IOException if the file could not be opened, or is not a
+	**         valid cache file, or was made from a different source and could
+	**         not be reset because it is open for writing elsewhere
+	*/
+	public PersistentLookupCache(File file, String source) throws IOException {
+		if (source == null) { throw new NullPointerException(); }
+		this.file = file;
+		this.source = source;
+		this.raf = new RandomAccessFile(file, "rw");
+		try {
+			this.ch = raf.getChannel();
+			FileLock lk;
+			try {
+				lk = ch.tryLock();
+			} catch (OverlappingFileLockException e) {
+				lk = null;
+			}
+			this.lock = lk;
+
+			long size = ch.size();
+			if (size == 0 && lock != null) { size = writeHeader(); }
+			if (size > Integer.MAX_VALUE) { throw new IOException("cache file too large: " + file); }
+			ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			if (size < 5 || buf.getInt(0) != MAGIC) { throw new IOException("not a cache file: " + file); }
+			int pos = readHeader(buf);
+			if (pos < 0) {
+				if (lock == null) { throw new IOException("cache file was made from different data: " + file); }
+				// the backing data has changed, or the format; start afresh
+				ch.truncate(0);
+				size = writeHeader();
+				buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+				pos = readHeader(buf);
+			}
+			this.mapped = buf;
+			this.start = pos;
+			this.end = scan();
+			// records appended from now on are read from the channel
+			mapped.limit((int)end);
+
+			if (end < size && lock != null) {
+				// discard a partially-written record
+				ch.truncate(end);
+			}
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	/**
+	** Returns a fingerprint of the given files or directories under a base
+	** directory, made from the canonical path of the latter, and the names,
+	** sizes and modification times of all the files under the former. This
+	** changes whenever one of those files is added, removed or rewritten.
+	**
+	** @param names Names of the files or directories that hold the data;
+	**        other files under the base directory (eg. reports) are ignored
+	*/
+	public static String fingerprint(File basedir, String... names) throws IOException {
+		basedir = basedir.getCanonicalFile();
+		CRC32 crc = new CRC32();
+		for (String name: names) {
+			fingerprint(crc, new File(basedir, name), name);
+		}
+		return basedir.getPath() + ":" + Long.toHexString(crc.getValue());
+	}
+
+	protected static void fingerprint(CRC32 crc, File f, String name) {
+		File[] ff = f.listFiles();
+		if (ff == null) {
+			// absent files are recorded too, with zero size and time
+			crc.update((name + "\0" + f.length() + "\0" + f.lastModified() + "\n").getBytes(UTF8));
+			return;
+		}
+		Arrays.sort(ff);
+		for (File c: ff) { fingerprint(crc, c, name + "/" + c.getName()); }
+	}
+
+	/**
+	** Writes the header to the (empty) file.
+	**
+	** @return The size of the file
+	*/
+	protected long writeHeader() throws IOException {
+		byte[] sb = source.getBytes(UTF8);
+		ByteArrayOutputStream bs = new ByteArrayOutputStream(sb.length + 10);
+		DataOutputStream out = new DataOutputStream(bs);
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		BinaryContainer.writeVarInt(out, sb.length);
+		out.write(sb);
+		out.flush();
+
+		ByteBuffer hdr = ByteBuffer.wrap(bs.toByteArray());
+		long pos = 0;
+		while (hdr.hasRemaining()) { pos += ch.write(hdr, pos); }
+		return pos;
+	}
+
+	/**
+	** Checks the version and the source in the given header.
+	**
+	** @return The start of the first record, or -1 if the header does not match
+	*/
+	protected int readHeader(ByteBuffer buf) {
+		if (buf.get(4) != VERSION) { return -1; }
+		ByteBuffer in = buf.duplicate();
+		in.position(5);
+		try {
+			int len = BinaryContainer.readVarInt(in);
+			if (len < 0 || len > in.remaining()) { return -1; }
+			byte[] sb = new byte[len];
+			in.get(sb);
+			return source.equals(new String(sb, UTF8))? in.position(): -1;
+		} catch (BufferUnderflowException e) {
+			return -1;
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+
+	/**
+	** Builds the index from the mapped records.
+	**
+	** @return The end of the last complete record
+	*/
+	protected long scan() {
+		ByteBuffer in = mapped.duplicate();
+		in.position(start);
+		int pos = start;
+		try {
+			while (in.hasRemaining()) {
+				byte[] key = new byte[BinaryContainer.readVarInt(in)];
+				in.get(key);
+				int off = in.position();
+				int vlen = BinaryContainer.readVarInt(in);
+				if (vlen < 0 || (long)vlen + 4 > in.remaining()) { break; }
+				index.put(new String(key, UTF8), (long)off);
+				in.position(in.position() + vlen + 4);
+				pos = in.position();
+			}
+		} catch (BufferUnderflowException e) {
+			// partially-written record
+		} catch (IOException e) {
+			// malformed varint; treat as partially-written
+		} catch (IllegalArgumentException e) {
+			// bad length; treat as partially-written
+		} catch (NegativeArraySizeException e) {
+			// bad length; treat as partially-written
+		}
+		return pos;
+	}
+
+	/**
+	** Whether this cache can add records.
+	*/
+	public boolean isWritable() {
+		return lock != null;
+	}
+
+	/**
+	** Returns the number of records.
+	*/
+	public int size() {
+		return index.size();
+	}
+
+	public boolean containsKey(String key) {
+		return index.containsKey(key);
+	}
+
+	/**
+	** Returns the value for the given key, or {@code null} if there is none.
+	**
+	** @throws IOException if the record could not be read, or is corrupt; it
+	**         is then dropped, so that the key may be {@linkplain #put(String,
+	**         Value) added} again
+	*/
+	public Value get(String key) throws IOException {
+		Long off = index.get(key);
+		if (off == null) { return null; }
+		try {
+			ByteBuffer in = read(off);
+			int vend = in.limit() - 4;
+			CRC32 crc = new CRC32();
+			crc.update(key.getBytes(UTF8));
+			ByteBuffer val = in.duplicate();
+			val.limit(vend);
+			crc.update(val);
+			if ((int)crc.getValue() != in.getInt(vend)) { throw new IOException("checksum mismatch for record: " + key); }
+			in.limit(vend);
+			return decode(in);
+		} catch (IOException e) {
+			index.remove(key, off);
+			throw e;
+		}
+	}
+
+	/**
+	** Adds a record. Nothing is done if the key is already present, or if
+	** this cache is not writable.
+	*/
+	public synchronized void put(String key, Value val) throws IOException {
+		if (lock == null || index.containsKey(key)) { return; }
+		byte[] kb = key.getBytes(UTF8);
+		byte[] vb = encode(val);
+
+		ByteArrayOutputStream bs = new ByteArrayOutputStream(kb.length + vb.length + 10);
+		DataOutputStream out = new DataOutputStream(bs);
+		BinaryContainer.writeVarInt(out, kb.length);
+		out.write(kb);
+		int hdr = out.size();
+		BinaryContainer.writeVarInt(out, vb.length);
+		out.write(vb);
+		CRC32 crc = new CRC32();
+		crc.update(kb);
+		crc.update(vb);
+		out.writeInt((int)crc.getValue());
+		out.flush();
+
+		ByteBuffer rec = ByteBuffer.wrap(bs.toByteArray());
+		long off = end + hdr;
+		long pos = end;
+		while (rec.hasRemaining()) { pos += ch.write(rec, pos); }
+		// readers check offsets against end, so publish that first
+		end = pos;
+		index.put(key, off);
+	}
+
+	/**
+	** Returns a buffer of the value whose length is at the given offset, and
+	** its checksum. The buffer is positioned at the value, and its limit is
+	** the end of the checksum.
+	*/
+	protected ByteBuffer read(long off) throws IOException {
+		if (off < mapped.limit()) {
+			ByteBuffer in = mapped.duplicate();
+			in.position((int)off);
+			int len = BinaryContainer.readVarInt(in);
+			if (len < 0 || (long)len + 4 > in.remaining()) { throw new IOException("truncated record: " + file); }
+			in.limit(in.position() + len + 4);
+			return in;
+		}
+		// appended since the file was opened
+		ByteBuffer lb = ByteBuffer.allocate(5);
+		readFully(lb, off);
+		lb.flip();
+		int len = BinaryContainer.readVarInt(lb);
+		if (len < 0 || off + lb.position() + len + 4 > end) { throw new IOException("truncated record: " + file); }
+		ByteBuffer in = ByteBuffer.allocate(len + 4);
+		readFully(in, off + lb.position());
+		in.flip();
+		return in;
+	}
+
+	protected void readFully(ByteBuffer in, long off) throws IOException {
+		while (in.hasRemaining()) {
+			if (ch.read(in, off + in.position()) < 0) {
+				if (in.position() > 0) { return; }
+				throw new IOException("unexpected end of file: " + file);
+			}
+		}
+	}
+
+	/**
+	** Closes the file. Records are written as they are added, so nothing
+	** needs to be flushed.
+	*/
+	public void close() throws IOException {
+		raf.close();
+	}
+
+	protected static byte[] encode(Value val) throws IOException {
+		ByteArrayOutputStream bs = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bs);
+		if (val.lists != null) {
+			out.writeByte(VAL_LISTS);
+			out.writeByte(val.lists.size());
+			for (Map<String, Double> map: val.lists) {
+				BinaryContainer.writeVarInt(out, map.size());
+				for (Map.Entry<String, Double> en: map.entrySet()) {
+					byte[] sb = en.getKey().getBytes(UTF8);
+					BinaryContainer.writeVarInt(out, sb.length);
+					out.write(sb);
+					Double w = en.getValue();
+					out.writeDouble(w == null? Double.NaN: w);
+				}
+			}
+		} else if (val.attr != null) {
+			out.writeByte(VAL_ATTR);
+			out.writeDouble(val.attr);
+		} else {
+			out.writeByte(VAL_ABSENT);
+		}
+		out.flush();
+		return bs.toByteArray();
+	}
+
+	protected static Value decode(ByteBuffer in) throws IOException {
+		try {
+			switch (in.get()) {
+			case VAL_ABSENT:
+				return Value.ABSENT;
+			case VAL_ATTR:
+				return new Value(in.getDouble(), null);
+			case VAL_LISTS:
+				int n = in.get();
+				List<Map<String, Double>> lists = new ArrayList<Map<String, Double>>(n);
+				for (int i=0; i<n; ++i) {
+					int m = BinaryContainer.readVarInt(in);
+					Map<String, Double> map = new HashMap<String, Double>(m<<1);
+					for (int j=0; j<m; ++j) {
+						byte[] sb = new byte[BinaryContainer.readVarInt(in)];
+						in.get(sb);
+						double w = in.getDouble();
+						map.put(new String(sb, UTF8), Double.isNaN(w)? null: w);
+					}
+					lists.add(map);
+				}
+				return new Value(null, lists);
+			default:
+				throw new IOException("bad value type");
+			}
+		} catch (BufferUnderflowException e) {
+			throw new IOException("truncated value", e);
+		}
+	}
+
+	/**
+	** A cached value: either an attribute, a list of adjacency maps, or
+	** neither, meaning that the key was absent from the backing data.
+	*/
+	public static class Value {
+
+		final public static Value ABSENT = new Value(null, null);
+
+		final public Double attr;
+		final public List<Map<String, Double>> lists;
+
+		public Value(Double attr, List<Map<String, Double>> lists) {
+			this.attr = attr;
+			this.lists = lists;
+		}
+
+		public boolean isAbsent() {
+			return attr == null && lists == null;
+		}
+
+		public static Value attr(Double attr) {
+			return attr == null? ABSENT: new Value(attr, null);
+		}
+
+		public static Value lists(List<Map<String, Double>> lists) {
+			return lists == null? ABSENT: new Value(null, lists);
+		}
+
+	}
+
+}
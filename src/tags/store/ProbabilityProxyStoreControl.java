@@ -8,7 +8,15 @@ import tags.util.Union.U2;
 import tags.util.Maps.U2Map;
 import tags.util.ProxyMap;
 import tags.util.Probability;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
+import java.util.HashMap;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import java.io.IOException;
 
@@ -17,6 +25,12 @@ import java.io.IOException;
 ** are all {@link Double}, providing a view of these as {@link Probability}
 ** instead.
 **
+** Maps are returned as views of the backing results, so that results that
+** are themselves views (eg. of a {@link MappedStoreControl}) are not copied
+** onto the heap. Each value is converted when it is first read, and kept in
+** the view; callers read the same values many times over, so converting them
+** on every read would create a new {@link Probability} each time.
+**
 ** @param <I> Type of identity
 ** @param <T> Type of tag
 ** @param <A> Type of address
@@ -31,18 +45,18 @@ public class ProbabilityProxyStoreControl<I, T, A> implements StoreControl<I, T,
 
 	@Override public Map<I, Probability> getFriends(I id) throws IOException {
 		//System.err.println(sctl.getFriends(id));
-		return probabilityProxyMap(sctl.getFriends(id));
+		return probabilityMap(sctl.getFriends(id));
 	}
 
 	@Override public PTable<A, Probability> getPTable(I id) throws IOException {
 		PTable<A, Double> ptb = sctl.getPTable(id);
-		return new PTable<A, Probability>(probabilityProxyMap(ptb.getTGraphs()), probabilityProxyMap(ptb.getIndexes()));
+		return new PTable<A, Probability>(probabilityMap(ptb.getTGraphs()), probabilityMap(ptb.getIndexes()));
 	}
 
 	@Override public U2Map<T, A, Probability> getTGraphOutgoing(A addr, T src) throws IOException {
 		U2Map<T, A, Double> out = sctl.getTGraphOutgoing(addr, src);
 		if (out == null) { return null; } // can't use ?: due to shitty broken type inference
-		return Maps.uniteDisjoint(probabilityProxyMap(out.K0Map()), probabilityProxyMap(out.K1Map()));
+		return Maps.uniteDisjoint(probabilityMap(out.K0Map()), probabilityMap(out.K1Map()));
 	}
 
 	@Override public Probability getTGraphNodeAttr(A addr, U2<T, A> node) throws IOException {
@@ -53,15 +67,132 @@ public class ProbabilityProxyStoreControl<I, T, A> implements StoreControl<I, T,
 	@Override public U2Map<A, A, Probability> getIndexOutgoing(A addr, T src) throws IOException {
 		U2Map<A, A, Double> out = sctl.getIndexOutgoing(addr, src);
 		if (out == null) { return null; } // can't use ?: due to shitty broken type inference
-		return Maps.uniteDisjoint(probabilityProxyMap(out.K0Map()), probabilityProxyMap(out.K1Map()));
+		return Maps.uniteDisjoint(probabilityMap(out.K0Map()), probabilityMap(out.K1Map()));
+	}
+
+	@Override public Map<T, U2Map<T, A, Probability>> getTGraphOutgoingMulti(A addr, Collection<T> srcs) throws IOException {
+		Map<T, U2Map<T, A, Probability>> res = new HashMap<T, U2Map<T, A, Probability>>();
+		for (Map.Entry<T, U2Map<T, A, Double>> en: sctl.getTGraphOutgoingMulti(addr, srcs).entrySet()) {
+			U2Map<T, A, Double> out = en.getValue();
+			res.put(en.getKey(), Maps.uniteDisjoint(probabilityMap(out.K0Map()), probabilityMap(out.K1Map())));
+		}
+		return res;
 	}
 
+	@Override public Map<U2<T, A>, Probability> getTGraphNodeAttrs(A addr, Collection<U2<T, A>> nodes) throws IOException {
+		// not a proxy map, since callers look up nodes that may be absent
+		Map<U2<T, A>, Probability> res = new HashMap<U2<T, A>, Probability>();
+		for (Map.Entry<U2<T, A>, Double> en: sctl.getTGraphNodeAttrs(addr, nodes).entrySet()) {
+			res.put(en.getKey(), new Probability(en.getValue()));
+		}
+		return res;
+	}
+
+	@Override public Map<T, U2Map<A, A, Probability>> getIndexOutgoingMulti(A addr, Collection<T> srcs) throws IOException {
+		Map<T, U2Map<A, A, Probability>> res = new HashMap<T, U2Map<A, A, Probability>>();
+		for (Map.Entry<T, U2Map<A, A, Double>> en: sctl.getIndexOutgoingMulti(addr, srcs).entrySet()) {
+			U2Map<A, A, Double> out = en.getValue();
+			res.put(en.getKey(), Maps.uniteDisjoint(probabilityMap(out.K0Map()), probabilityMap(out.K1Map())));
+		}
+		return res;
+	}
+
+	/**
+	** Returns an immutable view of the given map, with its values converted
+	** into {@link Probability}s when they are first read. Later reads of the
+	** same key return the same {@link Probability}. {@code null} values are
+	** kept as {@code null}.
+	*/
+	public static <K> Map<K, Probability> probabilityMap(Map<K, Double> map) {
+		return new ProbabilityMap<K>(map);
+	}
+
+	/**
+	** Returns a view of the given map, with its values converted into {@link
+	** Probability}s on every read.
+	*/
 	public static <K> Map<K, Probability> probabilityProxyMap(final Map<K, Double> map) {
 		return new ProxyMap<K, Double, Probability>(map) {
 			@Override public Probability itemFor(Double d) {
-				return new Probability(d);
+				return d == null? null: new Probability(d);
 			}
 		};
 	}
 
+	/**
+	** A view of a map of {@link Double}s as {@link Probability}s, which keeps
+	** the values it has converted. Results may be shared between threads (eg.
+	** through a {@link tags.proto.FragmentCache}), so the converted values are
+	** kept in a concurrent map.
+	*/
+	protected static class ProbabilityMap<K> extends AbstractMap<K, Probability> {
+
+		final protected Map<K, Double> map;
+		final protected ConcurrentMap<K, Probability> converted;
+
+		protected ProbabilityMap(Map<K, Double> map) {
+			if (map == null) { throw new NullPointerException(); }
+			this.map = map;
+			this.converted = new ConcurrentHashMap<K, Probability>();
+		}
+
+		protected Probability convert(K key, Double d) {
+			if (d == null) { return null; }
+			Probability p = converted.get(key);
+			if (p != null) { return p; }
+			p = new Probability(d);
+			Probability prev = converted.putIfAbsent(key, p);
+			return prev == null? p: prev;
+		}
+
+		@Override public int size() {
+			return map.size();
+		}
+
+		@Override public boolean isEmpty() {
+			return map.isEmpty();
+		}
+
+		@Override public boolean containsKey(Object o) {
+			return map.containsKey(o);
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override public Probability get(Object o) {
+			Probability p = converted.get(o);
+			if (p != null) { return p; }
+			return convert((K)o, map.get(o));
+		}
+
+		private transient Set<Map.Entry<K, Probability>> entries;
+		@Override public Set<Map.Entry<K, Probability>> entrySet() {
+			if (entries == null) {
+				entries = new AbstractSet<Map.Entry<K, Probability>>() {
+					@Override public int size() {
+						return map.size();
+					}
+					@Override public Iterator<Map.Entry<K, Probability>> iterator() {
+						final Iterator<Map.Entry<K, Double>> it = map.entrySet().iterator();
+						return new Iterator<Map.Entry<K, Probability>>() {
+							@Override public boolean hasNext() {
+								return it.hasNext();
+							}
+							@Override public Map.Entry<K, Probability> next() {
+								final Map.Entry<K, Double> en = it.next();
+								return new Maps.AbstractEntry<K, Probability>(en.getKey()) {
+									@Override public Probability getValue() { return convert(key, en.getValue()); }
+								};
+							}
+							@Override public void remove() {
+								throw new UnsupportedOperationException("immutable view");
+							}
+						};
+					}
+				};
+			}
+			return entries;
+		}
+
+	}
+
 }
@@ -0,0 +1,27 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.store;
+
+import tags.io.CompactTypedGraph;
+
+/**
+** A basic implementation of {@link CompactTypedGraph} suitable for the data
+** format assumed by {@link GraphMLStoreControl}.
+**
+** @see ProtoTypedXMLGraph
+*/
+public class ProtoCompactTypedGraph<T extends Enum<T>, K, U, W> extends CompactTypedGraph<T, K, U, W> {
+
+	public ProtoCompactTypedGraph(Class<T> typecl) {
+		super(typecl);
+	}
+
+	@Override public int getIDForString(String vid) {
+		if (vid.charAt(0) != 'n') { throw new IllegalArgumentException("illegal vertex id"); }
+		return Integer.parseInt(vid.substring(1));
+	}
+
+	@Override public String getAttributeNameForType(T type) {
+		return "base_" + type.name();
+	}
+
+}
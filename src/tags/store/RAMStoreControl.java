@@ -4,6 +4,7 @@ package tags.store;
 import tags.proto.PTable;
 import tags.util.Union.U2;
 import tags.util.Maps.U2Map;
+import java.util.Collection;
 import java.util.Set;
 import java.util.Map;
 import java.util.HashSet;
@@ -81,4 +82,37 @@ public class RAMStoreControl<I, T, A, U, W, S, Z> implements StoreControl<I, T,
 		return idx.get(src);
 	}
 
+	@Override public Map<T, U2Map<T, A, W>> getTGraphOutgoingMulti(A addr, Collection<T> srcs) throws IOException {
+		Map<T, U2Map<T, A, W>> tgr;
+
+		tgr = map_tgr.get(addr);
+		if (tgr == null) { throw new IOException("tgraph not available for: " + addr); }
+		return subMap(tgr, srcs);
+	}
+
+	@Override public Map<U2<T, A>, U> getTGraphNodeAttrs(A addr, Collection<U2<T, A>> nodes) throws IOException {
+		U2Map<T, A, U> tgr_node;
+
+		tgr_node = map_tgr_node.get(addr);
+		if (tgr_node == null) { throw new IOException("tgraph not available for: " + addr); }
+		return subMap(tgr_node, nodes);
+	}
+
+	@Override public Map<T, U2Map<A, A, W>> getIndexOutgoingMulti(A addr, Collection<T> srcs) throws IOException {
+		Map<T, U2Map<A, A, W>> idx;
+
+		idx = map_idx.get(addr);
+		if (idx == null) { throw new IOException("index not available for: " + addr); }
+		return subMap(idx, srcs);
+	}
+
+	protected static <K, V> Map<K, V> subMap(Map<? super K, V> map, Collection<K> keys) {
+		Map<K, V> sub = new HashMap<K, V>();
+		for (K key: keys) {
+			V val = map.get(key);
+			if (val != null) { sub.put(key, val); }
+		}
+		return sub;
+	}
+
 }
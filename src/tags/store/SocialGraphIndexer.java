@@ -0,0 +1,83 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.store;
+
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.HelpFormatter;
+
+import tags.io.CompactTypedGraph;
+import tags.store.GraphMLStoreControl.T_PTB;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Set;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+** Writes the social graph of a repository read by {@link GraphMLStoreControl}
+** as a directory container, at {@link GraphMLStoreControl#DIR_PTB}. This lets
+** the store look up identities one bucket at a time, rather than loading the
+** whole of {@link GraphMLStoreControl#FILE_PTB} before the first lookup.
+*/
+public class SocialGraphIndexer {
+
+	final protected File basedir;
+
+	public SocialGraphIndexer(File basedir) {
+		this.basedir = basedir;
+	}
+
+	/**
+	** Writes the directory container, and returns the number of identities.
+	*/
+	public int index() throws IOException {
+		CompactTypedGraph<T_PTB, String, Object, Object> src = new ProtoCompactTypedGraph<T_PTB, String, Object, Object>(T_PTB.class);
+		src.load(new FileInputStream(new File(basedir, GraphMLStoreControl.FILE_PTB)),
+		  GraphMLStoreControl.NODE_ID, null, GraphMLStoreControl.ARC_ATTR);
+
+		Set<String> ids = src.keyTypedSet().get(T_PTB.z);
+		Map<String, List<Object>> tuples = new HashMap<String, List<Object>>();
+		for (String id: ids) {
+			Map<T_PTB, Map<String, Object>> out = src.getSuccessorTypedMap(id);
+			// ordered as T_PTB
+			tuples.put(id, Arrays.<Object>asList(
+			  new HashMap<String, Object>(out.get(T_PTB.z)),
+			  new HashMap<String, Object>(out.get(T_PTB.g)),
+			  new HashMap<String, Object>(out.get(T_PTB.h))
+			));
+		}
+		GraphMLStoreControl.DirectoryContainer.write(new File(basedir, GraphMLStoreControl.DIR_PTB),
+		  ids.size(), new ArrayList<String>(ids), tuples);
+		return ids.size();
+	}
+
+	public static void main(String[] args) throws Throwable {
+		Options opt = new Options();
+		opt.addOption("h", "help", false, "print this help message");
+		opt.addOption(OptionBuilder.withDescription("base data directory").
+		  withLongOpt("basedir").withArgName("DIR").hasArg().create('d'));
+
+		CommandLineParser parser = new GnuParser();
+		CommandLine line = parser.parse(opt, args);
+
+		String basedir = line.getOptionValue('d');
+		if (line.hasOption('h') || basedir == null) {
+			HelpFormatter formatter = new HelpFormatter();
+			formatter.setLeftPadding(4);
+			formatter.printHelp("tags.store.SocialGraphIndexer -d DIR", opt);
+			System.exit(line.hasOption('h')? 0: 2);
+		}
+
+		int n = new SocialGraphIndexer(new File(basedir)).index();
+		System.out.println("indexed " + n + " identities in " + new File(basedir, GraphMLStoreControl.DIR_PTB));
+	}
+
+}
@@ -6,6 +6,7 @@ import tags.proto.TGraph;
 import tags.proto.Index;
 import tags.util.Union.U2;
 import tags.util.Maps.U2Map;
+import java.util.Collection;
 import java.util.Map;
 
 import java.io.IOException;
@@ -14,6 +15,7 @@ import java.io.IOException;
 ** An interface to the underlying storage network.
 **
 ** All methods specified here should block until the operation is complete.
+** See {@link AsyncStoreControl} for a non-blocking interface.
 **
 ** @param <I> Type of identity
 ** @param <T> Type of tag
@@ -78,4 +80,41 @@ public interface StoreControl<I, T, A, U, W, S, Z> {
 	*/
 	public U2Map<A, A, W> getIndexOutgoing(A addr, T src) throws IOException;
 
+	/*
+	** The batch methods below are equivalent to calling the corresponding
+	** single-key method for each of the given keys, but let an implementation
+	** group keys that are stored together (eg. in the same file or bucket),
+	** and fetch each group in a single read.
+	**
+	** Keys that are not present in the data structure (ie. for which the
+	** single-key method would return null) are absent from the returned map.
+	*/
+
+	/**
+	** Retrieves the out-neighbours (and the weights of the out-arcs) for each
+	** of the given source tags, in the given {@link TGraph}.
+	**
+	** @param addr Address of the {@link TGraph}.
+	** @see #getTGraphOutgoing(Object, Object)
+	*/
+	public Map<T, U2Map<T, A, W>> getTGraphOutgoingMulti(A addr, Collection<T> srcs) throws IOException;
+
+	/**
+	** Retrieves the node-attributes for each of the given tags or tgraphs, in
+	** the given {@link TGraph}.
+	**
+	** @param addr Address of the {@link TGraph}.
+	** @see #getTGraphNodeAttr(Object, U2)
+	*/
+	public Map<U2<T, A>, U> getTGraphNodeAttrs(A addr, Collection<U2<T, A>> nodes) throws IOException;
+
+	/**
+	** Retrieves the out-neighbours (and the weights of the out-arcs) for each
+	** of the given source tags, in the given {@link Index}.
+	**
+	** @param addr Address of the {@link Index}.
+	** @see #getIndexOutgoing(Object, Object)
+	*/
+	public Map<T, U2Map<A, A, W>> getIndexOutgoingMulti(A addr, Collection<T> srcs) throws IOException;
+
 }
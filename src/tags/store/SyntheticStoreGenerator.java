@@ -0,0 +1,645 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.store;
+
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.HelpFormatter;
+
+import tags.proto.PTable;
+import tags.util.Maps;
+import tags.util.Maps.U2Map;
+import java.util.Set;
+import java.util.Map;
+import java.util.List;
+import java.util.Queue;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Random;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.BufferedWriter;
+import java.io.PrintWriter;
+import java.io.IOException;
+
+/**
+** Generates synthetic stores from a seed, for testing and benchmarking at
+** realistic sizes without needing real data.
+**
+** The generator first builds a corpus of documents, each tagged with a few
+** tags. The popularity of tags follows a power law, as does the number of
+** tags on each document. From this it derives:
+**
+** - tgraphs, each a cluster of tags that co-occur with a (popular) seed tag.
+**   Arc weights are the conditional probability of the target tag given the
+**   source tag, estimated from a sample of documents. Some tags link to other
+**   tgraphs, preferring those seeded at that tag.
+** - indexes, each a sample of documents around a seed tag, with more popular
+**   documents being indexed more often. Some tags link to other indexes,
+**   preferring those seeded at that tag.
+** - identities, each with a personal index (the index with the same number),
+**   a ptable pointing to related tgraphs and shared indexes, and a list of
+**   friends, with more popular identities befriended more often.
+**
+** Each tgraph, index and identity is generated from its own random stream
+** derived from the seed, so they can be generated (and written) one at a time;
+** only the corpus is held in memory. The output for a given set of parameters
+** is always the same.
+**
+** The parameters are public fields, which may be changed before generating.
+** The defaults are multiplied by the {@code scale} given to the constructor;
+** at scale 4 the generated store has over a million arcs.
+**
+** The resulting store can be put into a {@link RAMStoreControl}, or written to
+** a directory in the format read by {@link GraphMLStoreControl}.
+*/
+public class SyntheticStoreGenerator {
+
+	/**
+	** Maps the generated objects (which are numbered from 0) to store keys
+	** and weights.
+	**
+	** @param <I> Type of identity
+	** @param <T> Type of tag
+	** @param <A> Type of address
+	** @param <W> Type of weight (arc-attribute, node-attribute and score)
+	*/
+	public interface Labels<I, T, A, W> {
+
+		public I id(int i);
+
+		public T tag(int i);
+
+		public A doc(int i);
+
+		public A tgr(int i);
+
+		/**
+		** Identity {@code i} owns index {@code i}; stores that require an
+		** identity to be the same as the address of its index should make
+		** this return something equal to {@link #id(int)}.
+		*/
+		public A idx(int i);
+
+		public W weight(double w);
+
+	}
+
+	/**
+	** Labels in the format used by {@link #writeGraphMLStore(File)}: tags are
+	** {@code t0, t1, ...}, documents {@code d0, ...}, tgraphs {@code g0, ...},
+	** and indexes and identities {@code h0, ...}.
+	*/
+	final public static Labels<String, String, String, Double> STRING_LABELS = new Labels<String, String, String, Double>() {
+		@Override public String id(int i) { return "h" + i; }
+		@Override public String tag(int i) { return "t" + i; }
+		@Override public String doc(int i) { return "d" + i; }
+		@Override public String tgr(int i) { return "g" + i; }
+		@Override public String idx(int i) { return "h" + i; }
+		@Override public Double weight(double w) { return w; }
+	};
+
+	final public long seed;
+
+	/** Number of tags. */
+	public int n_tag;
+	/** Number of documents. */
+	public int n_doc;
+	/** Number of tgraphs. */
+	public int n_tgr;
+	/** Number of indexes; the first {@link #n_id} of these are personal. */
+	public int n_idx;
+	/** Number of identities. */
+	public int n_id;
+
+	/** Power-law exponent for the popularity of tags. */
+	public double exp_tag = 1.0;
+	/** Power-law exponent for the popularity of documents in indexes. */
+	public double exp_doc = 1.0;
+	/** Power-law exponent for the popularity of tgraphs, indexes and identities. */
+	public double exp_obj = 1.0;
+	/** Power-law exponent for the sizes of objects. */
+	public double exp_size = 1.0;
+
+	/** Maximum number of tags on a document. */
+	public int max_doc_tags = 0x10;
+	/** Minimum and maximum extra number of tags in a tgraph. */
+	public int min_tgr_size = 0x08, max_tgr_size = 0x100;
+	/** Minimum and maximum extra number of documents in an index. */
+	public int min_idx_size = 0x10, max_idx_size = 0x400;
+	/** Maximum number of tgraphs in a ptable. */
+	public int max_ptb_tgr = 0x08;
+	/** Maximum number of shared indexes in a ptable. */
+	public int max_ptb_idx = 0x10;
+	/** Maximum number of friends of an identity. */
+	public int max_frn = 0x20;
+	/** Number of documents sampled to estimate a tag's neighbours. */
+	public int sample = 0x20;
+	/** Probability that a tag in a tgraph or index links to another one. */
+	public double p_link = 0.25;
+
+	public SyntheticStoreGenerator(long seed, int scale) {
+		if (scale <= 0) { throw new IllegalArgumentException("scale must be positive: " + scale); }
+		this.seed = seed;
+		this.n_tag = 0x400 * scale;
+		this.n_doc = 0x4000 * scale;
+		this.n_tgr = 0x40 * scale;
+		this.n_idx = 0x100 * scale;
+		this.n_id = 0x80 * scale;
+	}
+
+	public SyntheticStoreGenerator(long seed) {
+		this(seed, 1);
+	}
+
+	/**
+	** Returns an integer in {@code [0, n)}, distributed according to a power
+	** law with the given exponent, so that smaller values are more likely. An
+	** exponent of 1 gives a log-uniform distribution.
+	*/
+	public static int powerLaw(Random rand, int n, double exp) {
+		double x, u = rand.nextDouble();
+		if (exp == 1.0) {
+			x = Math.pow(n+1, u);
+		} else {
+			double e = 1.0 - exp;
+			x = Math.pow((Math.pow(n+1, e) - 1) * u + 1, 1 / e);
+		}
+		int r = (int)x - 1;
+		return (r < n)? r: n-1;
+	}
+
+	protected static double prob(Random rand) {
+		return rand.nextDouble()/2+0.5;
+	}
+
+	/**
+	** Returns the random stream for the given object.
+	*/
+	protected Random random(Kind kind, int i) {
+		return new Random(seed + 0x9E3779B97F4A7C15L * (((long)kind.ordinal() << 32) + i + 1));
+	}
+
+	/**
+	** The documents and their tags, and the seed tag of each tgraph and index.
+	*/
+	protected static class Corpus {
+
+		/** Tags of each document. */
+		final public int[][] doc_tags;
+		/** Documents of each tag, in ascending order. */
+		final public int[][] tag_docs;
+		/** Seed tag of each tgraph. */
+		final public int[] tgr_seed;
+		/** Seed tag of each index. */
+		final public int[] idx_seed;
+		/** Tgraphs seeded at each tag. */
+		final public int[][] tag_tgrs;
+		/** Indexes seeded at each tag. */
+		final public int[][] tag_idxs;
+
+		public Corpus(int[][] doc_tags, int[][] tag_docs, int[] tgr_seed, int[] idx_seed) {
+			this.doc_tags = doc_tags;
+			this.tag_docs = tag_docs;
+			this.tgr_seed = tgr_seed;
+			this.idx_seed = idx_seed;
+			this.tag_tgrs = invert(tgr_seed, tag_docs.length);
+			this.tag_idxs = invert(idx_seed, tag_docs.length);
+		}
+
+		public static int[][] invert(int[] map, int n) {
+			int[] sz = new int[n];
+			for (int k: map) { ++sz[k]; }
+			int[][] inv = new int[n][];
+			for (int i=0; i<n; ++i) { inv[i] = new int[sz[i]]; sz[i] = 0; }
+			for (int i=0; i<map.length; ++i) { inv[map[i]][sz[map[i]]++] = i; }
+			return inv;
+		}
+
+	}
+
+	/**
+	** A generated tgraph.
+	*/
+	protected static class TGraphData {
+		final public Map<Integer, Double> node_t = new LinkedHashMap<Integer, Double>();
+		final public Map<Integer, Double> node_g = new LinkedHashMap<Integer, Double>();
+		final public Map<Integer, Map<Integer, Double>> out_t = new LinkedHashMap<Integer, Map<Integer, Double>>();
+		final public Map<Integer, Map<Integer, Double>> out_g = new LinkedHashMap<Integer, Map<Integer, Double>>();
+	}
+
+	/**
+	** A generated index.
+	*/
+	protected static class IndexData {
+		final public Map<Integer, Map<Integer, Double>> out_d = new LinkedHashMap<Integer, Map<Integer, Double>>();
+		final public Map<Integer, Map<Integer, Double>> out_h = new LinkedHashMap<Integer, Map<Integer, Double>>();
+	}
+
+	/**
+	** A generated identity.
+	*/
+	protected static class IdentityData {
+		final public Map<Integer, Double> frn = new LinkedHashMap<Integer, Double>();
+		final public Map<Integer, Double> ptb_g = new LinkedHashMap<Integer, Double>();
+		final public Map<Integer, Double> ptb_h = new LinkedHashMap<Integer, Double>();
+	}
+
+	/**
+	** @throws IllegalArgumentException if the parameters are inconsistent
+	*/
+	protected Corpus makeCorpus() {
+		if (n_tag <= 0 || n_doc <= 0 || n_tgr <= 0 || n_id <= 0) {
+			throw new IllegalArgumentException("object counts must be positive");
+		}
+		if (n_idx <= n_id) {
+			throw new IllegalArgumentException("need more indexes than identities, for shared indexes");
+		}
+
+		Random rand = random(Kind.DOC, 0);
+		int[][] doc_tags = new int[n_doc][];
+		int[] sz = new int[n_tag];
+		Set<Integer> tt = new LinkedHashSet<Integer>();
+		for (int d=0; d<n_doc; ++d) {
+			int n = Math.min(n_tag, 1 + powerLaw(rand, max_doc_tags, exp_size));
+			tt.clear();
+			while (tt.size() < n) { tt.add(powerLaw(rand, n_tag, exp_tag)); }
+			int[] dt = doc_tags[d] = new int[n];
+			int j = 0;
+			for (int t: tt) { dt[j++] = t; ++sz[t]; }
+		}
+		int[][] tag_docs = new int[n_tag][];
+		for (int t=0; t<n_tag; ++t) { tag_docs[t] = new int[sz[t]]; sz[t] = 0; }
+		for (int d=0; d<n_doc; ++d) {
+			for (int t: doc_tags[d]) { tag_docs[t][sz[t]++] = d; }
+		}
+
+		// the first tgraph and index are seeded at the first tag, so that
+		// queries from the first identity for the first tag go somewhere
+		int[] tgr_seed = new int[n_tgr];
+		int[] idx_seed = new int[n_idx];
+		for (int i=1; i<n_tgr; ++i) { tgr_seed[i] = randomTag(rand, doc_tags); }
+		for (int i=1; i<n_idx; ++i) { idx_seed[i] = randomTag(rand, doc_tags); }
+		return new Corpus(doc_tags, tag_docs, tgr_seed, idx_seed);
+	}
+
+	/**
+	** Picks a tag with probability proportional to its frequency.
+	*/
+	protected static int randomTag(Random rand, int[][] doc_tags) {
+		int[] tt = doc_tags[rand.nextInt(doc_tags.length)];
+		return tt[rand.nextInt(tt.length)];
+	}
+
+	/**
+	** Picks an object related to the given tag if possible, otherwise a random
+	** one from {@code [lo, n)}.
+	**
+	** @return the object, or {@code -1} if the choice was {@code exclude}
+	*/
+	protected int pickObject(Random rand, int[] related, int lo, int n, int exclude) {
+		int k = -1;
+		if (related.length > 0) {
+			k = related[rand.nextInt(related.length)];
+		}
+		if (k < lo) {
+			k = lo + powerLaw(rand, n - lo, exp_obj);
+		}
+		return (k == exclude)? -1: k;
+	}
+
+	protected TGraphData makeTGraph(Corpus cp, int i) {
+		Random rand = random(Kind.TGR, i);
+		TGraphData tgr = new TGraphData();
+		int k = Math.min(n_tag, min_tgr_size + powerLaw(rand, max_tgr_size, exp_size));
+
+		// breadth-first search over co-occurring tags
+		Set<Integer> nodes = new LinkedHashSet<Integer>();
+		Queue<Integer> queue = new ArrayDeque<Integer>();
+		nodes.add(cp.tgr_seed[i]);
+		queue.add(cp.tgr_seed[i]);
+		while (nodes.size() < k) {
+			Integer t = queue.poll();
+			if (t == null) {
+				// disconnected; start again from somewhere else
+				t = rand.nextInt(n_tag);
+				if (nodes.add(t)) { queue.add(t); }
+				continue;
+			}
+			int[] dd = cp.tag_docs[t];
+			for (int s=0; s<sample && dd.length > 0 && nodes.size() < k; ++s) {
+				for (int u: cp.doc_tags[dd[rand.nextInt(dd.length)]]) {
+					if (nodes.add(u)) { queue.add(u); }
+					if (nodes.size() >= k) { break; }
+				}
+			}
+		}
+
+		for (int t: nodes) {
+			tgr.node_t.put(t, (double)cp.tag_docs[t].length / n_doc);
+			Map<Integer, Double> out = new LinkedHashMap<Integer, Double>();
+			int[] dd = cp.tag_docs[t];
+			int ns = Math.min(sample, dd.length);
+			if (ns > 0) {
+				Map<Integer, Integer> count = new LinkedHashMap<Integer, Integer>();
+				for (int s=0; s<ns; ++s) {
+					int d = (ns == dd.length)? dd[s]: dd[rand.nextInt(dd.length)];
+					for (int u: cp.doc_tags[d]) {
+						if (u == t || !nodes.contains(u)) { continue; }
+						Integer c = count.get(u);
+						count.put(u, (c == null)? 1: c+1);
+					}
+				}
+				for (Map.Entry<Integer, Integer> en: count.entrySet()) {
+					out.put(en.getKey(), (double)en.getValue() / ns);
+				}
+			}
+			tgr.out_t.put(t, out);
+			tgr.out_g.put(t, new LinkedHashMap<Integer, Double>());
+		}
+
+		for (int t: nodes) {
+			if (rand.nextDouble() >= p_link) { continue; }
+			int g = pickObject(rand, cp.tag_tgrs[t], 0, n_tgr, i);
+			if (g < 0) { continue; }
+			tgr.out_g.get(t).put(g, prob(rand));
+			tgr.node_g.put(g, (double)cp.tag_docs[cp.tgr_seed[g]].length / n_doc);
+		}
+		return tgr;
+	}
+
+	protected IndexData makeIndex(Corpus cp, int i) {
+		Random rand = random(Kind.IDX, i);
+		IndexData idx = new IndexData();
+		int m = min_idx_size + powerLaw(rand, max_idx_size, exp_size);
+
+		int[] seed_docs = cp.tag_docs[cp.idx_seed[i]];
+		for (int j=0; j<m; ++j) {
+			int d = (seed_docs.length > 0 && rand.nextInt(4) != 0)?
+			  seed_docs[powerLaw(rand, seed_docs.length, exp_doc)]:
+			  powerLaw(rand, n_doc, exp_doc);
+			int[] tt = cp.doc_tags[d];
+			for (int t: tt) {
+				Map<Integer, Double> out = idx.out_d.get(t);
+				if (out == null) {
+					idx.out_d.put(t, out = new LinkedHashMap<Integer, Double>());
+					idx.out_h.put(t, new LinkedHashMap<Integer, Double>());
+				}
+				out.put(d, Math.sqrt(1.0/tt.length));
+			}
+		}
+
+		for (Map.Entry<Integer, Map<Integer, Double>> en: idx.out_h.entrySet()) {
+			if (rand.nextDouble() >= p_link) { continue; }
+			int h = pickObject(rand, cp.tag_idxs[en.getKey()], 0, n_idx, i);
+			if (h < 0) { continue; }
+			en.getValue().put(h, prob(rand));
+		}
+		return idx;
+	}
+
+	protected IdentityData makeIdentity(Corpus cp, int i) {
+		Random rand = random(Kind.ID, i);
+		IdentityData id = new IdentityData();
+
+		for (int n = 1 + powerLaw(rand, max_frn, exp_size); n>0; --n) {
+			int f = powerLaw(rand, n_id, exp_obj);
+			if (f != i) { id.frn.put(f, prob(rand)); }
+		}
+
+		// an identity is interested in the seed tag of its personal index
+		int c = cp.idx_seed[i];
+		if (i == 0) { id.ptb_g.put(0, prob(rand)); }
+		for (int n = 1 + powerLaw(rand, max_ptb_tgr, exp_size); n>0; --n) {
+			id.ptb_g.put(pickObject(rand, cp.tag_tgrs[c], 0, n_tgr, -1), prob(rand));
+		}
+		id.ptb_h.put(i, 1.0);
+		for (int n = 1 + powerLaw(rand, max_ptb_idx, exp_size); n>0; --n) {
+			id.ptb_h.put(pickObject(rand, cp.tag_idxs[c], n_id, n_idx, -1), prob(rand));
+		}
+		return id;
+	}
+
+	/**
+	** Fills the given store with generated data.
+	*/
+	public <I, T, A, W> void fill(RAMStoreControl<I, T, A, W, W, W, W> sctl, Labels<I, T, A, W> lab) {
+		Corpus cp = makeCorpus();
+
+		for (int t=0; t<n_tag; ++t) {
+			Set<A> dd = new LinkedHashSet<A>();
+			for (int d: cp.tag_docs[t]) { dd.add(lab.doc(d)); }
+			sctl.map_tag.put(lab.tag(t), dd);
+		}
+		for (int d=0; d<n_doc; ++d) {
+			Set<T> tt = new LinkedHashSet<T>();
+			for (int t: cp.doc_tags[d]) { tt.add(lab.tag(t)); }
+			sctl.map_doc.put(lab.doc(d), tt);
+		}
+
+		for (int i=0; i<n_tgr; ++i) {
+			TGraphData data = makeTGraph(cp, i);
+			Map<T, U2Map<T, A, W>> tgr = new HashMap<T, U2Map<T, A, W>>();
+			for (Map.Entry<Integer, Map<Integer, Double>> en: data.out_t.entrySet()) {
+				tgr.put(lab.tag(en.getKey()), Maps.uniteDisjoint(
+				  relabel(en.getValue(), lab, Kind.TAG), relabel(data.out_g.get(en.getKey()), lab, Kind.TGR)
+				));
+			}
+			sctl.map_tgr.put(lab.tgr(i), tgr);
+			sctl.map_tgr_node.put(lab.tgr(i), Maps.uniteDisjoint(
+			  relabel(data.node_t, lab, Kind.TAG), relabel(data.node_g, lab, Kind.TGR)
+			));
+		}
+
+		for (int i=0; i<n_idx; ++i) {
+			IndexData data = makeIndex(cp, i);
+			Map<T, U2Map<A, A, W>> idx = new HashMap<T, U2Map<A, A, W>>();
+			for (Map.Entry<Integer, Map<Integer, Double>> en: data.out_d.entrySet()) {
+				idx.put(lab.tag(en.getKey()), Maps.uniteDisjoint(
+				  relabel(en.getValue(), lab, Kind.DOC), relabel(data.out_h.get(en.getKey()), lab, Kind.IDX)
+				));
+			}
+			sctl.map_idx.put(lab.idx(i), idx);
+		}
+
+		for (int i=0; i<n_id; ++i) {
+			IdentityData data = makeIdentity(cp, i);
+			sctl.map_frn.put(lab.id(i), SyntheticStoreGenerator.<I, W>relabel(data.frn, lab, Kind.ID));
+			sctl.map_ptb.put(lab.id(i), new PTable<A, W>(
+			  SyntheticStoreGenerator.<A, W>relabel(data.ptb_g, lab, Kind.TGR), SyntheticStoreGenerator.<A, W>relabel(data.ptb_h, lab, Kind.IDX)
+			));
+		}
+	}
+
+	/**
+	** Kinds of generated object, for relabelling.
+	*/
+	protected enum Kind {
+		ID { Object label(Labels<?, ?, ?, ?> lab, int i) { return lab.id(i); } },
+		TAG { Object label(Labels<?, ?, ?, ?> lab, int i) { return lab.tag(i); } },
+		DOC { Object label(Labels<?, ?, ?, ?> lab, int i) { return lab.doc(i); } },
+		TGR { Object label(Labels<?, ?, ?, ?> lab, int i) { return lab.tgr(i); } },
+		IDX { Object label(Labels<?, ?, ?, ?> lab, int i) { return lab.idx(i); } };
+		abstract Object label(Labels<?, ?, ?, ?> lab, int i);
+	}
+
+	/**
+	** Returns a copy of the given map, with keys of the given kind and values
+	** relabelled by {@code lab}.
+	*/
+	@SuppressWarnings("unchecked")
+	protected static <K, W> Map<K, W> relabel(Map<Integer, Double> map, Labels<?, ?, ?, W> lab, Kind kind) {
+		Map<K, W> out = new HashMap<K, W>(map.size()<<1);
+		for (Map.Entry<Integer, Double> en: map.entrySet()) {
+			out.put((K)kind.label(lab, en.getKey()), lab.weight(en.getValue()));
+		}
+		return out;
+	}
+
+	/**
+	** Writes generated data to the given directory, in the format read by
+	** {@link GraphMLStoreControl}, with keys as given by {@link
+	** #STRING_LABELS}. Tgraphs and indexes are written as directory
+	** containers, and are generated and written one at a time, so that very
+	** large stores can be written in bounded memory.
+	**
+	** @throws IOException if the directory could not be created or written to
+	*/
+	public void writeGraphMLStore(File basedir) throws IOException {
+		Labels<String, String, String, Double> lab = STRING_LABELS;
+		File dir_tgr = new File(basedir, GraphMLStoreControl.DIR_TGR);
+		File dir_idx = new File(basedir, GraphMLStoreControl.DIR_IDX);
+		mkdirs(dir_tgr);
+		mkdirs(dir_idx);
+		Corpus cp = makeCorpus();
+
+		for (int i=0; i<n_tgr; ++i) {
+			TGraphData data = makeTGraph(cp, i);
+			Map<String, Object> nodes = new HashMap<String, Object>();
+			nodes.putAll(SyntheticStoreGenerator.<String, Double>relabel(data.node_t, lab, Kind.TAG));
+			nodes.putAll(SyntheticStoreGenerator.<String, Double>relabel(data.node_g, lab, Kind.TGR));
+			Map<String, List<Object>> tuples = new HashMap<String, List<Object>>();
+			for (Map.Entry<Integer, Map<Integer, Double>> en: data.out_t.entrySet()) {
+				// ordered as GraphMLStoreControl.T_TGR_UNW
+				tuples.put(lab.tag(en.getKey()), Arrays.<Object>asList(
+				  data.node_t.get(en.getKey()),
+				  SyntheticStoreGenerator.<String, Double>relabel(en.getValue(), lab, Kind.TAG),
+				  SyntheticStoreGenerator.<String, Double>relabel(data.out_g.get(en.getKey()), lab, Kind.TGR)
+				));
+			}
+			GraphMLStoreControl.DirectoryContainer.write(new File(dir_tgr, lab.tgr(i)), nodes.size(), nodes, tuples);
+		}
+
+		for (int i=0; i<n_idx; ++i) {
+			IndexData data = makeIndex(cp, i);
+			List<String> nodes = new ArrayList<String>();
+			Set<Integer> vv = new LinkedHashSet<Integer>();
+			Map<String, List<Object>> tuples = new HashMap<String, List<Object>>();
+			for (Map.Entry<Integer, Map<Integer, Double>> en: data.out_d.entrySet()) {
+				nodes.add(lab.tag(en.getKey()));
+				vv.addAll(en.getValue().keySet());
+				// ordered as GraphMLStoreControl.T_IDX_UNW
+				tuples.put(lab.tag(en.getKey()), Arrays.<Object>asList(
+				  SyntheticStoreGenerator.<String, Double>relabel(en.getValue(), lab, Kind.DOC),
+				  SyntheticStoreGenerator.<String, Double>relabel(data.out_h.get(en.getKey()), lab, Kind.IDX)
+				));
+			}
+			GraphMLStoreControl.DirectoryContainer.write(new File(dir_idx, lab.idx(i)), nodes.size() + vv.size(), nodes, tuples);
+		}
+
+		writeSocialGraph(cp, new File(basedir, GraphMLStoreControl.FILE_PTB), lab);
+	}
+
+	/**
+	** Writes the social graph as GraphML. Vertices {@code [0, n_id)} are the
+	** identities, {@code [n_id, n_idx)} the shared indexes, and {@code [n_idx,
+	** n_idx+n_tgr)} the tgraphs. Each identity has an arc to itself, which
+	** {@link GraphMLStoreControl} interprets as the arc to its personal index.
+	*/
+	protected void writeSocialGraph(Corpus cp, File fn, Labels<String, String, String, Double> lab) throws IOException {
+		PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fn), "UTF-8")));
+		try {
+			out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+			out.println("<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\">");
+			for (GraphMLStoreControl.T_PTB type: GraphMLStoreControl.T_PTB.values()) {
+				out.println("<key id=\"base_" + type + "\" for=\"graph\" attr.name=\"base_" + type + "\" attr.type=\"int\"/>");
+			}
+			out.println("<key id=\"" + GraphMLStoreControl.NODE_ID + "\" for=\"node\" attr.name=\"" + GraphMLStoreControl.NODE_ID + "\" attr.type=\"string\"/>");
+			out.println("<key id=\"" + GraphMLStoreControl.ARC_ATTR + "\" for=\"edge\" attr.name=\"" + GraphMLStoreControl.ARC_ATTR + "\" attr.type=\"double\"/>");
+			out.println("<graph edgedefault=\"directed\">");
+			out.println("<data key=\"base_z\">0</data>");
+			out.println("<data key=\"base_h\">" + n_id + "</data>");
+			out.println("<data key=\"base_g\">" + n_idx + "</data>");
+
+			for (int i=0; i<n_id; ++i) { writeVertex(out, i, lab.id(i)); }
+			for (int i=n_id; i<n_idx; ++i) { writeVertex(out, i, lab.idx(i)); }
+			for (int i=0; i<n_tgr; ++i) { writeVertex(out, n_idx+i, lab.tgr(i)); }
+
+			for (int i=0; i<n_id; ++i) {
+				IdentityData data = makeIdentity(cp, i);
+				for (Map.Entry<Integer, Double> en: data.frn.entrySet()) { writeArc(out, i, en.getKey(), en.getValue()); }
+				for (Map.Entry<Integer, Double> en: data.ptb_h.entrySet()) { writeArc(out, i, en.getKey(), en.getValue()); }
+				for (Map.Entry<Integer, Double> en: data.ptb_g.entrySet()) { writeArc(out, i, n_idx+en.getKey(), en.getValue()); }
+			}
+
+			out.println("</graph>");
+			out.println("</graphml>");
+		} finally {
+			out.close();
+		}
+		if (out.checkError()) { throw new IOException("error writing " + fn); }
+	}
+
+	protected static void writeVertex(PrintWriter out, int v, String id) {
+		out.println("<node id=\"n" + v + "\"><data key=\"" + GraphMLStoreControl.NODE_ID + "\">" + id + "</data></node>");
+	}
+
+	protected static void writeArc(PrintWriter out, int src, int dst, double w) {
+		out.println("<edge source=\"n" + src + "\" target=\"n" + dst + "\"><data key=\"" + GraphMLStoreControl.ARC_ATTR + "\">" + w + "</data></edge>");
+	}
+
+	protected static void mkdirs(File dir) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("could not create directory: " + dir);
+		}
+	}
+
+	public static void main(String[] args) throws Throwable {
+		Options opt = new Options();
+		opt.addOption("h", "help", false, "print this help message");
+		opt.addOption(OptionBuilder.withDescription("base data directory to write to").
+		  withLongOpt("basedir").withArgName("DIR").hasArg().create('d'));
+		opt.addOption(OptionBuilder.withDescription("random seed (default 0)").
+		  withLongOpt("seed").withArgName("SEED").hasArg().create('s'));
+		opt.addOption(OptionBuilder.withDescription("multiplier for the default number of objects (default 1)").
+		  withLongOpt("scale").withArgName("NUM").hasArg().create('n'));
+
+		CommandLineParser parser = new GnuParser();
+		CommandLine line = parser.parse(opt, args);
+
+		String basedir = line.getOptionValue('d');
+		if (line.hasOption('h') || basedir == null) {
+			HelpFormatter formatter = new HelpFormatter();
+			formatter.setLeftPadding(4);
+			formatter.printHelp("tags.store.SyntheticStoreGenerator -d DIR", opt);
+			System.exit(line.hasOption('h')? 0: 2);
+		}
+
+		long seed = Long.parseLong(line.getOptionValue('s', "0"));
+		int scale = Integer.parseInt(line.getOptionValue('n', "1"));
+
+		SyntheticStoreGenerator gen = new SyntheticStoreGenerator(seed, scale);
+		gen.writeGraphMLStore(new File(basedir));
+		System.out.println("wrote " + gen.n_tag + " tags, " + gen.n_doc + " documents, " + gen.n_id + " ids, "
+		  + gen.n_tgr + " tgraphs, " + gen.n_idx + " indexes to " + basedir + "; seed=" + seed + "; scale=" + scale);
+	}
+
+}
@@ -0,0 +1,372 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.ui;
+
+import tags.proto.QueryEnvironment;
+import tags.proto.QueryProcess;
+import tags.util.exec.MessageRejectedException;
+
+import tags.util.Maps.U2Map;
+import java.util.Queue;
+import java.util.List;
+import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+/**
+** Runs many {@link QueryProcess}es at once, over a shared {@link
+** QueryEnvironment}. This is the concurrent equivalent of {@link
+** QueryAgent#runUntilAfter(QueryProcess, int)}.
+**
+** Every {@link #interval} ms, each running query whose previous step has
+** finished is given another step, which is run on the environment's {@link
+** QueryEnvironment#exec executor}. The query that is stepped first rotates
+** from round to round, so no query is consistently favoured. A query finishes
+** when it has run the requested number of steps after its first results, or
+** when its deadline passes, whichever is sooner. A query whose deadline
+** passes in the middle of a step is closed straight away, rather than after
+** the step returns.
+**
+** At most {@link #max_running} queries are run at once; further queries wait
+** their turn, in the order they were submitted. Note that each running
+** process holds a thread of the executor whilst its routing layer has lookups
+** to run, so the executor should have more threads than this, unless it is
+** {@linkplain QueryEnvironment#makeVirtualThreadExecutor() unbounded}.
+** Finished processes are {@linkplain QueryProcess#close() closed}, as are
+** the processes of queries {@linkplain Job#isCancelled() cancelled} by {@link
+** #shutdown()}.
+**
+** The total number of store lookups in flight may be capped too; see {@link
+** QueryEnvironment#setLookupLimit(int)}.
+*/
+public class QueryScheduler<I, T, A, U, W, S, Z> {
+
+	final public QueryEnvironment<I, T, A, U, W, S, Z> env;
+
+	/** Time interval between successive rounds of steps. */
+	final public int interval;
+	/** Maximum number of queries to run at once. */
+	final public int max_running;
+
+	final protected Queue<Job> waiting = new LinkedList<Job>();
+	final protected List<Job> running = new ArrayList<Job>();
+	final protected Timer timer = new Timer("query-scheduler", true);
+
+	/** Index into {@link #running} of the job to step first in the next round. */
+	protected int rotate;
+	protected boolean shutdown;
+	protected int finished;
+	protected long first_start = -1;
+	protected long last_finish = -1;
+
+	/**
+	** @param env Environment to run queries in
+	** @param interval Time interval between successive steps of each query
+	** @param max_running Maximum number of queries to run at once
+	** @throws IllegalArgumentException if {@code interval} is less than 10,
+	**         or {@code max_running} is not positive
+	*/
+	public QueryScheduler(QueryEnvironment<I, T, A, U, W, S, Z> env, int interval, int max_running) {
+		if (env == null) { throw new NullPointerException(); }
+		if (interval < 10) {
+			throw new IllegalArgumentException("interval must be >=10: " + interval);
+		}
+		if (max_running <= 0) {
+			throw new IllegalArgumentException("max_running must be positive: " + max_running);
+		}
+		this.env = env;
+		this.interval = interval;
+		this.max_running = max_running;
+		timer.schedule(new TimerTask() {
+			@Override public void run() {
+				runRound();
+			}
+		}, interval, interval);
+	}
+
+	/**
+	** Schedule the given process to run until its first results are obtained,
+	** then for {@code steps} more steps.
+	**
+	** @param proc The process to run
+	** @param steps Number of steps to run after the first results
+	** @param timeout Time in ms after which to stop the query, counted from
+	**        when it starts running, or 0 for no limit
+	** @throws IllegalStateException if the scheduler has been shut down
+	*/
+	public synchronized Job submit(QueryProcess<I, T, A, U, W, S, Z> proc, int steps, long timeout) {
+		if (shutdown) { throw new IllegalStateException("scheduler shut down"); }
+		Job job = new Job(proc, steps, timeout);
+		waiting.add(job);
+		admit();
+		return job;
+	}
+
+	/**
+	** Stop scheduling steps. Queries that have not finished are {@linkplain
+	** Job#isCancelled() cancelled}, and their processes closed.
+	*/
+	public void shutdown() {
+		List<Job> cancelled = new ArrayList<Job>();
+		synchronized (this) {
+			timer.cancel();
+			shutdown = true;
+			cancelled.addAll(running);
+			cancelled.addAll(waiting);
+			running.clear();
+			waiting.clear();
+			for (Job job: cancelled) { job.cancelled = true; }
+			notifyAll();
+		}
+		// close outside of the lock, since a step might still be running
+		for (Job job: cancelled) {
+			job.proc.close();
+			job.finish();
+		}
+	}
+
+	/**
+	** Wait until all submitted queries have finished.
+	*/
+	public synchronized void awaitAll() throws InterruptedException {
+		while (!waiting.isEmpty() || !running.isEmpty()) {
+			if (shutdown) { return; }
+			wait();
+		}
+	}
+
+	public synchronized int countWaiting() {
+		return waiting.size();
+	}
+
+	public synchronized int countRunning() {
+		return running.size();
+	}
+
+	public synchronized int countFinished() {
+		return finished;
+	}
+
+	/**
+	** Returns the number of queries finished per second, between when the
+	** first query started and when the last one finished (or now, if some are
+	** still running).
+	*/
+	public synchronized double getQueriesPerSecond() {
+		if (finished == 0) { return 0; }
+		long end = running.isEmpty() && waiting.isEmpty()? last_finish: System.currentTimeMillis();
+		return finished * 1000.0 / Math.max(1, end - first_start);
+	}
+
+	public synchronized String getStats() {
+		return "running: " + running.size() + ", waiting: " + waiting.size() +
+		  ", finished: " + finished + String.format(" (%.2f/s)", getQueriesPerSecond()) +
+		  ", lookups: " + env.countLookups();
+	}
+
+	/**
+	** Start waiting jobs, if there is room for them.
+	*/
+	protected synchronized void admit() {
+		long now = System.currentTimeMillis();
+		while (running.size() < max_running && !waiting.isEmpty()) {
+			Job job = waiting.remove();
+			if (first_start < 0) { first_start = now; }
+			job.deadline = job.timeout > 0? now + job.timeout: Long.MAX_VALUE;
+			running.add(job);
+		}
+	}
+
+	/**
+	** Give each running query another step, unless its previous step is still
+	** running, and retire any that have finished.
+	*/
+	protected void runRound() {
+		List<Job> steps = new ArrayList<Job>();
+		List<Job> expired = new ArrayList<Job>();
+		synchronized (this) {
+			long now = System.currentTimeMillis();
+			int n = running.size();
+			for (int i=0; i<n; ++i) {
+				Job job = running.get((rotate + i) % n);
+				if (now >= job.deadline && !job.timed_out) {
+					job.timed_out = true;
+					if (job.stepping) { expired.add(job); }
+				}
+				if (job.stepping) { continue; }
+				if (!job.isDone() && !job.started) {
+					U2Map<A, A, W> res = job.proc.getResults();
+					job.started = res != null && !res.isEmpty();
+				}
+				if (job.isDone() || job.started && job.left == 0) {
+					continue;
+				}
+				if (job.started) { --job.left; }
+				job.stepping = true;
+				steps.add(job);
+			}
+			rotate = n == 0? 0: (rotate + 1) % n;
+			retire();
+		}
+
+		if (!expired.isEmpty()) {
+			// close outside of the lock, as the step may hold the process's locks
+			for (Job job: expired) { job.proc.close(); }
+			synchronized (this) {
+				for (Job job: expired) { job.closed = true; }
+				retire();
+			}
+		}
+
+		for (final Job job: steps) {
+			env.exec.execute(new Runnable() {
+				@Override public void run() {
+					job.step();
+				}
+			});
+		}
+	}
+
+	/**
+	** Remove finished jobs from {@link #running}, {@linkplain
+	** QueryProcess#close() close} their processes, and admit waiting jobs.
+	** Jobs whose deadline passed mid-step are only removed once {@link
+	** #runRound()} has closed them.
+	*/
+	protected synchronized void retire() {
+		boolean any = false;
+		for (int i=running.size()-1; i>=0; --i) {
+			Job job = running.get(i);
+			if (job.stepping && !job.closed || !(job.isDone() || job.started && job.left == 0)) { continue; }
+			running.remove(i);
+			if (i < rotate) { --rotate; }
+			++finished;
+			last_finish = System.currentTimeMillis();
+			if (!job.closed) { job.proc.close(); }
+			job.finish();
+			any = true;
+		}
+		if (rotate >= running.size()) { rotate = 0; }
+		if (any) {
+			admit();
+			notifyAll();
+		}
+	}
+
+	/**
+	** A query submitted to the scheduler.
+	*/
+	public class Job {
+
+		final public QueryProcess<I, T, A, U, W, S, Z> proc;
+		final public int steps;
+		final public long timeout;
+
+		protected long deadline = Long.MAX_VALUE;
+		/** Whether the first results have been obtained. */
+		protected boolean started;
+		/** Number of steps left to run after the first results. */
+		protected int left;
+		protected boolean stepping;
+		protected boolean timed_out;
+		protected boolean cancelled;
+		/** Whether the process was closed by {@link #runRound()}. */
+		protected boolean closed;
+		protected boolean done;
+		protected ExecutionException error;
+
+		protected Job(QueryProcess<I, T, A, U, W, S, Z> proc, int steps, long timeout) {
+			if (proc == null) { throw new NullPointerException(); }
+			if (proc.env != env) { throw new IllegalArgumentException("process is not in this scheduler's environment"); }
+			this.proc = proc;
+			this.steps = steps;
+			this.left = steps;
+			this.timeout = timeout;
+		}
+
+		/**
+		** Run one step; see {@link QueryAgent#nextStep(QueryProcess)}.
+		*/
+		protected void step() {
+			ExecutionException err = null;
+			try {
+				proc.getMoreData();
+			} catch (MessageRejectedException e) {
+				String msg = e.getMessage();
+				if (!msg.equals("bad timing") && !msg.startsWith("invalid message")) {
+					err = new ExecutionException("non-trivial message rejection", e);
+				}
+			} catch (RuntimeException e) {
+				err = new ExecutionException(e);
+			}
+			synchronized (QueryScheduler.this) {
+				// a step that fails because the process was closed under it is
+				// not an error
+				if (err != null && !timed_out && !cancelled) { error = err; }
+				stepping = false;
+				retire();
+			}
+		}
+
+		protected void finish() {
+			synchronized (this) {
+				done = true;
+				notifyAll();
+			}
+		}
+
+		/**
+		** Whether the query has stopped running, either normally, or because
+		** its deadline passed or a step failed.
+		*/
+		public boolean isDone() {
+			synchronized (QueryScheduler.this) {
+				return done || timed_out || cancelled || error != null;
+			}
+		}
+
+		/**
+		** Whether the query was stopped because the scheduler was {@linkplain
+		** QueryScheduler#shutdown() shut down} before it finished.
+		*/
+		public boolean isCancelled() {
+			synchronized (QueryScheduler.this) {
+				return cancelled;
+			}
+		}
+
+		/**
+		** Whether the query was stopped because its deadline passed.
+		*/
+		public boolean isTimedOut() {
+			synchronized (QueryScheduler.this) {
+				return timed_out;
+			}
+		}
+
+		/**
+		** Wait until the query has been retired by the scheduler, or cancelled
+		** by it being shut down.
+		**
+		** @throws ExecutionException if a step of the query failed
+		** @throws CancellationException if the query was cancelled
+		*/
+		public void await() throws InterruptedException, ExecutionException {
+			synchronized (this) {
+				while (!done) { wait(); }
+			}
+			synchronized (QueryScheduler.this) {
+				if (cancelled) { throw new CancellationException("scheduler shut down"); }
+				if (error != null) { throw error; }
+			}
+		}
+
+		@Override public String toString() {
+			return proc.toString();
+		}
+
+	}
+
+}
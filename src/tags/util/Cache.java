@@ -0,0 +1,112 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.util;
+
+import java.io.IOException;
+
+/**
+** A cache of values with an explicit capacity. Each entry has a weight (eg.
+** an estimate of its size in bytes) and the cache evicts entries so that the
+** total weight of its unpinned entries stays within its capacity.
+**
+** Keys may be pinned, whether or not they are present. A pinned entry is never
+** evicted, and a value put under a pinned key is always kept; such entries
+** still count towards the total weight.
+**
+** Implementations must be thread-safe.
+**
+** @param <K> Type of key
+** @param <V> Type of value
+*/
+public interface Cache<K, V> {
+
+	/**
+	** Returns the value for the given key, or {@code null} if it is not
+	** cached. This counts as a hit or a miss respectively.
+	*/
+	public V get(K key);
+
+	/**
+	** Returns the value for the given key, loading and caching it if it is
+	** not cached. Loads are single-flight: if another thread is already
+	** loading the key, this waits for that load to finish and returns its
+	** result, rather than loading the key again.
+	**
+	** A call that finds a cached value, or that waits on another thread's
+	** load, counts as a hit; a call that loads counts as a miss.
+	**
+	** @return the value, or {@code null} if the loader returned {@code null},
+	**         in which case nothing is cached
+	** @throws IOException if the loader threw it, whether in this thread or
+	**         in the thread that this waited for; in this case nothing is
+	**         cached, and the next call will try to load the key again
+	** @throws java.io.InterruptedIOException if this thread was interrupted
+	**         while waiting for another thread's load
+	*/
+	public V get(K key, Loader<? super K, ? extends V> loader) throws IOException;
+
+	/**
+	** Caches the given value, replacing any previous value for the key, then
+	** evicts entries as necessary.
+	*/
+	public void put(K key, V val);
+
+	/**
+	** Removes the value for the given key. This is not counted as an eviction.
+	**
+	** @return the removed value, or {@code null} if none was cached
+	*/
+	public V remove(K key);
+
+	/**
+	** Pins the given key, so that its value (current or future) is never
+	** evicted.
+	*/
+	public void pin(K key);
+
+	/**
+	** Unpins the given key, then evicts entries as necessary.
+	*/
+	public void unpin(K key);
+
+	/**
+	** Removes all values. Pins are kept.
+	*/
+	public void clear();
+
+	/** Number of entries in the cache. */
+	public int size();
+
+	/** Total weight of the entries in the cache. */
+	public long getWeight();
+
+	/** Maximum total weight of the unpinned entries in the cache. */
+	public long getCapacity();
+
+	/** Number of hits, as defined by the {@code get} methods. */
+	public long getHits();
+
+	/** Number of misses, as defined by the {@code get} methods. */
+	public long getMisses();
+
+	/** Number of values dropped to stay within the capacity. */
+	public long getEvictions();
+
+	/**
+	** Loads a value for a cache.
+	*/
+	public interface Loader<K, V> {
+
+		public V load(K key) throws IOException;
+
+	}
+
+	/**
+	** Estimates the weight of a cache entry.
+	*/
+	public interface Weigher<K, V> {
+
+		public long weigh(K key, V val);
+
+	}
+
+}
@@ -0,0 +1,20 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.util;
+
+/**
+** A class for viewing the values of items in objects as primitive {@code
+** double}s. This is like a {@link MapViewer} followed by a lookup, but lets
+** callers read values without creating any wrapper objects.
+**
+** @param <T> Type of object to view
+** @param <K> Type of item
+*/
+public interface DoubleViewer<T, K> {
+
+	/**
+	** Returns the value of the given item in the given object, or {@link
+	** Double#NaN} if the object has no value for it.
+	*/
+	public double valueFor(T obj, K item);
+
+}
@@ -0,0 +1,66 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.util;
+
+import java.util.Set;
+import java.util.Map;
+import java.util.Collection;
+
+/**
+** A {@link ScoreInferer} that can maintain the scores of a growing network,
+** instead of inferring each score from scratch.
+**
+** @param <S> Type of score (weight of endorsement)
+*/
+public interface DynamicScoreInferer<S> extends ScoreInferer<S> {
+
+	/**
+	** Returns a new {@link Network} that maintains scores for the given link
+	** structure. The maps are not copied; the caller must notify the network
+	** whenever it adds an arc or a seed to them.
+	**
+	** @param outgoing Map of nodes to their outgoing neighbours
+	** @param seeds Map of seed nodes to their scores
+	*/
+	public <A> Network<A, S> newNetwork(Map<A, Set<A>> outgoing, Map<A, S> seeds);
+
+	/**
+	** Maintains inferred scores for a network of nodes that only grows.
+	**
+	** @param <A> Type of node
+	** @param <S> Type of score
+	*/
+	public interface Network<A, S> {
+
+		/**
+		** Notifies the network that the given seed has been added.
+		*/
+		public void putSeed(A seed);
+
+		/**
+		** Notifies the network that the given seeds have been added. This gives
+		** the same results as calling {@link #putSeed(Object)} for each one,
+		** but implementations should be faster than that.
+		*/
+		public void putSeeds(Collection<A> seeds);
+
+		/**
+		** Notifies the network that the given arc has been added. Both of its
+		** endpoints must already be present in the {@code outgoing} map.
+		*/
+		public void putArc(A src, A dst);
+
+		/**
+		** Returns the current score of the given node. This is the same as what
+		** {@link ScoreInferer#inferScore(Map, Map, Object)} would return.
+		*/
+		public S getScore(A node);
+
+		/**
+		** Returns the nodes whose scores might have changed since the last call
+		** to this method, and clears that set.
+		*/
+		public Set<A> pollChanged();
+
+	}
+
+}
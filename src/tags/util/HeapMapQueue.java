@@ -0,0 +1,338 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.util;
+
+import java.util.Iterator;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Set;
+import java.util.List;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.NoSuchElementException;
+import java.util.ConcurrentModificationException;
+
+/**
+** An implementation of {@link MapQueue} backed by an indexed d-ary heap. Each
+** key remembers its position in the heap, so re-ordering an existing key (eg.
+** the "decrease-key" operation of Dijkstra's algorithm) takes {@code O(log
+** n)} time, as does removing an arbitrary key. This is in contrast to {@link
+** BaseMapQueue}, which must search its backing {@link java.util.PriorityQueue}
+** linearly for the key.
+**
+** This implementation is not thread-safe.
+**
+** @param <K> Type of key, and element of queue
+** @param <V> Type of value
+*/
+public class HeapMapQueue<K, V>
+extends AbstractQueue<K>
+implements MapQueue<K, V> {
+
+	/** Default arity of the heap. */
+	final public static int DEFAULT_ARITY = 4;
+
+	/** Arity of the heap. */
+	final protected int d;
+	/** Value comparator for the queue; {@code null} for natural ordering. */
+	final protected Comparator<? super V> cmp;
+
+	/** Heap nodes in heap order. */
+	final protected List<Node<K, V>> heap = new ArrayList<Node<K, V>>();
+	/** Maps keys to their heap nodes. */
+	final protected Map<K, Node<K, V>> index = new HashMap<K, Node<K, V>>();
+
+	final protected boolean useDefault;
+	final protected V dval;
+
+	protected int modCount;
+
+	/**
+	** Creates a new queue from the given parameters.
+	**
+	** @param cmp Comparator for ordering the values, or {@code null} to use
+	**        their natural ordering
+	** @param d Arity of the heap
+	** @param useDefault Whether to use a default value for {@link #add(Object)}
+	** @param dval The default value; only considered if {@code useDefault} is
+	**        {@code true}.
+	** @throws IllegalArgumentException if {@code d} is less than 2
+	*/
+	public HeapMapQueue(Comparator<? super V> cmp, int d, boolean useDefault, V dval) {
+		if (d < 2) { throw new IllegalArgumentException("arity must be at least 2: " + d); }
+		this.cmp = cmp;
+		this.d = d;
+		this.useDefault = useDefault;
+		this.dval = dval;
+	}
+
+	/**
+	** Creates a new queue with the {@linkplain #DEFAULT_ARITY default arity}
+	** and no default values (so that {@link #add(Object)} always throws an
+	** exception).
+	*/
+	public HeapMapQueue(Comparator<? super V> cmp) {
+		this(cmp, DEFAULT_ARITY, false, null);
+	}
+
+	public HeapMapQueue() {
+		this(null);
+	}
+
+	protected static class Node<K, V> implements Map.Entry<K, V> {
+
+		final public K key;
+		protected V val;
+		protected int pos;
+
+		public Node(K key, V val, int pos) {
+			this.key = key;
+			this.val = val;
+			this.pos = pos;
+		}
+
+		@Override public K getKey() { return key; }
+		@Override public V getValue() { return val; }
+		@Override public V setValue(V val) { throw new UnsupportedOperationException(); }
+
+		@Override public boolean equals(Object o) {
+			if (!(o instanceof Map.Entry)) { return false; }
+			Map.Entry<?, ?> en = (Map.Entry<?, ?>)o;
+			return (key == null? en.getKey() == null: key.equals(en.getKey()))
+			    && (val == null? en.getValue() == null: val.equals(en.getValue()));
+		}
+
+		@Override public int hashCode() {
+			return (key == null? 0: key.hashCode()) ^ (val == null? 0: val.hashCode());
+		}
+
+		@Override public String toString() {
+			return key + "=" + val;
+		}
+
+	}
+
+	@SuppressWarnings("unchecked")
+	protected int compare(V v0, V v1) {
+		if (cmp != null) { return cmp.compare(v0, v1); }
+		if (v0 == null || v1 == null) { throw new IllegalArgumentException("non-comparable value"); }
+		return ((Comparable<V>)v0).compareTo(v1);
+	}
+
+	protected void place(Node<K, V> en, int i) {
+		heap.set(i, en);
+		en.pos = i;
+	}
+
+	/**
+	** Move the given entry towards the root, until its parent is not greater.
+	*/
+	protected void siftUp(Node<K, V> en) {
+		int i = en.pos;
+		while (i > 0) {
+			int p = (i-1) / d;
+			Node<K, V> parent = heap.get(p);
+			if (compare(en.val, parent.val) >= 0) { break; }
+			place(parent, i);
+			i = p;
+		}
+		place(en, i);
+	}
+
+	/**
+	** Move the given entry away from the root, until none of its children are
+	** smaller.
+	*/
+	protected void siftDown(Node<K, V> en) {
+		int i = en.pos, n = heap.size();
+		while (true) {
+			int c = i*d + 1;
+			if (c >= n) { break; }
+			int end = Math.min(c + d, n);
+			int min = c;
+			for (int j=c+1; j<end; ++j) {
+				if (compare(heap.get(j).val, heap.get(min).val) < 0) { min = j; }
+			}
+			Node<K, V> child = heap.get(min);
+			if (compare(child.val, en.val) >= 0) { break; }
+			place(child, i);
+			i = min;
+		}
+		place(en, i);
+	}
+
+	/**
+	** Remove the entry at the given position, and restore the heap property.
+	*/
+	protected Node<K, V> removeAt(int i) {
+		++modCount;
+		Node<K, V> en = heap.get(i);
+		index.remove(en.key);
+		Node<K, V> last = heap.remove(heap.size()-1);
+		if (last != en) {
+			last.pos = i;
+			heap.set(i, last);
+			siftDown(last);
+			if (last.pos == i) { siftUp(last); }
+		}
+		return en;
+	}
+
+	// MapQueue
+
+	/**
+	** {@inheritDoc}
+	**
+	** This implementation returns an immutable map view.
+	*/
+	@Override public Map<K, V> map() {
+		return new AbstractMap<K, V>() {
+			@Override public int size() {
+				return index.size();
+			}
+			@Override public boolean containsKey(Object o) {
+				return index.containsKey(o);
+			}
+			@Override public V get(Object o) {
+				Node<K, V> en = index.get(o);
+				return (en == null)? null: en.val;
+			}
+			@Override public Set<Map.Entry<K, V>> entrySet() {
+				return new AbstractSet<Map.Entry<K, V>>() {
+					@Override public int size() {
+						return index.size();
+					}
+					@Override public Iterator<Map.Entry<K, V>> iterator() {
+						final Iterator<Node<K, V>> it = index.values().iterator();
+						return new Iterator<Map.Entry<K, V>>() {
+							@Override public boolean hasNext() { return it.hasNext(); }
+							@Override public Map.Entry<K, V> next() { return it.next(); }
+							@Override public void remove() { throw new UnsupportedOperationException(); }
+						};
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	** {@inheritDoc}
+	**
+	** This implementation re-orders existing keys by the new value.
+	*/
+	@Override public boolean add(K key, V val) {
+		return offer(key, val);
+	}
+
+	/**
+	** {@inheritDoc}
+	**
+	** This implementation re-orders existing keys by the new value, in {@code
+	** O(log n)} time.
+	*/
+	@Override public boolean offer(K key, V val) {
+		if (key == null) { throw new NullPointerException(); }
+		Node<K, V> en = index.get(key);
+		if (en == null) {
+			++modCount;
+			en = new Node<K, V>(key, val, heap.size());
+			heap.add(en);
+			index.put(key, en);
+			siftUp(en);
+		} else {
+			++modCount;
+			int c = compare(val, en.val);
+			en.val = val;
+			if (c < 0) {
+				siftUp(en);
+			} else if (c > 0) {
+				siftDown(en);
+			}
+		}
+		return true;
+	}
+
+	@Override public boolean addAll(Map<? extends K, ? extends V> map) {
+		if (map.isEmpty()) { return false; }
+		for (Map.Entry<? extends K, ? extends V> en: map.entrySet()) {
+			add(en.getKey(), en.getValue());
+		}
+		return true;
+	}
+
+	@Override public V peekValue() {
+		return heap.isEmpty()? null: heap.get(0).val;
+	}
+
+	// Queue
+
+	@Override public boolean offer(K key) {
+		if (useDefault) {
+			return offer(key, dval);
+		} else {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	@Override public K peek() {
+		return heap.isEmpty()? null: heap.get(0).key;
+	}
+
+	@Override public K poll() {
+		return heap.isEmpty()? null: removeAt(0).key;
+	}
+
+	// Collection
+
+	@Override public int size() {
+		return heap.size();
+	}
+
+	@Override public boolean isEmpty() {
+		return heap.isEmpty();
+	}
+
+	@Override public void clear() {
+		++modCount;
+		heap.clear();
+		index.clear();
+	}
+
+	@Override public boolean contains(Object o) {
+		return index.containsKey(o);
+	}
+
+	@Override public boolean remove(Object o) {
+		Node<K, V> en = index.get(o);
+		if (en == null) { return false; }
+		removeAt(en.pos);
+		return true;
+	}
+
+	/**
+	** {@inheritDoc}
+	**
+	** This implementation iterates through the keys in heap order, which is
+	** not sorted order. The iterator does not support {@link Iterator#remove()}.
+	*/
+	@Override public Iterator<K> iterator() {
+		return new Iterator<K>() {
+			int i = 0;
+			final int expected = modCount;
+			@Override public boolean hasNext() {
+				return i < heap.size();
+			}
+			@Override public K next() {
+				if (expected != modCount) { throw new ConcurrentModificationException(); }
+				if (i >= heap.size()) { throw new NoSuchElementException(); }
+				return heap.get(i++).key;
+			}
+			@Override public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+}
@@ -0,0 +1,119 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.util;
+
+import java.util.Arrays;
+
+/**
+** A table that gives each key a dense {@code int} id, assigned in the order
+** that keys are first added, so that per-key state can be held in arrays
+** indexed by id rather than in maps keyed by the objects themselves.
+**
+** Keys are held in an open-addressing hash table, so looking up or adding a
+** key takes one hash and no allocation (other than to grow the table). Keys
+** are never removed.
+**
+** This implementation is not thread-safe.
+**
+** @param <K> Type of key
+*/
+public class IdTable<K> {
+
+	/** Keys, by slot; {@code null} for an empty slot. */
+	protected Object[] slots;
+	/** Ids of the keys in {@link #slots}. */
+	protected int[] slot_ids;
+	/** Keys, by id. */
+	protected Object[] keys;
+	protected int size;
+
+	/**
+	** @param capacity Expected number of keys
+	*/
+	public IdTable(int capacity) {
+		int n = 16;
+		while (n < capacity<<1) { n <<= 1; }
+		this.slots = new Object[n];
+		this.slot_ids = new int[n];
+		this.keys = new Object[n>>1];
+	}
+
+	public IdTable() {
+		this(8);
+	}
+
+	/**
+	** Returns the id of the given key, adding it to the table if it is not
+	** already there.
+	*/
+	public int idOf(K key) {
+		if (key == null) { throw new NullPointerException(); }
+		int mask = slots.length-1;
+		for (int i=spread(key.hashCode()) & mask;; i = (i+1) & mask) {
+			Object k = slots[i];
+			if (k == null) {
+				int id = size++;
+				slots[i] = key;
+				slot_ids[i] = id;
+				if (id == keys.length) { keys = Arrays.copyOf(keys, id<<1); }
+				keys[id] = key;
+				if (size<<1 > slots.length) { rehash(); }
+				return id;
+			}
+			if (k == key || k.equals(key)) { return slot_ids[i]; }
+		}
+	}
+
+	/**
+	** Returns the id of the given key, or {@code -1} if it is not in the
+	** table.
+	*/
+	public int find(Object key) {
+		if (key == null) { return -1; }
+		int mask = slots.length-1;
+		for (int i=spread(key.hashCode()) & mask;; i = (i+1) & mask) {
+			Object k = slots[i];
+			if (k == null) { return -1; }
+			if (k == key || k.equals(key)) { return slot_ids[i]; }
+		}
+	}
+
+	/**
+	** Returns the key with the given id.
+	**
+	** @throws IndexOutOfBoundsException if no key has the given id
+	*/
+	@SuppressWarnings("unchecked")
+	public K get(int id) {
+		if (id < 0 || id >= size) { throw new IndexOutOfBoundsException("no such id: " + id); }
+		return (K)keys[id];
+	}
+
+	/**
+	** Returns the number of keys in the table; ids are all less than this.
+	*/
+	public int size() {
+		return size;
+	}
+
+	protected void rehash() {
+		Object[] old = slots;
+		int[] old_ids = slot_ids;
+		slots = new Object[old.length<<1];
+		slot_ids = new int[old.length<<1];
+		int mask = slots.length-1;
+		for (int j=0; j<old.length; ++j) {
+			Object k = old[j];
+			if (k == null) { continue; }
+			int i = spread(k.hashCode()) & mask;
+			while (slots[i] != null) { i = (i+1) & mask; }
+			slots[i] = k;
+			slot_ids[i] = old_ids[j];
+		}
+	}
+
+	protected static int spread(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h>>>16);
+	}
+
+}
@@ -0,0 +1,185 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.util;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.NoSuchElementException;
+
+/**
+** Like {@link HeapMapQueue}, but for keys that are small non-negative {@code
+** int}s, such as the ids given out by an {@link IdTable}. The position of
+** each key in the heap, and its value, are held in arrays indexed by the key,
+** so no operation hashes, boxes or allocates (other than to grow the arrays).
+**
+** Keys with equal values are ordered exactly as {@link HeapMapQueue} orders
+** them, given the same sequence of operations.
+**
+** This implementation is not thread-safe.
+**
+** @param <V> Type of value
+*/
+public class IntHeapMapQueue<V> {
+
+	/** Arity of the heap. */
+	final protected int d;
+	/** Value comparator for the queue; {@code null} for natural ordering. */
+	final protected Comparator<? super V> cmp;
+
+	/** Keys in heap order. */
+	protected int[] heap = new int[16];
+	protected int size;
+	/** Position of each key in the heap, plus one; {@code 0} if absent. */
+	protected int[] pos = new int[16];
+	/** Value of each key in the heap. */
+	protected Object[] vals = new Object[16];
+
+	/**
+	** @param cmp Comparator for ordering the values, or {@code null} to use
+	**        their natural ordering
+	** @param d Arity of the heap
+	** @throws IllegalArgumentException if {@code d} is less than 2
+	*/
+	public IntHeapMapQueue(Comparator<? super V> cmp, int d) {
+		if (d < 2) { throw new IllegalArgumentException("arity must be at least 2: " + d); }
+		this.cmp = cmp;
+		this.d = d;
+	}
+
+	public IntHeapMapQueue(Comparator<? super V> cmp) {
+		this(cmp, HeapMapQueue.DEFAULT_ARITY);
+	}
+
+	@SuppressWarnings("unchecked")
+	protected int compare(V v0, V v1) {
+		if (cmp != null) { return cmp.compare(v0, v1); }
+		if (v0 == null || v1 == null) { throw new IllegalArgumentException("non-comparable value"); }
+		return ((Comparable<V>)v0).compareTo(v1);
+	}
+
+	@SuppressWarnings("unchecked")
+	protected V val(int key) {
+		return (V)vals[key];
+	}
+
+	protected void place(int key, int i) {
+		heap[i] = key;
+		pos[key] = i+1;
+	}
+
+	protected void siftUp(int key) {
+		int i = pos[key]-1;
+		V val = val(key);
+		while (i > 0) {
+			int p = (i-1) / d;
+			int parent = heap[p];
+			if (compare(val, val(parent)) >= 0) { break; }
+			place(parent, i);
+			i = p;
+		}
+		place(key, i);
+	}
+
+	protected void siftDown(int key) {
+		int i = pos[key]-1;
+		V val = val(key);
+		while (true) {
+			int c = i*d + 1;
+			if (c >= size) { break; }
+			int end = Math.min(c + d, size);
+			int min = c;
+			for (int j=c+1; j<end; ++j) {
+				if (compare(val(heap[j]), val(heap[min])) < 0) { min = j; }
+			}
+			int child = heap[min];
+			if (compare(val(child), val) >= 0) { break; }
+			place(child, i);
+			i = min;
+		}
+		place(key, i);
+	}
+
+	/**
+	** Adds the given key with the given value, or re-orders it by the new
+	** value if it is already queued.
+	**
+	** @throws IllegalArgumentException if {@code key} is negative
+	*/
+	public void add(int key, V val) {
+		if (key < 0) { throw new IllegalArgumentException("negative key: " + key); }
+		if (key >= pos.length) {
+			int n = Math.max(pos.length<<1, key+1);
+			pos = Arrays.copyOf(pos, n);
+			vals = Arrays.copyOf(vals, n);
+		}
+		if (pos[key] == 0) {
+			if (size == heap.length) { heap = Arrays.copyOf(heap, size<<1); }
+			vals[key] = val;
+			pos[key] = ++size;
+			siftUp(key);
+		} else {
+			int c = compare(val, val(key));
+			vals[key] = val;
+			if (c < 0) {
+				siftUp(key);
+			} else if (c > 0) {
+				siftDown(key);
+			}
+		}
+	}
+
+	/**
+	** Returns the value of the given key, or {@code null} if it is not
+	** queued.
+	*/
+	public V get(int key) {
+		return key >= 0 && key < pos.length && pos[key] != 0? val(key): null;
+	}
+
+	public boolean contains(int key) {
+		return key >= 0 && key < pos.length && pos[key] != 0;
+	}
+
+	/**
+	** Returns the key with the smallest value.
+	**
+	** @throws NoSuchElementException if the queue is empty
+	*/
+	public int peek() {
+		if (size == 0) { throw new NoSuchElementException(); }
+		return heap[0];
+	}
+
+	/**
+	** Returns the smallest value, or {@code null} if the queue is empty.
+	*/
+	public V peekValue() {
+		return size == 0? null: val(heap[0]);
+	}
+
+	/**
+	** Removes and returns the key with the smallest value.
+	**
+	** @throws NoSuchElementException if the queue is empty
+	*/
+	public int poll() {
+		if (size == 0) { throw new NoSuchElementException(); }
+		int key = heap[0];
+		int last = heap[--size];
+		pos[key] = 0;
+		vals[key] = null;
+		if (last != key) {
+			place(last, 0);
+			siftDown(last);
+		}
+		return key;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+}
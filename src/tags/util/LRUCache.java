@@ -0,0 +1,241 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.util;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+
+import tags.util.exec.Monitor;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+** A {@link Cache} that evicts the least-recently-used unpinned entries first.
+** All operations take {@code O(1)} time, apart from evictions, which take time
+** proportional to the number of pinned entries that must be skipped.
+**
+** This implementation is synchronized. Loads done by {@link #get(Object,
+** Cache.Loader)} run outside of the lock, so loads of different keys may
+** proceed concurrently; threads that need a key being loaded by another
+** thread wait for it without holding any lock.
+**
+** @param <K> Type of key
+** @param <V> Type of value
+*/
+public class LRUCache<K, V> implements Cache<K, V> {
+
+	final protected long capacity;
+	final protected Weigher<? super K, ? super V> weigher;
+
+	/** Entries, in order of least-recent access. */
+	final protected LinkedHashMap<K, Entry<V>> map = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true);
+	final protected Set<K> pinned = new HashSet<K>();
+	/** Loads in progress. */
+	final protected Map<K, Flight<V>> flights = new HashMap<K, Flight<V>>();
+
+	protected long weight;
+	protected long hits;
+	protected long misses;
+	protected long evictions;
+
+	/**
+	** @param capacity Maximum total weight of unpinned entries
+	** @param weigher Weigher for entries
+	** @throws IllegalArgumentException if {@code capacity} is negative
+	*/
+	public LRUCache(long capacity, Weigher<? super K, ? super V> weigher) {
+		if (capacity < 0) { throw new IllegalArgumentException("negative capacity: " + capacity); }
+		if (weigher == null) { throw new NullPointerException(); }
+		this.capacity = capacity;
+		this.weigher = weigher;
+	}
+
+	@Override public synchronized V get(K key) {
+		Entry<V> en = map.get(key);
+		if (en == null) { ++misses; return null; }
+		++hits;
+		return en.val;
+	}
+
+	@Override public V get(K key, Loader<? super K, ? extends V> loader) throws IOException {
+		Flight<V> flight;
+		synchronized (this) {
+			Entry<V> en = map.get(key);
+			if (en != null) { ++hits; return en.val; }
+			flight = flights.get(key);
+			if (flight != null) {
+				++hits;
+			} else {
+				++misses;
+				flights.put(key, flight = new Flight<V>());
+				flight.leader = Thread.currentThread();
+			}
+		}
+		if (flight.leader != Thread.currentThread()) {
+			return flight.await();
+		}
+
+		V val = null;
+		IOException ex = null;
+		try {
+			val = loader.load(key);
+		} catch (IOException e) {
+			ex = e;
+		} catch (RuntimeException e) {
+			ex = new IOException("error loading " + key, e);
+			throw e;
+		} catch (Error e) {
+			ex = new IOException("error loading " + key, e);
+			throw e;
+		} finally {
+			synchronized (this) {
+				flights.remove(key);
+				if (val != null) { put(key, val); }
+			}
+			flight.complete(val, ex);
+		}
+		if (ex != null) { throw ex; }
+		return val;
+	}
+
+	@Override public synchronized void put(K key, V val) {
+		if (val == null) { throw new NullPointerException(); }
+		Entry<V> en = new Entry<V>(val, weigher.weigh(key, val));
+		Entry<V> old = map.put(key, en);
+		if (old != null) { weight -= old.weight; }
+		weight += en.weight;
+		evict();
+	}
+
+	@Override public synchronized V remove(K key) {
+		Entry<V> en = map.remove(key);
+		if (en == null) { return null; }
+		weight -= en.weight;
+		return en.val;
+	}
+
+	@Override public synchronized void pin(K key) {
+		pinned.add(key);
+	}
+
+	@Override public synchronized void unpin(K key) {
+		if (pinned.remove(key)) { evict(); }
+	}
+
+	@Override public synchronized void clear() {
+		map.clear();
+		weight = 0;
+	}
+
+	@Override public synchronized int size() {
+		return map.size();
+	}
+
+	@Override public synchronized long getWeight() {
+		return weight;
+	}
+
+	@Override public long getCapacity() {
+		return capacity;
+	}
+
+	@Override public synchronized long getHits() {
+		return hits;
+	}
+
+	@Override public synchronized long getMisses() {
+		return misses;
+	}
+
+	@Override public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	** Evicts least-recently-used unpinned entries until the total weight of
+	** the unpinned entries is within the capacity.
+	*/
+	protected void evict() {
+		long unpinned = weight;
+		if (!pinned.isEmpty()) {
+			for (K key: pinned) {
+				Entry<V> en = map.get(key);
+				if (en != null) { unpinned -= en.weight; }
+			}
+			// Map.get() on an access-ordered map counts as an access, but this
+			// doesn't matter since pinned entries are never evicted
+		}
+		for (Iterator<Map.Entry<K, Entry<V>>> it = map.entrySet().iterator(); unpinned > capacity && it.hasNext();) {
+			Map.Entry<K, Entry<V>> en = it.next();
+			if (pinned.contains(en.getKey())) { continue; }
+			it.remove();
+			weight -= en.getValue().weight;
+			unpinned -= en.getValue().weight;
+			++evictions;
+		}
+	}
+
+	@Override public synchronized String toString() {
+		return "[" + map.size() + " entries, " + weight + "/" + capacity + "; " +
+		  hits + " hits, " + misses + " misses, " + evictions + " evictions]";
+	}
+
+	/**
+	** A load in progress, which other threads may wait on.
+	*/
+	protected static class Flight<V> {
+
+		/** The thread doing the load. */
+		Thread leader;
+		volatile boolean done;
+		V val;
+		IOException ex;
+
+		final Monitor finished = new Monitor();
+
+		protected void complete(V val, IOException ex) {
+			this.val = val;
+			this.ex = ex;
+			this.done = true;
+			finished.signalAll();
+		}
+
+		/**
+		** Blocks until the load is complete. This does not hold any lock
+		** whilst waiting, so a virtual thread calling it does not pin its
+		** carrier thread.
+		*/
+		protected V await() throws IOException {
+			for (;;) {
+				long seen = finished.version();
+				if (done) { break; }
+				try {
+					finished.await(seen);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("interrupted while waiting for load");
+				}
+			}
+			if (ex != null) { throw new IOException("load failed in another thread", ex); }
+			return val;
+		}
+
+	}
+
+	protected static class Entry<V> {
+
+		final V val;
+		final long weight;
+
+		protected Entry(V val, long weight) {
+			this.val = val;
+			this.weight = weight;
+		}
+
+	}
+
+}
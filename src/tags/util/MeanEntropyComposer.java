@@ -12,34 +12,51 @@ import java.util.Map;
 */
 abstract public class MeanEntropyComposer<R, L, K> implements ValueComposer<R, L, Probability, K, Entropy> {
 
-	final protected MapViewer<? super L, ? extends Map<? extends K, ? extends Entropy>> viewer;
+	final protected DoubleViewer<? super L, ? super K> viewer;
 
-	public MeanEntropyComposer(MapViewer<? super L, ? extends Map<? extends K, ? extends Entropy>> viewer) {
+	public MeanEntropyComposer(DoubleViewer<? super L, ? super K> viewer) {
 		if (viewer == null) { throw new NullPointerException(); }
 		this.viewer = viewer;
 	}
 
+	public MeanEntropyComposer(final MapViewer<? super L, ? extends Map<? extends K, ? extends Entropy>> viewer) {
+		this(new DoubleViewer<L, K>() {
+			@Override public double valueFor(L obj, K item) {
+				Entropy v = viewer.mapFor(obj).get(item);
+				return v == null? Double.NaN: v.val;
+			}
+		});
+		if (viewer == null) { throw new NullPointerException(); }
+	}
+
 	/**
 	** {@inheritDoc}
 	**
-	** DOCUMENT the precise formula used here...
-	**
-	** @throws NullPointerException if any of the data sources map the item to
-	**         a {@code null} probability
+	** This just wraps the result of {@link #composeDouble(MapX2, Object)}.
 	*/
 	@Override public Entropy composeValue(MapX2<? extends R, ? extends L, ? extends Probability> source, K item) {
+		return new Entropy(composeDouble(source, item));
+	}
+
+	/**
+	** Returns the combined value of an item, as a primitive {@code double}.
+	** This does not create any intermediate objects.
+	**
+	** DOCUMENT the precise formula used here...
+	*/
+	public double composeDouble(MapX2<? extends R, ? extends L, ? extends Probability> source, K item) {
 		double top = 0, div = 0;
 		for (X2<? extends L, ? extends Probability> x: source.values()) {
-			Map<? extends K, ? extends Entropy> view = viewer.mapFor(x._0);
-			Probability score = x._1;
-			if (view.containsKey(item)) {
-				top += score.val * view.get(item).val;
-				div += score.val;
+			double score = x._1.val;
+			double val = viewer.valueFor(x._0, item);
+			if (Double.isNaN(val)) {
+				div += score * alpha(x._0, item);
 			} else {
-				div += score.val * alpha(x._0, item);
+				top += score * val;
+				div += score;
 			}
 		}
-		return new Entropy(top/div);
+		return top/div;
 	}
 
 	/**
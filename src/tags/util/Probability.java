@@ -24,13 +24,20 @@ implements Comparable<Probability>, Formattable {
 	final public double val;
 
 	public Probability(double v) {
-		if (!(0 <= v && v <= 1)) { // catch NaN
+		if (!isValid(v)) {
 			throw new IllegalArgumentException("Invalid probability: " + v);
 		}
 		// this turns -0.0 to +0.0, so that +0.0 is the unique "minimum element"
 		val = (v == 0)? +0.0: v;
 	}
 
+	/**
+	** Whether the given value is a valid probability, ie. in [0, 1].
+	*/
+	public static boolean isValid(double v) {
+		return 0 <= v && v <= 1; // false for NaN
+	}
+
 	public Probability complement() {
 		return new Probability(1 - val);
 	}
@@ -3,16 +3,23 @@ package tags.util;
 
 import java.util.Set;
 import java.util.Map;
+import java.util.List;
 import java.util.Queue;
+import java.util.BitSet;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedList;
 import java.util.PriorityQueue;
 import java.util.Comparator;
+import java.util.Collections;
 
 /**
 ** DOCUMENT. SPU = Shortest-Paths Union
 */
-public class SPUProbabilityInferer implements ScoreInferer<Probability> {
+public class SPUProbabilityInferer implements DynamicScoreInferer<Probability> {
 
 	final protected double REDUCE;
 
@@ -24,6 +31,19 @@ public class SPUProbabilityInferer implements ScoreInferer<Probability> {
 		this(0.0625);
 	}
 
+	/**
+	** Returns the union probability for the given steps from each seed.
+	*/
+	protected <A> Probability unionOf(Map<A, Probability> seeds, Map<A, Integer> steps) {
+		double union = 1;
+		for (Map.Entry<A, Probability> en: seeds.entrySet()) {
+			Integer s = steps.get(en.getKey());
+			if (s == null || s == Integer.MAX_VALUE) { continue; }
+			union *= (1 - en.getValue().val * Math.pow(REDUCE, s));
+		}
+		return new Probability(1 - union);
+	}
+
 	/**
 	** {@inheritDoc}
 	*/
@@ -69,17 +89,231 @@ public class SPUProbabilityInferer implements ScoreInferer<Probability> {
 			if (left.isEmpty()) { break; }
 		}
 
-		double union = 1;
-		for (Map.Entry<A, Probability> en: seeds.entrySet()) {
-			int s = step.get(en.getKey());
-			if (s == Integer.MAX_VALUE) { continue; }
-			//System.out.println(union + " " + en.getValue().val + " " + s);
-			union *= (1 - en.getValue().val * Math.pow(REDUCE, s));
+		return unionOf(seeds, step);
+	}
+
+	/**
+	** {@inheritDoc}
+	**
+	** This implementation does a single {@linkplain #searchFrom(Map, List)
+	** breadth-first search} outwards from all seeds at once, over the reverse
+	** of {@code incoming}, rather than a search inwards from each node.
+	*/
+	public <A> Map<A, Probability> inferScores(Map<A, Set<A>> incoming, Map<A, Probability> seeds) {
+		// 1. Reverse the network
+		Map<A, Set<A>> outgoing = new HashMap<A, Set<A>>(incoming.size()<<1);
+		for (A n: incoming.keySet()) { outgoing.put(n, new HashSet<A>()); }
+		for (Map.Entry<A, Set<A>> en: incoming.entrySet()) {
+			for (A in: en.getValue()) {
+				Set<A> out = outgoing.get(in);
+				if (out != null) { out.add(en.getKey()); }
+			}
+		}
+
+		// 2. Search from all seeds at once
+		List<A> seed_list = new ArrayList<A>(seeds.size());
+		for (A seed: seeds.keySet()) {
+			if (outgoing.containsKey(seed)) { seed_list.add(seed); }
+		}
+		Map<A, int[]> steps = searchFrom(outgoing, seed_list);
+
+		// 3. Collect scores, accumulating the union in the same order as unionOf()
+		double[] val = new double[seed_list.size()];
+		for (int i=0; i<val.length; ++i) { val[i] = seeds.get(seed_list.get(i)).val; }
+		Map<A, Probability> scores = new HashMap<A, Probability>(incoming.size()<<1);
+		for (A n: incoming.keySet()) {
+			if (seeds.containsKey(n)) {
+				scores.put(n, seeds.get(n));
+				continue;
+			}
+			double union = 1;
+			int[] s = steps.get(n);
+			if (s != null) {
+				for (int i=0; i<val.length; ++i) {
+					if (s[i] >= 0) { union *= (1 - val[i] * Math.pow(REDUCE, s[i])); }
+				}
+			}
+			scores.put(n, new Probability(1 - union));
+		}
+		return scores;
+	}
+
+	/**
+	** Does a breadth-first search outwards from all the given seeds at once.
+	** Each node in the frontier carries the set of seeds whose search reached
+	** it at the current step, so each arc is followed once per step for all of
+	** those seeds together, rather than once for each of them.
+	**
+	** @param outgoing Map of nodes to their outgoing neighbours
+	** @param seeds Seeds to search from; each must be a key of {@code outgoing}
+	** @return Map of the nodes reached to the number of steps to them from each
+	**         seed, indexed as in {@code seeds}, or -1 for seeds that do not
+	**         reach them
+	*/
+	protected static <A> Map<A, int[]> searchFrom(Map<A, Set<A>> outgoing, List<A> seeds) {
+		int n = seeds.size();
+		Map<A, int[]> steps = new HashMap<A, int[]>(outgoing.size()<<1);
+		Map<A, BitSet> seen = new HashMap<A, BitSet>(outgoing.size()<<1);
+		Map<A, BitSet> visit = new HashMap<A, BitSet>();
+		for (int i=0; i<n; ++i) {
+			A seed = seeds.get(i);
+			BitSet bits = visit.get(seed);
+			if (bits == null) {
+				visit.put(seed, bits = new BitSet(n));
+				seen.put(seed, new BitSet(n));
+			}
+			bits.set(i);
+			seen.get(seed).set(i);
+		}
+
+		for (int s=0; !visit.isEmpty(); ++s) {
+			Map<A, BitSet> next = new HashMap<A, BitSet>();
+			for (Map.Entry<A, BitSet> en: visit.entrySet()) {
+				A node = en.getKey();
+				BitSet bits = en.getValue();
+				int[] node_steps = steps.get(node);
+				if (node_steps == null) {
+					steps.put(node, node_steps = new int[n]);
+					Arrays.fill(node_steps, -1);
+				}
+				for (int i=bits.nextSetBit(0); i>=0; i=bits.nextSetBit(i+1)) { node_steps[i] = s; }
+
+				for (A out: outgoing.get(node)) {
+					BitSet out_seen = seen.get(out);
+					if (out_seen == null) { seen.put(out, out_seen = new BitSet(n)); }
+					BitSet reach = (BitSet)bits.clone();
+					reach.andNot(out_seen);
+					if (reach.isEmpty()) { continue; }
+					out_seen.or(reach);
+					BitSet out_next = next.get(out);
+					if (out_next == null) {
+						next.put(out, reach);
+					} else {
+						out_next.or(reach);
+					}
+				}
+			}
+			visit = next;
+		}
+		return steps;
+	}
+
+	/**
+	** {@inheritDoc}
+	*/
+	public <A> Network<A, Probability> newNetwork(Map<A, Set<A>> outgoing, Map<A, Probability> seeds) {
+		return new SPUNetwork<A>(outgoing, seeds);
+	}
+
+	/**
+	** Maintains, for every node, the number of steps from each seed that can
+	** reach it. Since the network only grows, these only ever decrease; adding
+	** an arc only needs a breadth-first search from its target, for each seed
+	** whose path through the arc is shorter than the one already known.
+	*/
+	public class SPUNetwork<A> implements Network<A, Probability> {
+
+		final protected Map<A, Set<A>> outgoing;
+		final protected Map<A, Probability> seeds;
+
+		/**
+		** Map of nodes to the number of steps to them from each seed.
+		*/
+		final protected Map<A, Map<A, Integer>> steps = new HashMap<A, Map<A, Integer>>();
+		protected Set<A> changed = new HashSet<A>();
+
+		public SPUNetwork(Map<A, Set<A>> outgoing, Map<A, Probability> seeds) {
+			this.outgoing = outgoing;
+			this.seeds = seeds;
+			putSeeds(seeds.keySet());
+		}
+
+		@Override public void putSeed(A seed) {
+			putSeeds(Collections.singleton(seed));
+		}
+
+		/**
+		** {@inheritDoc}
+		**
+		** This implementation finds the steps from all the new seeds in a single
+		** {@linkplain #searchFrom(Map, List) breadth-first search}.
+		*/
+		@Override public void putSeeds(Collection<A> add) {
+			List<A> fresh = new ArrayList<A>(add.size());
+			for (A seed: add) {
+				if (!outgoing.containsKey(seed)) { continue; }
+				changed.add(seed);
+				Map<A, Integer> seed_steps = steps.get(seed);
+				if (seed_steps == null || !seed_steps.containsKey(seed)) {
+					fresh.add(seed);
+					continue;
+				}
+				// seed already known; its score might have changed
+				for (Map.Entry<A, Map<A, Integer>> en: steps.entrySet()) {
+					if (en.getValue().containsKey(seed)) { changed.add(en.getKey()); }
+				}
+			}
+			if (fresh.isEmpty()) { return; }
+
+			for (Map.Entry<A, int[]> en: searchFrom(outgoing, fresh).entrySet()) {
+				int[] s = en.getValue();
+				for (int i=0; i<s.length; ++i) {
+					if (s[i] >= 0) { setSteps(fresh.get(i), en.getKey(), s[i]); }
+				}
+			}
+		}
+
+		@Override public void putArc(A src, A dst) {
+			Map<A, Integer> src_steps = steps.get(src);
+			if (src_steps == null) { return; }
+			for (Map.Entry<A, Integer> en: src_steps.entrySet()) {
+				relax(en.getKey(), dst, en.getValue()+1);
+			}
+		}
+
+		@Override public Probability getScore(A node) {
+			if (!outgoing.containsKey(node)) { return Probability.MIN_VALUE; }
+			if (seeds.containsKey(node)) { return seeds.get(node); }
+			Map<A, Integer> node_steps = steps.get(node);
+			return unionOf(seeds, node_steps == null? Collections.<A, Integer>emptyMap(): node_steps);
+		}
+
+		@Override public Set<A> pollChanged() {
+			Set<A> c = changed;
+			changed = new HashSet<A>();
+			return c;
+		}
+
+		/**
+		** Sets the steps from the given seed to the given node, if it is less
+		** than what is already known, and propagates this to its descendants.
+		**
+		** @return Whether the steps to the given node were changed
+		*/
+		protected boolean relax(A seed, A node, int s) {
+			if (!setSteps(seed, node, s)) { return false; }
+			Queue<A> queue = new LinkedList<A>();
+			queue.add(node);
+			while (!queue.isEmpty()) {
+				A cur = queue.remove();
+				int next = steps.get(cur).get(seed)+1;
+				for (A out: outgoing.get(cur)) {
+					if (setSteps(seed, out, next)) { queue.add(out); }
+				}
+			}
+			return true;
+		}
+
+		protected boolean setSteps(A seed, A node, int s) {
+			Map<A, Integer> node_steps = steps.get(node);
+			if (node_steps == null) { steps.put(node, node_steps = new HashMap<A, Integer>()); }
+			Integer old = node_steps.get(seed);
+			if (old != null && old <= s) { return false; }
+			node_steps.put(seed, s);
+			changed.add(node);
+			return true;
 		}
-		//System.out.println(union);
-		//System.out.println("----");
 
-		return new Probability(1 - union);
 	}
 
 }
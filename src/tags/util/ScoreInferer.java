@@ -25,4 +25,15 @@ public interface ScoreInferer<S> {
 	*/
 	public <A> S inferScore(Map<A, Set<A>> incoming, Map<A, S> seeds, A subj);
 
+	/**
+	** Returns inferred endorsements for every node in the network. This must
+	** give the same results as calling {@link #inferScore(Map, Map, Object)}
+	** for each node, but implementations should be faster than that.
+	**
+	** @param incoming Map of nodes to their incoming neighbours
+	** @param seeds Map of seed nodes to their scores
+	** @return Map of each node in {@code incoming} to its score
+	*/
+	public <A> Map<A, S> inferScores(Map<A, Set<A>> incoming, Map<A, S> seeds);
+
 }
@@ -0,0 +1,49 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.util;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.lang.ref.WeakReference;
+
+/**
+** A table of canonical instances of values.
+**
+** Interning values that are created independently (eg. decoded separately by
+** each store lookup) means that only one copy of each is kept in memory, and
+** that {@link Object#equals(Object)} on two equal values returns after the
+** identity check.
+**
+** The table only holds its values weakly, so a value is dropped once nothing
+** outside the table refers to it; its size is bounded by the number of
+** distinct values in use, rather than by the number ever interned.
+**
+** @param <K> Type of value
+*/
+public class SymbolTable<K> {
+
+	final protected Map<K, WeakReference<K>> map = new WeakHashMap<K, WeakReference<K>>();
+
+	/**
+	** Returns the canonical instance of the given value, adding it to the
+	** table if it is not already there.
+	*/
+	public synchronized K intern(K key) {
+		if (key == null) { throw new NullPointerException(); }
+		WeakReference<K> ref = map.get(key);
+		if (ref != null) {
+			K val = ref.get();
+			if (val != null) { return val; }
+		}
+		map.put(key, new WeakReference<K>(key));
+		return key;
+	}
+
+	/**
+	** Returns the number of values in the table. This may include values that
+	** are no longer in use, but have not yet been dropped.
+	*/
+	public synchronized int size() {
+		return map.size();
+	}
+
+}
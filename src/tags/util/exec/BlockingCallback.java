@@ -0,0 +1,64 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.util.exec;
+
+/**
+** A {@link Callback} that lets another thread wait for its result.
+**
+** @param <V> Type of result
+** @param <X> Type of exception(s) thrown
+*/
+public class BlockingCallback<V, X extends Exception> implements Callback<V, X> {
+
+	protected V val;
+	protected X err;
+	protected boolean done;
+
+	final protected Monitor finished = new Monitor();
+
+	@Override public void done(V val) {
+		synchronized (this) {
+			if (done) { throw new IllegalStateException("already done"); }
+			this.val = val;
+			done = true;
+		}
+		finished.signalAll();
+	}
+
+	@Override public void fail(X err) {
+		synchronized (this) {
+			if (done) { throw new IllegalStateException("already done"); }
+			this.err = err;
+			done = true;
+		}
+		finished.signalAll();
+	}
+
+	public synchronized boolean isDone() {
+		return done;
+	}
+
+	/**
+	** Blocks until the operation is complete, then returns its result or
+	** throws its error. If the thread is interrupted whilst waiting, this
+	** continues waiting, and the interrupt flag is set again on return.
+	**
+	** This does not hold any lock whilst waiting, so a virtual thread calling
+	** it does not pin its carrier thread.
+	*/
+	public V get() throws X {
+		for (;;) {
+			long seen = finished.version();
+			synchronized (this) {
+				if (done) {
+					if (err == null) {
+						return val;
+					} else {
+						throw err;
+					}
+				}
+			}
+			finished.awaitUninterruptibly(seen);
+		}
+	}
+
+}
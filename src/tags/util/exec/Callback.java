@@ -0,0 +1,26 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.util.exec;
+
+/**
+** Receives the result of an asynchronous operation. Exactly one of the
+** methods should be called, exactly once, when the operation completes.
+**
+** Implementations should return quickly, since they might be called from the
+** thread that completed the operation (or even the thread that started it).
+**
+** @param <V> Type of result
+** @param <X> Type of exception(s) thrown
+*/
+public interface Callback<V, X extends Exception> {
+
+	/**
+	** Called when the operation completed successfully.
+	*/
+	public void done(V val);
+
+	/**
+	** Called when the operation completed abruptly.
+	*/
+	public void fail(X err);
+
+}
@@ -0,0 +1,228 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.util.exec;
+
+import java.util.Queue;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+
+/**
+** Implementation of {@link TaskService} that starts tasks asynchronously and
+** is told of their completion through a {@link Callback}. At most {@link
+** #limit} tasks are in flight at any one time. Tasks submitted beyond this
+** limit are held in a backlog, and are dispatched as running tasks complete.
+** Completed tasks are held in a completion queue until they are reclaimed.
+**
+** Subclasses need only implement {@link #dispatch(Task)}.
+**
+** A {@link #monitor} object may be given, which is notified whenever a task
+** completes. This lets a single thread wait for results from several services
+** at once; see {@link Services#awaitComplete(Monitor, TaskService[])}. If it
+** is a {@link Monitor}, it is {@linkplain Monitor#signalAll() signalled}
+** rather than notified.
+**
+** Waiting for results never holds a lock on the service, so virtual threads
+** that do so do not pin their carrier threads.
+**
+** @param <K> Type of task parameter(s)
+** @param <V> Type of task result(s)
+** @param <X> Type of exception(s) thrown
+*/
+abstract public class CallbackTaskService<K, V, X extends Exception> implements TaskService<K, V, X> {
+
+	final public int limit;
+	final public Object monitor;
+
+	final protected Queue<Task<K>> backlog = new LinkedList<Task<K>>();
+	final protected Queue<TaskResult<K, V, X>> complete = new LinkedList<TaskResult<K, V, X>>();
+	/** Signalled whenever a task completes, to wake up {@link #reclaim()}. */
+	final protected Monitor completed = new Monitor();
+
+	protected int running;
+	protected int unreclaimed;
+	protected boolean closed;
+
+	/**
+	** @param limit Maximum number of tasks to run concurrently
+	** @param monitor Object to notify when a task completes; may be {@code
+	**        null}
+	** @throws IllegalArgumentException if {@code limit} is not positive
+	*/
+	public CallbackTaskService(int limit, Object monitor) {
+		if (limit <= 0) { throw new IllegalArgumentException("limit must be positive: " + limit); }
+		this.limit = limit;
+		this.monitor = monitor;
+	}
+
+	public CallbackTaskService(int limit) {
+		this(limit, null);
+	}
+
+	/**
+	** {@inheritDoc}
+	**
+	** This implementation also counts tasks that have completed but have not
+	** yet been reclaimed, so that a control loop of the form {@code do { while
+	** (hasComplete()) { reclaim(); } } while (hasPending());} never misses a
+	** result.
+	*/
+	@Override public synchronized boolean hasPending() {
+		return unreclaimed > 0;
+	}
+
+	@Override public synchronized boolean hasComplete() {
+		return !complete.isEmpty();
+	}
+
+	/**
+	** {@inheritDoc}
+	**
+	** This implementation never blocks; tasks over the limit are added to the
+	** backlog instead.
+	**
+	** @throws IllegalStateException if the service has been closed
+	*/
+	@Override public void submit(Task<K> task) {
+		synchronized (this) {
+			if (closed) { throw new IllegalStateException("service closed"); }
+			++unreclaimed;
+			if (running >= limit) {
+				backlog.add(task);
+				return;
+			}
+			++running;
+		}
+		boolean started = false;
+		try {
+			dispatch(task);
+			started = true;
+		} finally {
+			if (!started) {
+				// the task was not accepted; give up its place
+				synchronized (this) { --unreclaimed; }
+				startNext();
+			}
+		}
+	}
+
+	/**
+	** {@inheritDoc}
+	**
+	** @throws NoSuchElementException if there are no tasks pending
+	*/
+	@Override public TaskResult<K, V, X> reclaim() {
+		for (;;) {
+			long seen;
+			synchronized (this) {
+				if (unreclaimed == 0) { throw new NoSuchElementException("no tasks pending"); }
+				if (!complete.isEmpty()) {
+					--unreclaimed;
+					return complete.remove();
+				}
+				seen = completed.version();
+			}
+			// wait outside of our lock, so as not to pin a virtual thread
+			completed.awaitUninterruptibly(seen);
+		}
+	}
+
+	/**
+	** {@inheritDoc}
+	**
+	** Tasks in the backlog are cancelled; see {@link
+	** Services#newCancelledTaskResult(Task)}.
+	*/
+	@Override public void close() {
+		synchronized (this) {
+			if (closed) { return; }
+			closed = true;
+			if (backlog.isEmpty()) { return; }
+			for (Task<K> task: backlog) {
+				complete.add(Services.<K, V, X>newCancelledTaskResult(task));
+			}
+			backlog.clear();
+		}
+		signalComplete();
+	}
+
+	/**
+	** Start running the given task. This is called without the lock on this
+	** service held, but it should not block, since it may be called from the
+	** thread that completed the previous task.
+	**
+	** Implementations must arrange for {@link #complete(TaskResult)} to be
+	** called exactly once when the task is done; the easiest way to do this is
+	** to pass {@link #callbackFor(Task)} to an asynchronous operation.
+	*/
+	abstract protected void dispatch(Task<K> task);
+
+	/**
+	** Returns a {@link Callback} that completes the given task.
+	*/
+	protected Callback<V, X> callbackFor(final Task<K> task) {
+		return new Callback<V, X>() {
+			@Override public void done(V val) {
+				complete(Services.<K, V, X>newTaskResult(task, val, null));
+			}
+			@Override public void fail(X err) {
+				if (err == null) { throw new NullPointerException(); }
+				complete(Services.<K, V, X>newTaskResult(task, null, err));
+			}
+		};
+	}
+
+	/**
+	** Add a result to the completion queue, notify the {@link #monitor}, if
+	** any, and then dispatch the next task in the backlog, if any.
+	*/
+	protected void complete(TaskResult<K, V, X> res) {
+		synchronized (this) {
+			complete.add(res);
+		}
+		signalComplete();
+		startNext();
+	}
+
+	/**
+	** Hand the place of a task that has finished running to the next task in
+	** the backlog, if any, and dispatch it. The task is dispatched without
+	** holding our lock, so callbacks that run synchronously do not re-enter
+	** it. If dispatching a task throws, that task is completed with the
+	** error, and the next one is tried.
+	*/
+	protected void startNext() {
+		for (;;) {
+			Task<K> next;
+			synchronized (this) {
+				next = backlog.poll();
+				if (next == null) {
+					--running;
+					return;
+				}
+			}
+			try {
+				dispatch(next);
+				return;
+			} catch (RuntimeException e) {
+				synchronized (this) {
+					complete.add(Services.<K, V, X>newAbortedTaskResult(next, e));
+				}
+				signalComplete();
+			}
+		}
+	}
+
+	/**
+	** Wake up threads waiting for results, including any waiting on the
+	** {@link #monitor}. This must be called without holding our own lock,
+	** since waiters on the monitor will call hasComplete() whilst holding it.
+	*/
+	protected void signalComplete() {
+		completed.signalAll();
+		if (monitor instanceof Monitor) {
+			((Monitor)monitor).signalAll();
+		} else if (monitor != null) {
+			synchronized (monitor) { monitor.notifyAll(); }
+		}
+	}
+
+}
@@ -0,0 +1,74 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.util.exec;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+** An object that threads can wait on until it is signalled. Unlike waiting on
+** an ordinary object's monitor, neither waiting on this nor signalling it
+** requires holding a lock, and neither uses {@code synchronized}, so a virtual
+** thread that waits on it does not pin its carrier thread. Signalling never
+** blocks, so it is safe to do whilst holding other locks.
+**
+** To avoid missing a signal, a waiter should read the {@link #version()}
+** before checking whatever it is waiting for, then pass that to {@link
+** #await(long)}, which returns immediately if a signal was sent in between.
+*/
+public class Monitor {
+
+	final protected AtomicLong version = new AtomicLong();
+	final protected Queue<Thread> waiters = new ConcurrentLinkedQueue<Thread>();
+
+	/**
+	** Returns the number of times this has been signalled.
+	*/
+	public long version() {
+		return version.get();
+	}
+
+	/**
+	** Wakes up all threads waiting on this.
+	*/
+	public void signalAll() {
+		version.incrementAndGet();
+		for (Thread th: waiters) { LockSupport.unpark(th); }
+	}
+
+	/**
+	** Blocks until this has been signalled since it was at the given version.
+	*/
+	public void await(long seen) throws InterruptedException {
+		Thread th = Thread.currentThread();
+		waiters.add(th);
+		try {
+			while (version.get() == seen) {
+				if (Thread.interrupted()) { throw new InterruptedException(); }
+				LockSupport.park(this);
+			}
+		} finally {
+			waiters.remove(th);
+		}
+	}
+
+	/**
+	** Like {@link #await(long)}, but if the thread is interrupted whilst
+	** waiting, this continues waiting, and the interrupt flag is set again on
+	** return.
+	*/
+	public void awaitUninterruptibly(long seen) {
+		boolean interrupted = false;
+		for (;;) {
+			try {
+				await(seen);
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) { Thread.currentThread().interrupt(); }
+	}
+
+}
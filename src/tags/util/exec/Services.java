@@ -1,6 +1,8 @@
 // Released under GPLv2 or later. See http://www.gnu.org/ for details.
 package tags.util.exec;
 
+import java.util.concurrent.CancellationException;
+
 /**
 ** Utilities for services, tasks, messages, etc.
 */
@@ -12,6 +14,30 @@ final public class Services {
 		return new DeferredMessage<M>(recv, msg);
 	}
 
+	/**
+	** Blocks until any of the given services {@linkplain TaskService#hasComplete()
+	** has a completed task}, or none of them {@linkplain TaskService#hasPending()
+	** has pending tasks}. The services must signal the given monitor whenever a
+	** task completes; see {@link CallbackTaskService#monitor}.
+	**
+	** This does not hold any lock whilst waiting, so a virtual thread calling
+	** it does not pin its carrier thread.
+	**
+	** @return Whether any service has pending tasks
+	*/
+	public static boolean awaitComplete(Monitor monitor, TaskService<?, ?, ?>... srvs) throws InterruptedException {
+		for (;;) {
+			long seen = monitor.version();
+			boolean pending = false;
+			for (TaskService<?, ?, ?> srv: srvs) {
+				if (srv.hasComplete()) { return true; }
+				pending |= srv.hasPending();
+			}
+			if (!pending) { return false; }
+			monitor.await(seen);
+		}
+	}
+
 	public static <K> Task<K> newTask(K key) {
 		return new BaseTaskResult<K, Object, Exception>(key);
 	}
@@ -20,6 +46,28 @@ final public class Services {
 		return new BaseTaskResult<K, V, X>(task.getKey(), val, err);
 	}
 
+	/**
+	** Returns a result for a task that was cancelled before it was started,
+	** whose {@link TaskResult#getValue()} throws {@link CancellationException}.
+	*/
+	public static <K, V, X extends Exception> TaskResult<K, V, X> newCancelledTaskResult(Task<K> task) {
+		return new BaseTaskResult<K, V, X>(task.getKey()) {
+			@Override public V getValue() { throw new CancellationException("service closed before task " + key + " was started"); }
+			@Override public boolean isDone() { return true; }
+		};
+	}
+
+	/**
+	** Returns a result for a task that completed abruptly with an unchecked
+	** exception, whose {@link TaskResult#getValue()} rethrows it.
+	*/
+	public static <K, V, X extends Exception> TaskResult<K, V, X> newAbortedTaskResult(Task<K> task, final RuntimeException e) {
+		return new BaseTaskResult<K, V, X>(task.getKey()) {
+			@Override public V getValue() { throw e; }
+			@Override public boolean isDone() { return true; }
+		};
+	}
+
 	public static class BaseTaskResult<K, V, X extends Exception> implements TaskResult<K, V, X> {
 
 		final public K key;
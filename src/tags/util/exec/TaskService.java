@@ -11,7 +11,8 @@ package tags.util.exec;
 public interface TaskService<K, V, X extends Exception> {
 
 	/**
-	** Whether there are submitted tasks still to be run.
+	** Whether there are submitted tasks still to be run, or whose results have
+	** not yet been reclaimed.
 	*/
 	public boolean hasPending();
 
@@ -31,8 +32,12 @@ public interface TaskService<K, V, X extends Exception> {
 	public TaskResult<K, V, X> reclaim();
 
 	/**
-	** Stop accepting submissions. Pending tasks are still run, and completed
-	** tags are still held until they have been reclaimed.
+	** Stop accepting submissions. Tasks that are already running still
+	** complete, and completed tasks are still held until they have been
+	** reclaimed. Tasks that have been submitted but not yet started are
+	** cancelled: they complete at once, and their results throw {@link
+	** java.util.concurrent.CancellationException} from {@link
+	** TaskResult#getValue()}.
 	*/
 	public void close();
 
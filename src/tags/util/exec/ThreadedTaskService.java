@@ -0,0 +1,66 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.util.exec;
+
+import java.util.concurrent.Executor;
+
+/**
+** Implementation of {@link TaskService} that runs blocking tasks on a backing
+** {@link Executor}, with at most {@link #limit} tasks running at any one time.
+**
+** The executor may be shared between many services; the limit applies only to
+** tasks submitted to this service.
+**
+** @param <K> Type of task parameter(s)
+** @param <V> Type of task result(s)
+** @param <X> Type of exception(s) thrown
+*/
+abstract public class ThreadedTaskService<K, V, X extends Exception> extends CallbackTaskService<K, V, X> {
+
+	final protected Executor exec;
+
+	/**
+	** @param exec Executor to run tasks on
+	** @param limit Maximum number of tasks to run concurrently
+	** @param monitor Object to notify when a task completes; may be {@code
+	**        null}
+	** @throws NullPointerException if {@code exec} is {@code null}
+	** @throws IllegalArgumentException if {@code limit} is not positive
+	*/
+	public ThreadedTaskService(Executor exec, int limit, Object monitor) {
+		super(limit, monitor);
+		if (exec == null) { throw new NullPointerException(); }
+		this.exec = exec;
+	}
+
+	public ThreadedTaskService(Executor exec, int limit) {
+		this(exec, limit, null);
+	}
+
+	/**
+	** {@inheritDoc}
+	**
+	** This implementation runs {@link #getResultFor(Object)} on the executor.
+	*/
+	@Override protected void dispatch(final Task<K> task) {
+		exec.execute(new Runnable() {
+			@Override public void run() {
+				complete(execute(task));
+			}
+		});
+	}
+
+	@SuppressWarnings("unchecked")
+	protected TaskResult<K, V, X> execute(Task<K> task) {
+		try {
+			return Services.newTaskResult(task, getResultFor(task.getKey()), null);
+		} catch (RuntimeException e) {
+			// don't lose the task, or the caller would wait forever for it
+			return Services.newAbortedTaskResult(task, e);
+		} catch (Exception e) {
+			return Services.newTaskResult(task, null, (X)e);
+		}
+	}
+
+	abstract protected V getResultFor(K key) throws X;
+
+}
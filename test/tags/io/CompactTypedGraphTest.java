@@ -0,0 +1,115 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.io;
+
+import junit.framework.TestCase;
+
+import tags.store.GraphMLStoreControl;
+import tags.store.GraphMLStoreControl.T_PTB;
+import tags.store.GraphMLStoreControl.T_TGR;
+import tags.store.ProtoCompactTypedGraph;
+import tags.store.ProtoTypedXMLGraph;
+import tags.store.SyntheticStoreGenerator;
+
+import java.util.*;
+import java.io.*;
+
+public class CompactTypedGraphTest extends TestCase {
+
+	public void testMatchesTypedXMLGraph() throws Exception {
+		SyntheticStoreGenerator gen = new SyntheticStoreGenerator(0);
+		gen.n_tag = 0x80;
+		gen.n_doc = 0x400;
+		gen.n_tgr = 0x08;
+		gen.n_idx = 0x40;
+		gen.n_id = 0x20;
+
+		File basedir = File.createTempFile("compact", ".d");
+		try {
+			assertTrue(basedir.delete());
+			gen.writeGraphMLStore(basedir);
+			File fn = new File(basedir, GraphMLStoreControl.FILE_PTB);
+
+			TypedXMLGraph<T_PTB, String, Object, Double> g0 = new ProtoTypedXMLGraph<T_PTB, String, Object, Double>(T_PTB.class);
+			g0.load(fn);
+			g0.setVertexPrimaryKey(GraphMLStoreControl.NODE_ID);
+			g0.setDefaultEdgeAttribute(GraphMLStoreControl.ARC_ATTR);
+			CompactTypedGraph<T_PTB, String, Object, Double> g1 = new ProtoCompactTypedGraph<T_PTB, String, Object, Double>(T_PTB.class);
+			g1.load(new FileInputStream(fn), GraphMLStoreControl.NODE_ID, null, GraphMLStoreControl.ARC_ATTR);
+
+			assertEquals(g0.getVertexCount(), g1.getVertexCount());
+			assertEquals(g0.getEdgeCount(), g1.getEdgeCount());
+			assertEquals(g0.keySet(), g1.keySet());
+			assertEquals(g0.keyTypedSet(), g1.keyTypedSet());
+			for (String key: g0.keySet()) {
+				assertEquals(g0.getSuccessorTypedMap(key), g1.getSuccessorTypedMap(key));
+			}
+			assertNull(g1.getSuccessorTypedMap("nonexistent"));
+		} finally {
+			delete(basedir);
+		}
+	}
+
+	public void testDetails() throws IOException {
+		StringBuilder xml = new StringBuilder();
+		xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		xml.append("<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\">\n");
+		xml.append("<key id=\"k0\" for=\"graph\" attr.name=\"base_t\" attr.type=\"int\"/>\n");
+		xml.append("<key id=\"k1\" for=\"graph\" attr.name=\"base_g\" attr.type=\"int\"/>\n");
+		xml.append("<key id=\"k2\" for=\"node\" attr.name=\"id\" attr.type=\"string\"/>\n");
+		xml.append("<key id=\"k3\" for=\"node\" attr.name=\"height\" attr.type=\"double\"><default>0.5</default></key>\n");
+		xml.append("<key id=\"k4\" for=\"edge\" attr.name=\"weight\" attr.type=\"float\"><default>1.0</default></key>\n");
+		xml.append("<key id=\"k5\" for=\"edge\" attr.name=\"label\" attr.type=\"string\"/>\n");
+		xml.append("<graph edgedefault=\"directed\">\n");
+		xml.append("<data key=\"k0\">0</data><data key=\"k1\">100</data>\n");
+		// arcs before nodes, in reverse order, with a parallel arc
+		for (int i=100; i>0; --i) {
+			xml.append("<edge source=\"n0\" target=\"n" + i + "\"><data key=\"k5\">x</data><data key=\"k4\">" + i + "</data></edge>\n");
+		}
+		xml.append("<edge source=\"n0\" target=\"n1\"><data key=\"k4\">-1</data></edge>\n");
+		xml.append("<edge source=\"n1\" target=\"n0\"/>\n");
+		for (int i=0; i<=100; ++i) {
+			xml.append("<node id=\"n" + i + "\"><data key=\"k2\">" + (i<100? "t": "g") + i + "</data>");
+			if (i == 1) { xml.append("<data key=\"k3\">0.25</data>"); }
+			xml.append("</node>\n");
+		}
+		xml.append("</graph>\n</graphml>\n");
+
+		CompactTypedGraph<T_TGR, String, Double, Float> g = new ProtoCompactTypedGraph<T_TGR, String, Double, Float>(T_TGR.class);
+		g.load(new ByteArrayInputStream(xml.toString().getBytes("UTF-8")), "id", "height", "weight");
+
+		assertEquals(101, g.getVertexCount());
+		assertEquals(101, g.getEdgeCount());
+		assertEquals(100, g.getGraphAttributes().get("base_g"));
+		assertEquals(0.25, g.getVertexAttribute("t1"));
+		assertEquals(0.5, g.getVertexAttribute("t2"));
+		assertNull(g.getVertexAttribute("nonexistent"));
+		assertEquals(Collections.singleton("g100"), g.keyTypedSet().get(T_TGR.g));
+
+		Map<T_TGR, Map<String, Float>> out = g.getSuccessorTypedMap("t0");
+		assertEquals(99, out.get(T_TGR.t).size());
+		assertEquals(1.0f, out.get(T_TGR.t).get("t1")); // first of the parallel arcs is kept
+		assertEquals(50.0f, out.get(T_TGR.t).get("t50"));
+		assertFalse(out.get(T_TGR.t).containsKey("t0"));
+		assertFalse(out.get(T_TGR.t).containsKey("g100"));
+		assertEquals(Collections.singletonMap("g100", 100.0f), out.get(T_TGR.g));
+		assertEquals(Collections.singletonMap("t0", 1.0f), g.getSuccessorTypedMap("t1").get(T_TGR.t));
+		assertTrue(g.getSuccessorTypedMap("t2").get(T_TGR.t).isEmpty());
+
+		try {
+			new ProtoCompactTypedGraph<T_TGR, String, Double, Float>(T_TGR.class).load(
+			  new ByteArrayInputStream("<graphml><graph>".getBytes("UTF-8")), "id", null, "weight");
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	protected static void delete(File f) {
+		File[] ff = f.listFiles();
+		if (ff != null) {
+			for (File c: ff) { delete(c); }
+		}
+		f.delete();
+	}
+
+}
@@ -0,0 +1,77 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.proto;
+
+import junit.framework.TestCase;
+
+import tags.QueryTypes.BasicEnvironment;
+import tags.store.ProbabilityProxyStoreControl;
+import tags.ui.QuerySchedulerTest;
+import tags.util.Probability;
+import tags.util.exec.Services;
+import tags.util.exec.TaskResult;
+import tags.util.exec.TaskService;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.IOException;
+
+public class QueryEnvironmentTest extends TestCase {
+
+	/**
+	** An executor that holds on to tasks until they are run by the test, and
+	** rejects them once it is shut down.
+	*/
+	public static class HoldingExecutor implements Executor {
+		final List<Runnable> held = new ArrayList<Runnable>();
+		boolean shutdown;
+
+		@Override public synchronized void execute(Runnable r) {
+			if (shutdown) { throw new RejectedExecutionException("shut down"); }
+			held.add(r);
+		}
+
+		public void runHeld() {
+			List<Runnable> tasks;
+			synchronized (this) {
+				tasks = new ArrayList<Runnable>(held);
+				held.clear();
+			}
+			for (Runnable r: tasks) { r.run(); }
+		}
+	}
+
+	public void testRejectedLookups() throws Exception {
+		HoldingExecutor exec_sctl = new HoldingExecutor();
+		ExecutorService exec = Executors.newCachedThreadPool();
+		BasicEnvironment<String> env = new BasicEnvironment<String>(exec, exec_sctl,
+		  new ProbabilityProxyStoreControl<String, String, String>(QuerySchedulerTest.makeStore()));
+		env.setLookupLimit(2);
+
+		TaskService<String, PTable<String, Probability>, IOException> srv = env.makePTableService();
+		for (int i=0; i<4; ++i) { srv.submit(Services.newTask("h" + i)); }
+		assertEquals(2, env.countLookups());
+
+		// the lookups in the backlog are rejected when they are started
+		exec_sctl.shutdown = true;
+		exec_sctl.runHeld();
+		int errors = 0;
+		while (srv.hasPending()) {
+			TaskResult<String, PTable<String, Probability>, IOException> res = srv.reclaim();
+			if (res.getError() != null) { ++errors; }
+		}
+		assertEquals(2, errors);
+		assertEquals(0, env.countLookups());
+
+		// a lookup that is rejected straight away gives up its place too
+		try {
+			srv.submit(Services.newTask("h0"));
+			fail();
+		} catch (RejectedExecutionException e) {
+			// expected
+		}
+		assertEquals(0, env.countLookups());
+		srv.close();
+		exec.shutdown();
+	}
+
+}
@@ -11,6 +11,7 @@ import tags.util.SPUProbabilityInferer;
 import tags.util.Probability;
 import tags.util.Arc;
 import static tags.util.Tuple.X2;
+import tags.util.Union.U2;
 import tags.util.Maps.U2Map;
 
 import java.util.*;
@@ -75,6 +76,26 @@ public class TGraphTest extends TestCase {
 		// TODO HIGH some more tests...
 	}
 
+	public void testCompositeTGraph() {
+		TGraph<String, Integer, Probability, Probability> G = randomTGraph(0x20, 0x08, 0x100, 0x20);
+		FullTGraph<String, Integer, Probability, Probability> F = new FullTGraph<String, Integer, Probability, Probability>(G.nodeMap(), G.arcMap());
+
+		// build the same graph incrementally
+		CompositeTGraph<String, Integer, Probability, Probability> C = new CompositeTGraph<String, Integer, Probability, Probability>();
+		for (Map.Entry<U2<String, Integer>, Probability> en: G.nodeMap().entrySet()) { C.setNodeAttr(en.getKey(), en.getValue()); }
+		for (Map.Entry<U2<Arc<String, String>, Arc<String, Integer>>, Probability> en: G.arcMap().entrySet()) { C.setArcAttr(en.getKey(), en.getValue()); }
+
+		assertEquals(F.nodeMap(), C.nodeMap());
+		assertEquals(new HashMap<Object, Probability>(F.arcMap()), new HashMap<Object, Probability>(C.arcMap()));
+		for (U2<String, Integer> node: G.nodeMap().keySet()) {
+			Set<U2<Arc<String, String>, Arc<String, Integer>>> inc = F.getIncidentArcs(node);
+			assertEquals(inc, C.getIncidentArcs(node));
+			for (U2<Arc<String, String>, Arc<String, Integer>> arc: inc) {
+				assertTrue(G.arcMap().containsKey(arc));
+			}
+		}
+	}
+
 	public void testAddrSchemeMostRelevant() {
 		AddressScheme<TTT, Long, Probability> scheme = new ProtoAddressScheme<TTT, Long, Probability>(TTT.yes, null);
 		Map<TTT, Probability> test = new EnumMap<TTT, Probability>(TTT.class);
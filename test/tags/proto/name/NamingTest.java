@@ -0,0 +1,144 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.proto.name;
+
+import junit.framework.TestCase;
+
+import tags.QueryTypes;
+import tags.QueryTypes.BasicEnvironment;
+import tags.QueryTypes.BasicProcess;
+import tags.proto.CompositeTGraph;
+import tags.store.ProbabilityProxyStoreControl;
+import tags.store.RAMStoreControl;
+import tags.store.SyntheticStoreGenerator;
+import tags.store.SyntheticStoreGeneratorTest;
+import tags.util.Arc;
+import tags.util.Probability;
+import tags.util.Maps.U2Map;
+import tags.util.exec.MessageRejectedException;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.io.IOException;
+
+public class NamingTest extends TestCase {
+
+	public static BasicEnvironment<String> makeEnvironment(long seed) {
+		return QueryTypes.makeProtoEnvironment(new ProbabilityProxyStoreControl<String, String, String>(
+		  SyntheticStoreGeneratorTest.makeRAM(SyntheticStoreGeneratorTest.makeSmallGenerator(seed))));
+	}
+
+	/**
+	** Checks that the incrementally-updated composite tgraph is the same as
+	** one composed from scratch from the current data sources.
+	**
+	** @return whether the naming layer was idle, ie. whether anything was
+	**         checked
+	*/
+	protected boolean checkComposite(Naming<String, String, Probability, Probability, Probability> naming) {
+		synchronized (naming) {
+			if (naming.isActive() || naming.graph == null) { return false; }
+			CompositeTGraph<String, String, Probability, Probability> full = naming.composeTGraphFull();
+			assertEquals(full.nodeMap().K0Map(), new HashMap<String, Probability>(naming.graph.nodeMap().K0Map()));
+			assertEquals(full.nodeMap().K1Map(), new HashMap<String, Probability>(naming.graph.nodeMap().K1Map()));
+			assertEquals(new HashMap<Arc<String, String>, Probability>(full.arcMap().K0Map()), new HashMap<Arc<String, String>, Probability>(naming.graph.arcMap().K0Map()));
+			assertEquals(new HashMap<Arc<String, String>, Probability>(full.arcMap().K1Map()), new HashMap<Arc<String, String>, Probability>(naming.graph.arcMap().K1Map()));
+			return true;
+		}
+	}
+
+	public void testIncrementalCompose() throws Exception {
+		Random rand = new Random(0);
+		for (int seed=0; seed<4; ++seed) {
+			BasicEnvironment<String> env = makeEnvironment(seed);
+			for (int q=0; q<4; ++q) {
+				BasicProcess<String> proc = QueryTypes.makeProtoProcess("h" + rand.nextInt(0x10), "t" + rand.nextInt(0x80), env);
+				int checked = 0;
+				for (int i=0; i<0x20; ++i) {
+					try {
+						proc.getMoreData();
+					} catch (MessageRejectedException e) {
+						// still busy with the last step
+					}
+					Thread.sleep(5);
+					if (checkComposite(proc.naming)) { ++checked; }
+				}
+				proc.close();
+				assertTrue(checked > 0);
+			}
+		}
+	}
+
+	/**
+	** A store whose tgraph arc lookups block until the gate is opened.
+	*/
+	public static class GatedStoreControl extends RAMStoreControl<String, String, String, Double, Double, Double, Double> {
+		final CountDownLatch gate = new CountDownLatch(1);
+		final AtomicInteger blocked = new AtomicInteger();
+
+		protected void pass() throws IOException {
+			blocked.incrementAndGet();
+			try {
+				gate.await();
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+		}
+
+		@Override public U2Map<String, String, Double> getTGraphOutgoing(String addr, String src) throws IOException {
+			pass();
+			return super.getTGraphOutgoing(addr, src);
+		}
+		@Override public Map<String, U2Map<String, String, Double>> getTGraphOutgoingMulti(String addr, Collection<String> srcs) throws IOException {
+			pass();
+			return super.getTGraphOutgoingMulti(addr, srcs);
+		}
+	}
+
+	public void testInterrupt() throws Exception {
+		GatedStoreControl store = new GatedStoreControl();
+		SyntheticStoreGeneratorTest.makeSmallGenerator(0).fill(store, SyntheticStoreGenerator.STRING_LABELS);
+		final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+		ExecutorService exec = Executors.newCachedThreadPool(new ThreadFactory() {
+			@Override public Thread newThread(Runnable r) {
+				Thread th = new Thread(r, "test-query");
+				th.setDaemon(true);
+				threads.add(th);
+				return th;
+			}
+		});
+		BasicEnvironment<String> env = new BasicEnvironment<String>(exec, new ProbabilityProxyStoreControl<String, String, String>(store));
+		BasicProcess<String> proc = QueryTypes.makeProtoProcess("h0", "t0", env);
+
+		// step until the naming layer waits for tgraph arcs
+		for (int i=0; store.blocked.get() == 0; ++i) {
+			assertTrue(i < 1000);
+			try {
+				proc.getMoreData();
+			} catch (MessageRejectedException e) {
+				// still busy with the last step
+			}
+			Thread.sleep(10);
+		}
+		assertTrue(proc.naming.isActive());
+
+		// interrupting the layer threads stops the process
+		synchronized (threads) {
+			for (Thread th: threads) { th.interrupt(); }
+		}
+		for (int i=0; proc.naming.isActive(); ++i) {
+			assertTrue(i < 500);
+			Thread.sleep(10);
+		}
+		assertTrue(proc.isClosed());
+		try {
+			proc.getMoreData();
+			fail();
+		} catch (MessageRejectedException e) {
+			// expected
+		}
+		store.gate.countDown();
+		exec.shutdown();
+	}
+
+}
@@ -0,0 +1,78 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.proto.route;
+
+import junit.framework.TestCase;
+
+import tags.QueryTypes;
+import tags.QueryTypes.BasicEnvironment;
+import tags.QueryTypes.BasicProcess;
+import tags.proto.AddressScheme;
+import tags.proto.CompositeIndex;
+import tags.proto.name.NamingTest;
+import tags.util.Arc;
+import tags.util.Probability;
+import tags.util.exec.MessageRejectedException;
+
+import java.util.*;
+
+public class RoutingTest extends TestCase {
+
+	/**
+	** Brings the routing layer's results up-to-date, then checks that the
+	** incrementally-updated composite index and results are the same as
+	** those made from scratch from the current data sources. The incremental
+	** ones are restored afterwards, so that later updates are still tested.
+	**
+	** @return whether the routing layer had any data sources, ie. whether anything was
+	**         checked
+	*/
+	protected boolean checkComposite(Routing<String, String, Probability, Probability> routing,
+	  AddressScheme<String, String, Probability> scheme) {
+		synchronized (routing) {
+			if (scheme == null || routing.source.localMap().isEmpty() || routing.isClosed()) { return false; }
+			routing.updateResults(scheme);
+
+			CompositeIndex<String, String, Probability> index = routing.index;
+			Map<String, Probability> results_d = routing.results_d;
+			Map<String, Probability> results_h = routing.results_h;
+			try {
+				routing.index = routing.composeIndex();
+				routing.makeResults(scheme);
+				assertEquals(new HashMap<Arc<String, String>, Probability>(routing.index.arcMap().K0Map()), new HashMap<Arc<String, String>, Probability>(index.arcMap().K0Map()));
+				assertEquals(new HashMap<Arc<String, String>, Probability>(routing.index.arcMap().K1Map()), new HashMap<Arc<String, String>, Probability>(index.arcMap().K1Map()));
+				assertEquals(routing.index.nodeSetD(), index.nodeSetD());
+				assertEquals(routing.index.nodeSetH(), index.nodeSetH());
+				assertEquals(routing.results_d, results_d);
+				assertEquals(routing.results_h, results_h);
+			} finally {
+				routing.index = index;
+				routing.results_d = results_d;
+				routing.results_h = results_h;
+			}
+			return true;
+		}
+	}
+
+	public void testIncrementalResults() throws Exception {
+		Random rand = new Random(0);
+		for (int seed=0; seed<4; ++seed) {
+			BasicEnvironment<String> env = NamingTest.makeEnvironment(seed);
+			for (int q=0; q<4; ++q) {
+				BasicProcess<String> proc = QueryTypes.makeProtoProcess("h" + rand.nextInt(0x10), "t" + rand.nextInt(0x80), env);
+				int checked = 0;
+				for (int i=0; i<0x20; ++i) {
+					try {
+						proc.getMoreData();
+					} catch (MessageRejectedException e) {
+						// still busy with the last step
+					}
+					Thread.sleep(5);
+					if (checkComposite(proc.routing, proc.naming.getAddressScheme())) { ++checked; }
+				}
+				proc.close();
+				assertTrue(checked > 0);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,268 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.store;
+
+import junit.framework.TestCase;
+
+import tags.proto.PTable;
+import tags.util.Union;
+import tags.util.Union.U2;
+import tags.util.Maps.U2Map;
+
+import java.util.*;
+import java.util.zip.GZIPOutputStream;
+import java.nio.ByteBuffer;
+import java.io.*;
+
+public class BinaryStoreControlTest extends TestCase {
+
+	public void testVarInt() throws IOException {
+		int[] vals = new int[]{0, 1, 0x7f, 0x80, 0x3fff, 0x4000, 0x12345678, Integer.MAX_VALUE, -1};
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		for (int v: vals) { BinaryContainer.writeVarInt(out, v); }
+		out.flush();
+		ByteBuffer in = ByteBuffer.wrap(bytes.toByteArray());
+		for (int v: vals) { assertEquals(v, BinaryContainer.readVarInt(in)); }
+		assertFalse(in.hasRemaining());
+	}
+
+	public void testContainer() throws IOException {
+		Map<String, Double> attrs = new HashMap<String, Double>();
+		attrs.put("b", 0.5);
+		attrs.put("c", null);
+		Map<String, List<Map<String, Double>>> adj = new HashMap<String, List<Map<String, Double>>>();
+		Map<String, Double> out_t = new HashMap<String, Double>();
+		out_t.put("c", 0.25);
+		out_t.put("été", 1.0);
+		adj.put("b", Arrays.asList(out_t, new HashMap<String, Double>()));
+		adj.put("a", Arrays.asList(new HashMap<String, Double>(), Collections.singletonMap("b", 0.75)));
+
+		File fn = File.createTempFile("container", BinaryContainer.EXT);
+		try {
+			BinaryContainer.write(fn, BinaryContainer.KIND_TGR, 2, false, attrs, adj);
+			BinaryContainer ctr = BinaryContainer.read(fn);
+			assertEquals(BinaryContainer.KIND_TGR, ctr.kind);
+			assertEquals(4, ctr.size);
+			assertEquals(adj.get("a"), ctr.getOutgoing("a"));
+			assertEquals(adj.get("b"), ctr.getOutgoing("b"));
+			assertNull(ctr.getOutgoing("c"));
+			assertNull(ctr.getOutgoing("zzz"));
+			assertEquals(0.5, ctr.getAttr(ctr.indexOf("b")));
+			assertTrue(Double.isNaN(ctr.getAttr(ctr.indexOf("c"))));
+			assertTrue(Double.isNaN(ctr.getAttr(ctr.indexOf("a"))));
+
+			try {
+				new BinaryContainer(ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}));
+				fail();
+			} catch (IOException e) {
+				// expected
+			}
+
+			// an arc count larger than the rest of the data
+			ByteBuffer buf = ByteBuffer.allocate((int)fn.length());
+			buf.put(BinaryContainer.read(fn).buf.duplicate()).flip();
+			int pos = ctr.getAdjacencyPosition(ctr.indexOf("a"));
+			for (byte b: new byte[]{(byte)0xff, (byte)0xff, (byte)0xff, (byte)0xff, 0x07}) { buf.put(pos++, b); }
+			BinaryContainer bad = new BinaryContainer(buf);
+			try {
+				bad.getOutgoing("a");
+				fail();
+			} catch (IOException e) {
+				// expected
+			}
+			try {
+				bad.getOutgoingView("a");
+				fail();
+			} catch (IOException e) {
+				// expected
+			}
+			assertEquals(adj.get("b"), bad.getOutgoing("b"));
+		} finally {
+			fn.delete();
+		}
+	}
+
+	public void testConvertSyntheticStore() throws IOException {
+		SyntheticStoreGenerator gen = SyntheticStoreGeneratorTest.makeSmallGenerator(0);
+		RAMStoreControl<String, String, String, Double, Double, Double, Double> ram = SyntheticStoreGeneratorTest.makeRAM(gen);
+
+		File basedir = File.createTempFile("binary", ".d");
+		File bindir = new File(basedir, "bin");
+		try {
+			assertTrue(basedir.delete());
+			gen.writeGraphMLStore(basedir);
+			new BinaryStoreConverter(basedir, bindir, false).convertAll();
+			new BinaryStoreConverter(basedir, basedir, true).convertAll();
+
+			GraphMLStoreControl<String, Double, Double, Double> sctl = new GraphMLStoreControl<String, Double, Double, Double>(basedir);
+			BinaryStoreControl bctl = new BinaryStoreControl(bindir);
+			BinaryStoreControl fctl = new BinaryStoreControl(basedir);
+
+			for (String id: ram.map_frn.keySet()) {
+				assertEquals(sctl.getFriends(id), bctl.getFriends(id));
+				PTable<String, Double> ptb0 = sctl.getPTable(id), ptb1 = bctl.getPTable(id);
+				assertEquals(ptb0.getTGraphs(), ptb1.getTGraphs());
+				assertEquals(ptb0.getIndexes(), ptb1.getIndexes());
+				assertApproxEquals(sctl.getFriends(id), fctl.getFriends(id));
+			}
+
+			for (Map.Entry<String, Map<String, U2Map<String, String, Double>>> en: ram.map_tgr.entrySet()) {
+				String addr = en.getKey();
+				for (String tag: en.getValue().keySet()) {
+					SyntheticStoreGeneratorTest.assertU2MapEquals(sctl.getTGraphOutgoing(addr, tag), bctl.getTGraphOutgoing(addr, tag));
+					U2Map<String, String, Double> out = fctl.getTGraphOutgoing(addr, tag);
+					assertApproxEquals(sctl.getTGraphOutgoing(addr, tag).K0Map(), out.K0Map());
+					assertApproxEquals(sctl.getTGraphOutgoing(addr, tag).K1Map(), out.K1Map());
+				}
+				assertNull(bctl.getTGraphOutgoing(addr, "nonexistent"));
+				U2Map<String, String, Double> node = ram.map_tgr_node.get(addr);
+				for (String t: node.K0Map().keySet()) {
+					assertEquals(sctl.getTGraphNodeAttr(addr, Union.<String, String>U2_0(t)), bctl.getTGraphNodeAttr(addr, Union.<String, String>U2_0(t)));
+				}
+				for (String g: node.K1Map().keySet()) {
+					assertEquals(sctl.getTGraphNodeAttr(addr, Union.<String, String>U2_1(g)), bctl.getTGraphNodeAttr(addr, Union.<String, String>U2_1(g)));
+				}
+				assertNull(bctl.getTGraphNodeAttr(addr, Union.<String, String>U2_0("nonexistent")));
+			}
+
+			for (Map.Entry<String, Map<String, U2Map<String, String, Double>>> en: ram.map_idx.entrySet()) {
+				String addr = en.getKey();
+				for (String tag: en.getValue().keySet()) {
+					SyntheticStoreGeneratorTest.assertU2MapEquals(sctl.getIndexOutgoing(addr, tag), bctl.getIndexOutgoing(addr, tag));
+				}
+			}
+
+			SyntheticStoreGeneratorTest.assertBatchEquals(ram, bctl);
+
+			try {
+				bctl.getTGraphOutgoing("nonexistent", "t0");
+				fail();
+			} catch (IOException e) {
+				// expected
+			}
+			try {
+				bctl.getFriends("nonexistent");
+				fail();
+			} catch (IOException e) {
+				// expected
+			}
+		} finally {
+			SyntheticStoreGeneratorTest.delete(basedir);
+		}
+	}
+
+	public void testMappedStoreControl() throws IOException {
+		SyntheticStoreGenerator gen = SyntheticStoreGeneratorTest.makeSmallGenerator(3);
+		RAMStoreControl<String, String, String, Double, Double, Double, Double> ram = SyntheticStoreGeneratorTest.makeRAM(gen);
+
+		File basedir = File.createTempFile("mapped", ".d");
+		try {
+			assertTrue(basedir.delete());
+			gen.writeGraphMLStore(basedir);
+			new BinaryStoreConverter(basedir, basedir, false).convertAll();
+			BinaryStoreControl bctl = new BinaryStoreControl(basedir);
+			MappedStoreControl mctl = new MappedStoreControl(basedir);
+
+			for (String id: ram.map_frn.keySet()) {
+				assertEquals(bctl.getFriends(id), mctl.getFriends(id));
+				assertEquals(bctl.getPTable(id).getIndexes(), mctl.getPTable(id).getIndexes());
+				assertEquals(bctl.getPTable(id).getTGraphs(), mctl.getPTable(id).getTGraphs());
+			}
+			for (Map.Entry<String, Map<String, U2Map<String, String, Double>>> en: ram.map_tgr.entrySet()) {
+				String addr = en.getKey();
+				for (String tag: en.getValue().keySet()) {
+					SyntheticStoreGeneratorTest.assertU2MapEquals(bctl.getTGraphOutgoing(addr, tag), mctl.getTGraphOutgoing(addr, tag));
+				}
+				for (U2<String, String> node: ram.map_tgr_node.get(addr).keySet()) {
+					assertEquals(bctl.getTGraphNodeAttr(addr, node), mctl.getTGraphNodeAttr(addr, node));
+				}
+				assertNull(mctl.getTGraphOutgoing(addr, "nonexistent"));
+			}
+			for (Map.Entry<String, Map<String, U2Map<String, String, Double>>> en: ram.map_idx.entrySet()) {
+				String addr = en.getKey();
+				for (String tag: en.getValue().keySet()) {
+					SyntheticStoreGeneratorTest.assertU2MapEquals(bctl.getIndexOutgoing(addr, tag), mctl.getIndexOutgoing(addr, tag));
+				}
+			}
+
+			// view semantics
+			String tag = ram.map_tgr.get("g0").keySet().iterator().next();
+			Map<String, Double> heap = bctl.getTGraphOutgoing("g0", tag).K0Map();
+			Map<String, Double> view = mctl.getTGraphOutgoing("g0", tag).K0Map();
+			assertEquals(heap.size(), view.size());
+			assertEquals(heap.hashCode(), view.hashCode());
+			for (Map.Entry<String, Double> en: heap.entrySet()) {
+				assertTrue(view.containsKey(en.getKey()));
+				assertEquals(en.getValue(), view.get(en.getKey()));
+			}
+			assertFalse(view.containsKey("nonexistent"));
+			assertNull(view.get("g0"));
+			assertNull(view.get(1));
+			try {
+				view.put("t0", 1.0);
+				fail();
+			} catch (UnsupportedOperationException e) {
+				// expected
+			}
+		} finally {
+			SyntheticStoreGeneratorTest.delete(basedir);
+		}
+	}
+
+	public void testConvertGraphMLContainers() throws IOException {
+		File basedir = File.createTempFile("binary", ".d");
+		try {
+			assertTrue(basedir.delete());
+			SyntheticStoreGenerator gen = SyntheticStoreGeneratorTest.makeSmallGenerator(0);
+			gen.n_tgr = 1;
+			gen.writeGraphMLStore(basedir);
+			writeGZIP(new File(basedir, "tgr/gx.graphmlz"),
+			  "<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\">\n"
+			+ "<key id=\"base_t\" for=\"graph\" attr.name=\"base_t\" attr.type=\"int\"/>\n"
+			+ "<key id=\"base_g\" for=\"graph\" attr.name=\"base_g\" attr.type=\"int\"/>\n"
+			+ "<key id=\"id\" for=\"node\" attr.name=\"id\" attr.type=\"string\"/>\n"
+			+ "<key id=\"height\" for=\"node\" attr.name=\"height\" attr.type=\"double\"/>\n"
+			+ "<key id=\"weight\" for=\"edge\" attr.name=\"weight\" attr.type=\"double\"/>\n"
+			+ "<graph edgedefault=\"directed\">\n"
+			+ "<data key=\"base_t\">0</data><data key=\"base_g\">2</data>\n"
+			+ "<node id=\"n0\"><data key=\"id\">ta</data><data key=\"height\">0.5</data></node>\n"
+			+ "<node id=\"n1\"><data key=\"id\">tb</data><data key=\"height\">0.25</data></node>\n"
+			+ "<node id=\"n2\"><data key=\"id\">g0</data><data key=\"height\">0.125</data></node>\n"
+			+ "<edge source=\"n0\" target=\"n1\"><data key=\"weight\">0.75</data></edge>\n"
+			+ "<edge source=\"n0\" target=\"n2\"><data key=\"weight\">0.5</data></edge>\n"
+			+ "<edge source=\"n1\" target=\"n0\"><data key=\"weight\">0.375</data></edge>\n"
+			+ "</graph>\n</graphml>\n");
+
+			new BinaryStoreConverter(basedir, basedir, false).convertAll();
+			GraphMLStoreControl<String, Double, Double, Double> sctl = new GraphMLStoreControl<String, Double, Double, Double>(basedir);
+			BinaryStoreControl bctl = new BinaryStoreControl(basedir);
+
+			for (String tag: Arrays.asList("ta", "tb")) {
+				SyntheticStoreGeneratorTest.assertU2MapEquals(sctl.getTGraphOutgoing("gx", tag), bctl.getTGraphOutgoing("gx", tag));
+				assertEquals(sctl.getTGraphNodeAttr("gx", Union.<String, String>U2_0(tag)), bctl.getTGraphNodeAttr("gx", Union.<String, String>U2_0(tag)));
+			}
+			assertEquals(0.5, bctl.getTGraphOutgoing("gx", "ta").K1Map().get("g0"));
+			assertEquals(0.125, bctl.getTGraphNodeAttr("gx", Union.<String, String>U2_1("g0")));
+			assertNull(bctl.getTGraphOutgoing("gx", "g0"));
+		} finally {
+			SyntheticStoreGeneratorTest.delete(basedir);
+		}
+	}
+
+	protected static void writeGZIP(File fn, String data) throws IOException {
+		Writer out = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(fn)), "UTF-8");
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+	}
+
+	protected static void assertApproxEquals(Map<String, Double> m0, Map<String, Double> m1) {
+		assertEquals(m0.keySet(), m1.keySet());
+		for (Map.Entry<String, Double> en: m0.entrySet()) {
+			assertEquals(en.getValue(), m1.get(en.getKey()), 1e-6);
+		}
+	}
+
+}
@@ -0,0 +1,94 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.store;
+
+import junit.framework.TestCase;
+
+import tags.util.Cache;
+
+import java.util.*;
+import java.io.*;
+
+public class GraphMLStoreControlTest extends TestCase {
+
+	protected SyntheticStoreGenerator gen;
+	protected RAMStoreControl<String, String, String, Double, Double, Double, Double> ram;
+	protected File basedir;
+
+	@Override protected void setUp() throws IOException {
+		gen = SyntheticStoreGeneratorTest.makeSmallGenerator(0);
+		ram = SyntheticStoreGeneratorTest.makeRAM(gen);
+		basedir = File.createTempFile("synthetic", ".d");
+		assertTrue(basedir.delete());
+		gen.writeGraphMLStore(basedir);
+	}
+
+	@Override protected void tearDown() {
+		SyntheticStoreGeneratorTest.delete(basedir);
+	}
+
+	public void testSmallCache() throws IOException {
+		GraphMLStoreControl<String, Double, Double, Double> sctl = new GraphMLStoreControl<String, Double, Double, Double>(basedir, 0x10000);
+		sctl.pinSeeds("h0");
+		SyntheticStoreGeneratorTest.assertStoreEquals(ram, sctl);
+		SyntheticStoreGeneratorTest.assertStoreEquals(ram, sctl);
+
+		Cache<?, ?> tgr = sctl.getCaches().get("tgr"), idx = sctl.getCaches().get("idx");
+		assertTrue(tgr.getHits() > 0);
+		assertTrue(idx.getEvictions() > 0);
+		assertTrue(idx.getWeight() <= idx.getCapacity());
+
+		// the seed tgraphs are fully cached, so querying them again is all hits
+		long misses = tgr.getMisses();
+		for (String addr: sctl.getPTable("h0").getTGraphs().keySet()) {
+			for (String tag: ram.map_tgr.get(addr).keySet()) {
+				sctl.getTGraphOutgoing(addr, tag);
+			}
+		}
+		assertEquals(misses, tgr.getMisses());
+	}
+
+	public void testConcurrent() throws Exception {
+		final GraphMLStoreControl<String, Double, Double, Double> sctl = new GraphMLStoreControl<String, Double, Double, Double>(basedir, 0x20000);
+		final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+
+		Thread[] threads = new Thread[8];
+		for (int i=0; i<threads.length; ++i) {
+			threads[i] = new Thread() {
+				@Override public void run() {
+					try {
+						SyntheticStoreGeneratorTest.assertStoreEquals(ram, sctl);
+					} catch (Throwable e) {
+						errors.add(e);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread t: threads) { t.join(); }
+		if (!errors.isEmpty()) {
+			throw new AssertionError(errors.get(0));
+		}
+	}
+
+
+	public void testIndexedSocialGraph() throws IOException {
+		GraphMLStoreControl<String, Double, Double, Double> sctl = new GraphMLStoreControl<String, Double, Double, Double>(basedir);
+		assertNull(sctl.socnet); // loaded lazily
+		assertEquals(ram.map_frn.keySet(), sctl.getIdentities());
+		assertNotNull(sctl.socnet);
+
+		assertEquals(gen.n_id, new SocialGraphIndexer(basedir).index());
+		assertTrue(new File(basedir, GraphMLStoreControl.FILE_PTB).delete());
+		sctl = new GraphMLStoreControl<String, Double, Double, Double>(basedir);
+		SyntheticStoreGeneratorTest.assertStoreEquals(ram, sctl);
+		assertNull(sctl.socnet);
+		assertEquals(ram.map_frn.keySet(), sctl.getIdentities());
+		try {
+			sctl.getFriends("nonexistent");
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+}
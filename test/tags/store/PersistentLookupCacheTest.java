@@ -0,0 +1,167 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.store;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+import java.io.*;
+
+public class PersistentLookupCacheTest extends TestCase {
+
+	public void testWarmRun() throws IOException {
+		SyntheticStoreGenerator gen = SyntheticStoreGeneratorTest.makeSmallGenerator(0);
+		RAMStoreControl<String, String, String, Double, Double, Double, Double> ram = SyntheticStoreGeneratorTest.makeRAM(gen);
+
+		File fn = File.createTempFile("lookups", ".cache");
+		try {
+			assertTrue(fn.delete());
+			PersistentLookupCache cache = new PersistentLookupCache(fn, "src");
+			assertEquals(0, cache.size());
+			SyntheticStoreGeneratorTest.assertStoreEquals(ram, new PersistentCacheStoreControl(ram, cache));
+			int size = cache.size();
+			assertTrue(size > 0);
+			cache.close();
+
+			// every lookup must be answered from the cache, since the backing
+			// store is empty and throws on every lookup
+			cache = new PersistentLookupCache(fn, "src");
+			assertEquals(size, cache.size());
+			PersistentCacheStoreControl warm = new PersistentCacheStoreControl(
+			  new RAMStoreControl<String, String, String, Double, Double, Double, Double>(), cache);
+			SyntheticStoreGeneratorTest.assertStoreEquals(ram, warm);
+			assertEquals(size, cache.size());
+			try {
+				warm.getFriends("nonexistent");
+				fail();
+			} catch (IOException e) {
+				// errors are not cached
+			}
+			assertEquals(size, cache.size());
+			cache.close();
+		} finally {
+			fn.delete();
+		}
+	}
+
+	public void testPartialRecord() throws IOException {
+		File fn = File.createTempFile("lookups", ".cache");
+		try {
+			PersistentLookupCache cache = new PersistentLookupCache(fn, "src");
+			cache.put("a", PersistentLookupCache.Value.attr(0.5));
+			cache.put("b", PersistentLookupCache.Value.ABSENT);
+			cache.put("c", PersistentLookupCache.Value.lists(Arrays.asList(Collections.singletonMap("x", 0.25))));
+			assertEquals(0.5, cache.get("a").attr);
+			assertTrue(cache.get("b").isAbsent());
+			assertEquals(0.25, cache.get("c").lists.get(0).get("x"));
+			assertNull(cache.get("d"));
+			cache.close();
+
+			// simulate a crash in the middle of writing a record
+			long len = fn.length();
+			FileOutputStream os = new FileOutputStream(fn, true);
+			os.write(new byte[]{1, 'd', 100, 2});
+			os.close();
+
+			cache = new PersistentLookupCache(fn, "src");
+			assertEquals(3, cache.size());
+			assertEquals(len, fn.length());
+			assertEquals(0.5, cache.get("a").attr);
+			cache.put("d", PersistentLookupCache.Value.attr(1.0));
+			// read back past the end of the old mapping, in the same session
+			assertEquals(1.0, cache.get("d").attr);
+			cache.close();
+
+			cache = new PersistentLookupCache(fn, "src");
+			assertEquals(4, cache.size());
+			assertEquals(0.25, cache.get("c").lists.get(0).get("x"));
+			assertEquals(1.0, cache.get("d").attr);
+
+			// a second instance can't get the lock, so is read-only
+			PersistentLookupCache other = new PersistentLookupCache(fn, "src");
+			assertTrue(cache.isWritable());
+			assertFalse(other.isWritable());
+			other.put("e", PersistentLookupCache.Value.attr(1.0));
+			assertNull(other.get("e"));
+			assertEquals(1.0, other.get("d").attr);
+			other.close();
+			cache.close();
+		} finally {
+			fn.delete();
+		}
+	}
+
+	public void testSourceMismatch() throws IOException {
+		File fn = File.createTempFile("lookups", ".cache");
+		try {
+			PersistentLookupCache cache = new PersistentLookupCache(fn, "src");
+			cache.put("a", PersistentLookupCache.Value.attr(0.5));
+
+			// another process has it open, so it can't be reset
+			try {
+				new PersistentLookupCache(fn, "other");
+				fail();
+			} catch (IOException e) {
+				// expected
+			}
+			cache.close();
+
+			// the records from the old source are discarded
+			cache = new PersistentLookupCache(fn, "other");
+			assertEquals(0, cache.size());
+			assertNull(cache.get("a"));
+			cache.put("b", PersistentLookupCache.Value.attr(0.25));
+			cache.close();
+
+			cache = new PersistentLookupCache(fn, "other");
+			assertEquals(1, cache.size());
+			assertEquals(0.25, cache.get("b").attr);
+			cache.close();
+		} finally {
+			fn.delete();
+		}
+	}
+
+	public void testCorruptRecord() throws IOException {
+		SyntheticStoreGenerator gen = SyntheticStoreGeneratorTest.makeSmallGenerator(0);
+		RAMStoreControl<String, String, String, Double, Double, Double, Double> ram = SyntheticStoreGeneratorTest.makeRAM(gen);
+		String id = ram.map_frn.keySet().iterator().next();
+
+		File fn = File.createTempFile("lookups", ".cache");
+		try {
+			PersistentLookupCache cache = new PersistentLookupCache(fn, "src");
+			new PersistentCacheStoreControl(ram, cache).getFriends(id);
+			cache.close();
+
+			// flip a bit in the last byte of the value, just before the checksum
+			RandomAccessFile raf = new RandomAccessFile(fn, "rw");
+			raf.seek(raf.length() - 5);
+			int b = raf.read();
+			raf.seek(raf.length() - 5);
+			raf.write(b ^ 1);
+			raf.close();
+
+			cache = new PersistentLookupCache(fn, "src");
+			assertEquals(1, cache.size());
+			try {
+				cache.get("z\0" + id);
+				fail();
+			} catch (IOException e) {
+				// expected
+			}
+			// the bad record is dropped, so the lookup goes to the backing store
+			assertEquals(0, cache.size());
+			PersistentCacheStoreControl sctl = new PersistentCacheStoreControl(ram, cache);
+			assertEquals(ram.getFriends(id), sctl.getFriends(id));
+			assertEquals(1, cache.size());
+			cache.close();
+
+			cache = new PersistentLookupCache(fn, "src");
+			assertEquals(ram.getFriends(id), new PersistentCacheStoreControl(
+			  new RAMStoreControl<String, String, String, Double, Double, Double, Double>(), cache).getFriends(id));
+			cache.close();
+		} finally {
+			fn.delete();
+		}
+	}
+
+}
@@ -3,7 +3,15 @@ package tags.store;
 
 import junit.framework.TestCase;
 
+import tags.util.Maps;
+import tags.util.Union;
+import tags.util.Probability;
+import tags.util.SymbolTable;
+import tags.util.Union.U2;
+import tags.util.Maps.U2Map;
+
 import java.util.*;
+import java.util.concurrent.*;
 import java.io.*;
 
 public class StoreControlTest extends TestCase {
@@ -12,4 +20,128 @@ public class StoreControlTest extends TestCase {
 		// pass
 	}
 
+	public void testProbabilityProxyBatch() throws IOException {
+		RAMStoreControl<String, String, String, Double, Double, Double, Double> ram =
+		  new RAMStoreControl<String, String, String, Double, Double, Double, Double>();
+		U2Map<String, String, Double> node = Maps.uniteDisjoint(new HashMap<String, Double>(), new HashMap<String, Double>());
+		node.K0Map().put("t0", 0.5);
+		ram.map_tgr_node.put("g0", node);
+
+		ProbabilityProxyStoreControl<String, String, String> sctl = new ProbabilityProxyStoreControl<String, String, String>(ram);
+		U2<String, String> t0 = Union.<String, String>U2_0("t0"), t1 = Union.<String, String>U2_0("t1");
+		Map<U2<String, String>, Probability> attrs = sctl.getTGraphNodeAttrs("g0", Arrays.asList(t0, t1));
+		assertEquals(0.5, attrs.get(t0).val);
+		assertNull(attrs.get(t1));
+	}
+
+	public void testProbabilityProxyView() throws IOException {
+		RAMStoreControl<String, String, String, Double, Double, Double, Double> ram =
+		  new RAMStoreControl<String, String, String, Double, Double, Double, Double>();
+		Map<String, Double> frn = new HashMap<String, Double>();
+		frn.put("h1", 0.5);
+		frn.put("h2", null);
+		ram.map_frn.put("h0", frn);
+
+		ProbabilityProxyStoreControl<String, String, String> sctl = new ProbabilityProxyStoreControl<String, String, String>(ram);
+		Map<String, Probability> view = sctl.getFriends("h0");
+		assertEquals(0.5, view.get("h1").val);
+		// converted once
+		assertSame(view.get("h1"), view.get("h1"));
+		for (Map.Entry<String, Probability> en: view.entrySet()) {
+			assertSame(view.get(en.getKey()), en.getValue());
+		}
+		assertNull(view.get("h2"));
+		assertTrue(view.containsKey("h2"));
+		assertNull(view.get("h3"));
+		// not a copy
+		frn.put("h3", 0.25);
+		assertEquals(0.25, view.get("h3").val);
+		assertEquals(3, view.size());
+		try {
+			view.put("h4", new Probability(0.5));
+			fail();
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
+
+	public void testInterning() throws Exception {
+		SyntheticStoreGenerator gen = SyntheticStoreGeneratorTest.makeSmallGenerator(0);
+		RAMStoreControl<String, String, String, Double, Double, Double, Double> ram = SyntheticStoreGeneratorTest.makeRAM(gen);
+		InterningStoreControl<String, String, String, Double, Double, Double, Double> sctl =
+		  new InterningStoreControl<String, String, String, Double, Double, Double, Double>(ram);
+		SyntheticStoreGeneratorTest.assertStoreEquals(ram, sctl);
+
+		// equal keys from separate lookups are the same object
+		Map<String, String> seen = new HashMap<String, String>();
+		int n = 0;
+		for (Map.Entry<String, Map<String, U2Map<String, String, Double>>> en: ram.map_tgr.entrySet()) {
+			for (U2Map<String, String, Double> out: sctl.getTGraphOutgoingMulti(en.getKey(), en.getValue().keySet()).values()) {
+				for (String t: out.K0Map().keySet()) {
+					String prev = seen.put(t, t);
+					if (prev != null) { assertSame(prev, t); ++n; }
+					assertSame(t, sctl.tags.intern(new String(t)));
+				}
+			}
+		}
+		assertTrue(n > 0);
+
+		assertTrue(sctl.tags.size() > 0);
+
+		// values no longer in use are dropped
+		SymbolTable<String> tab = new SymbolTable<String>();
+		for (int i=0; i<0x10000; ++i) {
+			assertEquals("v" + i, tab.intern("v" + i));
+		}
+		for (int i=0; i<0x10 && tab.size() == 0x10000; ++i) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		assertTrue(tab.size() < 0x10000);
+	}
+
+	public void testAsyncProxyRoundTrip() throws IOException {
+		RAMStoreControl<String, String, String, Double, Double, Double, Double> ram =
+		  new RAMStoreControl<String, String, String, Double, Double, Double, Double>();
+		Map<String, Double> frn = new HashMap<String, Double>();
+		frn.put("bob", 0.5);
+		ram.map_frn.put("alice", frn);
+
+		ExecutorService exec = Executors.newFixedThreadPool(2);
+		try {
+			StoreControl<String, String, String, Double, Double, Double, Double> sctl =
+			  new BlockingProxyStoreControl<String, String, String, Double, Double, Double, Double>(
+			    new AsyncProxyStoreControl<String, String, String, Double, Double, Double, Double>(exec, ram));
+
+			assertEquals(frn, sctl.getFriends("alice"));
+			try {
+				sctl.getFriends("eve");
+				fail();
+			} catch (IOException e) {
+				// expected
+			}
+			try {
+				sctl.getTGraphOutgoing("nonexistent", "tag");
+				fail();
+			} catch (IOException e) {
+				// expected
+			}
+
+			Map<String, U2Map<String, String, Double>> tgr = new HashMap<String, U2Map<String, String, Double>>();
+			tgr.put("t0", Maps.uniteDisjoint(Collections.singletonMap("t1", 0.25), new HashMap<String, Double>()));
+			ram.map_tgr.put("g0", tgr);
+			Map<String, U2Map<String, String, Double>> outs = sctl.getTGraphOutgoingMulti("g0", Arrays.asList("t0", "t2"));
+			assertEquals(Collections.singleton("t0"), outs.keySet());
+			assertEquals(0.25, outs.get("t0").K0Map().get("t1"));
+			try {
+				sctl.getIndexOutgoingMulti("nonexistent", Arrays.asList("t0"));
+				fail();
+			} catch (IOException e) {
+				// expected
+			}
+		} finally {
+			exec.shutdown();
+		}
+	}
+
 }
@@ -0,0 +1,159 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.store;
+
+import junit.framework.TestCase;
+
+import tags.proto.PTable;
+import tags.util.Union;
+import tags.util.Union.U2;
+import tags.util.Maps.U2Map;
+
+import java.util.*;
+import java.io.*;
+
+public class SyntheticStoreGeneratorTest extends TestCase {
+
+	public static SyntheticStoreGenerator makeSmallGenerator(long seed) {
+		SyntheticStoreGenerator gen = new SyntheticStoreGenerator(seed);
+		gen.n_tag = 0x80;
+		gen.n_doc = 0x400;
+		gen.n_tgr = 0x08;
+		gen.n_idx = 0x20;
+		gen.n_id = 0x10;
+		gen.max_tgr_size = 0x20;
+		gen.max_idx_size = 0x40;
+		return gen;
+	}
+
+	public static RAMStoreControl<String, String, String, Double, Double, Double, Double> makeRAM(SyntheticStoreGenerator gen) {
+		RAMStoreControl<String, String, String, Double, Double, Double, Double> ram =
+		  new RAMStoreControl<String, String, String, Double, Double, Double, Double>();
+		gen.fill(ram, SyntheticStoreGenerator.STRING_LABELS);
+		return ram;
+	}
+
+	public void testPowerLaw() {
+		Random rand = new Random(0);
+		int[] hist = new int[0x10];
+		for (int i=0; i<0x10000; ++i) {
+			int r = SyntheticStoreGenerator.powerLaw(rand, hist.length, 1.5);
+			assertTrue(0 <= r && r < hist.length);
+			++hist[r];
+		}
+		for (int i=1; i<hist.length; ++i) {
+			assertTrue(hist[i-1] > hist[i]);
+		}
+	}
+
+	public void testDeterministic() {
+		RAMStoreControl<String, String, String, Double, Double, Double, Double> ram0 = makeRAM(makeSmallGenerator(1));
+		RAMStoreControl<String, String, String, Double, Double, Double, Double> ram1 = makeRAM(makeSmallGenerator(1));
+		RAMStoreControl<String, String, String, Double, Double, Double, Double> ram2 = makeRAM(makeSmallGenerator(2));
+
+		assertEquals(ram0.map_doc, ram1.map_doc);
+		assertEquals(ram0.map_tag, ram1.map_tag);
+		assertEquals(ram0.map_frn, ram1.map_frn);
+		assertEquals(ram0.map_tgr, ram1.map_tgr);
+		assertEquals(ram0.map_tgr_node, ram1.map_tgr_node);
+		assertEquals(ram0.map_idx, ram1.map_idx);
+		assertFalse(ram0.map_doc.equals(ram2.map_doc));
+		assertFalse(ram0.map_idx.equals(ram2.map_idx));
+	}
+
+	public void testGraphMLStoreRoundTrip() throws IOException {
+		SyntheticStoreGenerator gen = makeSmallGenerator(0);
+		File basedir = File.createTempFile("synthetic", ".d");
+		try {
+			assertTrue(basedir.delete());
+			gen.writeGraphMLStore(basedir);
+			assertStoreEquals(makeRAM(gen), new GraphMLStoreControl<String, Double, Double, Double>(basedir));
+		} finally {
+			delete(basedir);
+		}
+	}
+
+	protected static void assertStoreEquals(
+	  RAMStoreControl<String, String, String, Double, Double, Double, Double> ram,
+	  StoreControl<String, String, String, Double, Double, Double, Double> sctl
+	) throws IOException {
+		for (String id: ram.map_frn.keySet()) {
+			assertEquals(ram.getFriends(id), sctl.getFriends(id));
+			PTable<String, Double> ptb0 = ram.getPTable(id), ptb1 = sctl.getPTable(id);
+			assertEquals(ptb0.getTGraphs(), ptb1.getTGraphs());
+			assertEquals(ptb0.getIndexes(), ptb1.getIndexes());
+		}
+
+		for (Map.Entry<String, Map<String, U2Map<String, String, Double>>> en: ram.map_tgr.entrySet()) {
+			String addr = en.getKey();
+			for (Map.Entry<String, U2Map<String, String, Double>> en2: en.getValue().entrySet()) {
+				assertU2MapEquals(en2.getValue(), sctl.getTGraphOutgoing(addr, en2.getKey()));
+			}
+			assertNull(sctl.getTGraphOutgoing(addr, "nonexistent"));
+			U2Map<String, String, Double> node = ram.map_tgr_node.get(addr);
+			for (String t: node.K0Map().keySet()) {
+				assertEquals(node.K0Map().get(t), sctl.getTGraphNodeAttr(addr, Union.<String, String>U2_0(t)));
+			}
+			for (String g: node.K1Map().keySet()) {
+				assertEquals(node.K1Map().get(g), sctl.getTGraphNodeAttr(addr, Union.<String, String>U2_1(g)));
+			}
+		}
+
+		for (Map.Entry<String, Map<String, U2Map<String, String, Double>>> en: ram.map_idx.entrySet()) {
+			String addr = en.getKey();
+			for (Map.Entry<String, U2Map<String, String, Double>> en2: en.getValue().entrySet()) {
+				assertU2MapEquals(en2.getValue(), sctl.getIndexOutgoing(addr, en2.getKey()));
+			}
+		}
+		assertBatchEquals(ram, sctl);
+	}
+
+	/**
+	** Checks that the batch lookups of the given store agree with the RAM
+	** store, including for keys that are absent.
+	*/
+	protected static void assertBatchEquals(
+	  RAMStoreControl<String, String, String, Double, Double, Double, Double> ram,
+	  StoreControl<String, String, String, Double, Double, Double, Double> sctl
+	) throws IOException {
+		for (Map.Entry<String, Map<String, U2Map<String, String, Double>>> en: ram.map_tgr.entrySet()) {
+			String addr = en.getKey();
+			List<String> tags = new ArrayList<String>(en.getValue().keySet());
+			tags.add("nonexistent");
+			Map<String, U2Map<String, String, Double>> outs = sctl.getTGraphOutgoingMulti(addr, tags);
+			assertEquals(en.getValue().keySet(), outs.keySet());
+			for (Map.Entry<String, U2Map<String, String, Double>> en2: en.getValue().entrySet()) {
+				assertU2MapEquals(en2.getValue(), outs.get(en2.getKey()));
+			}
+
+			List<U2<String, String>> nodes = new ArrayList<U2<String, String>>(ram.map_tgr_node.get(addr).keySet());
+			nodes.add(Union.<String, String>U2_0("nonexistent"));
+			assertEquals(ram.getTGraphNodeAttrs(addr, nodes), sctl.getTGraphNodeAttrs(addr, nodes));
+		}
+
+		for (Map.Entry<String, Map<String, U2Map<String, String, Double>>> en: ram.map_idx.entrySet()) {
+			String addr = en.getKey();
+			List<String> tags = new ArrayList<String>(en.getValue().keySet());
+			tags.add("nonexistent");
+			Map<String, U2Map<String, String, Double>> outs = sctl.getIndexOutgoingMulti(addr, tags);
+			assertEquals(en.getValue().keySet(), outs.keySet());
+			for (Map.Entry<String, U2Map<String, String, Double>> en2: en.getValue().entrySet()) {
+				assertU2MapEquals(en2.getValue(), outs.get(en2.getKey()));
+			}
+		}
+	}
+
+	protected static <K0, K1, V> void assertU2MapEquals(U2Map<K0, K1, V> m0, U2Map<K0, K1, V> m1) {
+		assertNotNull(m1);
+		assertEquals(m0.K0Map(), m1.K0Map());
+		assertEquals(m0.K1Map(), m1.K1Map());
+	}
+
+	protected static void delete(File f) {
+		File[] ff = f.listFiles();
+		if (ff != null) {
+			for (File c: ff) { delete(c); }
+		}
+		f.delete();
+	}
+
+}
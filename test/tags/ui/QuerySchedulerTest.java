@@ -0,0 +1,497 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.ui;
+
+import junit.framework.TestCase;
+
+import tags.QueryTypes;
+import tags.QueryTypes.BasicEnvironment;
+import tags.QueryTypes.BasicProcess;
+import tags.proto.PTable;
+import tags.proto.QueryEnvironment;
+import tags.proto.FragmentCache;
+import tags.proto.LocalTGraph;
+import tags.proto.LocalIndex;
+import tags.proto.cont.PTableCache;
+import tags.proto.cont.PTableComposer;
+import tags.proto.cont.ProtoPTableComposer;
+import tags.proto.name.ProbabilityDistanceMetric;
+import tags.proto.name.ProbabilityEntropyTGraphComposer;
+import tags.proto.name.ShortestPathAddressSchemeBuilder;
+import tags.proto.route.ProbabilityIndexComposer;
+import tags.proto.route.ProbabilityLookupScorer;
+import tags.store.RAMStoreControl;
+import tags.store.ProbabilityProxyStoreControl;
+import tags.store.SyntheticStoreGenerator;
+import tags.util.Probability;
+import tags.util.Cache;
+import tags.util.SPUProbabilityInferer;
+import tags.util.exec.MessageRejectedException;
+import tags.util.Union.U2;
+import tags.util.Maps.U2Map;
+import tags.util.Maps.MapX2;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.io.IOException;
+
+public class QuerySchedulerTest extends TestCase {
+
+	/**
+	** A store that records the maximum number of lookups run concurrently.
+	*/
+	public static class CountingStoreControl extends RAMStoreControl<String, String, String, Double, Double, Double, Double> {
+		final AtomicInteger current = new AtomicInteger();
+		final AtomicInteger max = new AtomicInteger();
+		final AtomicInteger ptb = new AtomicInteger();
+		final AtomicInteger lku = new AtomicInteger();
+
+		protected void enter() {
+			lku.incrementAndGet();
+			int cur = current.incrementAndGet();
+			for (int m; (m = max.get()) < cur && !max.compareAndSet(m, cur);) { }
+			try { Thread.sleep(1); } catch (InterruptedException e) { }
+		}
+
+		protected void exit() {
+			current.decrementAndGet();
+		}
+
+		@Override public PTable<String, Double> getPTable(String id) throws IOException {
+			ptb.incrementAndGet();
+			enter(); try { return super.getPTable(id); } finally { exit(); }
+		}
+		@Override public U2Map<String, String, Double> getTGraphOutgoing(String addr, String src) throws IOException {
+			enter(); try { return super.getTGraphOutgoing(addr, src); } finally { exit(); }
+		}
+		@Override public Double getTGraphNodeAttr(String addr, U2<String, String> node) throws IOException {
+			enter(); try { return super.getTGraphNodeAttr(addr, node); } finally { exit(); }
+		}
+		@Override public U2Map<String, String, Double> getIndexOutgoing(String addr, String src) throws IOException {
+			enter(); try { return super.getIndexOutgoing(addr, src); } finally { exit(); }
+		}
+		@Override public Map<String, U2Map<String, String, Double>> getTGraphOutgoingMulti(String addr, Collection<String> srcs) throws IOException {
+			enter(); try { return super.getTGraphOutgoingMulti(addr, srcs); } finally { exit(); }
+		}
+		@Override public Map<U2<String, String>, Double> getTGraphNodeAttrs(String addr, Collection<U2<String, String>> nodes) throws IOException {
+			enter(); try { return super.getTGraphNodeAttrs(addr, nodes); } finally { exit(); }
+		}
+		@Override public Map<String, U2Map<String, String, Double>> getIndexOutgoingMulti(String addr, Collection<String> srcs) throws IOException {
+			enter(); try { return super.getIndexOutgoingMulti(addr, srcs); } finally { exit(); }
+		}
+	}
+
+	public static CountingStoreControl makeStore() {
+		SyntheticStoreGenerator gen = new SyntheticStoreGenerator(0);
+		gen.n_tag = 0x80;
+		gen.n_doc = 0x400;
+		gen.n_tgr = 0x08;
+		gen.n_idx = 0x20;
+		gen.n_id = 0x10;
+		gen.max_tgr_size = 0x20;
+		gen.max_idx_size = 0x40;
+		CountingStoreControl ram = new CountingStoreControl();
+		gen.fill(ram, SyntheticStoreGenerator.STRING_LABELS);
+		return ram;
+	}
+
+	public static BasicEnvironment<String> makeEnvironment(CountingStoreControl ram) {
+		ExecutorService exec = Executors.newCachedThreadPool(new ThreadFactory() {
+			@Override public Thread newThread(Runnable r) {
+				Thread th = new Thread(r, "test-query");
+				th.setDaemon(true);
+				return th;
+			}
+		});
+		return new BasicEnvironment<String>(exec, new ProbabilityProxyStoreControl<String, String, String>(ram));
+	}
+
+	/**
+	** A process whose steps block until it is closed.
+	*/
+	public static class StuckProcess extends BasicProcess<String> {
+		final CountDownLatch closed = new CountDownLatch(1);
+		final AtomicInteger blocked = new AtomicInteger();
+
+		public StuckProcess(String id, String tag, BasicEnvironment<String> env) {
+			super(id, tag,
+			  new ProtoPTableComposer<String, String>(),
+			  new ProbabilityEntropyTGraphComposer<String, String>(),
+			  new ShortestPathAddressSchemeBuilder<String, String, Probability, Probability, Probability>(new ProbabilityDistanceMetric()),
+			  LocalTGraph.<String, String, Probability, Probability>getFactory(),
+			  new SPUProbabilityInferer(),
+			  new ProbabilityIndexComposer<String, String>(),
+			  new ProbabilityLookupScorer(),
+			  LocalIndex.<String, String, Probability>getFactory(),
+			  new SPUProbabilityInferer(),
+			  env);
+		}
+
+		@Override public void getMoreData() throws MessageRejectedException {
+			blocked.incrementAndGet();
+			try {
+				closed.await();
+			} catch (InterruptedException e) {
+				throw new AssertionError(e);
+			}
+			super.getMoreData();
+		}
+
+		@Override public void close() {
+			super.close();
+			closed.countDown();
+		}
+	}
+
+	/**
+	** Wait for the given job in another thread, so that a job that is never
+	** retired fails the test rather than hanging it.
+	*/
+	public static void awaitJob(final QueryScheduler<String, String, String, Probability, Probability, Probability, Probability>.Job job) throws Exception {
+		FutureTask<Void> task = new FutureTask<Void>(new Callable<Void>() {
+			@Override public Void call() throws Exception {
+				job.await();
+				return null;
+			}
+		});
+		Thread th = new Thread(task, "test-await");
+		th.setDaemon(true);
+		th.start();
+		try {
+			task.get(10, TimeUnit.SECONDS);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception) { throw (Exception)e.getCause(); }
+			throw e;
+		}
+	}
+
+	public void testConcurrentQueries() throws Exception {
+		CountingStoreControl ram = makeStore();
+		BasicEnvironment<String> env = makeEnvironment(ram);
+		env.setLookupLimit(3);
+
+		QueryScheduler<String, String, String, Probability, Probability, Probability, Probability> sched =
+		  new QueryScheduler<String, String, String, Probability, Probability, Probability, Probability>(env, 10, 4);
+		List<QueryScheduler<String, String, String, Probability, Probability, Probability, Probability>.Job> jobs =
+		  new ArrayList<QueryScheduler<String, String, String, Probability, Probability, Probability, Probability>.Job>();
+		for (int i=0; i<10; ++i) {
+			BasicProcess<String> proc = QueryTypes.makeProtoProcess("h" + i, "t" + i, env);
+			jobs.add(sched.submit(proc, 4, 10000));
+		}
+		assertEquals(4, sched.countRunning());
+		assertEquals(6, sched.countWaiting());
+
+		sched.awaitAll();
+		assertEquals(0, sched.countRunning());
+		assertEquals(0, sched.countWaiting());
+		assertEquals(10, sched.countFinished());
+		assertTrue(sched.getQueriesPerSecond() > 0);
+		for (QueryScheduler<String, String, String, Probability, Probability, Probability, Probability>.Job job: jobs) {
+			job.await();
+			assertTrue(job.isDone());
+		}
+		assertTrue(ram.max.get() > 0);
+		assertTrue(ram.max.get() <= 3);
+		sched.shutdown();
+
+		try {
+			sched.submit(QueryTypes.makeProtoProcess("h0", "t0", env), 4, 0);
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	public void testShutdown() throws Exception {
+		CountingStoreControl ram = makeStore();
+		BasicEnvironment<String> env = makeEnvironment(ram);
+
+		QueryScheduler<String, String, String, Probability, Probability, Probability, Probability> sched =
+		  new QueryScheduler<String, String, String, Probability, Probability, Probability, Probability>(env, 10, 2);
+		List<StuckProcess> procs = new ArrayList<StuckProcess>();
+		List<QueryScheduler<String, String, String, Probability, Probability, Probability, Probability>.Job> jobs =
+		  new ArrayList<QueryScheduler<String, String, String, Probability, Probability, Probability, Probability>.Job>();
+		for (int i=0; i<4; ++i) {
+			StuckProcess proc = new StuckProcess("h" + i, "t" + i, env);
+			procs.add(proc);
+			jobs.add(sched.submit(proc, 4, 0));
+		}
+		for (int i=0; procs.get(0).blocked.get() == 0 || procs.get(1).blocked.get() == 0; ++i) {
+			assertTrue(i < 500);
+			Thread.sleep(10);
+		}
+
+		// running and waiting queries are both cancelled
+		sched.shutdown();
+		sched.awaitAll();
+		for (int i=0; i<4; ++i) {
+			try {
+				awaitJob(jobs.get(i));
+				fail();
+			} catch (CancellationException e) {
+				// expected
+			}
+			assertTrue(jobs.get(i).isCancelled());
+			assertTrue(jobs.get(i).isDone());
+			assertTrue(procs.get(i).isClosed());
+		}
+		assertEquals(0, sched.countRunning());
+		assertEquals(0, sched.countWaiting());
+		assertEquals(0, sched.countFinished());
+	}
+
+	public void testDeadlineMidStep() throws Exception {
+		CountingStoreControl ram = makeStore();
+		BasicEnvironment<String> env = makeEnvironment(ram);
+
+		QueryScheduler<String, String, String, Probability, Probability, Probability, Probability> sched =
+		  new QueryScheduler<String, String, String, Probability, Probability, Probability, Probability>(env, 10, 2);
+		StuckProcess proc = new StuckProcess("h0", "t0", env);
+		QueryScheduler<String, String, String, Probability, Probability, Probability, Probability>.Job job = sched.submit(proc, 4, 200);
+
+		// the step never returns by itself, so the query is closed under it
+		awaitJob(job);
+		assertTrue(job.isTimedOut());
+		assertFalse(job.isCancelled());
+		assertTrue(proc.isClosed());
+		assertEquals(1, proc.blocked.get());
+		sched.awaitAll();
+		assertEquals(1, sched.countFinished());
+		sched.shutdown();
+	}
+
+	public void testSharedPTable() throws Exception {
+		CountingStoreControl ram = makeStore();
+		BasicEnvironment<String> env = makeEnvironment(ram);
+		int trusted = env.getTrustedIDs("h0").size();
+
+		QueryScheduler<String, String, String, Probability, Probability, Probability, Probability> sched =
+		  new QueryScheduler<String, String, String, Probability, Probability, Probability, Probability>(env, 10, 4);
+		List<BasicProcess<String>> procs = new ArrayList<BasicProcess<String>>();
+		for (int i=0; i<4; ++i) {
+			BasicProcess<String> proc = QueryTypes.makeProtoProcess("h0", "t" + i, env);
+			procs.add(proc);
+			sched.submit(proc, 2, 10000);
+		}
+		sched.awaitAll();
+		sched.shutdown();
+
+		// the friends' tables were fetched once, for all four queries
+		assertEquals(trusted, ram.ptb.get());
+		PTable<String, Probability> ptb = env.getPTableCache(new ProtoPTableComposer<String, String>()).get("h0");
+		assertEquals(trusted, ram.ptb.get());
+		for (BasicProcess<String> proc: procs) {
+			assertSame(ptb.getTGraphs(), proc.contact.getSeedTGraphs());
+		}
+		try {
+			ptb.getTGraphs().clear();
+			fail();
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
+
+	public void testPTableRefresh() throws Exception {
+		CountingStoreControl ram = makeStore();
+		// tables are refreshed without the layer executor
+		BasicEnvironment<String> env = new BasicEnvironment<String>(new Executor() {
+			@Override public void execute(Runnable r) {
+				throw new RejectedExecutionException("layer executor used");
+			}
+		}, QueryEnvironment.makeDefaultStoreExecutor(), new ProbabilityProxyStoreControl<String, String, String>(ram));
+		int trusted = env.getTrustedIDs("h0").size();
+		PTableCache<String, String, Probability, Probability> cache = env.getPTableCache(new ProtoPTableComposer<String, String>());
+
+		PTable<String, Probability> ptb = cache.get("h0");
+		assertSame(ptb, cache.get("h0"));
+		assertEquals(trusted, ram.ptb.get());
+
+		// a stale table is still returned whilst it is recomposed
+		Object en = cache.getCache().get("h0");
+		env.setPTableRefreshInterval(1);
+		Thread.sleep(5);
+		assertSame(ptb, cache.get("h0"));
+		env.setPTableRefreshInterval(0);
+		for (int i=0; cache.getCache().get("h0") == en; ++i) {
+			assertTrue(i < 500);
+			Thread.sleep(10);
+		}
+		assertEquals(2*trusted, ram.ptb.get());
+		assertNotSame(ptb, cache.get("h0"));
+		assertEquals(ptb.getTGraphs().keySet(), cache.get("h0").getTGraphs().keySet());
+
+		// an invalidated table is loaded again straight away
+		ptb = cache.get("h0");
+		int loads = ram.ptb.get();
+		env.invalidatePTables("h0");
+		assertNotSame(ptb, cache.get("h0"));
+		assertEquals(loads + trusted, ram.ptb.get());
+	}
+
+	public void testPTableCaches() throws Exception {
+		BasicEnvironment<String> env = makeEnvironment(makeStore());
+		PTableCache<String, String, Probability, Probability> cache = env.getPTableCache(new ProtoPTableComposer<String, String>());
+		assertSame(cache, env.getPTableCache(new ProtoPTableComposer<String, String>()));
+		assertNotSame(cache, env.getPTableCache(new ProtoPTableComposer<String, String>(0.5)));
+
+		// composers that are never equal do not leave a cache each behind
+		for (int i=0; i<QueryEnvironment.MAX_PTABLE_CACHES; ++i) {
+			env.getPTableCache(new PTableComposer<String, String, Probability, Probability>() {
+				@Override public Probability composePTableGNode(MapX2<String, PTable<String, Probability>, Probability> src_score, String item) {
+					return null;
+				}
+				@Override public Probability composePTableHNode(MapX2<String, PTable<String, Probability>, Probability> src_score, String item) {
+					return null;
+				}
+			});
+		}
+		assertNotSame(cache, env.getPTableCache(new ProtoPTableComposer<String, String>()));
+	}
+
+	public void testDefaultExecutor() throws Exception {
+		CountingStoreControl ram = makeStore();
+		BasicEnvironment<String> env = QueryTypes.makeProtoEnvironment(new ProbabilityProxyStoreControl<String, String, String>(ram));
+
+		// load the fragments that the queries below will need
+		QueryScheduler<String, String, String, Probability, Probability, Probability, Probability> sched =
+		  new QueryScheduler<String, String, String, Probability, Probability, Probability, Probability>(env, 10, 0x10);
+		for (int i=0; i<0x10; ++i) {
+			sched.submit(QueryTypes.makeProtoProcess("h" + i, "t" + i, env), 1, 20000);
+		}
+		sched.awaitAll();
+		sched.shutdown();
+
+		// more queries at once than the default executor has threads, whose
+		// lookups are mostly answered from the fragment caches
+		sched = new QueryScheduler<String, String, String, Probability, Probability, Probability, Probability>(env, 10, 0x80);
+		List<QueryScheduler<String, String, String, Probability, Probability, Probability, Probability>.Job> jobs =
+		  new ArrayList<QueryScheduler<String, String, String, Probability, Probability, Probability, Probability>.Job>();
+		for (int i=0; i<0x80; ++i) {
+			jobs.add(sched.submit(QueryTypes.makeProtoProcess("h" + (i & 0xF), "t" + (i & 0xF), env), 1, 20000));
+		}
+		for (QueryScheduler<String, String, String, Probability, Probability, Probability, Probability>.Job job: jobs) {
+			try {
+				awaitJob(job);
+			} catch (ExecutionException e) {
+				// a query may run out of data in a store this small
+			}
+			assertFalse(job.isTimedOut());
+		}
+		sched.shutdown();
+		assertTrue(env.tgr_frags.getHits() > 0);
+		((ExecutorService)env.exec).shutdown();
+	}
+
+	public void testVirtualThreads() throws Exception {
+		if (!QueryEnvironment.hasVirtualThreads()) {
+			// nothing to test on this JVM, other than that there is no fallback
+			try {
+				QueryEnvironment.makeVirtualThreadExecutor();
+				fail();
+			} catch (UnsupportedOperationException e) {
+				// expected
+			}
+			return;
+		}
+		CountingStoreControl ram = makeStore();
+		BasicEnvironment<String> env = new BasicEnvironment<String>(QueryEnvironment.makeVirtualThreadExecutor(),
+		  QueryEnvironment.makeVirtualThreadExecutor(), new ProbabilityProxyStoreControl<String, String, String>(ram));
+
+		// more queries at once than the default executor has threads
+		QueryScheduler<String, String, String, Probability, Probability, Probability, Probability> sched =
+		  new QueryScheduler<String, String, String, Probability, Probability, Probability, Probability>(env, 10, 0x80);
+		for (int i=0; i<0x80; ++i) {
+			sched.submit(QueryTypes.makeProtoProcess("h" + (i & 0xF), "t" + i, env), 1, 20000);
+		}
+		sched.awaitAll();
+		sched.shutdown();
+		assertEquals(0x80, sched.countFinished());
+	}
+
+	public void testSharedFragments() throws Exception {
+		CountingStoreControl ram = makeStore();
+		BasicEnvironment<String> env = makeEnvironment(ram);
+
+		QueryScheduler<String, String, String, Probability, Probability, Probability, Probability> sched =
+		  new QueryScheduler<String, String, String, Probability, Probability, Probability, Probability>(env, 10, 4);
+		sched.submit(QueryTypes.makeProtoProcess("h0", "t0", env), 4, 10000).await();
+		int first = ram.lku.get();
+		assertTrue(env.tgr_frags.getCache().size() > 0);
+		assertTrue(env.idx_frags.getCache().size() > 0);
+		// the finished query no longer holds on to its fragments
+		assertEquals(0, env.tgr_frags.countReferenced());
+		assertEquals(0, env.tgr_node_frags.countReferenced());
+		assertEquals(0, env.idx_frags.countReferenced());
+
+		// the same query again finds everything it loads already cached
+		long hits = env.tgr_frags.getHits();
+		BasicProcess<String> proc = QueryTypes.makeProtoProcess("h0", "t0", env);
+		sched.submit(proc, 0, 10000).await();
+		sched.shutdown();
+		assertTrue(env.tgr_frags.getHits() > hits);
+		assertTrue(ram.lku.get() - first < first);
+		assertFalse(proc.getResults().isEmpty());
+	}
+
+	public void testClose() throws Exception {
+		CountingStoreControl ram = makeStore();
+		BasicEnvironment<String> env = makeEnvironment(ram);
+		ThreadPoolExecutor exec = (ThreadPoolExecutor)env.exec;
+
+		QueryScheduler<String, String, String, Probability, Probability, Probability, Probability> sched =
+		  new QueryScheduler<String, String, String, Probability, Probability, Probability, Probability>(env, 10, 8);
+		List<BasicProcess<String>> procs = new ArrayList<BasicProcess<String>>();
+		for (int i=0; i<8; ++i) {
+			BasicProcess<String> proc = QueryTypes.makeProtoProcess("h" + i, "t" + i, env);
+			procs.add(proc);
+			sched.submit(proc, 2, 10000);
+		}
+		sched.awaitAll();
+		sched.shutdown();
+
+		// no thread is left running lookups for the finished queries
+		for (int i=0; exec.getActiveCount() > 0; ++i) {
+			assertTrue(i < 500);
+			Thread.sleep(10);
+		}
+		for (BasicProcess<String> proc: procs) {
+			assertTrue(proc.isClosed());
+			assertFalse(proc.getResults().isEmpty());
+			try {
+				proc.getMoreData();
+				fail();
+			} catch (MessageRejectedException e) {
+				// expected
+			}
+		}
+		assertEquals(0, env.idx_frags.countReferenced());
+	}
+
+	public void testFragmentCache() {
+		FragmentCache<String, String> cache = new FragmentCache<String, String>(2, new Cache.Weigher<String, String>() {
+			@Override public long weigh(String key, String val) {
+				return val.length();
+			}
+		});
+		Object a = new Object(), b = new Object();
+		assertNull(cache.acquire("k", a));
+		assertEquals("v", cache.put("k", "v", a));
+		assertNull(cache.put("n", null, a));
+		// a concurrent lookup of the same key keeps the first fragment
+		assertEquals("v", cache.put("k", new String("w"), b));
+		assertSame(cache.acquire("k", b).value, cache.acquire("k", null).value);
+		assertNull(cache.acquire("n", b).value);
+		assertEquals(2, cache.countReferenced());
+
+		// referenced fragments are never evicted
+		cache.put("big", "xxx", null);
+		assertNotNull(cache.acquire("k", null));
+		cache.release(a);
+		assertEquals(2, cache.countReferenced());
+		cache.release(b);
+		assertEquals(0, cache.countReferenced());
+		cache.put("big", "xxx", null);
+		assertNull(cache.acquire("k", null));
+	}
+
+}
@@ -0,0 +1,101 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.util;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+
+public class HeapMapQueueTest extends TestCase {
+
+	final public static int n = 0x400;
+
+	public void testRandomOps() {
+		Random rand = new Random(0xEAB);
+		for (int d=2; d<=5; ++d) {
+			HeapMapQueue<Integer, Integer> queue = new HeapMapQueue<Integer, Integer>(null, d, false, null);
+			Map<Integer, Integer> model = new HashMap<Integer, Integer>();
+
+			for (int i=0; i<n; ++i) {
+				int k = rand.nextInt(n>>2);
+				switch (rand.nextInt(4)) {
+				case 0:
+				case 1:
+					int v = rand.nextInt(n);
+					queue.add(k, v);
+					model.put(k, v);
+					break;
+				case 2:
+					assertEquals(model.remove(k) != null, queue.remove(k));
+					break;
+				case 3:
+					if (model.isEmpty()) { assertNull(queue.poll()); break; }
+					int min = Collections.min(model.values());
+					assertEquals(min, (int)queue.peekValue());
+					Integer key = queue.poll();
+					assertEquals(min, (int)model.remove(key));
+					break;
+				}
+				assertEquals(model.size(), queue.size());
+				assertEquals(model, queue.map());
+			}
+			CollectionTests.testIterable(queue, model.size(), false);
+
+			int last = Integer.MIN_VALUE;
+			while (!queue.isEmpty()) {
+				int v = queue.peekValue();
+				assertTrue(v >= last);
+				assertEquals(v, (int)model.remove(queue.poll()));
+				last = v;
+			}
+			assertTrue(model.isEmpty());
+		}
+	}
+
+	public void testIntKeys() {
+		Random rand = new Random(0xEAB);
+		for (int d=2; d<=5; ++d) {
+			// few distinct values, so that there are many ties
+			HeapMapQueue<Integer, Integer> model = new HeapMapQueue<Integer, Integer>(null, d, false, null);
+			IntHeapMapQueue<Integer> queue = new IntHeapMapQueue<Integer>(null, d);
+
+			for (int i=0; i<n; ++i) {
+				int k = rand.nextInt(n>>2);
+				if (rand.nextInt(3) < 2) {
+					int v = rand.nextInt(8);
+					queue.add(k, v);
+					model.add(k, v);
+				} else if (!model.isEmpty()) {
+					assertEquals(model.peekValue(), queue.peekValue());
+					assertEquals((int)model.poll(), queue.poll());
+				}
+				assertEquals(model.size(), queue.size());
+				assertEquals(model.map().get(k), queue.get(k));
+				assertEquals(model.map().containsKey(k), queue.contains(k));
+			}
+
+			while (!model.isEmpty()) {
+				assertEquals((int)model.peek(), queue.peek());
+				assertEquals((int)model.poll(), queue.poll());
+			}
+			assertTrue(queue.isEmpty());
+			assertNull(queue.peekValue());
+			try {
+				queue.poll(); fail();
+			} catch (NoSuchElementException e) { }
+		}
+	}
+
+	public void testDefaultValue() {
+		try {
+			new HeapMapQueue<String, Integer>().add("a"); fail();
+		} catch (UnsupportedOperationException e) { }
+
+		HeapMapQueue<String, Integer> queue = new HeapMapQueue<String, Integer>(null, 2, true, 0);
+		queue.add("a", 5);
+		queue.add("b");
+		assertEquals("b", queue.poll());
+		assertEquals("a", queue.poll());
+		assertNull(queue.peekValue());
+	}
+
+}
@@ -0,0 +1,53 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.util;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+
+public class IdTableTest extends TestCase {
+
+	final public static int n = 0x1000;
+
+	public void testRandomOps() {
+		Random rand = new Random(0xEAB);
+		// start small, so that the table has to grow
+		IdTable<String> table = new IdTable<String>(1);
+		Map<String, Integer> model = new HashMap<String, Integer>();
+		List<String> keys = new ArrayList<String>();
+
+		for (int i=0; i<n; ++i) {
+			// new String each time, so that equal keys are not identical
+			String k = new String("k" + rand.nextInt(n>>1));
+			Integer id = model.get(k);
+			if (rand.nextBoolean()) {
+				assertEquals(id == null? -1: (int)id, table.find(k));
+				continue;
+			}
+			int got = table.idOf(k);
+			if (id == null) {
+				// ids are given out densely, in the order keys are added
+				assertEquals(keys.size(), got);
+				model.put(k, got);
+				keys.add(k);
+			} else {
+				assertEquals((int)id, got);
+			}
+			assertEquals(keys.size(), table.size());
+		}
+
+		for (int id=0; id<keys.size(); ++id) {
+			assertSame(keys.get(id), table.get(id));
+			assertEquals(id, table.find(keys.get(id)));
+		}
+		assertEquals(-1, table.find("absent"));
+		assertEquals(-1, table.find(null));
+		try {
+			table.get(keys.size()); fail();
+		} catch (IndexOutOfBoundsException e) { }
+		try {
+			table.idOf(null); fail();
+		} catch (NullPointerException e) { }
+	}
+
+}
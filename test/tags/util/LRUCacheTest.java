@@ -0,0 +1,174 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.util;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+public class LRUCacheTest extends TestCase {
+
+	final public static Cache.Weigher<Integer, Integer> VALUE_WEIGHER = new Cache.Weigher<Integer, Integer>() {
+		@Override public long weigh(Integer key, Integer val) {
+			return val;
+		}
+	};
+
+	public void testEviction() {
+		LRUCache<Integer, Integer> cache = new LRUCache<Integer, Integer>(10, VALUE_WEIGHER);
+		cache.put(1, 4);
+		cache.put(2, 4);
+		assertEquals(8, cache.getWeight());
+		assertEquals(4, (int)cache.get(1)); // 2 is now least-recently used
+		cache.put(3, 4);
+		assertNull(cache.get(2));
+		assertEquals(4, (int)cache.get(1));
+		assertEquals(4, (int)cache.get(3));
+		assertEquals(2, cache.size());
+		assertEquals(8, cache.getWeight());
+		assertEquals(3, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.getEvictions());
+
+		// replacing a value updates the weight
+		cache.put(1, 2);
+		assertEquals(6, cache.getWeight());
+		assertEquals(1, cache.getEvictions());
+
+		// values larger than the capacity are dropped
+		cache.put(4, 11);
+		assertNull(cache.get(4));
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getWeight());
+
+		assertNull(cache.remove(1));
+		cache.put(1, 1);
+		assertEquals(1, (int)cache.remove(1));
+		assertEquals(0, cache.getWeight());
+	}
+
+	public void testPinning() {
+		LRUCache<Integer, Integer> cache = new LRUCache<Integer, Integer>(10, VALUE_WEIGHER);
+		cache.pin(0);
+		cache.put(0, 20);
+		cache.put(1, 6);
+		cache.put(2, 4);
+		assertEquals(20, (int)cache.get(0));
+		assertEquals(6, (int)cache.get(1));
+		assertEquals(30, cache.getWeight());
+		assertEquals(0, cache.getEvictions());
+
+		cache.put(3, 4);
+		assertEquals(20, (int)cache.get(0));
+		assertNull(cache.get(2));
+		cache.clear();
+		assertEquals(0, cache.size());
+
+		// pins survive clear() and apply to values put later
+		cache.put(0, 20);
+		assertEquals(20, (int)cache.get(0));
+		cache.unpin(0);
+		assertNull(cache.get(0));
+		assertEquals(0, cache.getWeight());
+	}
+
+	public void testSingleFlight() throws Exception {
+		final LRUCache<Integer, Integer> cache = new LRUCache<Integer, Integer>(0x100, VALUE_WEIGHER);
+		final AtomicInteger loads = new AtomicInteger();
+
+		for (final int key: new int[]{8, -1}) {
+			loads.set(0);
+			final CountDownLatch started = new CountDownLatch(1);
+			final CountDownLatch release = new CountDownLatch(1);
+			final Cache.Loader<Integer, Integer> loader = new Cache.Loader<Integer, Integer>() {
+				@Override public Integer load(Integer key) throws IOException {
+					loads.incrementAndGet();
+					started.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						throw new InterruptedIOException();
+					}
+					if (key < 0) { throw new IOException("bad key"); }
+					return key;
+				}
+			};
+			final List<Object> results = Collections.synchronizedList(new ArrayList<Object>());
+			Thread[] threads = new Thread[8];
+			for (int i=0; i<threads.length; ++i) {
+				threads[i] = new Thread() {
+					@Override public void run() {
+						try {
+							results.add(cache.get(key, loader));
+						} catch (IOException e) {
+							results.add(e);
+						}
+					}
+				};
+				threads[i].start();
+			}
+			started.await();
+			Thread.sleep(50);
+			release.countDown();
+			for (Thread t: threads) { t.join(); }
+
+			assertEquals(1, loads.get());
+			assertEquals(threads.length, results.size());
+			for (Object r: results) {
+				if (key < 0) {
+					assertTrue(r instanceof IOException);
+				} else {
+					assertEquals(key, r);
+				}
+			}
+		}
+		assertEquals(8, (int)cache.get(8));
+		assertNull(cache.get(-1));
+		assertEquals(1, cache.size());
+	}
+
+	public void testRandomOps() {
+		Random rand = new Random(0x1C);
+		LRUCache<Integer, Integer> cache = new LRUCache<Integer, Integer>(0x100, VALUE_WEIGHER);
+		Set<Integer> pinned = new HashSet<Integer>();
+		Map<Integer, Integer> seen = new HashMap<Integer, Integer>();
+		for (int i=0; i<0x1000; ++i) {
+			int k = rand.nextInt(0x40);
+			switch (rand.nextInt(8)) {
+			case 0:
+				cache.pin(k);
+				pinned.add(k);
+				if (cache.get(k) == null) { seen.remove(k); }
+				break;
+			case 1:
+				cache.unpin(k);
+				pinned.remove(k);
+				break;
+			case 2:
+				cache.remove(k);
+				seen.remove(k);
+				break;
+			case 3:
+			case 4:
+				int v = 1 + rand.nextInt(0x20);
+				cache.put(k, v);
+				seen.put(k, v);
+				break;
+			default:
+				Integer val = cache.get(k);
+				if (pinned.contains(k)) { assertEquals(seen.get(k), val); }
+				if (val != null) { assertEquals(seen.get(k), val); }
+			}
+
+			long pw = 0;
+			for (Integer p: pinned) {
+				if (seen.containsKey(p)) { pw += seen.get(p); }
+			}
+			assertTrue(cache.getWeight() - pw <= cache.getCapacity());
+		}
+	}
+
+}
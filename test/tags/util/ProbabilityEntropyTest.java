@@ -50,6 +50,38 @@ public class ProbabilityEntropyTest extends TestCase {
 		assertTrue(s.conditionalComplement(s_given_t, t).equals(new Probability(0.125)));
 	}
 
+	public void testMeanComposers() {
+		Maps.BaseMapX2<String, Map<String, Probability>, Probability, Map<String, Map<String, Probability>>, Map<String, Probability>> src =
+		new Maps.BaseMapX2<String, Map<String, Probability>, Probability, Map<String, Map<String, Probability>>, Map<String, Probability>>(
+		  new HashMap<String, Map<String, Probability>>(), new HashMap<String, Probability>());
+		src.putX2("a", Collections.singletonMap("x", new Probability(0.5)), new Probability(0.5));
+		src.putX2("b", Collections.<String, Probability>emptyMap(), new Probability(1.0));
+
+		MeanProbabilityComposer<String, Map<String, Probability>, String> pc =
+		new MeanProbabilityComposer<String, Map<String, Probability>, String>(new MapViewer<Map<String, Probability>, Map<String, Probability>>() {
+			@Override public Map<String, Probability> mapFor(Map<String, Probability> obj) { return obj; }
+		}) {
+			@Override protected double alpha(Map<String, Probability> view, String item) { return 0.5; }
+		};
+		// (0.5*0.5) / (0.5 + 1.0*0.5)
+		assertEquals(0.25, pc.composeDouble(src, "x"));
+		assertEquals(new Probability(0.25), pc.composeValue(src, "x"));
+		assertEquals(0.0, pc.composeDouble(src, "y"));
+
+		MeanEntropyComposer<String, Map<String, Probability>, String> ec =
+		new MeanEntropyComposer<String, Map<String, Probability>, String>(new DoubleViewer<Map<String, Probability>, String>() {
+			@Override public double valueFor(Map<String, Probability> obj, String item) {
+				Probability p = obj.get(item);
+				return p == null? Double.NaN: p.entropy().val;
+			}
+		}) {
+			@Override protected double alpha(Map<String, Probability> view, String item) { return 0.5; }
+		};
+		// (0.5*1) / (0.5 + 1.0*0.5)
+		assertEquals(0.5, ec.composeDouble(src, "x"));
+		assertEquals(new Entropy(0.5), ec.composeValue(src, "x"));
+	}
+
 	public static void checkProbabilityArgument(double d) {
 		try {
 			new Probability(d); fail();
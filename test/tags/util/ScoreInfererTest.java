@@ -0,0 +1,61 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.util;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+
+public class ScoreInfererTest extends TestCase {
+
+	final public static int nodes = 0x40;
+	final public static int arcs = 0x100;
+	final public static int seeds = 4;
+
+	public void testDynamicAndBatchMatchInferScore() {
+		Random rand = new Random(0x5EED);
+		SPUProbabilityInferer inf = new SPUProbabilityInferer();
+
+		for (int round=0; round<0x10; ++round) {
+			Map<Integer, Set<Integer>> outgoing = new HashMap<Integer, Set<Integer>>();
+			Map<Integer, Set<Integer>> incoming = new HashMap<Integer, Set<Integer>>();
+			Map<Integer, Probability> seed_score = new HashMap<Integer, Probability>();
+			for (int i=0; i<nodes; ++i) {
+				outgoing.put(i, new HashSet<Integer>());
+				incoming.put(i, new HashSet<Integer>());
+			}
+
+			DynamicScoreInferer.Network<Integer, Probability> net = inf.newNetwork(outgoing, seed_score);
+			Map<Integer, Probability> score = new HashMap<Integer, Probability>();
+			for (int i=0; i<nodes; ++i) { score.put(i, net.getScore(i)); }
+
+			for (int j=0; j<arcs+seeds; ++j) {
+				if (j % (arcs/seeds) == 0) {
+					int seed = rand.nextInt(nodes);
+					seed_score.put(seed, new Probability(rand.nextDouble()));
+					net.putSeed(seed);
+				} else {
+					int src = rand.nextInt(nodes), dst = rand.nextInt(nodes);
+					outgoing.get(src).add(dst);
+					incoming.get(dst).add(src);
+					net.putArc(src, dst);
+				}
+
+				for (Integer n: net.pollChanged()) { score.put(n, net.getScore(n)); }
+				Map<Integer, Probability> batch = inf.inferScores(incoming, seed_score);
+				assertEquals(nodes, batch.size());
+				for (int i=0; i<nodes; ++i) {
+					Probability p = inf.inferScore(incoming, seed_score, i);
+					assertEquals(p, score.get(i));
+					assertEquals(p, batch.get(i));
+				}
+			}
+
+			// a network made over the whole graph at once gives the same scores
+			DynamicScoreInferer.Network<Integer, Probability> full = inf.newNetwork(outgoing, seed_score);
+			for (int i=0; i<nodes; ++i) {
+				assertEquals(inf.inferScore(incoming, seed_score, i), full.getScore(i));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,132 @@
+// Released under GPLv2 or later. See http://www.gnu.org/ for details.
+package tags.util.exec;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.IOException;
+
+public class ThreadedTaskServiceTest extends TestCase {
+
+	final public static int n = 0x40;
+	final public static int limit = 4;
+
+	protected int active, max_active;
+
+	public void testLimitAndReclaim() {
+		ExecutorService exec = Executors.newFixedThreadPool(0x10);
+		TaskService<Integer, Integer, IOException> srv = new ThreadedTaskService<Integer, Integer, IOException>(exec, limit) {
+			@Override protected Integer getResultFor(Integer i) throws IOException {
+				synchronized (ThreadedTaskServiceTest.this) {
+					if (++active > max_active) { max_active = active; }
+				}
+				try { Thread.sleep(2); } catch (InterruptedException e) { }
+				synchronized (ThreadedTaskServiceTest.this) { --active; }
+				if (i % 7 == 0) { throw new IOException("bad key " + i); }
+				return i * i;
+			}
+		};
+
+		try {
+			for (int i=0; i<n; ++i) { srv.submit(Services.newTask(i)); }
+
+			Set<Integer> seen = new HashSet<Integer>();
+			int errors = 0;
+			while (srv.hasPending()) {
+				TaskResult<Integer, Integer, IOException> res = srv.reclaim();
+				int i = res.getKey();
+				assertTrue(seen.add(i));
+				try {
+					assertEquals(i * i, (int)res.getValue());
+				} catch (IOException e) {
+					assertEquals(0, i % 7);
+					++errors;
+				}
+			}
+
+			assertEquals(n, seen.size());
+			assertEquals((n + 6) / 7, errors);
+			assertFalse(srv.hasComplete());
+			assertTrue(max_active <= limit);
+		} finally {
+			srv.close();
+			exec.shutdown();
+		}
+	}
+
+	public void testCloseCancelsBacklog() throws Exception {
+		ExecutorService exec = Executors.newFixedThreadPool(limit);
+		final CountDownLatch release = new CountDownLatch(1);
+		TaskService<Integer, Integer, IOException> srv = new ThreadedTaskService<Integer, Integer, IOException>(exec, limit) {
+			@Override protected Integer getResultFor(Integer i) throws IOException {
+				try { release.await(); } catch (InterruptedException e) { }
+				return i;
+			}
+		};
+
+		try {
+			for (int i=0; i<n; ++i) { srv.submit(Services.newTask(i)); }
+			srv.close();
+			release.countDown();
+
+			int done = 0, cancelled = 0;
+			while (srv.hasPending()) {
+				TaskResult<Integer, Integer, IOException> res = srv.reclaim();
+				try {
+					assertEquals(res.getKey(), res.getValue());
+					++done;
+				} catch (CancellationException e) {
+					++cancelled;
+				}
+			}
+			assertEquals(limit, done);
+			assertEquals(n - limit, cancelled);
+		} finally {
+			exec.shutdown();
+		}
+	}
+
+	public void testDispatchFailure() throws Exception {
+		final LinkedList<Callback<Integer, IOException>> started = new LinkedList<Callback<Integer, IOException>>();
+		TaskService<Integer, Integer, IOException> srv = new CallbackTaskService<Integer, Integer, IOException>(1) {
+			@Override protected void dispatch(Task<Integer> task) {
+				if (task.getKey() % 3 == 0) { throw new IllegalArgumentException("bad key " + task.getKey()); }
+				started.add(callbackFor(task));
+			}
+		};
+
+		try {
+			srv.submit(Services.newTask(0));
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected; the task was not accepted
+		}
+		assertFalse(srv.hasPending());
+		for (int i=1; i<10; ++i) { srv.submit(Services.newTask(i)); }
+		// completing a task dispatches the next one in the same thread
+		while (!started.isEmpty()) {
+			Callback<Integer, IOException> cb = started.remove();
+			cb.done(0);
+		}
+
+		int done = 0, aborted = 0;
+		while (srv.hasPending()) {
+			TaskResult<Integer, Integer, IOException> res = srv.reclaim();
+			try {
+				res.getValue();
+				++done;
+			} catch (IllegalArgumentException e) {
+				assertEquals(0, res.getKey() % 3);
+				++aborted;
+			}
+		}
+		assertEquals(6, done);
+		assertEquals(3, aborted);
+
+		// the service has its place back
+		srv.submit(Services.newTask(10));
+		assertEquals(1, started.size());
+	}
+
+}